@@ -1,29 +1,34 @@
 package controllers;
 
-import olingo.ETagSupport;
-import olingo.MetadataETagSupport;
-import olingo.data.DataProvider;
-import olingo.processor.TechnicalActionProcessor;
-import olingo.processor.TechnicalBatchProcessor;
-import olingo.processor.TechnicalEntityProcessor;
-import olingo.processor.TechnicalPrimitiveComplexProcessor;
-import olingo.provider.EdmTechProvider;
-import org.apache.olingo.commons.api.edmx.EdmxReference;
-import org.apache.olingo.commons.api.edmx.EdmxReferenceInclude;
-import org.apache.olingo.server.api.OData;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import olingo.async.TechnicalAsyncService;
+import olingo.processor.BatchPartExecutor;
+import olingo.processor.queryoptions.QueryPlanCache;
+import olingo.processor.queryoptions.options.EntityMatcher;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataResponse;
-import org.apache.olingo.server.api.ServiceMetadata;
-import org.apache.olingo.server.core.serializer.utils.CircleStreamBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import play.libs.F;
+import play.libs.Json;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 import views.html.index;
 
+import javax.inject.Inject;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public class Application extends Controller {
@@ -50,67 +55,257 @@ public class Application extends Controller {
 
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(Application.class);
+  private static final int CHUNK_SIZE = 8192;
+  private static final int CHUNKS_READY_TIMEOUT_SECONDS = 60;
+  /** Maximum length of request bodies; longer ones are answered by the body parser with 413. */
+  private static final long MAX_BODY_LENGTH = 10 * 1024 * 1024;
+
+  private final ODataServiceRuntime runtime;
+
+  @Inject
+  public Application(final ODataServiceRuntime runtime) {
+    this.runtime = runtime;
+  }
+
   /**
-   * <p>ETag for the service document and the metadata document</p>
-   * <p>We use the same field for service-document and metadata-document ETags.
-   * It must change whenever the corresponding document changes.
-   * We don't know when someone changed the EDM in a way that changes one of these
-   * documents, but we do know that the EDM is defined completely in code and that
-   * therefore any change must be deployed, resulting in re-loading of this class,
-   * giving this field a new and hopefully unique value.</p>
+   * Processes the OData request on the request threads of the runtime instead of Play's default dispatcher
+   * (see {@link ODataServiceRuntime#getRequestContext()}); if they are all busy and their queue is full,
+   * the request is rejected with <code>503 Service Unavailable</code>.
+   * The body is kept raw for all content types, as Olingo deserializes it;
+   * bodies longer than {@link #MAX_BODY_LENGTH} are rejected with <code>413 Request Entity Too Large</code>.
    */
-  private static final String metadataETag = "W/\"" + UUID.randomUUID() + "\"";
+  @BodyParser.Of(value = BodyParser.Raw.class, maxLength = MAX_BODY_LENGTH)
+  public F.Promise<Result> odata(final String odataPath) {
+    final Http.Request request = request();
+    final F.Promise<ODataResponse> processed;
+    try {
+      processed = F.Promise.promise(() -> runtime.process(request, odataPath), runtime.getRequestContext());
+    } catch (final RejectedExecutionException e) {
+      return F.Promise.pure(rejected());
+    }
+    return processed.map(this::toResult).recover(e -> {
+      if (e instanceof RuntimeException) {
+        LOG.error("Server Error", e);
+        return badRequest();
+      }
+      throw e;
+    });
+  }
+
+  private Result rejected() {
+    runtime.requestRejected();
+    return status(SERVICE_UNAVAILABLE, "Too many requests are being processed.");
+  }
 
-  public Result odata(String odataPath) {
+  private Result toResult(final ODataResponse resp) {
+    // streamed content (e.g., of entity collections and batch requests) is written in chunks
+    final ChunksWriter writer;
+    if (resp.getContent() == null && resp.getODataContent() != null) {
+      writer = queueWriter();
+      if (writer == null) {
+        return rejected();
+      }
+    } else {
+      writer = null;
+    }
+    response().setContentType(resp.getHeader("Content-Type"));
+    // e.g., Location of asynchronous requests and Retry-After of rejected ones
+    for (Map.Entry<String, List<String>> header : resp.getAllHeaders().entrySet()) {
+      if (!"Content-Type".equalsIgnoreCase(header.getKey())
+          && !"Content-Length".equalsIgnoreCase(header.getKey())) {
+        response().setHeader(header.getKey(), String.join(", ", header.getValue()));
+      }
+    }
+    if (writer != null) {
+      return status(resp.getStatusCode(), writer.write(resp.getODataContent()));
+    }
+    InputStream content = resp.getContent();
+    return content == null ? status(resp.getStatusCode()) : status(resp.getStatusCode(), content);
+  }
+
+  /**
+   * Status monitor of an asynchronous request: <code>202 Accepted</code> while the request is processed,
+   * its response as <code>application/http</code> as soon as it has been processed.
+   * If the client prefers to wait (<code>Prefer: wait=N</code>), the status is sent as soon as the request
+   * has been processed, but after N seconds at the latest; no thread is blocked meanwhile.
+   */
+  public F.Promise<Result> asyncStatus(final String id) {
+    final TechnicalAsyncService asyncService = runtime.getAsyncService();
+    final F.RedeemablePromise<Boolean> finished = F.RedeemablePromise.empty();
+    if (!asyncService.whenFinished(id, () -> finished.tryCompleteWith(F.Promise.pure(true)))) {
+      return F.Promise.pure(notFound());
+    }
+    final String[] prefer = request().headers().get(HttpHeader.PREFER);
+    final int wait = asyncService.getWaitSeconds(
+        prefer == null ? Collections.<String> emptyList() : Arrays.asList(prefer));
+    finished.tryCompleteWith(wait > 0 ? F.Promise.timeout(false, wait, TimeUnit.SECONDS) : F.Promise.pure(false));
+    return finished.map(done -> asyncResult(id));
+  }
+
+  private Result asyncResult(final String id) {
+    final TechnicalAsyncService asyncService = runtime.getAsyncService();
+    if (!asyncService.isRunning(id)) {
+      final TechnicalAsyncService.ResultContent result = asyncService.takeResult(id);
+      if (result != null) {
+        // Read as the client is ready for it; results kept in temporary files are not pushed into memory.
+        response().setContentType(ContentType.APPLICATION_HTTP.toContentTypeString());
+        return ok(result.getStream());
+      }
+    }
+    final String location = asyncService.getLocation(id);
+    if (location == null) {
+      return notFound();
+    }
+    response().setHeader(LOCATION, location);
+    return status(ACCEPTED);
+  }
+
+  public Result asyncRequests() {
+    final TechnicalAsyncService asyncService = runtime.getAsyncService();
+    ArrayNode requests = Json.newArray();
+    for (String id : asyncService.getIds()) {
+      final String location = asyncService.getLocation(id);
+      if (location != null) {
+        requests.addObject()
+            .put("id", id)
+            .put("location", location)
+            .put("finished", !asyncService.isRunning(id));
+      }
+    }
+    return ok(requests);
+  }
+
+  /**
+   * Queues a writer of chunked content on the request threads of the runtime, as writing may take a while.
+   * It is queued before the status is sent, so the response can still be rejected.
+   * @return the writer, or <code>null</code> if all request threads are busy and their queue is full
+   */
+  private ChunksWriter queueWriter() {
+    final ChunksWriter writer = new ChunksWriter();
     try {
-      OData odata = OData.newInstance();
-      EdmxReference reference = new EdmxReference(URI.create("../v4.0/cs02/vocabularies/Org.OData.Core.V1.xml"));
-      reference.addInclude(new EdmxReferenceInclude("Org.OData.Core.V1", "Core"));
-      final ServiceMetadata serviceMetadata = odata.createServiceMetadata(
-          new EdmTechProvider(),
-          Collections.singletonList(reference),
-          new MetadataETagSupport(metadataETag));
-
-//      HttpSession session = request.getSession(true);
-//      DataProvider dataProvider = (DataProvider) session.getAttribute(DataProvider.class.getName());
-      DataProvider dataProvider = null;
-        dataProvider = new DataProvider(odata, serviceMetadata.getEdm());
-
-//      ODataHttpHandler handler = odata.createHandler(serviceMetadata);
-//      ODataHandler handler = new ODataHandler(odata, serviceMetadata, null);
-      PlayODataHandler handler = new PlayODataHandler(odata, serviceMetadata);
-
-      // Register processors.
-      handler.register(new TechnicalEntityProcessor(dataProvider, serviceMetadata));
-      handler.register(new TechnicalPrimitiveComplexProcessor(dataProvider, serviceMetadata));
-      handler.register(new TechnicalActionProcessor(dataProvider, serviceMetadata));
-      handler.register(new TechnicalBatchProcessor(dataProvider));
-      // Register helpers.
-      handler.register(new ETagSupport());
-//      handler.register(new DefaultDebugSupport());
-      // Process the request.
-//      handler.process(request, response);
-//      req.
-      ODataResponse resp = handler.processPlayRequest(request(), odataPath);
-      InputStream content = resp.getContent();
-      if(content == null) {
-        ODataContent odc = resp.getODataContent();
-        CircleStreamBuffer csb = new CircleStreamBuffer();
-        odc.write(csb.getOutputStream());
-        content = csb.getInputStream();
+      runtime.getRequestContext().execute(writer);
+      return writer;
+    } catch (final RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Sends the content in chunks while it is written, each chunk as soon as it is flushed
+   * or {@link #CHUNK_SIZE} bytes are written.
+   * The writer waits (on its request thread) for the content and for the chunks to be ready.
+   */
+  private static class ChunksWriter implements Runnable {
+    private final F.RedeemablePromise<ODataContent> content = F.RedeemablePromise.empty();
+    private final F.RedeemablePromise<Chunks.Out<byte[]>> chunksOut = F.RedeemablePromise.empty();
+
+    /** Returns the chunks the content is written to. */
+    Chunks<byte[]> write(final ODataContent content) {
+      this.content.success(content);
+      return ByteChunks.whenReady(chunksOut::success);
+    }
+
+    @Override
+    public void run() {
+      final ODataContent content;
+      final Chunks.Out<byte[]> out;
+      try {
+        content = this.content.get(CHUNKS_READY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        out = chunksOut.get(CHUNKS_READY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (final F.PromiseTimeoutException e) {
+        LOG.error("Response content not written: the response was not sent in time", e);
+        return;
       }
-//      if(content == null) {
-//        ODataContent odc = resp.getODataContent();
-//        content = Channels.newInputStream(odc.getChannel());
-//      }
-      response().setContentType(resp.getHeader("Content-Type"));
+      try (OutputStream stream = new BufferedOutputStream(new ChunksOutputStream(out), CHUNK_SIZE)) {
+        content.write(stream);
+      } catch (final IOException | RuntimeException e) {
+        // The status has been sent already, so the response can only be aborted.
+        LOG.error("Server Error while writing response content", e);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /** Writes each flushed part of the content as a chunk. */
+  private static class ChunksOutputStream extends OutputStream {
+    private final Chunks.Out<byte[]> out;
+
+    ChunksOutputStream(final Chunks.Out<byte[]> out) {
+      this.out = out;
+    }
 
-      return ok(content);
-    } catch (final RuntimeException e) {
-      LOG.error("Server Error", e);
-      return badRequest();
+    @Override
+    public void write(final int b) {
+      out.write(new byte[] { (byte) b });
     }
 
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      if (len > 0) {
+        out.write(Arrays.copyOfRange(b, off, off + len));
+      }
+    }
+  }
+
+  public Result metrics() {
+    ObjectNode metrics = Json.newObject();
+    metrics.put("metadataWarmUpMs", TimeUnit.NANOSECONDS.toMillis(runtime.getMetadataWarmUpNanos()));
+    metrics.put("dataWarmUpMs", TimeUnit.NANOSECONDS.toMillis(runtime.getDataWarmUpNanos()));
+    metrics.put("requests", runtime.getRequestCount());
+    metrics.put("resets", runtime.getResetCount());
+    ObjectNode requests = metrics.putObject("requestThreads");
+    requests.put("maxThreads", runtime.getRequestThreads());
+    requests.put("maxQueued", runtime.getMaxQueuedRequests());
+    requests.put("active", runtime.getActiveRequestCount());
+    requests.put("queued", runtime.getQueuedRequestCount());
+    requests.put("rejected", runtime.getRejectedRequestCount());
+    final QueryPlanCache queryPlanCache = runtime.getQueryPlanCache();
+    ObjectNode queryPlans = metrics.putObject("queryPlanCache");
+    queryPlans.put("size", queryPlanCache.size());
+    queryPlans.put("maxSize", queryPlanCache.getMaxSize());
+    queryPlans.put("hits", queryPlanCache.getHitCount());
+    queryPlans.put("misses", queryPlanCache.getMissCount());
+    queryPlans.put("invalidations", queryPlanCache.getInvalidationCount());
+    final EntityMatcher entityMatcher = runtime.getEntityMatcher();
+    ObjectNode matching = metrics.putObject("parallelMatching");
+    matching.put("enabled", entityMatcher.isParallelEnabled());
+    matching.put("threshold", entityMatcher.getParallelThreshold());
+    matching.put("parallelism", ForkJoinPool.getCommonPoolParallelism());
+    matching.put("parallelRuns", entityMatcher.getParallelCount());
+    final BatchPartExecutor batchPartExecutor = runtime.getBatchPartExecutor();
+    ObjectNode batch = metrics.putObject("parallelBatch");
+    batch.put("enabled", batchPartExecutor.isParallelEnabled());
+    batch.put("maxThreads", batchPartExecutor.getMaxThreads());
+    batch.put("maxPartsPerBatch", batchPartExecutor.getMaxPartsPerBatch());
+    batch.put("parallelParts", batchPartExecutor.getParallelCount());
+    batch.put("callerParts", batchPartExecutor.getCallerCount());
+    final TechnicalAsyncService asyncService = runtime.getAsyncService();
+    ObjectNode async = metrics.putObject("async");
+    async.put("maxThreads", asyncService.getMaxThreads());
+    async.put("maxQueued", asyncService.getMaxQueued());
+    async.put("queued", asyncService.getQueueSize());
+    async.put("active", asyncService.getActiveCount());
+    async.put("results", asyncService.getResultCount());
+    async.put("accepted", asyncService.getAcceptedCount());
+    async.put("rejected", asyncService.getRejectedCount());
+    async.put("finished", asyncService.getFinishedCount());
+    async.put("expired", asyncService.getExpiredCount());
+    async.put("spillThreshold", asyncService.getSpillThreshold());
+    async.put("spilled", asyncService.getSpilledCount());
+    async.put("spilledBytes", asyncService.getSpilledBytes());
+    final long finished = Math.max(1, asyncService.getFinishedCount());
+    async.put("avgWaitMs", TimeUnit.NANOSECONDS.toMillis(asyncService.getWaitNanos() / finished));
+    async.put("avgRunMs", TimeUnit.NANOSECONDS.toMillis(asyncService.getRunNanos() / finished));
+    return ok(metrics);
+  }
+
+  public Result reset() {
+    if (runtime.reset()) {
+      return noContent();
+    } else {
+      return forbidden("Reset of data is disabled.");
+    }
   }
 
   static class JavaStream {
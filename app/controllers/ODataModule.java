@@ -0,0 +1,15 @@
+package controllers;
+
+import com.google.inject.AbstractModule;
+
+/**
+ * Binds the {@link ODataServiceRuntime} as eager singleton,
+ * so that metadata and data are created on application start (and not within the first request).
+ */
+public class ODataModule extends AbstractModule {
+
+  @Override
+  protected void configure() {
+    bind(ODataServiceRuntime.class).asEagerSingleton();
+  }
+}
@@ -0,0 +1,385 @@
+package controllers;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import akka.dispatch.ExecutionContexts;
+import olingo.ETagSupport;
+import olingo.MetadataETagSupport;
+import olingo.async.TechnicalAsyncService;
+import olingo.data.DataProvider;
+import olingo.data.DataProvider.DataProviderException;
+import olingo.data.SecondaryIndex;
+import olingo.processor.BatchPartExecutor;
+import olingo.processor.ServiceComponents;
+import olingo.processor.TechnicalActionProcessor;
+import olingo.processor.TechnicalBatchProcessor;
+import olingo.processor.TechnicalEntityProcessor;
+import olingo.processor.TechnicalPrimitiveComplexProcessor;
+import olingo.processor.queryoptions.ExpandSystemQueryOptionHandler;
+import olingo.processor.queryoptions.QueryPlanCache;
+import olingo.processor.queryoptions.options.EntityMatcher;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.commons.api.edmx.EdmxReferenceInclude;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataHandler;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import play.Configuration;
+import play.mvc.Http;
+import scala.concurrent.ExecutionContextExecutor;
+
+/**
+ * <p>Application scoped OData service runtime.</p>
+ * <p>The <code>OData</code> instance, the <code>ServiceMetadata</code> (including the fully loaded EDM)
+ * and the data are created once when the application starts and are shared by all requests.
+ * Modifications of the data are kept until the application stops or the data is {@link #reset()}.
+ * Requests are guarded by the read/write lock of the {@link DataProvider}, i.e. reading requests
+ * run concurrently while modifying requests run exclusively; batch requests hold the lock
+ * for each part (or change set) on their own.</p>
+ * <p>The Olingo handler itself keeps per-request state (e.g. the parsed URI info), hence the handler
+ * graph (handler, processors and helpers) is built once per request thread and then reused
+ * for all requests processed by that thread; the components shared by the processors of all threads
+ * (see {@link ServiceComponents}) belong to the runtime. Requests are processed by a dedicated, sized pool of threads
+ * (see {@link #getRequestContext()}).</p>
+ */
+@Singleton
+public class ODataServiceRuntime {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ODataServiceRuntime.class);
+
+  /** Configuration key to enable the reset of the data via the admin endpoint (disabled by default). */
+  public static final String CONFIG_RESET_ENABLED = "odata.runtime.reset.enabled";
+  /** Configuration key for the maximum number of cached query plans. */
+  public static final String CONFIG_QUERY_PLAN_CACHE_SIZE = "odata.runtime.queryplan.cache.size";
+  /** Configuration key to enable/disable the parallel evaluation of search and filter for large entity sets. */
+  public static final String CONFIG_PARALLEL_ENABLED = "odata.runtime.parallel.enabled";
+  /** Configuration key for the minimum number of entities of an entity set to be evaluated in parallel. */
+  public static final String CONFIG_PARALLEL_THRESHOLD = "odata.runtime.parallel.threshold";
+  /** Configuration key for the properties (<code>EntitySet/Property</code>) with a hash index for $filter. */
+  public static final String CONFIG_INDEXES_HASH = "odata.runtime.indexes.hash";
+  /** Configuration key for the properties (<code>EntitySet/Property</code>) with a sorted index for $filter. */
+  public static final String CONFIG_INDEXES_SORTED = "odata.runtime.indexes.sorted";
+  /** Configuration key for the maximum number of entities a request may expand via <code>$levels</code>. */
+  public static final String CONFIG_EXPAND_LEVELS_MAX_ENTITIES = "odata.runtime.expand.levels.max.entities";
+  /** Configuration key to enable/disable the concurrent handling of read-only parts of batch requests. */
+  public static final String CONFIG_BATCH_PARALLEL_ENABLED = "odata.runtime.batch.parallel.enabled";
+  /** Configuration key for the maximum number of threads handling parts of all batch requests. */
+  public static final String CONFIG_BATCH_PARALLEL_THREADS = "odata.runtime.batch.parallel.threads";
+  /** Configuration key for the maximum number of parts of one batch request handled at the same time. */
+  public static final String CONFIG_BATCH_PARALLEL_PARTS = "odata.runtime.batch.parallel.parts";
+  /** Configuration key for the maximum number of threads processing asynchronous requests. */
+  public static final String CONFIG_ASYNC_THREADS = "odata.runtime.async.threads";
+  /** Configuration key for the maximum number of asynchronous requests waiting for a thread. */
+  public static final String CONFIG_ASYNC_QUEUE = "odata.runtime.async.queue";
+  /** Configuration key for the time (in seconds) the result of an asynchronous request is kept. */
+  public static final String CONFIG_ASYNC_RESULT_TTL = "odata.runtime.async.result.ttl";
+  /** Configuration key for the <code>Retry-After</code> time (in seconds) of rejected asynchronous requests. */
+  public static final String CONFIG_ASYNC_RETRY_AFTER = "odata.runtime.async.retryafter";
+  /** Configuration key for the size (in bytes) above which asynchronous results are kept in temporary files. */
+  public static final String CONFIG_ASYNC_SPILL_THRESHOLD = "odata.runtime.async.spill.threshold";
+  /** Configuration key for the maximum time (in seconds) a status monitor request waits for the result. */
+  public static final String CONFIG_ASYNC_WAIT_MAX = "odata.runtime.async.wait.max";
+  /** Configuration key for the number of threads processing OData requests. */
+  public static final String CONFIG_REQUEST_THREADS = "odata.runtime.request.threads";
+  /** Configuration key for the maximum number of OData requests waiting for a thread. */
+  public static final String CONFIG_REQUEST_QUEUE = "odata.runtime.request.queue";
+
+  public static final int DEFAULT_REQUEST_THREADS = 32;
+  public static final int DEFAULT_REQUEST_QUEUE = 1000;
+
+  private final OData odata;
+  private final ServiceMetadata serviceMetadata;
+  private final DataProvider dataProvider;
+  /** Query-plan cache, entity matcher, and executors of this runtime, shared by the processors of all threads. */
+  private final ServiceComponents components;
+  private final boolean resetEnabled;
+  private final ThreadLocal<PlayODataHandler> handler = new ThreadLocal<PlayODataHandler>() {
+    @Override
+    protected PlayODataHandler initialValue() {
+      return createHandler();
+    }
+  };
+
+  private final long metadataWarmUpNanos;
+  private final long dataWarmUpNanos;
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicInteger resetCount = new AtomicInteger();
+  private final ThreadPoolExecutor requestExecutor;
+  private final ExecutionContextExecutor requestContext;
+  private final AtomicLong rejectedRequestCount = new AtomicLong();
+
+  @Inject
+  public ODataServiceRuntime(final Configuration configuration) {
+    resetEnabled = configuration.getBoolean(CONFIG_RESET_ENABLED, false);
+    final int requestThreads = configuration.getInt(CONFIG_REQUEST_THREADS, DEFAULT_REQUEST_THREADS);
+    requestExecutor = new ThreadPoolExecutor(requestThreads, requestThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(configuration.getInt(CONFIG_REQUEST_QUEUE, DEFAULT_REQUEST_QUEUE)),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "odata-request-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    // Idle threads end, so the threads of a replaced runtime (e.g., after a reload in dev mode) do not linger.
+    requestExecutor.allowCoreThreadTimeOut(true);
+    requestContext = ExecutionContexts.fromExecutor(requestExecutor);
+    long start = System.nanoTime();
+    odata = OData.newInstance();
+    EdmxReference reference = new EdmxReference(URI.create("../v4.0/cs02/vocabularies/Org.OData.Core.V1.xml"));
+    reference.addInclude(new EdmxReferenceInclude("Org.OData.Core.V1", "Core"));
+    /*
+     * ETag for the service document and the metadata document.
+     * The EDM is defined completely in code, hence any change must be deployed
+     * (resulting in a new runtime instance and therefore a new ETag).
+     */
+    final String metadataETag = "W/\"" + UUID.randomUUID() + "\"";
+    serviceMetadata = odata.createServiceMetadata(
+        new EdmTechProvider(),
+        Collections.singletonList(reference),
+        new MetadataETagSupport(metadataETag));
+    // Load the complete EDM now instead of lazily within the first requests.
+    serviceMetadata.getEdm().getSchemas();
+    serviceMetadata.getEdm().getEntityContainer();
+    metadataWarmUpNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    dataProvider = new DataProvider(odata, serviceMetadata.getEdm());
+    createIndexes(configuration.getStringList(CONFIG_INDEXES_HASH, Collections.<String> emptyList()),
+        SecondaryIndex.Kind.HASH);
+    createIndexes(configuration.getStringList(CONFIG_INDEXES_SORTED, Collections.<String> emptyList()),
+        SecondaryIndex.Kind.SORTED);
+    dataWarmUpNanos = System.nanoTime() - start;
+
+    components = new ServiceComponents(new QueryPlanCache(), new EntityMatcher(), new BatchPartExecutor(),
+        new TechnicalAsyncService(configuration.getInt(CONFIG_ASYNC_THREADS, TechnicalAsyncService.DEFAULT_MAX_THREADS),
+            configuration.getInt(CONFIG_ASYNC_QUEUE, TechnicalAsyncService.DEFAULT_MAX_QUEUED)));
+    components.getQueryPlanCache().setMaxSize(
+        configuration.getInt(CONFIG_QUERY_PLAN_CACHE_SIZE, QueryPlanCache.DEFAULT_MAX_SIZE));
+    final EntityMatcher entityMatcher = components.getEntityMatcher();
+    entityMatcher.setParallelEnabled(configuration.getBoolean(CONFIG_PARALLEL_ENABLED, true));
+    entityMatcher.setParallelThreshold(
+        configuration.getInt(CONFIG_PARALLEL_THRESHOLD, EntityMatcher.DEFAULT_PARALLEL_THRESHOLD));
+    components.setMaxLevelsEntities(configuration.getInt(CONFIG_EXPAND_LEVELS_MAX_ENTITIES,
+        ExpandSystemQueryOptionHandler.DEFAULT_MAX_LEVELS_ENTITIES));
+    final BatchPartExecutor batchPartExecutor = components.getBatchPartExecutor();
+    batchPartExecutor.setParallelEnabled(configuration.getBoolean(CONFIG_BATCH_PARALLEL_ENABLED, true));
+    batchPartExecutor.setMaxThreads(
+        configuration.getInt(CONFIG_BATCH_PARALLEL_THREADS, BatchPartExecutor.DEFAULT_MAX_THREADS));
+    batchPartExecutor.setMaxPartsPerBatch(
+        configuration.getInt(CONFIG_BATCH_PARALLEL_PARTS, BatchPartExecutor.DEFAULT_MAX_PARTS_PER_BATCH));
+    // Parts of batch requests are handled with the handler graph of the executing thread.
+    batchPartExecutor.setHandlerProvider(new BatchPartExecutor.HandlerProvider() {
+      @Override
+      public ODataHandler getHandler() {
+        return handler.get();
+      }
+    });
+    final TechnicalAsyncService asyncService = components.getAsyncService();
+    asyncService.setResultTtlSeconds(
+        configuration.getInt(CONFIG_ASYNC_RESULT_TTL, TechnicalAsyncService.DEFAULT_RESULT_TTL_SECONDS));
+    asyncService.setRetryAfterSeconds(
+        configuration.getInt(CONFIG_ASYNC_RETRY_AFTER, TechnicalAsyncService.DEFAULT_RETRY_AFTER_SECONDS));
+    asyncService.setSpillThreshold(
+        configuration.getInt(CONFIG_ASYNC_SPILL_THRESHOLD, TechnicalAsyncService.DEFAULT_SPILL_THRESHOLD));
+    asyncService.setMaxWaitSeconds(
+        configuration.getInt(CONFIG_ASYNC_WAIT_MAX, TechnicalAsyncService.DEFAULT_MAX_WAIT_SECONDS));
+
+    LOG.info("OData service runtime started (metadata: {} ms, data: {} ms).",
+        TimeUnit.NANOSECONDS.toMillis(metadataWarmUpNanos), TimeUnit.NANOSECONDS.toMillis(dataWarmUpNanos));
+  }
+
+  /**
+   * Creates the secondary indexes for the given properties (<code>EntitySet/Property</code>);
+   * invalid declarations are logged and ignored.
+   */
+  private void createIndexes(final List<String> properties, final SecondaryIndex.Kind kind) {
+    for (final String property : properties) {
+      final int separator = property.indexOf('/');
+      final EdmEntitySet edmEntitySet = separator < 0 ? null :
+          serviceMetadata.getEdm().getEntityContainer().getEntitySet(property.substring(0, separator));
+      if (edmEntitySet == null) {
+        LOG.warn("Index for {} ignored: entity set not found.", property);
+        continue;
+      }
+      try {
+        dataProvider.createIndex(edmEntitySet, property.substring(separator + 1), kind);
+      } catch (final DataProviderException e) {
+        LOG.warn("Index for {} ignored: {}", property, e.getMessage());
+      }
+    }
+  }
+
+  private PlayODataHandler createHandler() {
+    PlayODataHandler handler = new PlayODataHandler(odata, serviceMetadata);
+    // Register processors.
+    handler.register(new TechnicalEntityProcessor(dataProvider, serviceMetadata, components));
+    handler.register(new TechnicalPrimitiveComplexProcessor(dataProvider, serviceMetadata, components));
+    handler.register(new TechnicalActionProcessor(dataProvider, serviceMetadata, components));
+    handler.register(new TechnicalBatchProcessor(dataProvider, components));
+    // Register helpers.
+    handler.register(new ETagSupport());
+    return handler;
+  }
+
+  /**
+   * Processes the request while holding the read lock (for <code>GET</code> requests)
+   * or the write lock (for all other requests except batch requests, which lock each of their parts) of the data.
+   * Streamed response content is returned as <code>ODataContent</code> and written after the lock has been
+   * released: it writes a snapshot of the entities taken by the processor within the lock,
+   * and batch requests handle their parts while their content is written.
+   */
+  public ODataResponse process(final Http.Request request, final String odataPath) {
+    requestCount.incrementAndGet();
+    // Batch requests lock each of their parts themselves (see TechnicalBatchProcessor).
+    final boolean batch = isBatch(odataPath);
+    final Lock lock = batch ? null : isReadOnly(request) ? dataProvider.readLock() : dataProvider.writeLock();
+    if (lock != null) {
+      lock.lock();
+    }
+    try {
+      return handler.get().processPlayRequest(request, odataPath);
+    } finally {
+      if (lock != null) {
+        lock.unlock();
+      }
+    }
+  }
+
+  private boolean isBatch(final String odataPath) {
+    return "$batch".equals(odataPath) || "/$batch".equals(odataPath);
+  }
+
+  private boolean isReadOnly(final Http.Request request) {
+    try {
+      final HttpMethod method = PlayODataHandler.extractMethod(request);
+      return method == HttpMethod.GET || method == HttpMethod.HEAD;
+    } catch (final ODataApplicationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Drops all modifications and seeds the initial data again.
+   * @return <code>true</code> if the data was reset,
+   *         <code>false</code> if the reset is disabled via configuration
+   */
+  public boolean reset() {
+    if (!resetEnabled) {
+      return false;
+    }
+    dataProvider.reset();
+    resetCount.incrementAndGet();
+    LOG.info("OData service data was reset.");
+    return true;
+  }
+
+  public OData getOData() {
+    return odata;
+  }
+
+  public ServiceMetadata getServiceMetadata() {
+    return serviceMetadata;
+  }
+
+  public DataProvider getDataProvider() {
+    return dataProvider;
+  }
+
+  public QueryPlanCache getQueryPlanCache() {
+    return components.getQueryPlanCache();
+  }
+
+  public EntityMatcher getEntityMatcher() {
+    return components.getEntityMatcher();
+  }
+
+  public BatchPartExecutor getBatchPartExecutor() {
+    return components.getBatchPartExecutor();
+  }
+
+  public TechnicalAsyncService getAsyncService() {
+    return components.getAsyncService();
+  }
+
+  /**
+   * Execution context of the threads processing OData requests (and writing streamed responses),
+   * so slow requests do not block the threads of Play's default dispatcher.
+   * Requests exceeding the queue are rejected with a <code>RejectedExecutionException</code>.
+   */
+  public ExecutionContextExecutor getRequestContext() {
+    return requestContext;
+  }
+
+  /**
+   * Counts a request rejected because all request threads are busy and the queue is full.
+   */
+  public void requestRejected() {
+    rejectedRequestCount.incrementAndGet();
+  }
+
+  public int getRequestThreads() {
+    return requestExecutor.getMaximumPoolSize();
+  }
+
+  public int getActiveRequestCount() {
+    return requestExecutor.getActiveCount();
+  }
+
+  public int getQueuedRequestCount() {
+    return requestExecutor.getQueue().size();
+  }
+
+  public int getMaxQueuedRequests() {
+    return requestExecutor.getQueue().size() + requestExecutor.getQueue().remainingCapacity();
+  }
+
+  public long getRejectedRequestCount() {
+    return rejectedRequestCount.get();
+  }
+
+  /**
+   * @return time (in nanoseconds) used to create the service metadata and to load the EDM
+   */
+  public long getMetadataWarmUpNanos() {
+    return metadataWarmUpNanos;
+  }
+
+  /**
+   * @return time (in nanoseconds) used to create the initial data
+   */
+  public long getDataWarmUpNanos() {
+    return dataWarmUpNanos;
+  }
+
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public int getResetCount() {
+    return resetCount.get();
+  }
+}
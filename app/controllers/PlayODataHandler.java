@@ -1,6 +1,9 @@
 package controllers;
 
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 import org.apache.olingo.commons.api.http.HttpHeader;
@@ -49,14 +52,17 @@ public class PlayODataHandler implements ODataHandler {
   }
 
   static void fillUriInformation(final ODataRequest odRequest, final Http.Request httpRequest, final String odataPath) {
-    String rawRequestUri = httpRequest.host() + httpRequest.uri();
+    final String scheme = httpRequest.secure() ? "https://" : "http://";
+    String rawRequestUri = scheme + httpRequest.host() + httpRequest.uri();
 
     String rawODataPath = "/" + odataPath;
-    final String path = httpRequest.path().substring(0, rawODataPath.length());
+    // The OData path (captured raw by the route) ends the request path; the service root is the part before it.
+    final String path = httpRequest.path();
+    final String servicePath = path.endsWith(rawODataPath) ?
+        path.substring(0, path.length() - rawODataPath.length()) : path;
 
-    String rawBaseUri = httpRequest.host() + path;
+    String rawBaseUri = scheme + httpRequest.host() + servicePath;
 
-    // XXX: BUG
     final Map<String, String[]> rawQueryString = httpRequest.queryString();
     StringBuilder queryString = new StringBuilder();
     for (Map.Entry<String, String[]> entry : rawQueryString.entrySet()) {
@@ -74,6 +80,19 @@ public class PlayODataHandler implements ODataHandler {
     odRequest.setRawBaseUri(rawBaseUri);
   }
 
+  /**
+   * Body of the request as read by Play's raw body parser (see {@link Application#odata(String)});
+   * bodies larger than its memory buffer are read from the temporary file.
+   */
+  static InputStream extractBody(final Http.Request httpRequest) throws IOException {
+    final Http.RawBuffer raw = httpRequest.body() == null ? null : httpRequest.body().asRaw();
+    if (raw == null) {
+      return null;
+    }
+    final byte[] bytes = raw.asBytes();
+    return bytes == null ? new FileInputStream(raw.asFile()) : new ByteArrayInputStream(bytes);
+  }
+
   static void copyHeaders(final ODataRequest odRequest, final Http.Request req) {
     Map<String, String[]> headers = req.headers();
     for (Map.Entry<String, String[]> header : headers.entrySet()) {
@@ -87,8 +106,9 @@ public class PlayODataHandler implements ODataHandler {
     ODataRequest odRequest = new ODataRequest();
     ODataResponse odResponse;
 
-    try {
-      odRequest.setBody(null);
+    // The body (possibly a temporary file) has been read completely when the request has been processed.
+    try (InputStream body = extractBody(request)) {
+      odRequest.setBody(body);
       odRequest.setProtocol("HTTP/1.1");
       odRequest.setMethod(extractMethod(request));
       copyHeaders(odRequest, request);
@@ -34,37 +34,153 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import olingo.processor.TechnicalBatchProcessor;
+import olingo.processor.TechnicalProcessor;
 
 import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ODataServerError;
+import org.apache.olingo.server.api.processor.DefaultProcessor;
+import org.apache.olingo.server.api.processor.ErrorProcessor;
 import org.apache.olingo.server.api.processor.Processor;
+import org.apache.olingo.server.api.serializer.RepresentationType;
+import org.apache.olingo.server.core.ContentNegotiator;
+import org.apache.olingo.server.core.ContentNegotiatorException;
+import org.apache.olingo.server.core.ODataExceptionHelper;
 
 /**
  * Async processor "wraps" an Processor (or subclass of) to provide asynchronous support functionality
  * in combination with the TechnicalAsyncService.
+ * <p>The call of the processor is either prepared as {@link Task} (which calls the processor directly)
+ * or recorded via a proxy of the processor (see {@link #prepareFor()}) and replayed via reflection.</p>
  *
  * @param <T> "wrapped" Processor
  */
 public class AsyncProcessor<T extends Processor> {
-  private final ProcessorInvocationHandler handler;
+  private final Invocation handler;
   private final TechnicalAsyncService service;
   private final T proxyProcessor;
   private String location;
   private String preferHeader;
 
+  /**
+   * Operation of a processor prepared for asynchronous processing, e.g., as anonymous class
+   * calling the processor method with the parameters of the original call.
+   *
+   * @param <T> "wrapped" Processor
+   */
+  public interface Task<T extends Processor> {
+    /**
+     * Calls the processor with the given request and response, which replace the ones of the original call.
+     */
+    void process(T processor, ODataRequest request, ODataResponse response)
+        throws ODataApplicationException, ODataLibraryException;
+  }
+
+  /**
+   * Call of the wrapped processor which is processed asynchronously.
+   */
+  private abstract static class Invocation {
+    protected ODataRequest processRequest;
+    protected ODataResponse processResponse;
+
+    abstract Object getWrappedInstance();
+
+    /** Request of the original call. */
+    abstract ODataRequest getRequest();
+
+    /** Response of the original call. */
+    abstract ODataResponse getResponse();
+
+    /**
+     * Prepare the call for the <code>process()</code> call (which is asynchronous and can be at any time in
+     * the future).
+     */
+    abstract void prepareForAsync();
+
+    abstract Object process() throws InvocationTargetException, IllegalAccessException;
+
+    /**
+     * Get the ODataResponse which is used when this Invocation
+     * is called (via its <code>process()</code> method)
+     *
+     * @return ODataResponse which is used when this Invocation is called
+     */
+    ODataResponse getProcessResponse() {
+      return processResponse;
+    }
+  }
+
+  /**
+   * Task which is called directly; the request body is handed over as is, as the original call did not read it.
+   */
+  private static class TaskInvocation<T extends Processor> extends Invocation {
+    private final T wrappedInstance;
+    private final Task<T> task;
+    private final ODataRequest request;
+    private final ODataResponse response;
+
+    TaskInvocation(final T wrappedInstance, final Task<T> task, final ODataRequest request,
+        final ODataResponse response) {
+      this.wrappedInstance = wrappedInstance;
+      this.task = task;
+      this.request = request;
+      this.response = response;
+    }
+
+    @Override
+    Object getWrappedInstance() {
+      return wrappedInstance;
+    }
+
+    @Override
+    ODataRequest getRequest() {
+      return request;
+    }
+
+    @Override
+    ODataResponse getResponse() {
+      return response;
+    }
+
+    @Override
+    void prepareForAsync() {
+      processRequest = copyRequest(request, request.getBody());
+      processResponse = createODataResponse(response);
+    }
+
+    @Override
+    Object process() throws InvocationTargetException {
+      if (processRequest == null || processResponse == null) {
+        throw new ODataRuntimeException("TaskInvocation was not correct prepared for async processsing.");
+      }
+      try {
+        task.process(wrappedInstance, processRequest, processResponse);
+      } catch (final ODataApplicationException e) {
+        throw new InvocationTargetException(e);
+      } catch (final ODataLibraryException e) {
+        throw new InvocationTargetException(e);
+      }
+      return null;
+    }
+  }
+
   /**
    * InvocationHandler which is used as proxy for the Processor method.
    */
-  private static class ProcessorInvocationHandler implements InvocationHandler {
+  private static class ProcessorInvocationHandler extends Invocation implements InvocationHandler {
     private final Object wrappedInstance;
     private Method invokeMethod;
     private Object[] invokeParameters;
-    private ODataRequest processRequest;
-    private ODataResponse processResponse;
 
     public ProcessorInvocationHandler(Object wrappedInstance) {
       this.wrappedInstance = wrappedInstance;
@@ -83,15 +199,13 @@ public class AsyncProcessor<T extends Processor> {
       return null;
     }
 
-    /**
-     * Prepare the handler for the <code>process()</code> call (which is asynchronous and can be at any time in
-     * the future).
-     */
+    @Override
     void prepareForAsync() {
       processRequest = copyRequest(getParameter(ODataRequest.class));
       processResponse = createODataResponse(getParameter(ODataResponse.class));
     }
 
+    @Override
     Object process() throws InvocationTargetException, IllegalAccessException {
       if(processRequest == null || processResponse == null) {
         throw new ODataRuntimeException("ProcessInvocationHandler was not correct prepared for async processsing.");
@@ -108,7 +222,7 @@ public class AsyncProcessor<T extends Processor> {
 
       List<Object> copy = new ArrayList<Object>();
       for (Object parameter : invokeParameters) {
-        if (replacement.getClass() == parameter.getClass()) {
+        if (parameter != null && replacement.getClass() == parameter.getClass()) {
           copy.add(replacement);
         } else {
           copy.add(parameter);
@@ -117,20 +231,21 @@ public class AsyncProcessor<T extends Processor> {
       invokeParameters = copy.toArray();
     }
 
-    /**
-     * Get the ODataResponse which is used when this ProcessorInvocationHandler
-     * is called (via its <code>process()</code> method)
-     *
-     * @return ODataResponse which is used when this ProcessorInvocationHandler is called
-     */
-    ODataResponse getProcessResponse() {
-      return processResponse;
-    }
-
+    @Override
     Object getWrappedInstance() {
       return this.wrappedInstance;
     }
 
+    @Override
+    ODataRequest getRequest() {
+      return getParameter(ODataRequest.class);
+    }
+
+    @Override
+    ODataResponse getResponse() {
+      return getParameter(ODataResponse.class);
+    }
+
     <P> P getParameter(Class<P> parameterClass) {
       for (Object parameter : invokeParameters) {
         if (parameter != null && parameterClass == parameter.getClass()) {
@@ -145,22 +260,33 @@ public class AsyncProcessor<T extends Processor> {
   public AsyncProcessor(T processor, Class<T> processorInterface, TechnicalAsyncService service) {
     Class<? extends Processor> aClass = processor.getClass();
     Class<?>[] interfaces = aClass.getInterfaces();
-    handler = new ProcessorInvocationHandler(processor);
-    Object proxyInstance = Proxy.newProxyInstance(aClass.getClassLoader(), interfaces, handler);
+    ProcessorInvocationHandler invocationHandler = new ProcessorInvocationHandler(processor);
+    handler = invocationHandler;
+    Object proxyInstance = Proxy.newProxyInstance(aClass.getClassLoader(), interfaces, invocationHandler);
     proxyProcessor = processorInterface.cast(proxyInstance);
     this.service = service;
   }
 
+  public AsyncProcessor(T processor, ODataRequest request, ODataResponse response, Task<T> task,
+      TechnicalAsyncService service) {
+    handler = new TaskInvocation<T>(processor, task, request, response);
+    proxyProcessor = null;
+    this.service = service;
+  }
+
   public T prepareFor() {
+    if (proxyProcessor == null) {
+      throw new ODataRuntimeException("AsyncProcessor has been prepared with a task already.");
+    }
     return proxyProcessor;
   }
 
   public ODataRequest getRequest() {
-    return handler.getParameter(ODataRequest.class);
+    return handler.getRequest();
   }
 
   public ODataResponse getResponse() {
-    return handler.getParameter(ODataResponse.class);
+    return handler.getResponse();
   }
 
   public ODataResponse getProcessResponse() {
@@ -201,7 +327,73 @@ public class AsyncProcessor<T extends Processor> {
   }
 
   Object process() throws InvocationTargetException, IllegalAccessException {
-    return handler.process();
+    Object result = null;
+    try {
+      result = handler.process();
+    } catch (final InvocationTargetException e) {
+      if (!processError(e.getCause())) {
+        throw e;
+      }
+    }
+    // Streamed content (e.g., of batch requests) must be written while the data lock is held.
+    try {
+      service.keepContent(handler.getProcessResponse());
+    } catch (final IOException e) {
+      throw new ODataRuntimeException("Error on keeping response content", e);
+    }
+    return result;
+  }
+
+  /**
+   * Writes the error of the failed processor call into the response as the synchronous processing does
+   * (with the default error processor, in the format negotiated for errors), so the status monitor returns
+   * the status of the error together with the OData error document.
+   * @return <code>false</code> if the exception is not an OData exception and has to be handled by the caller
+   */
+  private boolean processError(final Throwable cause) {
+    final ODataServerError serverError;
+    if (cause instanceof ODataApplicationException) {
+      serverError = ODataExceptionHelper.createServerErrorObject((ODataApplicationException) cause);
+    } else if (cause instanceof ODataLibraryException) {
+      serverError = ODataExceptionHelper.createServerErrorObject((ODataLibraryException) cause, null);
+    } else {
+      return false;
+    }
+    final ODataRequest request = handler.processRequest;
+    ContentType format;
+    try {
+      format = ContentNegotiator.doContentNegotiation(null, request, null, RepresentationType.ERROR);
+    } catch (final ContentNegotiatorException e) {
+      format = ContentType.JSON;
+    }
+    final ErrorProcessor errorProcessor = new DefaultProcessor();
+    errorProcessor.init(OData.newInstance(), null);
+    final ODataResponse response = handler.getProcessResponse();
+    response.setODataContent(null);
+    errorProcessor.processError(request, response, serverError, format);
+    return true;
+  }
+
+  /**
+   * Get the lock which must be held while the wrapped processor accesses its data
+   * (the read lock for <code>GET</code> requests, otherwise the write lock).
+   * Batch requests lock each of their parts themselves (see {@link TechnicalBatchProcessor}).
+   *
+   * @return the lock or <code>null</code> if the wrapped processor does not use a shared DataProvider
+   *         or is a batch processor
+   */
+  Lock getDataLock() {
+    final Object wrapped = handler.getWrappedInstance();
+    if (wrapped instanceof TechnicalBatchProcessor) {
+      return null;
+    }
+    if (wrapped instanceof TechnicalProcessor && ((TechnicalProcessor) wrapped).getDataProvider() != null) {
+      final ODataRequest request = getRequest();
+      return request != null && request.getMethod() == HttpMethod.GET ?
+          ((TechnicalProcessor) wrapped).getDataProvider().readLock() :
+          ((TechnicalProcessor) wrapped).getDataProvider().writeLock();
+    }
+    return null;
   }
 
   void setLocation(String loc) {
@@ -209,8 +401,12 @@ public class AsyncProcessor<T extends Processor> {
   }
 
   static ODataRequest copyRequest(ODataRequest request) {
+    return copyRequest(request, copyRequestBody(request));
+  }
+
+  private static ODataRequest copyRequest(ODataRequest request, InputStream body) {
     ODataRequest req = new ODataRequest();
-    req.setBody(copyRequestBody(request));
+    req.setBody(body);
     req.setMethod(request.getMethod());
     req.setRawBaseUri(request.getRawBaseUri());
     req.setRawODataPath(request.getRawODataPath());
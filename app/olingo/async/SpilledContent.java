@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.async;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.server.api.ODataContent;
+
+/**
+ * <p>Content of an asynchronous response which has been written to a temporary file,
+ * as it is too large to be kept in memory until the client fetches it.</p>
+ * <p>The file is written to a channel via <code>FileChannel.transferTo</code> or read as a stream
+ * (see {@link #openStream()}); it must be deleted when the result is fetched or dropped.</p>
+ */
+public class SpilledContent implements ODataContent {
+
+  private final Path file;
+  private final long size;
+
+  SpilledContent(final Path file, final long size) {
+    this.file = file;
+    this.size = size;
+  }
+
+  @Override
+  public void write(final WritableByteChannel channel) {
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < size) {
+        position += fileChannel.transferTo(position, size - position, channel);
+      }
+    } catch (final IOException e) {
+      throw new ODataRuntimeException("Error on writing spilled content", e);
+    }
+  }
+
+  @Override
+  public void write(final OutputStream stream) {
+    write(Channels.newChannel(stream));
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /** Opens the file for reading, e.g., to send it with flow control; the caller must close the stream. */
+  public InputStream openStream() throws IOException {
+    return Files.newInputStream(file);
+  }
+
+  /** Deletes the file; the content cannot be written afterwards. */
+  public void delete() {
+    try {
+      Files.deleteIfExists(file);
+    } catch (final IOException e) {
+      throw new ODataRuntimeException("Error on deleting spilled content", e);
+    }
+  }
+
+  /**
+   * Output stream which keeps the written bytes in memory up to the given threshold;
+   * as soon as it is exceeded, all bytes are written to a temporary file.
+   */
+  static class SpillOutputStream extends OutputStream {
+    private final int threshold;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private Path file;
+    private OutputStream fileStream;
+    private long size;
+
+    SpillOutputStream(final int threshold) {
+      this.threshold = threshold;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      if (fileStream == null && size + len > threshold) {
+        file = Files.createTempFile("odata-async-", ".tmp");
+        fileStream = new BufferedOutputStream(Files.newOutputStream(file));
+        buffer.writeTo(fileStream);
+        buffer = null;
+      }
+      if (fileStream == null) {
+        buffer.write(b, off, len);
+      } else {
+        fileStream.write(b, off, len);
+      }
+      size += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (fileStream != null) {
+        fileStream.close();
+      }
+    }
+
+    /** Whether the bytes have been written to a file, see {@link #toContent()}; otherwise see {@link #toBytes()}. */
+    boolean isSpilled() {
+      return file != null;
+    }
+
+    byte[] toBytes() {
+      return buffer.toByteArray();
+    }
+
+    SpilledContent toContent() {
+      return new SpilledContent(file, size);
+    }
+
+    /** Deletes the file, if any, e.g., if the content could not be written completely. */
+    void discard() {
+      if (file != null) {
+        try {
+          fileStream.close();
+        } catch (final IOException e) {
+          // The file is deleted anyway.
+        }
+        toContent().delete();
+      }
+    }
+  }
+}
@@ -18,22 +18,35 @@
  */
 package olingo.async;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,6 +60,7 @@ import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
@@ -57,40 +71,109 @@ import org.apache.olingo.server.api.serializer.SerializerException;
  * The TechnicalAsyncService provides asynchronous support for any Processor.
  * To use it following steps are necessary:
  * <ul>
- *   <li>Get the instance</li>
+ *   <li>Get the instance of the service runtime (see {@link olingo.processor.ServiceComponents})</li>
  *   <li>Create an instance of the Processor which should be wrapped for asynchronous support
  *   (do not forget to call the <code>init(...)</code> method on the processor)</li>
- *   <li>register the Processor instance via the <code>register(...)</code> method</li>
- *   <li>prepare the corresponding method with the request parameters via the
- *   <code>prepareFor()</code> method at the AsyncProcessor</li>
+ *   <li>register the Processor instance together with the request, the response, and a task calling
+ *   the corresponding method via the <code>register(...)</code> method</li>
  *   <li>start the async processing via the <code>processAsync()</code> methods</li>
  * </ul>
  * A short code snippet is shown below:
  * <pre>
  * <code>
- * TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
- * TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata);
+ * TechnicalAsyncService asyncService = components.getAsyncService();
+ * TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata, components);
  * processor.init(odata, serviceMetadata);
- * AsyncProcessor<EntityProcessor> asyncProcessor = asyncService.register(processor, EntityProcessor.class);
- * asyncProcessor.prepareFor().readEntity(request, response, uriInfo, requestedFormat);
+ * AsyncProcessor<EntityProcessor> asyncProcessor = asyncService.register(processor, request, response,
+ *     new AsyncProcessor.Task<EntityProcessor>() {
+ *       public void process(EntityProcessor processor, ODataRequest request, ODataResponse response) ... {
+ *         processor.readEntity(request, response, uriInfo, requestedFormat);
+ *       }
+ *     });
  * String location = asyncProcessor.processAsync();
  * </code>
  * </pre>
+ * Alternatively, the Processor instance is registered with its interface and the corresponding method
+ * is called with the request parameters at the proxy returned by <code>prepareFor()</code> of the
+ * AsyncProcessor; this call is replayed via reflection, with a copy of the request body.
+ * <p>The requests are processed by at most {@link #getMaxThreads()} threads; at most {@link #getMaxQueued()}
+ * further requests wait for a thread. If the queue is full, a request is rejected with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header.
+ * Results which are not fetched are dropped {@link #getResultTtlSeconds()} seconds after the processing finished,
+ * by a sweeper running periodically once the first request has been accepted.
+ * Results larger than {@link #getSpillThreshold()} bytes are kept in temporary files (see {@link SpilledContent})
+ * instead of memory until they are fetched or dropped.</p>
  */
 public class TechnicalAsyncService {
 
   public static final String TEC_ASYNC_SLEEP = "tec.sleep";
   public static final String STATUS_MONITOR_TOKEN = "status";
+  public static final int DEFAULT_MAX_THREADS = 10;
+  public static final int DEFAULT_MAX_QUEUED = 100;
+  public static final int DEFAULT_RESULT_TTL_SECONDS = 600;
+  public static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+  public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+  public static final int DEFAULT_MAX_WAIT_SECONDS = 30;
+  /** Maximum time (in seconds) between two runs of the sweeper dropping expired results. */
+  private static final int MAX_SWEEP_INTERVAL_SECONDS = 60;
+
+  private final Map<String, AsyncRunner> id2AsyncRunner = new ConcurrentHashMap<String, AsyncRunner>();
+  /** Finished runners in the order they finished, to drop their results after the time to live. */
+  private final Queue<AsyncRunner> finishedAsyncRunners = new ConcurrentLinkedQueue<AsyncRunner>();
+  private final ThreadPoolExecutor asyncRequestExecutor;
+  private final AtomicInteger idGenerator = new AtomicInteger();
+  private volatile ScheduledExecutorService resultSweeper;
+  private volatile int resultTtlSeconds = DEFAULT_RESULT_TTL_SECONDS;
+  private volatile int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+  private volatile int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+  private volatile int maxWaitSeconds = DEFAULT_MAX_WAIT_SECONDS;
+  private final AtomicLong acceptedCount = new AtomicLong();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong finishedCount = new AtomicLong();
+  private final AtomicLong expiredCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong runNanos = new AtomicLong();
+  private final AtomicLong spilledCount = new AtomicLong();
+  private final AtomicLong spilledBytes = new AtomicLong();
+
+  public TechnicalAsyncService() {
+    this(DEFAULT_MAX_THREADS, DEFAULT_MAX_QUEUED);
+  }
 
-  private static final Map<String, AsyncRunner> LOCATION_2_ASYNC_RUNNER =
-      Collections.synchronizedMap(new HashMap<String, AsyncRunner>());
-  private static final ExecutorService ASYNC_REQUEST_EXECUTOR = Executors.newFixedThreadPool(10);
-  private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+  /**
+   * @param maxThreads the maximum number of threads processing asynchronous requests
+   * @param maxQueued the maximum number of asynchronous requests waiting for a thread
+   */
+  public TechnicalAsyncService(final int maxThreads, final int maxQueued) {
+    // The bounded queue rejects a request if all threads are busy and the queue is full.
+    asyncRequestExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+        maxQueued > 0 ? new ArrayBlockingQueue<Runnable>(maxQueued) : new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "odata-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    asyncRequestExecutor.allowCoreThreadTimeOut(true);
+  }
 
   public <T extends Processor> AsyncProcessor<T> register(T processor, Class<T> processorInterface) {
     return new AsyncProcessor<T>(processor, processorInterface, this);
   }
 
+  /**
+   * Registers the given operation of the processor for the given request, without a proxy and reflection;
+   * the processing is started via <code>processAsync()</code> of the returned AsyncProcessor.
+   */
+  public <T extends Processor> AsyncProcessor<T> register(T processor, ODataRequest request, ODataResponse response,
+      AsyncProcessor.Task<T> task) {
+    return new AsyncProcessor<T>(processor, request, response, task, this);
+  }
+
   public static void updateHeader(ODataResponse response, HttpStatusCode status, String location) {
     response.setStatusCode(status.getStatusCode());
     response.setHeader(HttpHeader.LOCATION, location);
@@ -102,16 +185,11 @@ public class TechnicalAsyncService {
     updateHeader(response, HttpStatusCode.ACCEPTED, location);
   }
 
-  private static final class AsyncProcessorHolder {
-    private static final TechnicalAsyncService INSTANCE = new TechnicalAsyncService();
-  }
-
-  public static TechnicalAsyncService getInstance() {
-    return AsyncProcessorHolder.INSTANCE;
-  }
-
   public void shutdownThreadPool() {
-    ASYNC_REQUEST_EXECUTOR.shutdown();
+    asyncRequestExecutor.shutdown();
+    if (resultSweeper != null) {
+      resultSweeper.shutdown();
+    }
   }
 
   public boolean isStatusMonitorResource(HttpServletRequest request) {
@@ -120,38 +198,321 @@ public class TechnicalAsyncService {
 
   String processAsynchronous(AsyncProcessor<?> dispatchedProcessor)
       throws ODataApplicationException, ODataLibraryException {
+    dropExpiredResults();
     // use executor thread pool
-    String location = createNewAsyncLocation(dispatchedProcessor.getRequest());
+    String id = String.valueOf(idGenerator.incrementAndGet());
+    String location = createNewAsyncLocation(dispatchedProcessor.getRequest(), id);
     dispatchedProcessor.setLocation(location);
-    AsyncRunner run = new AsyncRunner(dispatchedProcessor);
-    LOCATION_2_ASYNC_RUNNER.put(location, run);
-    ASYNC_REQUEST_EXECUTOR.execute(run);
+    AsyncRunner run = new AsyncRunner(dispatchedProcessor, this);
+    id2AsyncRunner.put(id, run);
+    try {
+      asyncRequestExecutor.execute(run);
+    } catch (final RejectedExecutionException e) {
+      // All threads are busy and the queue is full (or the executor has been shut down).
+      id2AsyncRunner.remove(id);
+      reject(dispatchedProcessor);
+    }
+    acceptedCount.incrementAndGet();
+    startResultSweeper();
     //
     return location;
   }
 
-  public void handle(HttpServletRequest request, HttpServletResponse response) throws SerializerException, IOException {
-    String location = getAsyncLocation(request);
-    AsyncRunner runner = LOCATION_2_ASYNC_RUNNER.get(location);
+  private void reject(final AsyncProcessor<?> dispatchedProcessor) throws ODataApplicationException {
+    rejectedCount.incrementAndGet();
+    dispatchedProcessor.getResponse().setHeader(HttpHeader.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    throw new ODataApplicationException("Too many asynchronous requests; retry later.",
+        HttpStatusCode.SERVICE_UNAVAILABLE.getStatusCode(), Locale.ROOT);
+  }
 
-    if (runner == null) {
-      response.setStatus(HttpStatusCode.NOT_FOUND.getStatusCode());
-    } else {
-      if (runner.isFinished()) {
-        ODataResponse wrapResult = runner.getDispatched().getProcessResponse();
-        wrapToAsyncHttpResponse(wrapResult, response);
-        LOCATION_2_ASYNC_RUNNER.remove(location);
+  private void finished(final AsyncRunner runner) {
+    waitNanos.addAndGet(runner.startedNanos - runner.createdNanos);
+    runNanos.addAndGet(runner.finishedNanos - runner.startedNanos);
+    finishedCount.incrementAndGet();
+    finishedAsyncRunners.add(runner);
+  }
+
+  /**
+   * Keeps the content of a processed response until it is fetched: in memory or, if it is larger than
+   * the spill threshold, in a temporary file. Streamed content is written here, too.
+   */
+  void keepContent(final ODataResponse response) throws IOException {
+    if (response.getContent() == null && response.getODataContent() == null) {
+      return;
+    }
+    final SpilledContent.SpillOutputStream output = new SpilledContent.SpillOutputStream(spillThreshold);
+    boolean kept = false;
+    try {
+      final InputStream content = response.getContent();
+      if (content == null) {
+        response.getODataContent().write(output);
       } else {
-        response.setStatus(HttpStatusCode.ACCEPTED.getStatusCode());
-        response.setHeader(HttpHeader.LOCATION, location);
+        try {
+          final byte[] buffer = new byte[8192];
+          int count;
+          while ((count = content.read(buffer)) > 0) {
+            output.write(buffer, 0, count);
+          }
+        } finally {
+          content.close();
+        }
+      }
+      output.close();
+      kept = true;
+    } finally {
+      if (!kept) {
+        output.discard();
+      }
+    }
+    if (output.isSpilled()) {
+      final SpilledContent spilledContent = output.toContent();
+      response.setContent(null);
+      response.setODataContent(spilledContent);
+      spilledCount.incrementAndGet();
+      spilledBytes.addAndGet(spilledContent.getSize());
+    } else {
+      response.setContent(new ByteArrayInputStream(output.toBytes()));
+      response.setODataContent(null);
+    }
+  }
+
+  /** Deletes the temporary file of the result, if any. */
+  private static void release(final AsyncRunner runner) {
+    final ODataResponse response = runner.getDispatched().getProcessResponse();
+    if (response != null && response.getODataContent() instanceof SpilledContent) {
+      ((SpilledContent) response.getODataContent()).delete();
+    }
+  }
+
+  /**
+   * Starts dropping expired results periodically with the first accepted request, so their temporary files
+   * are deleted even if no further asynchronous requests follow.
+   */
+  private void startResultSweeper() {
+    if (resultSweeper != null) {
+      return;
+    }
+    synchronized (this) {
+      if (resultSweeper == null) {
+        final ScheduledThreadPoolExecutor sweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "odata-async-sweeper");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+        final long interval = Math.max(1, Math.min(resultTtlSeconds, MAX_SWEEP_INTERVAL_SECONDS));
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              dropExpiredResults();
+            } catch (final RuntimeException e) {
+              // A file which cannot be deleted now must not stop further runs.
+            }
+          }
+        }, interval, interval, TimeUnit.SECONDS);
+        resultSweeper = sweeper;
+      }
+    }
+  }
+
+  /** Drops the results which have not been fetched within their time to live. */
+  private void dropExpiredResults() {
+    final long now = System.nanoTime();
+    final long ttlNanos = TimeUnit.SECONDS.toNanos(resultTtlSeconds);
+    AsyncRunner runner;
+    while ((runner = finishedAsyncRunners.peek()) != null && now - runner.finishedNanos >= ttlNanos) {
+      if (finishedAsyncRunners.remove(runner)
+          && id2AsyncRunner.remove(getAsyncId(runner.getDispatched().getLocation())) != null) {
+        release(runner);
+        expiredCount.incrementAndGet();
       }
     }
   }
 
+  /**
+   * Calls the callback as soon as the request with the given id has been processed
+   * (immediately, if it has been processed already).
+   *
+   * @return <code>false</code> if there is no such request (or its result has been fetched or dropped already)
+   */
+  public boolean whenFinished(final String id, final Runnable callback) {
+    dropExpiredResults();
+    final AsyncRunner runner = id2AsyncRunner.get(id);
+    if (runner == null) {
+      return false;
+    }
+    runner.whenFinished(callback);
+    return true;
+  }
+
+  /**
+   * Time (in seconds) a status monitor request waits for the result, as preferred by the client
+   * (<code>Prefer: wait=N</code>) but at most {@link #getMaxWaitSeconds()}.
+   */
+  public int getWaitSeconds(final List<String> preferHeaders) {
+    final Integer wait = OData.newInstance().createPreferences(preferHeaders).getWait();
+    return wait == null ? 0 : Math.max(0, Math.min(wait, maxWaitSeconds));
+  }
+
+  /** Ids of the requests whose results have not been fetched or dropped yet. */
+  public List<String> getIds() {
+    return new ArrayList<String>(id2AsyncRunner.keySet());
+  }
+
+  /**
+   * Whether the request with the given id is waiting or being processed.
+   */
+  public boolean isRunning(final String id) {
+    final AsyncRunner runner = id2AsyncRunner.get(id);
+    return runner != null && !runner.isFinished();
+  }
+
+  /**
+   * Location of the status monitor of the request with the given id.
+   */
+  public String getLocation(final String id) {
+    final AsyncRunner runner = id2AsyncRunner.get(id);
+    return runner == null ? null : runner.getDispatched().getLocation();
+  }
+
+  /**
+   * Takes the result of the processed request with the given id; each result can be taken only once.
+   * The returned content is the response of the request as <code>application/http</code>;
+   * the response body is not copied but written directly when the content is written.
+   *
+   * @return the content or <code>null</code> if the request is unknown or has not been processed yet
+   */
+  public ResultContent takeResult(final String id) {
+    dropExpiredResults();
+    final AsyncRunner runner = id2AsyncRunner.get(id);
+    // Removed first, so the result can neither expire nor be taken by another request meanwhile.
+    if (runner == null || !runner.isFinished() || !id2AsyncRunner.remove(id, runner)) {
+      return null;
+    }
+    finishedAsyncRunners.remove(runner);
+    return new ResultContent(runner);
+  }
+
+  /**
+   * Content of the status monitor response for a processed request; the result is released once it is written
+   * or its stream (see {@link #getStream()}) is closed.
+   */
+  public static final class ResultContent implements ODataContent {
+    private final AsyncRunner runner;
+
+    private ResultContent(final AsyncRunner runner) {
+      this.runner = runner;
+    }
+
+    @Override
+    public void write(final WritableByteChannel channel) {
+      write(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public void write(final OutputStream stream) {
+      final ODataResponse result = runner.getDispatched().getProcessResponse();
+      try {
+        copyContent(getHead(result), stream);
+        if (result.getODataContent() != null) {
+          result.getODataContent().write(stream);
+        } else if (result.getContent() != null) {
+          copyContent(result.getContent(), stream);
+        }
+        stream.flush();
+      } catch (final SerializerException e) {
+        throw new ODataRuntimeException(e);
+      } catch (final IOException e) {
+        throw new ODataRuntimeException(e);
+      } finally {
+        release(runner);
+      }
+    }
+
+    /**
+     * Returns the content as a stream, so the client can read it with flow control instead of having it pushed;
+     * a result kept in a temporary file is read from the file. The result is released when the stream is closed.
+     */
+    public InputStream getStream() {
+      final ODataResponse result = runner.getDispatched().getProcessResponse();
+      final InputStream content;
+      try {
+        final InputStream head = getHead(result);
+        content = result.getODataContent() instanceof SpilledContent ?
+            new SequenceInputStream(head, ((SpilledContent) result.getODataContent()).openStream()) :
+            result.getContent() == null ? head : new SequenceInputStream(head, result.getContent());
+      } catch (final SerializerException e) {
+        release(runner);
+        throw new ODataRuntimeException(e);
+      } catch (final IOException e) {
+        release(runner);
+        throw new ODataRuntimeException(e);
+      }
+      return new FilterInputStream(content) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            release(runner);
+          }
+        }
+      };
+    }
+
+    /** Status line and headers of the result as serialized by the library. */
+    private static InputStream getHead(final ODataResponse result) throws SerializerException {
+      final ODataResponse head = new ODataResponse();
+      head.setStatusCode(result.getStatusCode());
+      for (Map.Entry<String, List<String>> header : result.getAllHeaders().entrySet()) {
+        head.addHeader(header.getKey(), header.getValue());
+      }
+      return OData.newInstance().createFixedFormatSerializer().asyncResponse(head);
+    }
+
+    private static void copyContent(final InputStream input, final OutputStream output) throws IOException {
+      try {
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+          output.write(buffer, 0, count);
+        }
+      } finally {
+        input.close();
+      }
+    }
+  }
+
+  public void handle(HttpServletRequest request, HttpServletResponse response) throws SerializerException, IOException {
+    String id = getAsyncId(request.getRequestURL().toString());
+    ODataContent result = takeResult(id);
+
+    if (result != null) {
+      response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.APPLICATION_HTTP.toContentTypeString());
+      response.setHeader(HttpHeader.CONTENT_ENCODING, "binary");
+      response.setStatus(HttpStatusCode.OK.getStatusCode());
+      OutputStream output = response.getOutputStream();
+      try {
+        result.write(output);
+      } finally {
+        closeStream(output);
+      }
+    } else if (isRunning(id)) {
+      response.setStatus(HttpStatusCode.ACCEPTED.getStatusCode());
+      response.setHeader(HttpHeader.LOCATION, getLocation(id));
+    } else {
+      response.setStatus(HttpStatusCode.NOT_FOUND.getStatusCode());
+    }
+  }
+
   public void listQueue(HttpServletResponse response) {
+    dropExpiredResults();
     StringBuilder sb = new StringBuilder();
     sb.append("<html><header/><body><h1>Queued requests</h1><ul>");
-    for (Map.Entry<String, AsyncRunner> entry : LOCATION_2_ASYNC_RUNNER.entrySet()) {
+    for (Map.Entry<String, AsyncRunner> entry : id2AsyncRunner.entrySet()) {
       AsyncProcessor<?> asyncProcessor = entry.getValue().getDispatched();
       sb.append("<li><b>ID: </b>").append(entry.getKey()).append("<br/>")
           .append("<b>Location: </b><a href=\"")
@@ -167,10 +528,6 @@ public class TechnicalAsyncService {
   }
 
 
-  private static void writeToResponse(HttpServletResponse response, InputStream input) throws IOException {
-    copy(input, response.getOutputStream());
-  }
-
   private void writeToResponse(HttpServletResponse response, String content) {
     writeToResponse(response, content.getBytes());
   }
@@ -187,40 +544,6 @@ public class TechnicalAsyncService {
     }
   }
 
-  static void wrapToAsyncHttpResponse(final ODataResponse odResponse, final HttpServletResponse response)
-      throws SerializerException, IOException {
-    OData odata = OData.newInstance();
-    InputStream odResponseStream = odata.createFixedFormatSerializer().asyncResponse(odResponse);
-
-    response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.APPLICATION_HTTP.toContentTypeString());
-    response.setHeader(HttpHeader.CONTENT_ENCODING, "binary");
-    response.setStatus(HttpStatusCode.OK.getStatusCode());
-
-    writeToResponse(response, odResponseStream);
-  }
-
-  static void copy(final InputStream input, final OutputStream output) {
-    if (output == null || input == null) {
-      return;
-    }
-
-    try {
-      ByteBuffer inBuffer = ByteBuffer.allocate(8192);
-      ReadableByteChannel ic = Channels.newChannel(input);
-      WritableByteChannel oc = Channels.newChannel(output);
-      while (ic.read(inBuffer) > 0) {
-        inBuffer.flip();
-        oc.write(inBuffer);
-        inBuffer.rewind();
-      }
-    } catch (IOException e) {
-      throw new ODataRuntimeException("Error on reading request content");
-    } finally {
-      closeStream(input);
-      closeStream(output);
-    }
-  }
-
   private static void closeStream(final Closeable closeable) {
     if (closeable != null) {
       try {
@@ -231,13 +554,121 @@ public class TechnicalAsyncService {
     }
   }
 
-  private String createNewAsyncLocation(ODataRequest request) {
+  public int getMaxThreads() {
+    return asyncRequestExecutor.getMaximumPoolSize();
+  }
+
+  public int getMaxQueued() {
+    final BlockingQueue<Runnable> queue = asyncRequestExecutor.getQueue();
+    return queue.size() + queue.remainingCapacity();
+  }
+
+  /**
+   * Sets the time (in seconds) the result of an asynchronous request is kept after the processing finished.
+   */
+  public void setResultTtlSeconds(final int resultTtlSeconds) {
+    this.resultTtlSeconds = resultTtlSeconds;
+  }
+
+  public int getResultTtlSeconds() {
+    return resultTtlSeconds;
+  }
+
+  /**
+   * Sets the time (in seconds) a rejected client is asked to wait before it retries.
+   */
+  public void setRetryAfterSeconds(final int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * Sets the size (in bytes) above which results are kept in temporary files instead of memory.
+   */
+  public void setSpillThreshold(final int spillThreshold) {
+    this.spillThreshold = spillThreshold;
+  }
+
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  /**
+   * Sets the maximum time (in seconds) a status monitor request waits for the result.
+   */
+  public void setMaxWaitSeconds(final int maxWaitSeconds) {
+    this.maxWaitSeconds = maxWaitSeconds;
+  }
+
+  public int getMaxWaitSeconds() {
+    return maxWaitSeconds;
+  }
+
+  /** Number of requests waiting for a thread. */
+  public int getQueueSize() {
+    return asyncRequestExecutor.getQueue().size();
+  }
+
+  /** Number of requests being processed. */
+  public int getActiveCount() {
+    return asyncRequestExecutor.getActiveCount();
+  }
+
+  /** Number of results (of finished or unfinished requests) which have not been fetched yet. */
+  public int getResultCount() {
+    return id2AsyncRunner.size();
+  }
+
+  /** Number of requests accepted so far. */
+  public long getAcceptedCount() {
+    return acceptedCount.get();
+  }
+
+  /** Number of requests rejected so far, as the queue was full. */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /** Number of requests processed so far. */
+  public long getFinishedCount() {
+    return finishedCount.get();
+  }
+
+  /** Number of results dropped so far, as they were not fetched within their time to live. */
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  /** Number of results kept in temporary files so far. */
+  public long getSpilledCount() {
+    return spilledCount.get();
+  }
+
+  /** Total size (in bytes) of the results kept in temporary files so far. */
+  public long getSpilledBytes() {
+    return spilledBytes.get();
+  }
+
+  /** Total time (in nanoseconds) the processed requests waited for a thread. */
+  public long getWaitNanos() {
+    return waitNanos.get();
+  }
+
+  /** Total time (in nanoseconds) used to process the requests. */
+  public long getRunNanos() {
+    return runNanos.get();
+  }
+
+  private String createNewAsyncLocation(ODataRequest request, String id) {
     int pos = request.getRawBaseUri().lastIndexOf("/") + 1;
-    return request.getRawBaseUri().substring(0, pos) + STATUS_MONITOR_TOKEN + "/" + ID_GENERATOR.incrementAndGet();
+    return request.getRawBaseUri().substring(0, pos) + STATUS_MONITOR_TOKEN + "/" + id;
   }
 
-  private String getAsyncLocation(HttpServletRequest request) {
-    return request.getRequestURL().toString();
+  private static String getAsyncId(String location) {
+    return location.substring(location.lastIndexOf('/') + 1);
   }
 
   /**
@@ -246,16 +677,31 @@ public class TechnicalAsyncService {
   static class AsyncRunner implements Runnable {
     private static final Pattern PATTERN = Pattern.compile("(" + TEC_ASYNC_SLEEP + "=)(\\d*)");
     private final AsyncProcessor<? extends Processor> dispatched;
+    private final TechnicalAsyncService service;
     private int defaultSleepTimeInSeconds = 0;
     private Exception exception;
-    boolean finished = false;
+    volatile boolean finished = false;
+    private final long createdNanos = System.nanoTime();
+    private long startedNanos;
+    private volatile long finishedNanos;
+    private final List<Runnable> callbacks = new ArrayList<Runnable>();
 
     public AsyncRunner(AsyncProcessor<? extends Processor> wrap) {
-      this(wrap, 0);
+      this(wrap, null);
+    }
+
+    AsyncRunner(AsyncProcessor<? extends Processor> wrap, TechnicalAsyncService service) {
+      this(wrap, service, 0);
     }
 
     public AsyncRunner(AsyncProcessor<? extends Processor> wrap, int defaultSleepTimeInSeconds) {
+      this(wrap, null, defaultSleepTimeInSeconds);
+    }
+
+    private AsyncRunner(AsyncProcessor<? extends Processor> wrap, TechnicalAsyncService service,
+        int defaultSleepTimeInSeconds) {
       this.dispatched = wrap;
+      this.service = service;
       if (defaultSleepTimeInSeconds > 0) {
         this.defaultSleepTimeInSeconds = defaultSleepTimeInSeconds;
       }
@@ -263,18 +709,55 @@ public class TechnicalAsyncService {
 
     @Override
     public void run() {
+      startedNanos = System.nanoTime();
       try {
         int sleep = getSleepTime(dispatched);
         TimeUnit.SECONDS.sleep(sleep);
-        dispatched.process();
+        final Lock lock = dispatched.getDataLock();
+        if (lock == null) {
+          dispatched.process();
+        } else {
+          lock.lock();
+          try {
+            dispatched.process();
+          } finally {
+            lock.unlock();
+          }
+        }
       } catch (final InterruptedException e) {
         exception = e;
       } catch (final InvocationTargetException e) {
         exception = e;
       } catch (final IllegalAccessException e) {
         exception = e;
+      } catch (final RuntimeException e) {
+        exception = e;
+      } finally {
+        finishedNanos = System.nanoTime();
+        if (service != null) {
+          service.finished(this);
+        }
+        final List<Runnable> finishedCallbacks;
+        synchronized (this) {
+          finished = true;
+          finishedCallbacks = new ArrayList<Runnable>(callbacks);
+          callbacks.clear();
+        }
+        for (final Runnable callback : finishedCallbacks) {
+          callback.run();
+        }
+      }
+    }
+
+    /** Calls the callback as soon as the request has been processed (immediately, if it has been). */
+    void whenFinished(final Runnable callback) {
+      synchronized (this) {
+        if (!finished) {
+          callbacks.add(callback);
+          return;
+        }
       }
-      finished = true;
+      callback.run();
     }
 
     private int getSleepTime(AsyncProcessor<? extends Processor> wrap) {
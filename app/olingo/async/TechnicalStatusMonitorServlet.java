@@ -28,8 +28,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Status monitor for asynchronous requests; the {@link TechnicalAsyncService} is taken from the servlet context
+ * attribute {@link #ASYNC_SERVICE_ATTRIBUTE}.
+ */
 public class TechnicalStatusMonitorServlet extends HttpServlet {
 
+  public static final String ASYNC_SERVICE_ATTRIBUTE = TechnicalAsyncService.class.getName();
+
   private static final long serialVersionUID = 1L;
   private static final Logger LOG = LoggerFactory.getLogger(TechnicalStatusMonitorServlet.class);
 
@@ -37,7 +43,8 @@ public class TechnicalStatusMonitorServlet extends HttpServlet {
   protected void service(final HttpServletRequest request, final HttpServletResponse response)
       throws ServletException, IOException {
     try {
-      TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
+      TechnicalAsyncService asyncService =
+          (TechnicalAsyncService) getServletContext().getAttribute(ASYNC_SERVICE_ATTRIBUTE);
       if("/list".equals(request.getPathInfo())) {
         asyncService.listQueue(response);
       } else if(asyncService.isStatusMonitorResource(request)) {
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+
+/**
+ * <p>Changes of one change set, staged on top of the published data.</p>
+ * <p>A published entity is copied when it is changed for the first time within the change set
+ * (see {@link #copy(Entity)}); all other entities are read through to the published data.
+ * Created and deleted entities, changed keys, and the navigation links of the copies and of the created entities
+ * are kept as overlays, so the requests of the change set see their own changes while all other requests
+ * still see the published data, and the cost of a change set depends only on the entities it touches.
+ * Navigation links of copies and created entities point to published (or created) entities, never to copies.</p>
+ * <p>When the change set is committed, the published entities get the state of their copies
+ * (see {@link #publish(Entity)}), so they keep their identity and only their index entries have to be updated.
+ * A change set which is rolled back is simply dropped.
+ * Entities are compared by identity (<code>Entity.equals()</code> compares the complete content).</p>
+ */
+class ChangeSet {
+
+  /** Copies by published entity. */
+  private final Map<Entity, Entity> copies = new IdentityHashMap<Entity, Entity>();
+  /** Published entities by copy. */
+  private final Map<Entity, Entity> originals = new IdentityHashMap<Entity, Entity>();
+  /** Created entities, in the order of their creation. */
+  private final List<Entity> created = new ArrayList<Entity>();
+  /** Entity-set names of the created entities. */
+  private final Map<Entity, String> createdEntitySets = new IdentityHashMap<Entity, String>();
+  /** Entity-set names of the deleted published entities. */
+  private final Map<Entity, String> deleted = new IdentityHashMap<Entity, String>();
+  /** Entity-set names of the copies whose key has been changed. */
+  private final Map<Entity, String> keyChanged = new IdentityHashMap<Entity, String>();
+  /** Names of the entity sets with changed, created, or deleted entities. */
+  private final Set<String> entitySetNames = new HashSet<String>();
+  /** Changed entries of the key indexes by entity-set name; removed keys are mapped to <code>null</code>. */
+  private final Map<String, Map<EntityKey, Entity>> keys = new HashMap<String, Map<EntityKey, Entity>>();
+  /** Navigation links of the copies and of the created entities. */
+  private final LinkIndex linkIndex = new LinkIndex();
+
+  /** Returns the copy of the published entity if it has been changed, or else the entity itself. */
+  Entity getCurrent(final Entity entity) {
+    final Entity copy = copies.get(entity);
+    return copy == null ? entity : copy;
+  }
+
+  /** Returns the published entity of the copy (or the entity itself if it is not a copy). */
+  Entity getOriginal(final Entity entity) {
+    final Entity original = originals.get(entity);
+    return original == null ? entity : original;
+  }
+
+  /** Whether the entity is a copy or has been created within the change set, i.e., can be changed in place. */
+  boolean isStaged(final Entity entity) {
+    return originals.containsKey(entity) || createdEntitySets.containsKey(entity);
+  }
+
+  boolean isDeleted(final Entity entity) {
+    return deleted.containsKey(entity);
+  }
+
+  /**
+   * Copies the published entity before it is changed for the first time: its properties (including complex values
+   * and collections) and its navigation links; the targets of the links are not copied.
+   * @return the copy to be changed instead of the published entity
+   */
+  Entity copy(final String entitySetName, final Entity entity) {
+    final Entity copy = new Entity();
+    copy.setType(entity.getType());
+    copy.setId(entity.getId());
+    copy.setETag(entity.getETag());
+    copy.setMediaETag(entity.getMediaETag());
+    copy.setMediaContentType(entity.getMediaContentType());
+    copy.getMediaEditLinks().addAll(entity.getMediaEditLinks());
+    copy.getProperties().addAll(PropertyCopier.copyProperties(entity.getProperties()));
+    for (final Link link : entity.getNavigationLinks()) {
+      final Link linkCopy = PropertyCopier.copyLink(link);
+      copy.getNavigationLinks().add(linkCopy);
+      linkIndex.addLink(copy, linkCopy);
+    }
+    copies.put(entity, copy);
+    originals.put(copy, entity);
+    entitySetNames.add(entitySetName);
+    return copy;
+  }
+
+  void created(final String entitySetName, final Entity entity) {
+    created.add(entity);
+    createdEntitySets.put(entity, entitySetName);
+    entitySetNames.add(entitySetName);
+  }
+
+  /** Records the deletion of the (current) entity; its links are no longer part of the data. */
+  void deleted(final String entitySetName, final Entity entity) {
+    if (createdEntitySets.remove(entity) != null) {
+      removeLinks(entity);
+      for (int index = 0; index < created.size(); index++) {
+        if (created.get(index) == entity) {
+          created.remove(index);
+          break;
+        }
+      }
+    } else {
+      final Entity original = getOriginal(entity);
+      final Entity copy = copies.remove(original);
+      if (copy != null) {
+        removeLinks(copy);
+        originals.remove(copy);
+        keyChanged.remove(copy);
+      }
+      deleted.put(original, entitySetName);
+    }
+    entitySetNames.add(entitySetName);
+  }
+
+  private void removeLinks(final Entity entity) {
+    for (final Link link : entity.getNavigationLinks()) {
+      linkIndex.removeLink(entity, link);
+    }
+  }
+
+  void keyChanged(final String entitySetName, final Entity entity) {
+    if (originals.containsKey(entity)) {
+      keyChanged.put(entity, entitySetName);
+    }
+  }
+
+  /** Whether the change set has changed, created, or deleted entities of the entity set. */
+  boolean isTouched(final String entitySetName) {
+    return entitySetNames.contains(entitySetName);
+  }
+
+  /** Changed entries of the key index of the entity set; removed keys are mapped to <code>null</code>. */
+  Map<EntityKey, Entity> getKeys(final String entitySetName) {
+    Map<EntityKey, Entity> entitySetKeys = keys.get(entitySetName);
+    if (entitySetKeys == null) {
+      entitySetKeys = new HashMap<EntityKey, Entity>();
+      keys.put(entitySetName, entitySetKeys);
+    }
+    return entitySetKeys;
+  }
+
+  /** Navigation links of the copies and of the created entities, by (published or created) target. */
+  LinkIndex getLinkIndex() {
+    return linkIndex;
+  }
+
+  /**
+   * Returns the entities linking to the given (published or created) target entity together with the names
+   * of the navigation properties used: the copies and created entities, and the published entities
+   * which have not been copied (or deleted).
+   */
+  Map<Entity, Set<String>> getSources(final Entity target, final LinkIndex publishedLinkIndex) {
+    final Map<Entity, Set<String>> sources = new IdentityHashMap<Entity, Set<String>>();
+    for (final Map.Entry<Entity, Set<String>> entry : publishedLinkIndex.getSources(target).entrySet()) {
+      if (!copies.containsKey(entry.getKey()) && !deleted.containsKey(entry.getKey())) {
+        sources.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+      }
+    }
+    for (final Map.Entry<Entity, Set<String>> entry : linkIndex.getSources(target).entrySet()) {
+      sources.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+    }
+    return sources;
+  }
+
+  /**
+   * Returns the entities of the entity set as seen within the change set: the published entities
+   * (or their copies) without the deleted ones, followed by the created entities.
+   */
+  EntityCollection getEntities(final String entitySetName, final EntityCollection published) {
+    final EntityCollection entityCollection = new EntityCollection();
+    final List<Entity> entities = entityCollection.getEntities();
+    for (final Entity entity : published.getEntities()) {
+      if (!deleted.containsKey(entity)) {
+        entities.add(getCurrent(entity));
+      }
+    }
+    for (final Entity entity : created) {
+      if (entitySetName.equals(createdEntitySets.get(entity))) {
+        entities.add(entity);
+      }
+    }
+    return entityCollection;
+  }
+
+  boolean isEmpty() {
+    return copies.isEmpty() && created.isEmpty() && deleted.isEmpty();
+  }
+
+  /** Copies of the changed published entities (not deleted). */
+  Iterable<Entity> getChanged() {
+    return originals.keySet();
+  }
+
+  /** Created entities (not deleted), in the order of their creation. */
+  List<Entity> getCreated() {
+    return created;
+  }
+
+  /** Entity-set name of the created entity. */
+  String getEntitySetName(final Entity created) {
+    return createdEntitySets.get(created);
+  }
+
+  /** Entity-set names of the deleted published entities. */
+  Map<Entity, String> getDeleted() {
+    return deleted;
+  }
+
+  /** Entity-set names of the copies whose key has been changed (not deleted). */
+  Map<Entity, String> getKeyChanged() {
+    return keyChanged;
+  }
+
+  /**
+   * Gives the published entity the state of its copy: properties, navigation links, and ETags.
+   * The copy must not be used afterwards.
+   */
+  void publish(final Entity copy) {
+    final Entity entity = originals.get(copy);
+    entity.getProperties().clear();
+    entity.getProperties().addAll(copy.getProperties());
+    entity.getNavigationLinks().clear();
+    entity.getNavigationLinks().addAll(copy.getNavigationLinks());
+    entity.setETag(copy.getETag());
+    entity.setMediaETag(copy.getMediaETag());
+    entity.setMediaContentType(copy.getMediaContentType());
+  }
+}
@@ -20,16 +20,24 @@ package olingo.data;
 
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.olingo.commons.api.data.ComplexValue;
 import org.apache.olingo.commons.api.data.Entity;
@@ -41,18 +49,12 @@ import org.apache.olingo.commons.api.edm.Edm;
 import org.apache.olingo.commons.api.edm.EdmComplexType;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
-import org.apache.olingo.commons.api.edm.EdmEnumType;
 import org.apache.olingo.commons.api.edm.EdmFunction;
 import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
 import org.apache.olingo.commons.api.edm.EdmParameter;
-import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
-import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
-import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.apache.olingo.commons.api.edm.EdmProperty;
 import org.apache.olingo.commons.api.edm.EdmStructuredType;
 import org.apache.olingo.commons.api.edm.EdmType;
-import org.apache.olingo.commons.api.edm.EdmTypeDefinition;
-import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.apache.olingo.commons.api.edm.constants.EdmTypeKind;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
@@ -63,98 +65,617 @@ import org.apache.olingo.server.api.uri.UriInfoResource;
 import org.apache.olingo.server.api.uri.UriParameter;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
 
+/**
+ * <p>Provides the data of the technical service.</p>
+ * <p>One instance is meant to be seeded once (via the {@link DataCreator}) and then shared by all requests.
+ * Reading requests have to hold the {@link #readLock()}, modifying requests the {@link #writeLock()}
+ * while they access the data. Streamed responses are serialized after the lock has been released, from a snapshot
+ * of their entities taken within the lock (see <code>EntityView.snapshot</code>), as committed change sets
+ * and modifying requests change the published entities in place.</p>
+ * <p>Changes within a change set are staged on top of the published data (see {@link ChangeSet}) and are seen
+ * only by the thread running the change set; they are published as a whole with the commit, holding the write lock
+ * only meanwhile, or simply dropped with the rollback. Change sets exclude each other and all modifying requests,
+ * but not the readers. Navigation links always point to published (or created) entities, so within a change set
+ * their targets have to be read via {@link #getCurrent(Entity)}.</p>
+ */
 public class DataProvider {
 
   protected static final String MEDIA_PROPERTY_NAME = "$value";
-  private AtomicInteger KEY_INT_16 = new AtomicInteger(0);
-  private AtomicInteger KEY_INT_32 = new AtomicInteger(0);
-  private AtomicLong KEY_INT_64 = new AtomicLong(0);
-  private AtomicLong KEY_STRING = new AtomicLong(0);
 
-  private Map<String, EntityCollection> data;
+  /** Published data, seen by all requests outside of change sets. */
+  private State published;
+  /** Change set running in the current thread, if any. */
+  private final ThreadLocal<ChangeSet> runningChangeSet = new ThreadLocal<ChangeSet>();
+  /** Key allocators by entity-set name; created with the first new entity of the entity set. */
+  private Map<String, KeyAllocator> keyAllocators = new HashMap<String, KeyAllocator>();
   private final OData odata;
   private final Edm edm;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** Held by the only writer: a modifying request (as part of the {@link #writeLock()}) or a change set. */
+  private final ReentrantLock changeLock = new ReentrantLock();
+  private final Lock writeLock = new WriterLock();
+
+  /** Data with the indexes derived from it. */
+  private static final class State {
+    private final Map<String, EntityCollection> data;
+    /** Entities of each entity set (by name) by their key; kept in sync by all modifying methods. */
+    private final Map<String, Map<EntityKey, Entity>> keyIndex;
+    /** Navigation links by their target entity; kept in sync by all methods modifying links. */
+    private final LinkIndex linkIndex;
+    /** Entity-set names of all entities, telling them from other entities (e.g., results of functions). */
+    private final Map<Entity, String> entitySetNames = new IdentityHashMap<Entity, String>();
+    /** Search indexes by entity-set name; created with the first search in the entity set, then kept in sync. */
+    private final Map<String, SearchIndex> searchIndexes = new HashMap<String, SearchIndex>();
+    /**
+     * Secondary indexes by entity-set name and property name; created on declaration, then kept in sync.
+     * Change sets do not use them for the entity sets they change, so their queries scan the entities.
+     */
+    private Map<String, Map<String, SecondaryIndex>> secondaryIndexes =
+        new HashMap<String, Map<String, SecondaryIndex>>();
+
+    private State(final Map<String, EntityCollection> data, final Map<String, Map<EntityKey, Entity>> keyIndex,
+        final LinkIndex linkIndex) {
+      this.data = data;
+      this.keyIndex = keyIndex;
+      this.linkIndex = linkIndex;
+      for (final Map.Entry<String, EntityCollection> entry : data.entrySet()) {
+        for (final Entity entity : entry.getValue().getEntities()) {
+          entitySetNames.put(entity, entry.getKey());
+        }
+      }
+    }
+  }
 
   public DataProvider(final OData odata, final Edm edm) {
     this.odata = odata;
     this.edm = edm;
-    data = new DataCreator(odata, edm).getData();
+    final Map<String, EntityCollection> data = seed();
+    published = new State(data, createKeyIndex(data), LinkIndex.of(data));
+  }
+
+  /**
+   * Creates the initial data. Each entity set of the container gets its (possibly empty) collection,
+   * so no request has to add one while it holds only the read lock.
+   */
+  private Map<String, EntityCollection> seed() {
+    Map<String, EntityCollection> seeded = new DataCreator(odata, edm).getData();
+    for (final EdmEntitySet edmEntitySet : edm.getEntityContainer().getEntitySets()) {
+      if (!seeded.containsKey(edmEntitySet.getName())) {
+        seeded.put(edmEntitySet.getName(), new EntityCollection());
+      }
+    }
+    return seeded;
+  }
+
+  private Map<String, Map<EntityKey, Entity>> createKeyIndex(final Map<String, EntityCollection> data) {
+    Map<String, Map<EntityKey, Entity>> index = new HashMap<String, Map<EntityKey, Entity>>();
+    for (final Map.Entry<String, EntityCollection> entry : data.entrySet()) {
+      final EdmEntitySet edmEntitySet = edm.getEntityContainer().getEntitySet(entry.getKey());
+      final Map<EntityKey, Entity> entities = new HashMap<EntityKey, Entity>();
+      for (final Entity entity : entry.getValue().getEntities()) {
+        try {
+          final EntityKey key = EntityKey.of(edmEntitySet.getEntityType(), entity);
+          // As with a sequential search the first entity with a given key wins.
+          if (!entities.containsKey(key)) {
+            entities.put(key, entity);
+          }
+        } catch (final DataProviderException e) {
+          throw new IllegalStateException("Invalid key in initial data of " + entry.getKey(), e);
+        }
+      }
+      index.put(entry.getKey(), entities);
+    }
+    return index;
+  }
+
+  /** Creates the given secondary indexes again for the given data. */
+  private Map<String, Map<String, SecondaryIndex>> createSecondaryIndexes(final Map<String, EntityCollection> data,
+      final Map<String, Map<String, SecondaryIndex>> declared) {
+    Map<String, Map<String, SecondaryIndex>> indexes = new HashMap<String, Map<String, SecondaryIndex>>();
+    for (final Map.Entry<String, Map<String, SecondaryIndex>> entry : declared.entrySet()) {
+      final Map<String, SecondaryIndex> entitySetIndexes = new LinkedHashMap<String, SecondaryIndex>();
+      for (final SecondaryIndex index : entry.getValue().values()) {
+        try {
+          entitySetIndexes.put(index.getPropertyName(),
+              SecondaryIndex.of(data.get(entry.getKey()), index.getEdmProperty(), index.getKind()));
+        } catch (final DataProviderException e) {
+          throw new IllegalStateException("Invalid index for " + entry.getKey(), e);
+        }
+      }
+      indexes.put(entry.getKey(), entitySetIndexes);
+    }
+    return indexes;
+  }
+
+  /**
+   * Published key index of the entity set; the key indexes of all entity sets are created together with the data
+   * (see {@link #createKeyIndex(Map)}), so readers never change the map of indexes.
+   */
+  private Map<EntityKey, Entity> getKeyIndex(final EdmEntitySet edmEntitySet) throws DataProviderException {
+    final Map<EntityKey, Entity> entities = published.keyIndex.get(edmEntitySet.getName());
+    if (entities == null) {
+      throw new DataProviderException("Entity set " + edmEntitySet.getName() + " not found",
+          HttpStatusCode.NOT_FOUND);
+    }
+    return entities;
+  }
+
+  /**
+   * Lock which must be held by requests which only read data.
+   */
+  public Lock readLock() {
+    return lock.readLock();
+  }
+
+  /**
+   * Lock which must be held by requests which (might) modify data.
+   * It also waits for a running change set to end (see {@link #beginChangeSet()}).
+   */
+  public Lock writeLock() {
+    return writeLock;
+  }
+
+  /**
+   * Drops all data (including all modifications) and seeds the initial data again.
+   */
+  public void reset() {
+    writeLock.lock();
+    try {
+      final Map<String, EntityCollection> data = seed();
+      final State state = new State(data, createKeyIndex(data), LinkIndex.of(data));
+      state.secondaryIndexes = createSecondaryIndexes(data, published.secondaryIndexes);
+      published = state;
+      keyAllocators = new HashMap<String, KeyAllocator>();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Starts a change set in the current thread: all following changes of this thread are staged in the change set
+   * until it is committed or rolled back; other threads still see the published data.
+   * The change set waits for and then blocks all other writers; the caller must not hold the {@link #readLock()}.
+   */
+  public void beginChangeSet() {
+    if (runningChangeSet.get() != null) {
+      throw new IllegalStateException("Change set already started.");
+    }
+    changeLock.lock();
+    runningChangeSet.set(new ChangeSet());
+  }
+
+  /**
+   * Commits the change set running in the current thread: its changes are published (see {@link ChangeSet}),
+   * holding the write lock only while the entity sets and the index entries of the changed entities are updated.
+   */
+  public void commitChangeSet() {
+    final ChangeSet changeSet = endChangeSet();
+    if (changeSet != null) {
+      try {
+        if (!changeSet.isEmpty()) {
+          publish(changeSet);
+        }
+      } finally {
+        changeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Rolls back the change set running in the current thread: its changes are dropped;
+   * the published data and its indexes have not been touched. Keys reserved meanwhile are not handed out again.
+   */
+  public void rollbackChangeSet() {
+    if (endChangeSet() != null) {
+      changeLock.unlock();
+    }
+  }
+
+  private ChangeSet endChangeSet() {
+    final ChangeSet changeSet = runningChangeSet.get();
+    runningChangeSet.remove();
+    return changeSet;
+  }
+
+  /**
+   * Publishes the changes of the change set. Everything that depends only on the change set is prepared before,
+   * so the write lock is held only while the published entities and their index entries are updated.
+   * The change set still holds the {@link #changeLock}, so no other writer changes the published data meanwhile.
+   */
+  private void publish(final ChangeSet changeSet) {
+    final State state = published;
+    // The published entities have their former state until they are published, so their keys are the former keys.
+    final Map<Entity, EntityKey> formerKeys = new IdentityHashMap<Entity, EntityKey>();
+    final Map<Entity, EntityKey> keys = new IdentityHashMap<Entity, EntityKey>();
+    for (final Map.Entry<Entity, String> entry : changeSet.getDeleted().entrySet()) {
+      formerKeys.put(entry.getKey(), getKey(entry.getValue(), entry.getKey()));
+    }
+    for (final Map.Entry<Entity, String> entry : changeSet.getKeyChanged().entrySet()) {
+      formerKeys.put(entry.getKey(), getKey(entry.getValue(), changeSet.getOriginal(entry.getKey())));
+      keys.put(entry.getKey(), getKey(entry.getValue(), entry.getKey()));
+    }
+    for (final Entity entity : changeSet.getCreated()) {
+      keys.put(entity, getKey(changeSet.getEntitySetName(entity), entity));
+    }
+    // Only the entity sets with deleted entities are filtered; all others just get the created entities appended.
+    final Map<String, List<Entity>> entitySets = new HashMap<String, List<Entity>>();
+    for (final String entitySetName : new LinkedHashSet<String>(changeSet.getDeleted().values())) {
+      final List<Entity> entities = new ArrayList<Entity>();
+      for (final Entity entity : state.data.get(entitySetName).getEntities()) {
+        if (!changeSet.getDeleted().containsKey(entity)) {
+          entities.add(entity);
+        }
+      }
+      entitySets.put(entitySetName, entities);
+    }
+
+    lock.writeLock().lock();
+    try {
+      for (final Map.Entry<Entity, String> entry : changeSet.getDeleted().entrySet()) {
+        final Entity entity = entry.getKey();
+        for (final Link link : entity.getNavigationLinks()) {
+          state.linkIndex.removeLink(entity, link);
+        }
+        state.entitySetNames.remove(entity);
+        final Map<EntityKey, Entity> index = state.keyIndex.get(entry.getValue());
+        final EntityKey key = formerKeys.get(entity);
+        if (index.get(key) == entity) {
+          index.remove(key);
+        }
+        final KeyAllocator keyAllocator = keyAllocators.get(entry.getValue());
+        if (keyAllocator != null) {
+          keyAllocator.remove(key);
+        }
+        final SearchIndex searchIndex = state.searchIndexes.get(entry.getValue());
+        if (searchIndex != null) {
+          searchIndex.remove(entity);
+        }
+        for (final SecondaryIndex secondaryIndex : getIndexes(state, entry.getValue())) {
+          secondaryIndex.remove(entity);
+        }
+      }
+      // The lists are changed in place, as the secondary indexes refer to them.
+      for (final Map.Entry<String, List<Entity>> entry : entitySets.entrySet()) {
+        final List<Entity> entities = state.data.get(entry.getKey()).getEntities();
+        entities.clear();
+        entities.addAll(entry.getValue());
+      }
+      for (final Entity copy : changeSet.getChanged()) {
+        final Entity entity = changeSet.getOriginal(copy);
+        for (final Link link : entity.getNavigationLinks()) {
+          state.linkIndex.removeLink(entity, link);
+        }
+        changeSet.publish(copy);
+        for (final Link link : entity.getNavigationLinks()) {
+          state.linkIndex.addLink(entity, link);
+        }
+        updateIndexes(state, entity);
+      }
+      for (final Map.Entry<Entity, String> entry : changeSet.getKeyChanged().entrySet()) {
+        final Entity entity = changeSet.getOriginal(entry.getKey());
+        final Map<EntityKey, Entity> index = state.keyIndex.get(entry.getValue());
+        final EntityKey formerKey = formerKeys.get(entry.getKey());
+        if (index.get(formerKey) == entity) {
+          index.remove(formerKey);
+        }
+        index.put(keys.get(entry.getKey()), entity);
+        final KeyAllocator keyAllocator = keyAllocators.get(entry.getValue());
+        if (keyAllocator != null) {
+          keyAllocator.remove(formerKey);
+          keyAllocator.add(keys.get(entry.getKey()));
+        }
+      }
+      for (final Entity entity : changeSet.getCreated()) {
+        final String entitySetName = changeSet.getEntitySetName(entity);
+        state.data.get(entitySetName).getEntities().add(entity);
+        state.entitySetNames.put(entity, entitySetName);
+        state.keyIndex.get(entitySetName).put(keys.get(entity), entity);
+        for (final Link link : entity.getNavigationLinks()) {
+          state.linkIndex.addLink(entity, link);
+        }
+        final SearchIndex searchIndex = state.searchIndexes.get(entitySetName);
+        if (searchIndex != null) {
+          searchIndex.add(entity);
+        }
+        for (final SecondaryIndex secondaryIndex : getIndexes(state, entitySetName)) {
+          secondaryIndex.add(entity);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private EntityKey getKey(final String entitySetName, final Entity entity) {
+    try {
+      return EntityKey.of(edm.getEntityContainer().getEntitySet(entitySetName).getEntityType(), entity);
+    } catch (final DataProviderException e) {
+      throw new IllegalStateException("Invalid key in " + entitySetName, e);
+    }
+  }
+
+  /**
+   * Records that the given entity is going to be changed in place outside of this data provider
+   * (e.g., a property got from the entity is changed), so a change set publishes the change with its commit.
+   * Within a change set a published entity is copied with its first change, so the change has to be made
+   * in the returned entity. All methods of this data provider record the entities they change themselves.
+   * @return the entity to be changed
+   */
+  public Entity recordChange(final Entity entity) {
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet == null || changeSet.isStaged(entity)) {
+      return entity;
+    }
+    final Entity current = changeSet.getCurrent(entity);
+    if (current != entity) {
+      return current;
+    }
+    // Entities which are not (or no longer) part of the published data are changed in place.
+    final String entitySetName = published.entitySetNames.get(entity);
+    return entitySetName == null || changeSet.isDeleted(entity) ? entity : changeSet.copy(entitySetName, entity);
+  }
+
+  /**
+   * Returns the entity as seen by the current thread: within a change set its changed copy (if any),
+   * or else the entity itself.
+   */
+  public Entity getCurrent(final Entity entity) {
+    final ChangeSet changeSet = runningChangeSet.get();
+    return changeSet == null || entity == null ? entity : changeSet.getCurrent(entity);
+  }
+
+  /**
+   * Returns the entities of the collection (e.g., the targets of a navigation link) as seen by the current thread
+   * (see {@link #getCurrent(Entity)}).
+   */
+  public EntityCollection getCurrent(final EntityCollection entityCollection) {
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet == null || entityCollection == null) {
+      return entityCollection;
+    }
+    final EntityCollection current = new EntityCollection();
+    for (final Entity entity : entityCollection.getEntities()) {
+      current.getEntities().add(changeSet.getCurrent(entity));
+    }
+    return current;
+  }
+
+  /** Returns the published entity of a copy made within the current change set, or else the entity itself. */
+  private Entity getOriginal(final Entity entity) {
+    final ChangeSet changeSet = runningChangeSet.get();
+    return changeSet == null ? entity : changeSet.getOriginal(entity);
+  }
+
+  /** Link index of the change set running in the current thread, or else of the published data. */
+  private LinkIndex getLinkIndex() {
+    final ChangeSet changeSet = runningChangeSet.get();
+    return changeSet == null ? published.linkIndex : changeSet.getLinkIndex();
   }
 
   public EntityCollection readAll(final EdmEntitySet edmEntitySet) throws DataProviderException {
-    EntityCollection entityCollection = data.get(edmEntitySet.getName());
+    final EntityCollection entityCollection = published.data.get(edmEntitySet.getName());
     if (entityCollection == null) {
-      entityCollection = new EntityCollection();
-      data.put(edmEntitySet.getName(), entityCollection);
+      throw new DataProviderException("Entity set " + edmEntitySet.getName() + " not found",
+          HttpStatusCode.NOT_FOUND);
+    }
+    final ChangeSet changeSet = runningChangeSet.get();
+    return changeSet == null || !changeSet.isTouched(edmEntitySet.getName()) ? entityCollection :
+        changeSet.getEntities(edmEntitySet.getName(), entityCollection);
+  }
+
+  /** The data as seen by the current thread (see {@link #readAll(EdmEntitySet)}). */
+  private Map<String, EntityCollection> getData() {
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet == null) {
+      return published.data;
     }
-    return entityCollection;
+    final Map<String, EntityCollection> data = new HashMap<String, EntityCollection>(published.data);
+    for (final Map.Entry<String, EntityCollection> entry : published.data.entrySet()) {
+      if (changeSet.isTouched(entry.getKey())) {
+        data.put(entry.getKey(), changeSet.getEntities(entry.getKey(), entry.getValue()));
+      }
+    }
+    return data;
   }
 
   public Entity read(final EdmEntitySet edmEntitySet, final List<UriParameter> keys) throws DataProviderException {
-    final EntityCollection entitySet = readAll(edmEntitySet);
-    return entitySet == null ? null : read(edmEntitySet.getEntityType(), entitySet, keys);
+    final Map<EntityKey, Entity> index = getKeyIndex(edmEntitySet);
+    final EntityKey key = EntityKey.of(edmEntitySet.getEntityType(), keys);
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet != null) {
+      final Map<EntityKey, Entity> changedKeys = changeSet.getKeys(edmEntitySet.getName());
+      if (changedKeys.containsKey(key)) {
+        return changedKeys.get(key);
+      }
+      final Entity entity = index.get(key);
+      return entity == null ? null : changeSet.getCurrent(entity);
+    }
+    return index.get(key);
   }
 
-  public Entity read(final EdmEntityType edmEntityType, final EntityCollection entitySet,
+  /**
+   * Reads the entity with the given key from a part of the entity set,
+   * e.g., from the entities of a collection-valued navigation property bound to the entity set.
+   */
+  public Entity read(final EdmEntitySet edmEntitySet, final EntityCollection entitySubset,
       final List<UriParameter> keys) throws DataProviderException {
-    try {
-      for (final Entity entity : entitySet.getEntities()) {
-        boolean found = true;
-        for (final UriParameter key : keys) {
-          final EdmProperty property = (EdmProperty) edmEntityType.getProperty(key.getName());
-          final EdmPrimitiveType type = (EdmPrimitiveType) property.getType();
-          final Object value = entity.getProperty(key.getName()).getValue();
-          final Object keyValue = type.valueOfString(type.fromUriLiteral(key.getText()),
-              property.isNullable(), property.getMaxLength(), property.getPrecision(), property.getScale(),
-              property.isUnicode(), value.getClass());
-//              Calendar.class.isAssignableFrom(value.getClass()) ? Calendar.class : value.getClass());
-          if (!value.equals(keyValue)) {
-            found = false;
-            break;
-          }
-        }
-        if (found) {
+    final Entity entity = read(edmEntitySet, keys);
+    if (entity != null && entitySubset != null) {
+      final Entity original = getOriginal(entity);
+      for (final Entity candidate : entitySubset.getEntities()) {
+        if (candidate == entity || candidate == original) {
           return entity;
         }
       }
-      return null;
-    } catch (final EdmPrimitiveTypeException e) {
-      throw new DataProviderException("Wrong key!", HttpStatusCode.BAD_REQUEST, e);
     }
+    return null;
+  }
+
+  /**
+   * Reads the entity with the given key from an arbitrary collection (e.g., the result of a function)
+   * by comparing the keys of all its entities.
+   */
+  public Entity read(final EdmEntityType edmEntityType, final EntityCollection entitySet,
+      final List<UriParameter> keys) throws DataProviderException {
+    final EntityKey key = EntityKey.of(edmEntityType, keys);
+    for (final Entity entity : entitySet.getEntities()) {
+      final Entity current = getCurrent(entity);
+      if (key.equals(EntityKey.of(edmEntityType, current))) {
+        return current;
+      }
+    }
+    return null;
   }
 
   public void delete(final EdmEntitySet edmEntitySet, final Entity entity) throws DataProviderException {
+    final Map<EntityKey, Entity> index = getKeyIndex(edmEntitySet);
+    final ChangeSet changeSet = runningChangeSet.get();
+    final EntityKey key = EntityKey.of(edmEntitySet.getEntityType(), getCurrent(entity));
     deleteLinksTo(entity);
-    readAll(edmEntitySet).getEntities().remove(entity);
+    if (changeSet != null) {
+      // The published entity set and its indexes are updated with the commit.
+      changeSet.deleted(edmEntitySet.getName(), getCurrent(entity));
+      changeSet.getKeys(edmEntitySet.getName()).put(key, null);
+      return;
+    }
+    // The links of the deleted entity itself are kept but are no longer part of the data.
+    for (final Link link : entity.getNavigationLinks()) {
+      published.linkIndex.removeLink(entity, link);
+    }
+    removeIdentical(readAll(edmEntitySet).getEntities(), entity);
+    published.entitySetNames.remove(entity);
+    if (index.get(key) == entity) {
+      index.remove(key);
+    }
+    final KeyAllocator keyAllocator = keyAllocators.get(edmEntitySet.getName());
+    if (keyAllocator != null) {
+      keyAllocator.remove(key);
+    }
+    final SearchIndex searchIndex = published.searchIndexes.get(edmEntitySet.getName());
+    if (searchIndex != null) {
+      searchIndex.remove(entity);
+    }
+    for (final SecondaryIndex secondaryIndex : getIndexes(edmEntitySet)) {
+      secondaryIndex.remove(entity);
+    }
   }
 
+  /**
+   * Updates the key index after the value of a key property of the given entity has been changed.
+   */
+  public void updateKey(final EdmEntitySet edmEntitySet, final Entity entity) throws DataProviderException {
+    final Map<EntityKey, Entity> index = getKeyIndex(edmEntitySet);
+    final EntityKey key = EntityKey.of(edmEntitySet.getEntityType(), entity);
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet != null) {
+      // The published key index is updated with the commit; meanwhile the change set overlays its entries.
+      final Map<EntityKey, Entity> changedKeys = changeSet.getKeys(edmEntitySet.getName());
+      for (final Map.Entry<EntityKey, Entity> entry : changedKeys.entrySet()) {
+        if (entry.getValue() == entity) {
+          entry.setValue(null);
+        }
+      }
+      final Entity original = changeSet.getOriginal(entity);
+      if (original != entity) {
+        final EntityKey formerKey = EntityKey.of(edmEntitySet.getEntityType(), original);
+        if (index.get(formerKey) == original && !changedKeys.containsKey(formerKey)) {
+          changedKeys.put(formerKey, null);
+        }
+      }
+      changedKeys.put(key, entity);
+      changeSet.keyChanged(edmEntitySet.getName(), entity);
+      return;
+    }
+    final KeyAllocator keyAllocator = keyAllocators.get(edmEntitySet.getName());
+    for (Iterator<Map.Entry<EntityKey, Entity>> iterator = index.entrySet().iterator(); iterator.hasNext();) {
+      final Map.Entry<EntityKey, Entity> entry = iterator.next();
+      if (entry.getValue() == entity) {
+        if (keyAllocator != null) {
+          keyAllocator.remove(entry.getKey());
+        }
+        iterator.remove();
+        break;
+      }
+    }
+    index.put(key, entity);
+    if (keyAllocator != null) {
+      keyAllocator.add(key);
+    }
+    for (final SecondaryIndex secondaryIndex : getIndexes(edmEntitySet)) {
+      secondaryIndex.update(entity);
+    }
+  }
+
+  /**
+   * Removes all navigation links to the given entity.
+   * Only the links found in the link index are touched.
+   */
   public void deleteLinksTo(final Entity to) throws DataProviderException {
-    for (final String entitySetName : data.keySet()) {
-      for (final Entity entity : data.get(entitySetName).getEntities()) {
-        for (Iterator<Link> linkIterator = entity.getNavigationLinks().iterator(); linkIterator.hasNext();) {
-          final Link link = linkIterator.next();
-          if (to.equals(link.getInlineEntity())) {
-            linkIterator.remove();
-          } else if (link.getInlineEntitySet() != null) {
-            for (Iterator<Entity> iterator = link.getInlineEntitySet().getEntities().iterator(); iterator.hasNext();) {
-              if (to.equals(iterator.next())) {
-                iterator.remove();
-              }
-            }
-            if (link.getInlineEntitySet().getEntities().isEmpty()) {
-              linkIterator.remove();
-            }
+    final ChangeSet changeSet = runningChangeSet.get();
+    // Links point to published (or created) entities, never to copies.
+    final Entity target = getOriginal(to);
+    final Map<Entity, Set<String>> sources = changeSet == null ?
+        published.linkIndex.removeTarget(target) :
+        changeSet.getSources(target, published.linkIndex);
+    for (final Map.Entry<Entity, Set<String>> source : sources.entrySet()) {
+      final Entity entity = recordChange(source.getKey());
+      final List<Link> links = entity.getNavigationLinks();
+      for (final String navigationPropertyName : source.getValue()) {
+        final Link link = entity.getNavigationLink(navigationPropertyName);
+        if (link == null) {
+          continue;
+        }
+        if (link.getInlineEntity() == target) {
+          links.remove(link);
+        } else if (link.getInlineEntitySet() != null) {
+          while (removeIdentical(link.getInlineEntitySet().getEntities(), target)) {
+            // Remove all occurrences.
+          }
+          if (link.getInlineEntitySet().getEntities().isEmpty()) {
+            links.remove(link);
           }
         }
       }
     }
+    if (changeSet != null) {
+      changeSet.getLinkIndex().removeTarget(target);
+    }
+  }
+
+  private static boolean containsIdentical(final List<Entity> entities, final Entity entity) {
+    for (final Entity candidate : entities) {
+      if (candidate == entity) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the first occurrence of the given entity (compared by identity) from the list.
+   * @return <code>true</code> if the entity has been found
+   */
+  private static boolean removeIdentical(final List<Entity> entities, final Entity entity) {
+    for (Iterator<Entity> iterator = entities.iterator(); iterator.hasNext();) {
+      if (iterator.next() == entity) {
+        iterator.remove();
+        return true;
+      }
+    }
+    return false;
   }
 
   public Entity create(final EdmEntitySet edmEntitySet) throws DataProviderException {
+    return create(edmEntitySet, reserveKeys(edmEntitySet, 1).get(0));
+  }
+
+  /**
+   * Creates a new entity with a key reserved before via {@link #reserveKeys(EdmEntitySet, int)}.
+   */
+  public Entity create(final EdmEntitySet edmEntitySet, final Map<String, Object> newKey)
+      throws DataProviderException {
     final EdmEntityType edmEntityType = edmEntitySet.getEntityType();
-    EntityCollection entitySet = readAll(edmEntitySet);
-    final List<Entity> entities = entitySet.getEntities();
-    final Map<String, Object> newKey = findFreeComposedKey(entities, edmEntityType);
+    final Map<EntityKey, Entity> index = getKeyIndex(edmEntitySet);
     Entity newEntity = new Entity();
     newEntity.setType(edmEntityType.getFullQualifiedName().getFullQualifiedNameAsString());
     for (final String keyName : edmEntityType.getKeyPredicateNames()) {
@@ -167,74 +688,107 @@ public class DataProvider {
     } catch (final SerializerException e) {
       throw new DataProviderException("Unable to set entity ID!", HttpStatusCode.INTERNAL_SERVER_ERROR, e);
     }
-    entities.add(newEntity);
+    final EntityKey key = EntityKey.of(edmEntityType, newEntity);
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet != null) {
+      // The published entity set and its indexes get the entity with the commit.
+      changeSet.created(edmEntitySet.getName(), newEntity);
+      changeSet.getKeys(edmEntitySet.getName()).put(key, newEntity);
+      return newEntity;
+    }
+    readAll(edmEntitySet).getEntities().add(newEntity);
+    published.entitySetNames.put(newEntity, edmEntitySet.getName());
+    index.put(key, newEntity);
+    final SearchIndex searchIndex = published.searchIndexes.get(edmEntitySet.getName());
+    if (searchIndex != null) {
+      searchIndex.add(newEntity);
+    }
+    for (final SecondaryIndex secondaryIndex : getIndexes(edmEntitySet)) {
+      secondaryIndex.add(newEntity);
+    }
 
     return newEntity;
   }
 
-  private Map<String, Object> findFreeComposedKey(final List<Entity> entities, final EdmEntityType entityType)
+  /**
+   * Reserves a block of free keys for new entities of the given entity set.
+   * The keys are not handed out again, even if no entity is created with them.
+   * @return the key property values (by key property name) of each reserved key
+   */
+  public List<Map<String, Object>> reserveKeys(final EdmEntitySet edmEntitySet, final int count)
       throws DataProviderException {
-    // Weak key construction
-    final HashMap<String, Object> keys = new HashMap<String, Object>();
-    List<String> keyPredicateNames = entityType.getKeyPredicateNames();
-    for (final String keyName : keyPredicateNames) {
-      EdmType type = entityType.getProperty(keyName).getType();
-      FullQualifiedName typeName = type.getFullQualifiedName();
-      if (type instanceof EdmTypeDefinition) {
-        typeName = ((EdmTypeDefinition) type).getUnderlyingType().getFullQualifiedName();
-      }
-      Object newValue;
-
-      if (EdmPrimitiveTypeKind.Int16.getFullQualifiedName().equals(typeName)) {
-        newValue = (short) KEY_INT_16.incrementAndGet();
-
-        while (!isFree(newValue, keyName, entities)) {
-          newValue = (short) KEY_INT_16.incrementAndGet();
-        }
-      } else if (EdmPrimitiveTypeKind.Int32.getFullQualifiedName().equals(typeName)) {
-        newValue = KEY_INT_32.incrementAndGet();
-
-        while (!isFree(newValue, keyName, entities)) {
-          newValue = KEY_INT_32.incrementAndGet();
-        }
-      } else if (EdmPrimitiveTypeKind.Int64.getFullQualifiedName().equals(typeName)) {
-        // Integer keys
-        newValue = KEY_INT_64.incrementAndGet();
+    return getKeyAllocator(edmEntitySet).reserve(count);
+  }
 
-        while (!isFree(newValue, keyName, entities)) {
-          newValue = KEY_INT_64.incrementAndGet();
-        }
-      } else if (EdmPrimitiveTypeKind.String.getFullQualifiedName().equals(typeName)) {
-        // String keys
-        newValue = String.valueOf(KEY_STRING.incrementAndGet());
+  /**
+   * Returns the search index of the entity set, creating it with the first call.
+   * All changes of entities via this data provider are applied to the index
+   * (changed properties with {@link #updateETag(Entity)}, which is called after each change).
+   */
+  public synchronized SearchIndex getSearchIndex(final EdmEntitySet edmEntitySet) throws DataProviderException {
+    final ChangeSet changeSet = runningChangeSet.get();
+    if (changeSet != null && changeSet.isTouched(edmEntitySet.getName())) {
+      // Search indexes belong to the published data; an entity set changed by the change set is indexed per search.
+      return SearchIndex.of(readAll(edmEntitySet));
+    }
+    SearchIndex searchIndex = published.searchIndexes.get(edmEntitySet.getName());
+    if (searchIndex == null) {
+      searchIndex = SearchIndex.of(readAll(edmEntitySet));
+      published.searchIndexes.put(edmEntitySet.getName(), searchIndex);
+    }
+    return searchIndex;
+  }
 
-        while (!isFree(newValue, keyName, entities)) {
-          newValue = String.valueOf(KEY_STRING.incrementAndGet());
-        }
-      } else if (type instanceof EdmEnumType) {
-        /* In case of an enum key we only support composite keys. This way we can 0 as a key */
-        if (keyPredicateNames.size() <= 1) {
-          throw new DataProviderException("Single Enum as key not supported", HttpStatusCode.NOT_IMPLEMENTED);
-        }
-        newValue = new Short((short) 1);
-      } else {
-        throw new DataProviderException("Key type not supported", HttpStatusCode.NOT_IMPLEMENTED);
+  /**
+   * Creates a secondary index for the given property of the entity set, replacing the index created before
+   * for this property (if any). The index is kept in sync with all changes and created again with each reset.
+   * Indexes belong to the published data; queries within change sets do not use them for changed entity sets.
+   * @throws DataProviderException if the property does not exist or cannot be indexed
+   */
+  public void createIndex(final EdmEntitySet edmEntitySet, final String propertyName,
+      final SecondaryIndex.Kind kind) throws DataProviderException {
+    final EdmProperty edmProperty = edmEntitySet.getEntityType().getStructuralProperty(propertyName);
+    if (edmProperty == null) {
+      throw new DataProviderException("Property " + propertyName + " not found", HttpStatusCode.BAD_REQUEST);
+    }
+    writeLock.lock();
+    try {
+      Map<String, SecondaryIndex> indexes = published.secondaryIndexes.get(edmEntitySet.getName());
+      if (indexes == null) {
+        indexes = new LinkedHashMap<String, SecondaryIndex>();
+        published.secondaryIndexes.put(edmEntitySet.getName(), indexes);
       }
-
-      keys.put(keyName, newValue);
+      indexes.put(propertyName,
+          SecondaryIndex.of(published.data.get(edmEntitySet.getName()), edmProperty, kind));
+    } finally {
+      writeLock.unlock();
     }
+  }
 
-    return keys;
+  /**
+   * Returns the secondary indexes of the entity set (in the order of their creation).
+   */
+  public Collection<SecondaryIndex> getIndexes(final EdmEntitySet edmEntitySet) {
+    final ChangeSet changeSet = runningChangeSet.get();
+    return changeSet != null && changeSet.isTouched(edmEntitySet.getName()) ?
+        Collections.<SecondaryIndex> emptyList() :
+        getIndexes(published, edmEntitySet.getName());
   }
 
-  private boolean isFree(final Object value, final String keyPropertyName, final List<Entity> entities) {
-    for (final Entity entity : entities) {
-      if (value != null && value.equals(entity.getProperty(keyPropertyName).getValue())) {
-        return false;
-      }
-    }
+  private static Collection<SecondaryIndex> getIndexes(final State state, final String entitySetName) {
+    final Map<String, SecondaryIndex> indexes = state.secondaryIndexes.get(entitySetName);
+    return indexes == null ? Collections.<SecondaryIndex> emptyList() :
+        Collections.unmodifiableCollection(indexes.values());
+  }
 
-    return true;
+  /** Key allocators belong to the published data, so also change sets never get keys of published entities. */
+  private synchronized KeyAllocator getKeyAllocator(final EdmEntitySet edmEntitySet) throws DataProviderException {
+    KeyAllocator keyAllocator = keyAllocators.get(edmEntitySet.getName());
+    if (keyAllocator == null) {
+      keyAllocator = new KeyAllocator(edmEntitySet.getEntityType(), getKeyIndex(edmEntitySet).keySet());
+      keyAllocators.put(edmEntitySet.getName(), keyAllocator);
+    }
+    return keyAllocator;
   }
 
   private void createProperties(final EdmStructuredType type, final List<Property> properties)
@@ -273,6 +827,7 @@ public class DataProvider {
 
   public void update(final String rawBaseUri, final EdmEntitySet edmEntitySet, Entity entity,
       final Entity changedEntity, final boolean patch, final boolean isInsert) throws DataProviderException {
+    entity = recordChange(entity);
 
     final EdmEntityType entityType = edmEntitySet.getEntityType();
     final List<String> keyNames = entityType.getKeyPredicateNames();
@@ -307,9 +862,25 @@ public class DataProvider {
   }
 
   public void updateETag(Entity entity) {
+    entity = recordChange(entity);
     if (entity.getETag() != null) {
       entity.setETag("W/\"" + UUID.randomUUID() + "\"");
     }
+    // The entity has been changed, so its content has to be indexed again (a change set does so with its commit).
+    if (runningChangeSet.get() == null) {
+      updateIndexes(published, entity);
+    }
+  }
+
+  private static void updateIndexes(final State state, final Entity entity) {
+    for (final SearchIndex searchIndex : state.searchIndexes.values()) {
+      searchIndex.update(entity);
+    }
+    for (final Map<String, SecondaryIndex> indexes : state.secondaryIndexes.values()) {
+      for (final SecondaryIndex secondaryIndex : indexes.values()) {
+        secondaryIndex.update(entity);
+      }
+    }
   }
 
   private void handleDeleteSingleNavigationProperties(final EdmEntitySet edmEntitySet, final Entity entity,
@@ -374,7 +945,8 @@ public class DataProvider {
             createLink(navigationProperty, entity, inlineEntity);
           }
         } else if (!navigationProperty.isCollection() && navigationLink.getInlineEntity() != null) {
-          final Entity inlineEntity = createInlineEntity(rawBaseUri, target, navigationLink.getInlineEntity());
+          final Entity inlineEntity = createInlineEntity(rawBaseUri, target, navigationLink.getInlineEntity(),
+              reserveKeys(target, 1).get(0));
           createLink(navigationProperty, entity, inlineEntity);
         }
       }
@@ -382,27 +954,31 @@ public class DataProvider {
   }
 
   private void removeLink(final EdmNavigationProperty navigationProperty, final Entity entity) {
-    final Link link = entity.getNavigationLink(navigationProperty.getName());
-    if (link != null) {
-      entity.getNavigationLinks().remove(link);
+    if (getCurrent(entity).getNavigationLink(navigationProperty.getName()) != null) {
+      final Entity source = recordChange(entity);
+      final Link link = source.getNavigationLink(navigationProperty.getName());
+      getLinkIndex().removeLink(source, link);
+      source.getNavigationLinks().remove(link);
     }
   }
 
   private List<Entity> createInlineEntities(final String rawBaseUri, final EdmEntitySet targetEntitySet,
       final EntityCollection changedEntitySet) throws DataProviderException {
     List<Entity> entities = new ArrayList<Entity>();
+    final Iterator<Map<String, Object>> keys =
+        reserveKeys(targetEntitySet, changedEntitySet.getEntities().size()).iterator();
 
     for (final Entity newEntity : changedEntitySet.getEntities()) {
-      entities.add(createInlineEntity(rawBaseUri, targetEntitySet, newEntity));
+      entities.add(createInlineEntity(rawBaseUri, targetEntitySet, newEntity, keys.next()));
     }
 
     return entities;
   }
 
   private Entity createInlineEntity(final String rawBaseUri, final EdmEntitySet targetEntitySet,
-      final Entity changedEntity) throws DataProviderException {
+      final Entity changedEntity, final Map<String, Object> newKey) throws DataProviderException {
 
-    final Entity inlineEntity = create(targetEntitySet);
+    final Entity inlineEntity = create(targetEntitySet, newKey);
     update(rawBaseUri, targetEntitySet, inlineEntity, changedEntity, false, true);
 
     return inlineEntity;
@@ -420,11 +996,19 @@ public class DataProvider {
 
   public void setLink(final EdmNavigationProperty navigationProperty, final Entity srcEntity,
       final Entity targetEntity) {
+    final Entity source = recordChange(srcEntity);
+    final Entity target = getOriginal(targetEntity);
+    final LinkIndex linkIndex = getLinkIndex();
     if (navigationProperty.isCollection()) {
-      DataCreator.setLinks(srcEntity, navigationProperty.getName(), targetEntity);
+      DataCreator.setLinks(source, navigationProperty.getName(), target);
     } else {
-      DataCreator.setLink(srcEntity, navigationProperty.getName(), targetEntity);
+      final Link link = source.getNavigationLink(navigationProperty.getName());
+      if (link != null && link.getInlineEntity() != null) {
+        linkIndex.remove(source, navigationProperty.getName(), link.getInlineEntity());
+      }
+      DataCreator.setLink(source, navigationProperty.getName(), target);
     }
+    linkIndex.add(source, navigationProperty.getName(), target);
   }
 
   @SuppressWarnings("unchecked")
@@ -508,7 +1092,8 @@ public class DataProvider {
     return (byte[]) entity.getProperty(MEDIA_PROPERTY_NAME).asPrimitive();
   }
 
-  public void setMedia(final Entity entity, final byte[] media, final String type) {
+  public void setMedia(Entity entity, final byte[] media, final String type) {
+    entity = recordChange(entity);
     entity.getProperties().remove(entity.getProperty(MEDIA_PROPERTY_NAME));
     entity.addProperty(DataCreator.createPrimitive(MEDIA_PROPERTY_NAME, media));
     entity.setMediaContentType(type);
@@ -519,21 +1104,21 @@ public class DataProvider {
       final UriInfoResource uriInfo) throws DataProviderException {
     return FunctionData.entityCollectionFunction(function.getName(),
         getFunctionParameters(function, parameters, uriInfo),
-        data);
+        getData());
   }
 
   public Entity readFunctionEntity(final EdmFunction function, final List<UriParameter> parameters,
       final UriInfoResource uriInfo) throws DataProviderException {
     return FunctionData.entityFunction(function.getName(),
         getFunctionParameters(function, parameters, uriInfo),
-        data);
+        getData());
   }
 
   public Property readFunctionPrimitiveComplex(final EdmFunction function, final List<UriParameter> parameters,
       final UriInfoResource uriInfo) throws DataProviderException {
     return FunctionData.primitiveComplexFunction(function.getName(),
         getFunctionParameters(function, parameters, uriInfo),
-        data);
+        getData());
   }
 
   private Map<String, Parameter> getFunctionParameters(final EdmFunction function,
@@ -578,7 +1163,7 @@ public class DataProvider {
 
   public EntityActionResult processActionEntity(final String name, final Map<String, Parameter> actionParameters)
       throws DataProviderException {
-    return ActionData.entityAction(name, actionParameters, data, odata, edm);
+    return ActionData.entityAction(name, actionParameters, getData(), odata, edm);
   }
 
   public EntityCollection processActionEntityCollection(final String name,
@@ -596,10 +1181,16 @@ public class DataProvider {
 
     if (navigationProperty.isCollection()) {
       final Entity targetEntity = getEntityByReference(entityId, rawServiceRoot);
-      final Link navigationLink = entity.getNavigationLink(navigationProperty.getName());
+      // Links point to published (or created) entities, never to copies.
+      final Entity target = getOriginal(targetEntity);
+      final Link navigationLink = getCurrent(entity).getNavigationLink(navigationProperty.getName());
 
       if (navigationLink != null && navigationLink.getInlineEntitySet() != null
-          && navigationLink.getInlineEntitySet().getEntities().contains(targetEntity)) {
+          && containsIdentical(navigationLink.getInlineEntitySet().getEntities(), target)) {
+        final Entity source = recordChange(entity);
+        final Entity targetSource = recordChange(targetEntity);
+        final List<Entity> targets = source.getNavigationLink(navigationProperty.getName())
+            .getInlineEntitySet().getEntities();
 
         // Remove partner single-valued navigation property
         if (navigationProperty.getPartner() != null) {
@@ -607,19 +1198,26 @@ public class DataProvider {
           if (!edmPartnerNavigationProperty.isCollection() && !edmPartnerNavigationProperty.isNullable()) {
             throw new DataProviderException("Navigation property must not be null", HttpStatusCode.BAD_REQUEST);
           } else if (!edmPartnerNavigationProperty.isCollection()) {
-            removeLink(edmPartnerNavigationProperty, targetEntity);
+            removeLink(edmPartnerNavigationProperty, targetSource);
           } else if (edmPartnerNavigationProperty.isCollection()
               && edmPartnerNavigationProperty.getPartner() != null) {
             // Bidirectional referential constraint
-            final Link partnerNavigationLink = targetEntity.getNavigationLink(edmPartnerNavigationProperty.getName());
+            final Entity original = getOriginal(source);
+            final Link partnerNavigationLink =
+                targetSource.getNavigationLink(edmPartnerNavigationProperty.getName());
             if (partnerNavigationLink != null && partnerNavigationLink.getInlineEntitySet() != null) {
-              partnerNavigationLink.getInlineEntitySet().getEntities().remove(entity);
+              final List<Entity> partnerTargets = partnerNavigationLink.getInlineEntitySet().getEntities();
+              if (removeIdentical(partnerTargets, original) && !containsIdentical(partnerTargets, original)) {
+                getLinkIndex().remove(targetSource, edmPartnerNavigationProperty.getName(), original);
+              }
             }
           }
         }
 
         // Remove target entity from collection-valued navigation property
-        navigationLink.getInlineEntitySet().getEntities().remove(targetEntity);
+        if (removeIdentical(targets, target) && !containsIdentical(targets, target)) {
+          getLinkIndex().remove(source, navigationProperty.getName(), target);
+        }
       } else {
         throw new DataProviderException("Entity not found", HttpStatusCode.NOT_FOUND);
       }
@@ -648,6 +1246,69 @@ public class DataProvider {
     }
   }
 
+  /**
+   * Write lock of modifying requests: it is held together with the {@link #changeLock},
+   * so it waits for running change sets, too.
+   */
+  private final class WriterLock implements Lock {
+
+    @Override
+    public void lock() {
+      changeLock.lock();
+      lock.writeLock().lock();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      changeLock.lockInterruptibly();
+      try {
+        lock.writeLock().lockInterruptibly();
+      } catch (final InterruptedException e) {
+        changeLock.unlock();
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean tryLock() {
+      if (changeLock.tryLock()) {
+        if (lock.writeLock().tryLock()) {
+          return true;
+        }
+        changeLock.unlock();
+      }
+      return false;
+    }
+
+    @Override
+    public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+      final long deadline = System.nanoTime() + unit.toNanos(time);
+      if (changeLock.tryLock(time, unit)) {
+        try {
+          if (lock.writeLock().tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return true;
+          }
+        } catch (final InterruptedException e) {
+          changeLock.unlock();
+          throw e;
+        }
+        changeLock.unlock();
+      }
+      return false;
+    }
+
+    @Override
+    public void unlock() {
+      lock.writeLock().unlock();
+      changeLock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   public static class DataProviderException extends ODataApplicationException {
     private static final long serialVersionUID = 5098059649321796156L;
 
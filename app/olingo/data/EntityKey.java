@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+import olingo.data.DataProvider.DataProviderException;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmKeyPropertyRef;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.uri.UriParameter;
+
+/**
+ * <p>Normalized (composite) key of an entity.</p>
+ * <p>Each key property value is held in its canonical string representation of the EDM type,
+ * so a key parsed from the key predicates of a request is equal to the key of the matching entity
+ * regardless of the Java type used to store the value in the entity.</p>
+ */
+public final class EntityKey {
+
+  private final String[] values;
+  private final int hashCode;
+
+  private EntityKey(final String[] values) {
+    this.values = values;
+    hashCode = Arrays.hashCode(values);
+  }
+
+  /**
+   * Builds the key of the given entity.
+   */
+  public static EntityKey of(final EdmEntityType entityType, final Entity entity) throws DataProviderException {
+    final List<EdmKeyPropertyRef> keyRefs = entityType.getKeyPropertyRefs();
+    final String[] values = new String[keyRefs.size()];
+    for (int i = 0; i < values.length; i++) {
+      final EdmKeyPropertyRef keyRef = keyRefs.get(i);
+      final Property property = findProperty(entity, keyRef.getName());
+      values[i] = property == null ? null : valueToString(keyRef.getProperty(), property.getValue());
+    }
+    return new EntityKey(values);
+  }
+
+  /**
+   * Builds the key from the key predicates of a request; the literals are parsed exactly once.
+   * @throws DataProviderException if a key literal is invalid
+   */
+  public static EntityKey of(final EdmEntityType entityType, final List<UriParameter> keyPredicates)
+      throws DataProviderException {
+    final List<EdmKeyPropertyRef> keyRefs = entityType.getKeyPropertyRefs();
+    final String[] values = new String[keyRefs.size()];
+    for (int i = 0; i < values.length; i++) {
+      final EdmKeyPropertyRef keyRef = keyRefs.get(i);
+      final UriParameter keyPredicate = findKeyPredicate(keyPredicates,
+          keyRef.getAlias() == null ? keyRef.getName() : keyRef.getAlias());
+      if (keyPredicate == null) {
+        throw new DataProviderException("Wrong key!", HttpStatusCode.BAD_REQUEST);
+      }
+      values[i] = parse(keyRef.getProperty(), keyPredicate.getText());
+    }
+    return new EntityKey(values);
+  }
+
+  private static UriParameter findKeyPredicate(final List<UriParameter> keyPredicates, final String name) {
+    for (final UriParameter keyPredicate : keyPredicates) {
+      if (name.equals(keyPredicate.getName())) {
+        return keyPredicate;
+      }
+    }
+    return null;
+  }
+
+  private static Property findProperty(final Entity entity, final String path) {
+    final int separator = path.indexOf('/');
+    if (separator < 0) {
+      return entity.getProperty(path);
+    }
+    // Key property within complex properties
+    Property property = entity.getProperty(path.substring(0, separator));
+    int start = separator + 1;
+    while (property != null && property.isComplex() && property.asComplex() != null) {
+      final int next = path.indexOf('/', start);
+      final String name = next < 0 ? path.substring(start) : path.substring(start, next);
+      Property found = null;
+      for (final Property inner : property.asComplex().getValue()) {
+        if (name.equals(inner.getName())) {
+          found = inner;
+          break;
+        }
+      }
+      if (next < 0) {
+        return found;
+      }
+      property = found;
+      start = next + 1;
+    }
+    return null;
+  }
+
+  private static String parse(final EdmProperty property, final String literal) throws DataProviderException {
+    if (literal == null) {
+      return null;
+    }
+    final EdmPrimitiveType type = (EdmPrimitiveType) property.getType();
+    try {
+      final Object value = type.valueOfString(type.fromUriLiteral(literal),
+          property.isNullable(), property.getMaxLength(), property.getPrecision(), property.getScale(),
+          property.isUnicode(), type.getDefaultType());
+      return valueToString(property, value);
+    } catch (final EdmPrimitiveTypeException e) {
+      throw new DataProviderException("Wrong key!", HttpStatusCode.BAD_REQUEST, e);
+    }
+  }
+
+  private static String valueToString(final EdmProperty property, final Object value) throws DataProviderException {
+    if (value == null) {
+      return null;
+    }
+    try {
+      // Facets are not checked here; they have been validated when the value was set or parsed.
+      return ((EdmPrimitiveType) property.getType()).valueToString(value, true, null, null, null, true);
+    } catch (final EdmPrimitiveTypeException e) {
+      throw new DataProviderException("Invalid key value!", HttpStatusCode.INTERNAL_SERVER_ERROR, e);
+    }
+  }
+
+  /** Normalized value of the key property at the given position (as in the list of key property references). */
+  String get(final int index) {
+    return values[index];
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return this == obj
+        || obj instanceof EntityKey && hashCode == ((EntityKey) obj).hashCode
+        && Arrays.equals(values, ((EntityKey) obj).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import olingo.data.DataProvider.DataProviderException;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmKeyPropertyRef;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.edm.EdmTypeDefinition;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+
+/**
+ * <p>Allocates free keys for new entities of one entity set.</p>
+ * <p>Each key property has its own counter; a value is free if no entity of the entity set uses it
+ * for this key property (weak key construction, as composite keys are not checked as a whole).
+ * The used values are counted in hash maps (initialized from the key index and updated on each change),
+ * hence finding a free value does not depend on the number of entities.</p>
+ * <p>Keys can be reserved in blocks; reserved values count as used until the entity is deleted.
+ * All methods are synchronized, so concurrent creates never get the same key.</p>
+ */
+class KeyAllocator {
+
+  private enum Kind { INT16, INT32, INT64, STRING, ENUM }
+
+  private final String[] names;
+  private final Kind[] kinds;
+  private final long[] counters;
+  private final List<Map<String, Integer>> used;
+
+  KeyAllocator(final EdmEntityType entityType, final Collection<EntityKey> existingKeys)
+      throws DataProviderException {
+    final List<EdmKeyPropertyRef> keyRefs = entityType.getKeyPropertyRefs();
+    names = new String[keyRefs.size()];
+    kinds = new Kind[keyRefs.size()];
+    counters = new long[keyRefs.size()];
+    used = new ArrayList<Map<String, Integer>>(keyRefs.size());
+    for (int i = 0; i < names.length; i++) {
+      if (keyRefs.get(i).getAlias() != null) {
+        throw new DataProviderException("Key type not supported", HttpStatusCode.NOT_IMPLEMENTED);
+      }
+      names[i] = keyRefs.get(i).getName();
+      kinds[i] = getKind(keyRefs.get(i).getProperty().getType());
+      if (kinds[i] == Kind.ENUM && names.length <= 1) {
+        /* In case of an enum key we only support composite keys. This way we can 0 as a key */
+        throw new DataProviderException("Single Enum as key not supported", HttpStatusCode.NOT_IMPLEMENTED);
+      }
+      used.add(new HashMap<String, Integer>());
+    }
+    for (final EntityKey key : existingKeys) {
+      add(key);
+    }
+  }
+
+  private static Kind getKind(final EdmType type) throws DataProviderException {
+    FullQualifiedName typeName = type.getFullQualifiedName();
+    if (type instanceof EdmTypeDefinition) {
+      typeName = ((EdmTypeDefinition) type).getUnderlyingType().getFullQualifiedName();
+    }
+    if (EdmPrimitiveTypeKind.Int16.getFullQualifiedName().equals(typeName)) {
+      return Kind.INT16;
+    } else if (EdmPrimitiveTypeKind.Int32.getFullQualifiedName().equals(typeName)) {
+      return Kind.INT32;
+    } else if (EdmPrimitiveTypeKind.Int64.getFullQualifiedName().equals(typeName)) {
+      return Kind.INT64;
+    } else if (EdmPrimitiveTypeKind.String.getFullQualifiedName().equals(typeName)) {
+      return Kind.STRING;
+    } else if (type instanceof EdmEnumType) {
+      return Kind.ENUM;
+    } else {
+      throw new DataProviderException("Key type not supported", HttpStatusCode.NOT_IMPLEMENTED);
+    }
+  }
+
+  /**
+   * Reserves the given number of keys.
+   * @return the key property values (by key property name) of each reserved key
+   */
+  synchronized List<Map<String, Object>> reserve(final int count) throws DataProviderException {
+    List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>(count);
+    for (int n = 0; n < count; n++) {
+      Map<String, Object> key = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < names.length; i++) {
+        key.put(names[i], next(i));
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private Object next(final int index) throws DataProviderException {
+    if (kinds[index] == Kind.ENUM) {
+      return Short.valueOf((short) 1);
+    }
+    // Values are tried in the same order as before, i.e., starting with 1, wrapping around for Int16 and Int32.
+    final long limit = kinds[index] == Kind.INT16 ? 1L << 16 : kinds[index] == Kind.INT32 ? 1L << 32 : Long.MAX_VALUE;
+    for (long tries = 0; tries < limit; tries++) {
+      final Object value = toValue(kinds[index], ++counters[index]);
+      final String normalized = value.toString();
+      if (!used.get(index).containsKey(normalized)) {
+        used.get(index).put(normalized, 1);
+        return value;
+      }
+    }
+    throw new DataProviderException("No free key available", HttpStatusCode.INTERNAL_SERVER_ERROR);
+  }
+
+  private static Object toValue(final Kind kind, final long counter) {
+    switch (kind) {
+    case INT16:
+      return (short) counter;
+    case INT32:
+      return (int) counter;
+    case INT64:
+      return counter;
+    default:
+      return String.valueOf(counter);
+    }
+  }
+
+  /** Marks the key property values of an existing entity as used. */
+  synchronized void add(final EntityKey key) {
+    for (int i = 0; i < names.length; i++) {
+      final String value = key.get(i);
+      if (value != null) {
+        final Integer count = used.get(i).get(value);
+        used.get(i).put(value, count == null ? 1 : count + 1);
+      }
+    }
+  }
+
+  /** Releases the key property values of a deleted entity (or of an entity whose key has been changed). */
+  synchronized void remove(final EntityKey key) {
+    for (int i = 0; i < names.length; i++) {
+      final String value = key.get(i);
+      final Integer count = value == null ? null : used.get(i).get(value);
+      if (count != null) {
+        if (count > 1) {
+          used.get(i).put(value, count - 1);
+        } else {
+          used.get(i).remove(value);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+
+/**
+ * <p>Reverse index of the navigation links between entities.</p>
+ * <p>For each target entity it holds the source entities linking to it together with the names of the
+ * navigation properties used. Entities are compared by identity (<code>Entity.equals()</code> compares
+ * the complete content).</p>
+ */
+class LinkIndex {
+
+  private final Map<Entity, Map<Entity, Set<String>>> sourcesByTarget =
+      new IdentityHashMap<Entity, Map<Entity, Set<String>>>();
+
+  /**
+   * Creates the index for all navigation links of all entities in the given data.
+   */
+  static LinkIndex of(final Map<String, EntityCollection> data) {
+    LinkIndex index = new LinkIndex();
+    for (final EntityCollection entityCollection : data.values()) {
+      for (final Entity entity : entityCollection.getEntities()) {
+        for (final Link link : entity.getNavigationLinks()) {
+          index.addLink(entity, link);
+        }
+      }
+    }
+    return index;
+  }
+
+  void add(final Entity source, final String navigationPropertyName, final Entity target) {
+    Map<Entity, Set<String>> sources = sourcesByTarget.get(target);
+    if (sources == null) {
+      sources = new IdentityHashMap<Entity, Set<String>>();
+      sourcesByTarget.put(target, sources);
+    }
+    Set<String> navigationPropertyNames = sources.get(source);
+    if (navigationPropertyNames == null) {
+      navigationPropertyNames = new HashSet<String>();
+      sources.put(source, navigationPropertyNames);
+    }
+    navigationPropertyNames.add(navigationPropertyName);
+  }
+
+  void remove(final Entity source, final String navigationPropertyName, final Entity target) {
+    final Map<Entity, Set<String>> sources = sourcesByTarget.get(target);
+    if (sources != null) {
+      final Set<String> navigationPropertyNames = sources.get(source);
+      if (navigationPropertyNames != null) {
+        navigationPropertyNames.remove(navigationPropertyName);
+        if (navigationPropertyNames.isEmpty()) {
+          sources.remove(source);
+          if (sources.isEmpty()) {
+            sourcesByTarget.remove(target);
+          }
+        }
+      }
+    }
+  }
+
+  /** Adds the targets of the given navigation link of the source entity. */
+  void addLink(final Entity source, final Link link) {
+    if (link.getInlineEntity() != null) {
+      add(source, link.getTitle(), link.getInlineEntity());
+    } else if (link.getInlineEntitySet() != null) {
+      for (final Entity target : link.getInlineEntitySet().getEntities()) {
+        add(source, link.getTitle(), target);
+      }
+    }
+  }
+
+  /** Removes the targets of the given navigation link of the source entity. */
+  void removeLink(final Entity source, final Link link) {
+    if (link.getInlineEntity() != null) {
+      remove(source, link.getTitle(), link.getInlineEntity());
+    } else if (link.getInlineEntitySet() != null) {
+      for (final Entity target : link.getInlineEntitySet().getEntities()) {
+        remove(source, link.getTitle(), target);
+      }
+    }
+  }
+
+  /** Returns the source entities linking to the target, with the names of the navigation properties. */
+  Map<Entity, Set<String>> getSources(final Entity target) {
+    final Map<Entity, Set<String>> sources = sourcesByTarget.get(target);
+    return sources == null ? Collections.<Entity, Set<String>> emptyMap() : Collections.unmodifiableMap(sources);
+  }
+
+  /**
+   * Removes all links to the given target entity from the index.
+   * @return the source entities linking to the target, with the names of the navigation properties
+   */
+  Map<Entity, Set<String>> removeTarget(final Entity target) {
+    final Map<Entity, Set<String>> sources = sourcesByTarget.remove(target);
+    return sources == null ? Collections.<Entity, Set<String>> emptyMap() : sources;
+  }
+
+  /** Number of entities that are target of at least one navigation link. */
+  int size() {
+    return sourcesByTarget.size();
+  }
+}
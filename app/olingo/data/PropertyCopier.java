@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+import org.apache.olingo.commons.api.data.Property;
+
+/**
+ * <p>Copies properties and navigation links, so entities can be changed (in change sets) or serialized
+ * (after the lock of the data has been released) without sharing mutable state with the stored data.</p>
+ * <p>Complex values and collections are copied; primitive values are replaced but never changed in place,
+ * so they are shared. The targets of navigation links are not copied.</p>
+ */
+public final class PropertyCopier {
+
+  private PropertyCopier() {
+  }
+
+  public static List<Property> copyProperties(final List<Property> properties) {
+    final List<Property> copies = new ArrayList<Property>(properties.size());
+    for (final Property property : properties) {
+      copies.add(new Property(property.getType(), property.getName(), property.getValueType(),
+          copyValue(property.getValue())));
+    }
+    return copies;
+  }
+
+  public static Object copyValue(final Object value) {
+    if (value instanceof ComplexValue) {
+      final ComplexValue copy = new ComplexValue();
+      copy.getValue().addAll(copyProperties(((ComplexValue) value).getValue()));
+      for (final Link link : ((ComplexValue) value).getNavigationLinks()) {
+        copy.getNavigationLinks().add(copyLink(link));
+      }
+      return copy;
+    } else if (value instanceof List) {
+      final List<?> values = (List<?>) value;
+      final List<Object> copy = new ArrayList<Object>(values.size());
+      for (final Object item : values) {
+        copy.add(copyValue(item));
+      }
+      return copy;
+    } else {
+      return value;
+    }
+  }
+
+  /** Copies the link with its own list of targets, so targets can be added and removed. */
+  public static Link copyLink(final Link link) {
+    final Link copy = new Link();
+    copy.setTitle(link.getTitle());
+    copy.setRel(link.getRel());
+    copy.setType(link.getType());
+    copy.setHref(link.getHref());
+    copy.setMediaETag(link.getMediaETag());
+    copy.setInlineEntity(link.getInlineEntity());
+    if (link.getInlineEntitySet() != null) {
+      final EntityCollection targets = new EntityCollection();
+      targets.getEntities().addAll(link.getInlineEntitySet().getEntities());
+      copy.setInlineEntitySet(targets);
+    }
+    return copy;
+  }
+}
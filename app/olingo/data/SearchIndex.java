@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.bind.DatatypeConverter;
+
+import olingo.data.DataProvider.DataProviderException;
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinary;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchBinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.search.SearchExpression;
+
+/**
+ * <p>Inverted index over the searchable string content of the entities of one entity set.</p>
+ * <p>As with the sequential search, each top-level property of an entity is searched on its own:
+ * an entity matches if the search expression is true for at least one of its properties.
+ * Hence each property is a document of the index, holding the string representations of its values
+ * (including the values within complex and collection properties).
+ * Each substring of up to three characters of these strings has a sorted posting list of the documents
+ * containing it; longer search terms are looked up via the intersection of the posting lists of their
+ * three-character substrings and then checked against the strings of the remaining documents.
+ * AND, OR, and NOT are evaluated as intersection, union, and complement of posting lists.</p>
+ * <p>The documents of a changed or deleted entity are marked as deleted (and replaced by new documents),
+ * so posting lists only grow at their end and stay sorted; the index is rebuilt as soon as more than half
+ * of the documents are deleted. Entities are compared by identity.</p>
+ */
+public class SearchIndex {
+
+  private static final int GRAM_LENGTH = 3;
+  private static final int MIN_COMPACTION_SIZE = 1024;
+  private static final int[] NONE = new int[0];
+
+  private Entity[] documentEntities = new Entity[16];
+  private String[][] documentStrings = new String[16][];
+  private int documentCount;
+  private final BitSet deleted = new BitSet();
+  private int deletedCount;
+  private final Map<Entity, int[]> documentsByEntity = new IdentityHashMap<Entity, int[]>();
+  private final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+  /** Sorted list of document numbers. */
+  private static final class Postings {
+    private int[] documents = new int[4];
+    private int size;
+
+    private void add(final int document) {
+      if (size == 0 || documents[size - 1] != document) {
+        if (size == documents.length) {
+          documents = Arrays.copyOf(documents, size * 2);
+        }
+        documents[size++] = document;
+      }
+    }
+  }
+
+  /**
+   * Creates the index for all entities of the given entity set.
+   */
+  static SearchIndex of(final EntityCollection entityCollection) {
+    SearchIndex index = new SearchIndex();
+    for (final Entity entity : entityCollection.getEntities()) {
+      index.add(entity);
+    }
+    return index;
+  }
+
+  /** Whether the entity is indexed, i.e., whether it is part of the entity set. */
+  public boolean contains(final Entity entity) {
+    return documentsByEntity.containsKey(entity);
+  }
+
+  /**
+   * Returns the indexed entities matching the search expression.
+   */
+  public Set<Entity> search(final SearchExpression expression) throws DataProviderException {
+    Set<Entity> entities = Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+    for (final int document : evaluate(expression)) {
+      entities.add(documentEntities[document]);
+    }
+    return entities;
+  }
+
+  void add(final Entity entity) {
+    final List<Property> properties = entity.getProperties();
+    final int[] documents = new int[properties.size()];
+    for (int i = 0; i < documents.length; i++) {
+      final List<String> strings = new ArrayList<String>();
+      collectStrings(properties.get(i), strings);
+      documents[i] = addDocument(entity, strings.toArray(new String[strings.size()]));
+    }
+    documentsByEntity.put(entity, documents);
+  }
+
+  void remove(final Entity entity) {
+    final int[] documents = documentsByEntity.remove(entity);
+    if (documents != null) {
+      for (final int document : documents) {
+        deleted.set(document);
+        documentEntities[document] = null;
+        documentStrings[document] = null;
+      }
+      deletedCount += documents.length;
+      if (deletedCount > MIN_COMPACTION_SIZE && deletedCount * 2 > documentCount) {
+        compact();
+      }
+    }
+  }
+
+  /** Indexes the current content of the entity (if it is indexed at all). */
+  void update(final Entity entity) {
+    if (contains(entity)) {
+      remove(entity);
+      add(entity);
+    }
+  }
+
+  private int addDocument(final Entity entity, final String[] strings) {
+    if (documentCount == documentEntities.length) {
+      documentEntities = Arrays.copyOf(documentEntities, documentCount * 2);
+      documentStrings = Arrays.copyOf(documentStrings, documentCount * 2);
+    }
+    final int document = documentCount++;
+    documentEntities[document] = entity;
+    documentStrings[document] = strings;
+    for (final String string : strings) {
+      for (int start = 0; start < string.length(); start++) {
+        for (int end = start + 1; end <= Math.min(start + GRAM_LENGTH, string.length()); end++) {
+          final String gram = string.substring(start, end);
+          Postings gramPostings = postings.get(gram);
+          if (gramPostings == null) {
+            gramPostings = new Postings();
+            postings.put(gram, gramPostings);
+          }
+          gramPostings.add(document);
+        }
+      }
+    }
+    return document;
+  }
+
+  private void compact() {
+    final List<Entity> entities = new ArrayList<Entity>(documentsByEntity.keySet());
+    documentEntities = new Entity[16];
+    documentStrings = new String[16][];
+    documentCount = 0;
+    deleted.clear();
+    deletedCount = 0;
+    documentsByEntity.clear();
+    postings.clear();
+    for (final Entity entity : entities) {
+      add(entity);
+    }
+  }
+
+  /** Returns the sorted numbers of the (not deleted) documents for which the expression is true. */
+  private int[] evaluate(final SearchExpression expression) throws DataProviderException {
+    if (expression.isSearchBinary()) {
+      final SearchBinary binary = expression.asSearchBinary();
+      final int[] left = evaluate(binary.getLeftOperand());
+      final int[] right = evaluate(binary.getRightOperand());
+      if (binary.getOperator() == SearchBinaryOperatorKind.AND) {
+        return intersect(left, left.length, right, right.length);
+      } else if (binary.getOperator() == SearchBinaryOperatorKind.OR) {
+        return union(left, right);
+      } else {
+        throw new DataProviderException("Found unknown SearchBinaryOperatorKind: " + binary.getOperator(),
+            HttpStatusCode.INTERNAL_SERVER_ERROR);
+      }
+    } else if (expression.isSearchTerm()) {
+      return find(expression.asSearchTerm().getSearchTerm());
+    } else if (expression.isSearchUnary()) {
+      return complement(evaluate(expression.asSearchUnary().getOperand()));
+    }
+    throw new DataProviderException("Found unknown SearchExpression: " + expression,
+        HttpStatusCode.INTERNAL_SERVER_ERROR);
+  }
+
+  private int[] find(final String term) {
+    if (term.length() <= GRAM_LENGTH) {
+      // The posting list of the term itself is exact.
+      final Postings termPostings = postings.get(term);
+      return termPostings == null ? NONE : withoutDeleted(termPostings.documents, termPostings.size);
+    }
+
+    List<Postings> gramPostings = new ArrayList<Postings>();
+    for (int start = 0; start + GRAM_LENGTH <= term.length(); start++) {
+      final Postings found = postings.get(term.substring(start, start + GRAM_LENGTH));
+      if (found == null) {
+        return NONE;
+      }
+      gramPostings.add(found);
+    }
+    // Start with the shortest list to keep the intermediate results small.
+    Collections.sort(gramPostings, new Comparator<Postings>() {
+      @Override
+      public int compare(final Postings postings1, final Postings postings2) {
+        return Integer.compare(postings1.size, postings2.size);
+      }
+    });
+    int[] candidates = Arrays.copyOf(gramPostings.get(0).documents, gramPostings.get(0).size);
+    for (int i = 1; i < gramPostings.size() && candidates.length > 0; i++) {
+      candidates = intersect(candidates, candidates.length, gramPostings.get(i).documents, gramPostings.get(i).size);
+    }
+
+    // The three-character substrings may be spread over several strings; so check the candidates.
+    int[] result = new int[candidates.length];
+    int size = 0;
+    for (final int document : candidates) {
+      if (!deleted.get(document) && contains(documentStrings[document], term)) {
+        result[size++] = document;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static boolean contains(final String[] strings, final String term) {
+    for (final String string : strings) {
+      if (string.contains(term)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int[] withoutDeleted(final int[] documents, final int size) {
+    int[] result = new int[size];
+    int resultSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (!deleted.get(documents[i])) {
+        result[resultSize++] = documents[i];
+      }
+    }
+    return resultSize == size ? result : Arrays.copyOf(result, resultSize);
+  }
+
+  private static int[] intersect(final int[] documents1, final int size1, final int[] documents2, final int size2) {
+    int[] result = new int[Math.min(size1, size2)];
+    int size = 0;
+    for (int i = 0, j = 0; i < size1 && j < size2;) {
+      if (documents1[i] < documents2[j]) {
+        i++;
+      } else if (documents1[i] > documents2[j]) {
+        j++;
+      } else {
+        result[size++] = documents1[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static int[] union(final int[] documents1, final int[] documents2) {
+    int[] result = new int[documents1.length + documents2.length];
+    int size = 0;
+    int i = 0;
+    int j = 0;
+    while (i < documents1.length || j < documents2.length) {
+      if (j == documents2.length || i < documents1.length && documents1[i] < documents2[j]) {
+        result[size++] = documents1[i++];
+      } else if (i == documents1.length || documents1[i] > documents2[j]) {
+        result[size++] = documents2[j++];
+      } else {
+        result[size++] = documents1[i++];
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private int[] complement(final int[] documents) {
+    int[] result = new int[documentCount - deletedCount - documents.length];
+    int size = 0;
+    int j = 0;
+    for (int document = 0; document < documentCount; document++) {
+      if (j < documents.length && documents[j] == document) {
+        j++;
+      } else if (!deleted.get(document)) {
+        result[size++] = document;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Collects the string representations of all values of the property, as searched by <code>$search</code>.
+   */
+  static void collectStrings(final Property property, final List<String> strings) {
+    if (property.isNull()) {
+      return;
+    } else if (property.isPrimitive()) {
+      if (property.isCollection()) {
+        for (final Object primitive : property.asCollection()) {
+          if (primitive != null) {
+            strings.add(asString(primitive));
+          }
+        }
+      } else {
+        strings.add(asString(property.asPrimitive()));
+      }
+    } else if (property.isComplex()) {
+      if (property.isCollection()) {
+        for (final Object member : property.asCollection()) {
+          for (final Property innerProperty : ((ComplexValue) member).getValue()) {
+            collectStrings(innerProperty, strings);
+          }
+        }
+      } else {
+        for (final Property innerProperty : property.asComplex().getValue()) {
+          collectStrings(innerProperty, strings);
+        }
+      }
+    }
+  }
+
+  private static String asString(final Object primitive) {
+    if (primitive instanceof String) {
+      return (String) primitive;
+    } else if (primitive instanceof Calendar) {
+      return DatatypeConverter.printDateTime((Calendar) primitive);
+    } else if (primitive instanceof byte[]) {
+      return DatatypeConverter.printBase64Binary((byte[]) primitive);
+    } else {
+      return primitive.toString();
+    }
+  }
+
+  /** Number of indexed entities. */
+  public int size() {
+    return documentsByEntity.size();
+  }
+}
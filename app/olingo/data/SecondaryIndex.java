@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import olingo.data.DataProvider.DataProviderException;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+
+/**
+ * <p>Secondary index over the values of one primitive property of the entities of one entity set.</p>
+ * <p>A hash index finds the entities with a given value (<code>eq</code>); a sorted index finds also the entities
+ * with values within a range (<code>gt</code>, <code>ge</code>, <code>lt</code>, <code>le</code>).
+ * Values are indexed as they are compared by the <code>$filter</code> evaluation: integers as <code>Long</code>,
+ * dates by their time; values of any other Java type (and missing properties) are not indexed, so the entities
+ * having them must always be checked directly (see {@link #contains(Entity)}).</p>
+ * <p>Each entity has an ordinal in the order in which it has been added; as new entities are appended
+ * to the entity set, the entities found are returned in the order of the entity set.
+ * Entities are compared by identity.</p>
+ */
+public class SecondaryIndex {
+
+  public enum Kind { HASH, SORTED }
+
+  private enum ValueKind { INTEGER, STRING, BOOLEAN, DATE }
+
+  private static final Object NULL_VALUE = new Object();
+
+  private static final class Entry {
+    private final long ordinal;
+    private Object value;
+
+    private Entry(final long ordinal, final Object value) {
+      this.ordinal = ordinal;
+      this.value = value;
+    }
+  }
+
+  private final EdmProperty edmProperty;
+  private final String propertyName;
+  private final Kind kind;
+  private final ValueKind valueKind;
+  private final List<Entity> entities;
+  private final Map<Entity, Entry> entries = new IdentityHashMap<Entity, Entry>();
+  private final Map<Object, Set<Entity>> entitiesByValue;
+  private final Set<Entity> nullValues = newEntitySet();
+  private final Set<Entity> unindexed = newEntitySet();
+  private long nextOrdinal;
+
+  private SecondaryIndex(final EdmProperty edmProperty, final Kind kind, final List<Entity> entities)
+      throws DataProviderException {
+    this.edmProperty = edmProperty;
+    propertyName = edmProperty.getName();
+    this.kind = kind;
+    valueKind = getValueKind(edmProperty);
+    this.entities = entities;
+    entitiesByValue = kind == Kind.SORTED ? new TreeMap<Object, Set<Entity>>() : new HashMap<Object, Set<Entity>>();
+  }
+
+  /**
+   * Creates the index for the given property of all entities of the given entity set.
+   * @throws DataProviderException if the property cannot be indexed
+   */
+  static SecondaryIndex of(final EntityCollection entityCollection, final EdmProperty edmProperty, final Kind kind)
+      throws DataProviderException {
+    SecondaryIndex index = new SecondaryIndex(edmProperty, kind, entityCollection.getEntities());
+    for (final Entity entity : entityCollection.getEntities()) {
+      index.add(entity);
+    }
+    return index;
+  }
+
+  private static ValueKind getValueKind(final EdmProperty edmProperty) throws DataProviderException {
+    final FullQualifiedName typeName = edmProperty.getType().getFullQualifiedName();
+    if (edmProperty.isPrimitive() && !edmProperty.isCollection()) {
+      if (EdmPrimitiveTypeKind.SByte.getFullQualifiedName().equals(typeName)
+          || EdmPrimitiveTypeKind.Byte.getFullQualifiedName().equals(typeName)
+          || EdmPrimitiveTypeKind.Int16.getFullQualifiedName().equals(typeName)
+          || EdmPrimitiveTypeKind.Int32.getFullQualifiedName().equals(typeName)
+          || EdmPrimitiveTypeKind.Int64.getFullQualifiedName().equals(typeName)) {
+        return ValueKind.INTEGER;
+      } else if (EdmPrimitiveTypeKind.String.getFullQualifiedName().equals(typeName)) {
+        return ValueKind.STRING;
+      } else if (EdmPrimitiveTypeKind.Boolean.getFullQualifiedName().equals(typeName)) {
+        return ValueKind.BOOLEAN;
+      } else if (EdmPrimitiveTypeKind.Date.getFullQualifiedName().equals(typeName)) {
+        return ValueKind.DATE;
+      }
+    }
+    throw new DataProviderException("Index for property " + edmProperty.getName() + " not supported",
+        HttpStatusCode.NOT_IMPLEMENTED);
+  }
+
+  private static Set<Entity> newEntitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<Entity, Boolean>());
+  }
+
+  EdmProperty getEdmProperty() {
+    return edmProperty;
+  }
+
+  public String getPropertyName() {
+    return propertyName;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /** Number of indexed entities (including those whose value is not indexed). */
+  public int size() {
+    return entries.size();
+  }
+
+  /** Whether the index holds exactly the given entities, i.e., whether these are the entities of the entity set. */
+  public boolean covers(final List<Entity> entities) {
+    return this.entities == entities && entities.size() == entries.size();
+  }
+
+  /** Whether the value of the given entity is indexed, i.e., whether lookups decide about the entity. */
+  public boolean contains(final Entity entity) {
+    final Entry entry = entries.get(entity);
+    return entry != null && entry.value != null;
+  }
+
+  /**
+   * Whether the index can find the entities for the comparison of the property with the given literal.
+   * @param literal the literal as compared with the property values
+   */
+  public boolean supports(final BinaryOperatorKind operator, final Object literal) {
+    if (operator == BinaryOperatorKind.EQ) {
+      return literal == null || key(literal) != null;
+    }
+    return kind == Kind.SORTED && literal != null && key(literal) != null
+        && (operator == BinaryOperatorKind.GT || operator == BinaryOperatorKind.GE
+            || operator == BinaryOperatorKind.LT || operator == BinaryOperatorKind.LE);
+  }
+
+  /**
+   * Counts the entities a {@link #find(BinaryOperatorKind, Object) lookup} would return.
+   * The operator and the literal must be {@link #supports(BinaryOperatorKind, Object) supported}.
+   */
+  public int count(final BinaryOperatorKind operator, final Object literal) {
+    int count = unindexed.size();
+    for (final Set<Entity> found : lookup(operator, literal)) {
+      count += found.size();
+    }
+    return count;
+  }
+
+  /**
+   * Finds the entities whose value compares with the given literal as requested, together with all entities
+   * whose value is not indexed, in the order of the entity set.
+   * The operator and the literal must be {@link #supports(BinaryOperatorKind, Object) supported}.
+   */
+  public List<Entity> find(final BinaryOperatorKind operator, final Object literal) {
+    List<Entity> found = new ArrayList<Entity>(unindexed);
+    for (final Set<Entity> entities : lookup(operator, literal)) {
+      found.addAll(entities);
+    }
+    final Entity[] sorted = found.toArray(new Entity[found.size()]);
+    Arrays.sort(sorted, new Comparator<Entity>() {
+      @Override
+      public int compare(final Entity entity1, final Entity entity2) {
+        final long ordinal1 = entries.get(entity1).ordinal;
+        final long ordinal2 = entries.get(entity2).ordinal;
+        return ordinal1 < ordinal2 ? -1 : ordinal1 == ordinal2 ? 0 : 1;
+      }
+    });
+    return Arrays.asList(sorted);
+  }
+
+  private Collection<Set<Entity>> lookup(final BinaryOperatorKind operator, final Object literal) {
+    if (literal == null) {
+      return Collections.singletonList(nullValues);
+    }
+    final Object key = key(literal);
+    if (operator == BinaryOperatorKind.EQ) {
+      final Set<Entity> found = entitiesByValue.get(key);
+      return found == null ? Collections.<Set<Entity>> emptyList() : Collections.singletonList(found);
+    }
+    final NavigableMap<Object, Set<Entity>> sorted = (NavigableMap<Object, Set<Entity>>) entitiesByValue;
+    switch (operator) {
+    case GT:
+      return sorted.tailMap(key, false).values();
+    case GE:
+      return sorted.tailMap(key, true).values();
+    case LT:
+      return sorted.headMap(key, false).values();
+    default:
+      return sorted.headMap(key, true).values();
+    }
+  }
+
+  void add(final Entity entity) {
+    if (!entries.containsKey(entity)) {
+      final Entry entry = new Entry(nextOrdinal++, null);
+      entries.put(entity, entry);
+      index(entity, entry);
+    }
+  }
+
+  void remove(final Entity entity) {
+    final Entry entry = entries.remove(entity);
+    if (entry != null) {
+      unindex(entity, entry);
+    }
+  }
+
+  /** Indexes the current value of the entity (if it is indexed at all); the entity keeps its position. */
+  void update(final Entity entity) {
+    final Entry entry = entries.get(entity);
+    if (entry != null) {
+      unindex(entity, entry);
+      index(entity, entry);
+    }
+  }
+
+  private void index(final Entity entity, final Entry entry) {
+    final Property property = entity.getProperty(propertyName);
+    if (property == null) {
+      entry.value = null;
+    } else if (property.getValue() == null) {
+      entry.value = NULL_VALUE;
+    } else {
+      entry.value = key(property.getValue());
+    }
+    if (entry.value == null) {
+      unindexed.add(entity);
+    } else if (entry.value == NULL_VALUE) {
+      nullValues.add(entity);
+    } else {
+      Set<Entity> found = entitiesByValue.get(entry.value);
+      if (found == null) {
+        found = newEntitySet();
+        entitiesByValue.put(entry.value, found);
+      }
+      found.add(entity);
+    }
+  }
+
+  private void unindex(final Entity entity, final Entry entry) {
+    if (entry.value == null) {
+      unindexed.remove(entity);
+    } else if (entry.value == NULL_VALUE) {
+      nullValues.remove(entity);
+    } else {
+      final Set<Entity> found = entitiesByValue.get(entry.value);
+      found.remove(entity);
+      if (found.isEmpty()) {
+        entitiesByValue.remove(entry.value);
+      }
+    }
+  }
+
+  /**
+   * Normalizes a (non-null) value as it is compared by the <code>$filter</code> evaluation.
+   * @return the key or <code>null</code> if the value cannot be indexed
+   */
+  private Object key(final Object value) {
+    switch (valueKind) {
+    case INTEGER:
+      return value instanceof Short || value instanceof Integer || value instanceof Long || value instanceof Byte ?
+          Long.valueOf(((Number) value).longValue()) : null;
+    case STRING:
+      return value instanceof String ? value : null;
+    case BOOLEAN:
+      return value instanceof Boolean ? value : null;
+    default:
+      // Calendars are compared only with calendars of the same class; literals are Gregorian calendars.
+      return value.getClass() == GregorianCalendar.class ? Long.valueOf(((Calendar) value).getTimeInMillis()) : null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return propertyName + " (" + kind.name().toLowerCase() + ")";
+  }
+}
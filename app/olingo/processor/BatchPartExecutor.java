@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataHandler;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ODataServerError;
+import org.apache.olingo.server.api.batch.BatchFacade;
+import org.apache.olingo.server.api.deserializer.batch.BatchRequestPart;
+import org.apache.olingo.server.api.deserializer.batch.ODataResponsePart;
+import org.apache.olingo.server.api.processor.BatchProcessor;
+import org.apache.olingo.server.api.processor.DefaultProcessor;
+import org.apache.olingo.server.api.processor.ErrorProcessor;
+import org.apache.olingo.server.api.serializer.RepresentationType;
+import org.apache.olingo.server.core.ContentNegotiator;
+import org.apache.olingo.server.core.ContentNegotiatorException;
+import org.apache.olingo.server.core.ODataExceptionHelper;
+import org.apache.olingo.server.core.batchhandler.BatchFacadeImpl;
+
+/**
+ * <p>Handles independent read-only parts of a batch request concurrently, shared by all batch requests.</p>
+ * <p>Only top-level <code>GET</code> requests (i.e., outside of change sets) are handled concurrently.
+ * The parts of one batch request run on at most {@link #getMaxPartsPerBatch()} threads at the same time,
+ * the parts of all batch requests on at most {@link #getMaxThreads()} threads; if all threads are busy,
+ * a part is handled by the thread of the batch request itself. Each thread handles the parts
+ * with its own handler (see {@link HandlerProvider}), as the handler keeps per-request state.</p>
+ * <p>The batch request waits for all of its parts, so the parts run within the lock held by the batch request.</p>
+ */
+public class BatchPartExecutor {
+
+  public static final int DEFAULT_MAX_THREADS = 8;
+  public static final int DEFAULT_MAX_PARTS_PER_BATCH = 4;
+
+  /** Provides the handler of the current thread. */
+  public interface HandlerProvider {
+    ODataHandler getHandler();
+  }
+
+  private volatile boolean parallelEnabled = true;
+  private volatile int maxPartsPerBatch = DEFAULT_MAX_PARTS_PER_BATCH;
+  private volatile HandlerProvider handlerProvider;
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong parallelCount = new AtomicLong();
+  private final AtomicLong callerCount = new AtomicLong();
+
+  public BatchPartExecutor() {
+    // Without a queue, a part is rejected (and handled by the batch request itself) if all threads are busy.
+    executor = new ThreadPoolExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_THREADS, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "odata-batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Whether the given part may be handled concurrently with other such parts of the same batch request.
+   */
+  public boolean isConcurrent(final BatchRequestPart part) {
+    return parallelEnabled && handlerProvider != null && maxPartsPerBatch > 1
+        && TechnicalBatchProcessor.isReadOnly(part);
+  }
+
+  /**
+   * Handles the given parts (see {@link #isConcurrent(BatchRequestPart)}) concurrently
+   * and returns their responses in the order of the parts. Each part is handled via a batch facade
+   * for the handler of its thread; a part which fails with an exception gets an error response of its own
+   * (see {@link #handle(BatchFacade, BatchRequestPart)}).
+   * Without <code>continueOnError</code>, no further parts are started as soon as a part has failed,
+   * so fewer responses than parts may be returned; parts running already are still completed.
+   */
+  public List<ODataResponsePart> handleBatchRequests(final BatchFacade facade, final BatchProcessor batchProcessor,
+      final List<BatchRequestPart> parts, final boolean continueOnError) {
+    final HandlerProvider provider = handlerProvider;
+    final Semaphore permits = new Semaphore(maxPartsPerBatch);
+    final AtomicBoolean failed = new AtomicBoolean();
+    final List<Future<ODataResponsePart>> futures = new ArrayList<Future<ODataResponsePart>>(parts.size());
+    final List<ODataResponsePart> responseParts = new ArrayList<ODataResponsePart>(parts.size());
+    try {
+      for (final BatchRequestPart part : parts) {
+        permits.acquireUninterruptibly();
+        if (failed.get() && !continueOnError) {
+          permits.release();
+          break;
+        }
+        Future<ODataResponsePart> future = null;
+        try {
+          future = executor.submit(new Callable<ODataResponsePart>() {
+            @Override
+            public ODataResponsePart call() {
+              try {
+                final ODataResponsePart responsePart =
+                    handle(new BatchFacadeImpl(provider.getHandler(), batchProcessor, true), part);
+                if (isFailed(responsePart)) {
+                  failed.set(true);
+                }
+                return responsePart;
+              } finally {
+                permits.release();
+              }
+            }
+          });
+          parallelCount.incrementAndGet();
+        } catch (final RejectedExecutionException e) {
+          permits.release();
+          callerCount.incrementAndGet();
+        }
+        futures.add(future);
+        if (future == null) {
+          final ODataResponsePart responsePart = handle(facade, part);
+          if (isFailed(responsePart)) {
+            failed.set(true);
+          }
+          responseParts.add(responsePart);
+        } else {
+          responseParts.add(null);
+        }
+      }
+    } finally {
+      // The parts must not outlive the batch request (and the lock held by it).
+      for (int i = 0; i < futures.size(); i++) {
+        if (futures.get(i) != null) {
+          responseParts.set(i, get(futures.get(i), parts.get(i)));
+        }
+      }
+    }
+    return responseParts;
+  }
+
+  /**
+   * Handles the part via the batch facade and completes its streamed content (see
+   * {@link BatchResponseContent#completeContent(ODataResponsePart)}). A part which fails with an exception
+   * gets the error response of that exception, so it does not abort the batch response, whose status
+   * has been sent already.
+   */
+  static ODataResponsePart handle(final BatchFacade facade, final BatchRequestPart part) {
+    try {
+      final ODataResponsePart responsePart = facade.handleBatchRequest(part);
+      BatchResponseContent.completeContent(responsePart);
+      return responsePart;
+    } catch (final ODataApplicationException e) {
+      return createErrorPart(part, ODataExceptionHelper.createServerErrorObject(e));
+    } catch (final ODataLibraryException e) {
+      return createErrorPart(part, ODataExceptionHelper.createServerErrorObject(e, null));
+    } catch (final RuntimeException e) {
+      return createErrorPart(part, ODataExceptionHelper.createServerErrorObject(e));
+    }
+  }
+
+  /** Whether the (first) response of the part reports an error. */
+  static boolean isFailed(final ODataResponsePart responsePart) {
+    final int statusCode = responsePart.getResponses().get(0).getStatusCode();
+    return statusCode >= 400 && statusCode <= 600;
+  }
+
+  /**
+   * Creates the response part with the OData error document of the given error, in the format negotiated
+   * for errors of the (first) request of the part, as the synchronous processing does.
+   */
+  private static ODataResponsePart createErrorPart(final BatchRequestPart part, final ODataServerError serverError) {
+    final ODataRequest request = part.getRequests().get(0);
+    ContentType format;
+    try {
+      format = ContentNegotiator.doContentNegotiation(null, request, null, RepresentationType.ERROR);
+    } catch (final ContentNegotiatorException e) {
+      format = ContentType.JSON;
+    }
+    final ErrorProcessor errorProcessor = new DefaultProcessor();
+    errorProcessor.init(OData.newInstance(), null);
+    final ODataResponse response = new ODataResponse();
+    errorProcessor.processError(request, response, serverError, format);
+    final String contentId = request.getHeader(HttpHeader.CONTENT_ID);
+    if (contentId != null && !part.isChangeSet()) {
+      response.setHeader(HttpHeader.CONTENT_ID, contentId);
+    }
+    return new ODataResponsePart(response, false);
+  }
+
+  private static ODataResponsePart get(final Future<ODataResponsePart> future, final BatchRequestPart part) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        } catch (final ExecutionException e) {
+          // Exceptions are handled within the part already, so this is an error (e.g., out of memory).
+          return createErrorPart(part, ODataExceptionHelper.createServerErrorObject(e));
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Enables or disables the concurrent handling; if disabled, all parts are handled one after the other.
+   */
+  public void setParallelEnabled(final boolean parallelEnabled) {
+    this.parallelEnabled = parallelEnabled;
+  }
+
+  public boolean isParallelEnabled() {
+    return parallelEnabled;
+  }
+
+  /**
+   * Sets the maximum number of threads handling parts of all batch requests.
+   */
+  public synchronized void setMaxThreads(final int maxThreads) {
+    if (maxThreads > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(maxThreads);
+      executor.setCorePoolSize(maxThreads);
+    } else {
+      executor.setCorePoolSize(maxThreads);
+      executor.setMaximumPoolSize(maxThreads);
+    }
+  }
+
+  public int getMaxThreads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * Sets the maximum number of parts of one batch request handled at the same time.
+   */
+  public void setMaxPartsPerBatch(final int maxPartsPerBatch) {
+    this.maxPartsPerBatch = maxPartsPerBatch;
+  }
+
+  public int getMaxPartsPerBatch() {
+    return maxPartsPerBatch;
+  }
+
+  /**
+   * Sets the provider of the handlers for the threads handling parts; without a provider,
+   * all parts are handled one after the other.
+   */
+  public void setHandlerProvider(final HandlerProvider handlerProvider) {
+    this.handlerProvider = handlerProvider;
+  }
+
+  /** Number of parts handled by a thread of the executor so far. */
+  public long getParallelCount() {
+    return parallelCount.get();
+  }
+
+  /** Number of parts handled by the batch request itself so far, as all threads were busy. */
+  public long getCallerCount() {
+    return callerCount.get();
+  }
+}
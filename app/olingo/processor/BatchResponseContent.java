@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import olingo.data.DataProvider;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataContent;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.batch.BatchFacade;
+import org.apache.olingo.server.api.deserializer.batch.BatchRequestPart;
+import org.apache.olingo.server.api.deserializer.batch.ODataResponsePart;
+import org.apache.olingo.server.api.processor.BatchProcessor;
+import org.apache.olingo.server.api.serializer.FixedFormatSerializer;
+import org.apache.olingo.server.core.serializer.utils.CircleStreamBuffer;
+
+/**
+ * <p>Content of a batch response which handles the parts of the batch request while it is written.</p>
+ * <p>The multipart section of each part is written (and flushed) as soon as the part has been handled,
+ * so the first parts are sent before the last ones are handled and only the responses of the parts
+ * handled at the same time are kept in memory. Consecutive read-only parts are handled concurrently
+ * (see {@link BatchPartExecutor}), change sets and modifying parts one after the other; each group of parts
+ * holds the lock it needs, so readers are blocked only by modifying parts and the commits of change sets.</p>
+ * <p>As the response status has been sent already, a part which fails with an exception gets an error response
+ * of its own (see {@link BatchPartExecutor#handle(BatchFacade, BatchRequestPart)}); without
+ * <code>continueOnError</code>, no further parts are written after a failed one.
+ * Only a failure while writing aborts the response.</p>
+ */
+public class BatchResponseContent implements ODataContent {
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  private final OData odata;
+  private final DataProvider dataProvider;
+  private final BatchPartExecutor executor;
+  private final BatchFacade facade;
+  private final BatchProcessor batchProcessor;
+  private final List<BatchRequestPart> parts;
+  private final boolean continueOnError;
+  private final String boundary;
+
+  public BatchResponseContent(final OData odata, final DataProvider dataProvider, final BatchPartExecutor executor,
+      final BatchFacade facade, final BatchProcessor batchProcessor, final List<BatchRequestPart> parts,
+      final boolean continueOnError, final String boundary) {
+    this.odata = odata;
+    this.dataProvider = dataProvider;
+    this.executor = executor;
+    this.facade = facade;
+    this.batchProcessor = batchProcessor;
+    this.parts = parts;
+    this.continueOnError = continueOnError;
+    this.boundary = boundary;
+  }
+
+  @Override
+  public void write(final WritableByteChannel channel) {
+    write(Channels.newOutputStream(channel));
+  }
+
+  @Override
+  public void write(final OutputStream stream) {
+    try {
+      handleParts(stream);
+      stream.write(closeDelimiter());
+      stream.flush();
+    } catch (final IOException e) {
+      throw new ODataRuntimeException("Error on writing batch response content", e);
+    } catch (final ODataLibraryException e) {
+      throw new ODataRuntimeException("Error on writing batch response content", e);
+    }
+  }
+
+  private void handleParts(final OutputStream stream) throws IOException, ODataLibraryException {
+    final FixedFormatSerializer serializer = odata.createFixedFormatSerializer();
+    int index = 0;
+    while (index < parts.size()) {
+      int end = index + 1;
+      while (end < parts.size() && executor.isConcurrent(parts.get(index)) && executor.isConcurrent(parts.get(end))) {
+        end++;
+      }
+      // Change sets work on a copy of the data (see TechnicalBatchProcessor), so they need no lock here.
+      final Lock lock = TechnicalBatchProcessor.isReadOnly(parts.get(index)) ? dataProvider.readLock() :
+          parts.get(index).isChangeSet() ? null : dataProvider.writeLock();
+      if (lock != null) {
+        lock.lock();
+      }
+      final List<ODataResponsePart> handledParts;
+      try {
+        if (end - index > 1) {
+          handledParts = executor.handleBatchRequests(facade, batchProcessor, parts.subList(index, end),
+              continueOnError);
+        } else {
+          handledParts = Collections.singletonList(BatchPartExecutor.handle(facade, parts.get(index)));
+        }
+      } finally {
+        if (lock != null) {
+          lock.unlock();
+        }
+      }
+      index = end;
+
+      for (final ODataResponsePart responsePart : handledParts) {
+        writeSection(serializer, responsePart, stream); // Also write failed responses.
+
+        if (BatchPartExecutor.isFailed(responsePart) && !continueOnError) {
+
+          // Perform some additional actions.
+          // ...
+
+          return; // Stop processing, but keep the responses to all recent requests.
+        }
+      }
+      stream.flush();
+    }
+  }
+
+  /**
+   * Writes the multipart section of the given part; it is serialized as batch response of its own
+   * without the closing delimiter, so the sections of all parts form the complete batch response.
+   */
+  private void writeSection(final FixedFormatSerializer serializer, final ODataResponsePart responsePart,
+      final OutputStream stream) throws IOException, ODataLibraryException {
+    final InputStream section = serializer.batchResponse(Collections.singletonList(responsePart), boundary);
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try {
+      final byte[] bytes = new byte[8192];
+      int count;
+      while ((count = section.read(bytes)) > 0) {
+        buffer.write(bytes, 0, count);
+      }
+    } finally {
+      section.close();
+    }
+    final int length = buffer.size() - closeDelimiter().length;
+    stream.write(buffer.toByteArray(), 0, length);
+  }
+
+  private byte[] closeDelimiter() {
+    return ("--" + boundary + "--\r\n").getBytes(ISO_8859_1);
+  }
+
+  /**
+   * Writes streamed response content of the given part into a buffer, as it must be written
+   * while the lock of the part is held (or, for change sets, before the commit).
+   */
+  static void completeContent(final ODataResponsePart responsePart) {
+    for (final ODataResponse response : responsePart.getResponses()) {
+      if (response.getContent() == null && response.getODataContent() != null) {
+        final CircleStreamBuffer buffer = new CircleStreamBuffer();
+        response.getODataContent().write(buffer.getOutputStream());
+        response.setContent(buffer.getInputStream());
+      }
+    }
+  }
+}
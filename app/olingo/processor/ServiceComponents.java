@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor;
+
+import olingo.async.TechnicalAsyncService;
+import olingo.processor.queryoptions.ExpandSystemQueryOptionHandler;
+import olingo.processor.queryoptions.QueryPlanCache;
+import olingo.processor.queryoptions.options.EntityMatcher;
+
+/**
+ * <p>The components shared by the processors of one service runtime: the query-plan cache, the entity matcher,
+ * the executor for the parts of batch requests, and the service for asynchronous requests.</p>
+ * <p>Each runtime creates and configures its own components, so runtimes (e.g., after a reset or in tests)
+ * neither share cached state nor their configuration.</p>
+ */
+public class ServiceComponents {
+
+  private final QueryPlanCache queryPlanCache;
+  private final EntityMatcher entityMatcher;
+  private final BatchPartExecutor batchPartExecutor;
+  private final TechnicalAsyncService asyncService;
+  private volatile int maxLevelsEntities = ExpandSystemQueryOptionHandler.DEFAULT_MAX_LEVELS_ENTITIES;
+
+  /** Creates components with the default configuration. */
+  public ServiceComponents() {
+    this(new QueryPlanCache(), new EntityMatcher(), new BatchPartExecutor(), new TechnicalAsyncService());
+  }
+
+  public ServiceComponents(final QueryPlanCache queryPlanCache, final EntityMatcher entityMatcher,
+      final BatchPartExecutor batchPartExecutor, final TechnicalAsyncService asyncService) {
+    this.queryPlanCache = queryPlanCache;
+    this.entityMatcher = entityMatcher;
+    this.batchPartExecutor = batchPartExecutor;
+    this.asyncService = asyncService;
+  }
+
+  public QueryPlanCache getQueryPlanCache() {
+    return queryPlanCache;
+  }
+
+  public EntityMatcher getEntityMatcher() {
+    return entityMatcher;
+  }
+
+  public BatchPartExecutor getBatchPartExecutor() {
+    return batchPartExecutor;
+  }
+
+  public TechnicalAsyncService getAsyncService() {
+    return asyncService;
+  }
+
+  /** Sets the maximum number of entities expanded for <code>$levels</code> within one request. */
+  public void setMaxLevelsEntities(final int maxEntities) {
+    maxLevelsEntities = maxEntities;
+  }
+
+  public int getMaxLevelsEntities() {
+    return maxLevelsEntities;
+  }
+
+  /** Creates the handler for the <code>$expand</code> option of one request. */
+  public ExpandSystemQueryOptionHandler createExpandHandler() {
+    return new ExpandSystemQueryOptionHandler(queryPlanCache, maxLevelsEntities);
+  }
+}
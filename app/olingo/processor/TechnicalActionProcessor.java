@@ -75,6 +75,11 @@ public class TechnicalActionProcessor extends TechnicalProcessor
     super(dataProvider, serviceMetadata);
   }
 
+  public TechnicalActionProcessor(final DataProvider dataProvider, final ServiceMetadata serviceMetadata,
+      final ServiceComponents components) {
+    super(dataProvider, serviceMetadata, components);
+  }
+
   @Override
   public void processActionEntityCollection(final ODataRequest request, final ODataResponse response,
       final UriInfo uriInfo, final ContentType requestFormat, final ContentType responseFormat)
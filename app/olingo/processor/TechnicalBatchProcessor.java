@@ -18,13 +18,13 @@
  */
 package olingo.processor;
 
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.ODataLibraryException;
@@ -46,17 +46,27 @@ public class TechnicalBatchProcessor extends TechnicalProcessor implements Batch
     super(dataProvider);
   }
 
+  public TechnicalBatchProcessor(final DataProvider dataProvider, final ServiceComponents components) {
+    super(dataProvider, null, components);
+  }
+
   @Override
   public void processBatch(final BatchFacade facade, final ODataRequest request, final ODataResponse response)
       throws ODataApplicationException, ODataLibraryException {
     // only the first batch call (process batch) must be handled in a separate way for async support
     // because a changeset has to be wrapped within a process batch call
     if(odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).hasRespondAsync()) {
-      TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
-      BatchProcessor processor = new TechnicalBatchProcessor(dataProvider);
+      TechnicalAsyncService asyncService = components.getAsyncService();
+      BatchProcessor processor = new TechnicalBatchProcessor(dataProvider, components);
       processor.init(odata, serviceMetadata);
-      AsyncProcessor<BatchProcessor> asyncProcessor = asyncService.register(processor, BatchProcessor.class);
-      asyncProcessor.prepareFor().processBatch(facade, request, response);
+      AsyncProcessor<BatchProcessor> asyncProcessor = asyncService.register(processor, request, response,
+          new AsyncProcessor.Task<BatchProcessor>() {
+            @Override
+            public void process(final BatchProcessor processor, final ODataRequest request,
+                final ODataResponse response) throws ODataApplicationException, ODataLibraryException {
+              processor.processBatch(facade, request, response);
+            }
+          });
       String location = asyncProcessor.processAsync();
       TechnicalAsyncService.acceptedResponse(response, location);
       //
@@ -73,27 +83,13 @@ public class TechnicalBatchProcessor extends TechnicalProcessor implements Batch
         .rawServiceResolutionUri(request.getRawServiceResolutionUri()).build();
     final List<BatchRequestPart> parts = odata.createFixedFormatDeserializer().parseBatchRequest(request.getBody(),
         boundary, options);
-    final List<ODataResponsePart> responseParts = new ArrayList<ODataResponsePart>();
-
-    for (BatchRequestPart part : parts) {
-      final ODataResponsePart responsePart = facade.handleBatchRequest(part);
-      responseParts.add(responsePart); // Also add failed responses.
-      final int statusCode = responsePart.getResponses().get(0).getStatusCode();
-
-      if ((statusCode >= 400 && statusCode <= 600) && !continueOnError) {
-
-        // Perform some additional actions.
-        // ...
-
-        break; // Stop processing, but serialize responses to all recent requests.
-      }
-    }
 
+    // The parts are handled while the response content is written, so each part is sent as soon as it is complete.
     final String responseBoundary = "batch_" + UUID.randomUUID().toString();
-    final InputStream responseContent =
-        odata.createFixedFormatSerializer().batchResponse(responseParts, responseBoundary);
     response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.MULTIPART_MIXED + ";boundary=" + responseBoundary);
-    response.setContent(responseContent);
+    response.setODataContent(
+        new BatchResponseContent(odata, dataProvider, components.getBatchPartExecutor(), facade, this, parts,
+            continueOnError, responseBoundary));
     response.setStatusCode(HttpStatusCode.ACCEPTED.getStatusCode());
     if (continueOnError) {
       response.setHeader(HttpHeader.PREFERENCE_APPLIED,
@@ -101,35 +97,63 @@ public class TechnicalBatchProcessor extends TechnicalProcessor implements Batch
     }
   }
 
+  /** Whether the part is a single request which only reads data. */
+  static boolean isReadOnly(final BatchRequestPart part) {
+    return !part.isChangeSet() && part.getRequests().size() == 1
+        && part.getRequests().get(0).getMethod() == HttpMethod.GET;
+  }
+
+  /**
+   * Processes the requests of the change set as a whole, staging their changes on top of the published data
+   * (see {@link DataProvider#beginChangeSet()}): if one of them fails, the staged changes are dropped;
+   * otherwise the responses are completed and the changes are published with the commit.
+   */
   @Override
   public ODataResponsePart processChangeSet(final BatchFacade facade, final List<ODataRequest> requests)
       throws ODataApplicationException, ODataLibraryException {
     List<ODataResponse> responses = new ArrayList<ODataResponse>();
 
-    for (ODataRequest request : requests) {
-      final ODataResponse oDataResponse = facade.handleODataRequest(request);
-      final int statusCode = oDataResponse.getStatusCode();
-
-      if (statusCode < 400) {
-        responses.add(oDataResponse);
-      } else {
-        // Rollback
-        // ...
-
-        // OData Version 4.0 Part 1: Protocol Plus Errata 01
-        // 11.7.4 Responding to a Batch Request
-        //
-        // When a request within a change set fails, the change set response is not represented using
-        // the multipart/mixed media type. Instead, a single response, using the application/http media type
-        // and a Content-Transfer-Encoding header with a value of binary, is returned that applies to all requests
-        // in the change set and MUST be formatted according to the Error Handling defined
-        // for the particular response format.
-
-        return new ODataResponsePart(oDataResponse, false);
+    dataProvider.beginChangeSet();
+    boolean finished = false;
+    try {
+      for (ODataRequest request : requests) {
+        final ODataResponse oDataResponse = facade.handleODataRequest(request);
+        final int statusCode = oDataResponse.getStatusCode();
+
+        if (statusCode < 400) {
+          responses.add(oDataResponse);
+        } else {
+          // Rollback
+          dataProvider.rollbackChangeSet();
+          finished = true;
+
+          // OData Version 4.0 Part 1: Protocol Plus Errata 01
+          // 11.7.4 Responding to a Batch Request
+          //
+          // When a request within a change set fails, the change set response is not represented using
+          // the multipart/mixed media type. Instead, a single response, using the application/http media type
+          // and a Content-Transfer-Encoding header with a value of binary, is returned that applies to all
+          // requests in the change set and MUST be formatted according to the Error Handling defined
+          // for the particular response format.
+
+          return new ODataResponsePart(oDataResponse, false);
+        }
       }
-    }
 
-    return new ODataResponsePart(responses, true);
+      // The responses refer to the staged copies of the entities, so they are written before these are published.
+      final ODataResponsePart responsePart = new ODataResponsePart(responses, true);
+      BatchResponseContent.completeContent(responsePart);
+
+      // Commit
+      dataProvider.commitChangeSet();
+      finished = true;
+      return responsePart;
+    } finally {
+      if (!finished) {
+        // A request failed with an exception.
+        dataProvider.rollbackChangeSet();
+      }
+    }
   }
 
 }
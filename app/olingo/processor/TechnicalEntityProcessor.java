@@ -28,9 +28,13 @@ import olingo.async.AsyncProcessor;
 import olingo.async.TechnicalAsyncService;
 import olingo.data.DataProvider;
 import olingo.data.RequestValidator;
+import olingo.processor.queryoptions.EntityView;
 import olingo.processor.queryoptions.ExpandSystemQueryOptionHandler;
+import olingo.processor.queryoptions.QueryPlan;
 import olingo.processor.queryoptions.options.CountHandler;
+import olingo.processor.queryoptions.options.EntityRange;
 import olingo.processor.queryoptions.options.FilterHandler;
+import olingo.processor.queryoptions.options.FilterScan;
 import olingo.processor.queryoptions.options.OrderByHandler;
 import olingo.processor.queryoptions.options.SearchHandler;
 import olingo.processor.queryoptions.options.ServerSidePagingHandler;
@@ -92,6 +96,11 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
     super(dataProvider, serviceMetadata);
   }
 
+  public TechnicalEntityProcessor(final DataProvider dataProvider, final ServiceMetadata serviceMetadata,
+      final ServiceComponents components) {
+    super(dataProvider, serviceMetadata, components);
+  }
+
   @Override
   public void readEntityCollection(final ODataRequest request, final ODataResponse response, final UriInfo uriInfo,
       final ContentType requestedContentType) throws ODataApplicationException, ODataLibraryException {
@@ -104,12 +113,16 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
   public void countEntityCollection(final ODataRequest request, final ODataResponse response,
       final UriInfo uriInfo) throws ODataApplicationException, ODataLibraryException {
     validateOptions(uriInfo.asUriInfoResource());
-    getEdmEntitySet(uriInfo); // including checks
+    final EdmEntitySet edmEntitySet = getEdmEntitySet(uriInfo); // including checks
     final EntityCollection entitySetInitial = readEntityCollection(uriInfo);
     EntityCollection entitySet = new EntityCollection();
 
-    entitySet.getEntities().addAll(entitySetInitial.getEntities());
-    FilterHandler.applyFilterSystemQuery(uriInfo.getFilterOption(), entitySet, uriInfo, serviceMetadata.getEdm());
+    final FilterScan filterScan = FilterHandler.getFilterScan(components.getQueryPlanCache().getPlan(edmEntitySet,
+        edmEntitySet == null ? null : edmEntitySet.getEntityType(), uriInfo.getFilterOption(), null, null, null,
+        uriInfo, serviceMetadata.getEdm()),
+        entitySetInitial.getEntities(), edmEntitySet == null ? null : dataProvider.getIndexes(edmEntitySet));
+    components.getEntityMatcher().collect(filterScan.getEntities(), entitySet.getEntities(), null,
+        filterScan.getCondition());
     response.setContent(odata.createFixedFormatSerializer().count(
         entitySet.getEntities().size()));
     response.setStatusCode(HttpStatusCode.OK.getStatusCode());
@@ -156,11 +169,17 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
     checkRequestFormat(requestFormat);
 
     if (odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).hasRespondAsync()) {
-      TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
-      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata);
+      TechnicalAsyncService asyncService = components.getAsyncService();
+      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata, components);
       processor.init(odata, serviceMetadata);
-      AsyncProcessor<EntityProcessor> asyncProcessor = asyncService.register(processor, EntityProcessor.class);
-      asyncProcessor.prepareFor().createEntity(request, response, uriInfo, requestFormat, responseFormat);
+      AsyncProcessor<TechnicalEntityProcessor> asyncProcessor = asyncService.register(processor, request, response,
+          new AsyncProcessor.Task<TechnicalEntityProcessor>() {
+            @Override
+            public void process(final TechnicalEntityProcessor processor, final ODataRequest request,
+                final ODataResponse response) throws ODataApplicationException, ODataLibraryException {
+              processor.createEntity(request, response, uriInfo, requestFormat, responseFormat);
+            }
+          });
       String location = asyncProcessor.processAsync();
       TechnicalAsyncService.acceptedResponse(response, location);
       return;
@@ -240,6 +259,7 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
         request.getMethod() == HttpMethod.PATCH,
         request.getRawBaseUri()).validate(edmEntitySet, changedEntity);
 
+    entity = dataProvider.recordChange(entity);
     dataProvider.update(request.getRawBaseUri(), edmEntitySet, entity, changedEntity,
         request.getMethod() == HttpMethod.PATCH, false);
 
@@ -273,6 +293,7 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
         request.getHeaders(HttpHeader.IF_MATCH),
         request.getHeaders(HttpHeader.IF_NONE_MATCH));
     checkRequestFormat(requestFormat);
+    entity = dataProvider.recordChange(entity);
     dataProvider.setMedia(entity, odata.createFixedFormatDeserializer().binary(request.getBody()),
         requestFormat.toContentTypeString());
 
@@ -407,11 +428,17 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
       throws ODataApplicationException, ODataLibraryException {
     //
     if (odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).hasRespondAsync()) {
-      TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
-      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata);
+      TechnicalAsyncService asyncService = components.getAsyncService();
+      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata, components);
       processor.init(odata, serviceMetadata);
-      AsyncProcessor<EntityProcessor> asyncProcessor = asyncService.register(processor, EntityProcessor.class);
-      asyncProcessor.prepareFor().readEntity(request, response, uriInfo, requestedFormat);
+      AsyncProcessor<TechnicalEntityProcessor> asyncProcessor = asyncService.register(processor, request, response,
+          new AsyncProcessor.Task<TechnicalEntityProcessor>() {
+            @Override
+            public void process(final TechnicalEntityProcessor processor, final ODataRequest request,
+                final ODataResponse response) throws ODataApplicationException, ODataLibraryException {
+              processor.readEntity(request, response, uriInfo, requestedFormat, isReference);
+            }
+          });
       String location = asyncProcessor.processAsync();
       TechnicalAsyncService.acceptedResponse(response, location);
       //
@@ -435,13 +462,19 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
       return;
     }
 
-    final ExpandOption expand = uriInfo.getExpandOption();
+    // $levels is resolved into nested expand items, for the tree as well as for the serializer.
+    final ExpandOption expand = ExpandSystemQueryOptionHandler.resolveLevels(uriInfo.getExpandOption());
     final SelectOption select = uriInfo.getSelectOption();
 
-    final ExpandSystemQueryOptionHandler expandHandler = new ExpandSystemQueryOptionHandler();
-    final Entity entitySerialization = expandHandler.transformEntityGraphToTree(entity, edmEntitySet, expand);
-    expandHandler.applyExpandQueryOptions(entitySerialization, edmEntitySet, expand, uriInfo,
-        serviceMetadata.getEdm());
+    final Entity entitySerialization;
+    if (isTreeRequired(expand, requestedFormat, isReference)) {
+      final ExpandSystemQueryOptionHandler expandHandler = components.createExpandHandler();
+      entitySerialization = expandHandler.transformEntityGraphToTree(entity, edmEntitySet, expand);
+      expandHandler.applyExpandQueryOptions(entitySerialization, edmEntitySet, expand, uriInfo,
+          serviceMetadata.getEdm());
+    } else {
+      entitySerialization = entity;
+    }
 
     final SerializerResult serializerResult = isReference ?
         serializeReference(entity, edmEntitySet, requestedFormat) :
@@ -460,12 +493,17 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
       throws ODataApplicationException, ODataLibraryException {
     //
     if (odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).hasRespondAsync()) {
-      TechnicalAsyncService asyncService = TechnicalAsyncService.getInstance();
-      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata);
+      TechnicalAsyncService asyncService = components.getAsyncService();
+      TechnicalEntityProcessor processor = new TechnicalEntityProcessor(dataProvider, serviceMetadata, components);
       processor.init(odata, serviceMetadata);
-      AsyncProcessor<EntityCollectionProcessor> asyncProcessor =
-          asyncService.register(processor, EntityCollectionProcessor.class);
-      asyncProcessor.prepareFor().readEntityCollection(request, response, uriInfo, requestedContentType);
+      AsyncProcessor<TechnicalEntityProcessor> asyncProcessor = asyncService.register(processor, request, response,
+          new AsyncProcessor.Task<TechnicalEntityProcessor>() {
+            @Override
+            public void process(final TechnicalEntityProcessor processor, final ODataRequest request,
+                final ODataResponse response) throws ODataApplicationException, ODataLibraryException {
+              processor.readEntityCollection(request, response, uriInfo, requestedContentType, isReference);
+            }
+          });
       String location = asyncProcessor.processAsync();
       TechnicalAsyncService.acceptedResponse(response, location);
       //
@@ -484,40 +522,64 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
       entitySetInitial = new EntityCollection();
     }
 
-    // Modifying the original entitySet means modifying the "database", so we have to make a shallow
-    // copy of the entity set (new EntitySet, but exactly the same data).
-    EntityCollection entitySet = new EntityCollection();
-    entitySet.getEntities().addAll(entitySetInitial.getEntities());
-
     // Apply system query options.
-    SearchHandler.applySearchSystemQueryOption(uriInfo.getSearchOption(), entitySet);
-    FilterHandler.applyFilterSystemQuery(uriInfo.getFilterOption(), entitySet, uriInfo, serviceMetadata.getEdm());
+    // Search and filter are applied while the matching entities are collected into a new entity set
+    // (in parallel for large entity sets); modifying the original entitySet would mean modifying the "database".
+    // Unless $count or $orderby need all matching entities, collecting stops as soon as the entities
+    // for $skip, $top, and server-side paging have been found.
+    final QueryPlan plan = components.getQueryPlanCache().getPlan(edmEntitySet, edmEntityType,
+        uriInfo.getFilterOption(), uriInfo.getOrderByOption(), uriInfo.getSelectOption(), uriInfo.getExpandOption(),
+        uriInfo, serviceMetadata.getEdm());
+    final Integer pageSize = odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).getMaxPageSize();
+    final Integer limit = OrderByHandler.getLimit(uriInfo.getSkipOption(), uriInfo.getTopOption(),
+        ServerSidePagingHandler.getRequiredSize(uriInfo.getSkipTokenOption(), edmEntitySet, pageSize));
+    final boolean countAll = uriInfo.getCountOption() != null && uriInfo.getCountOption().getValue();
+    // A secondary index of the entity set may narrow the entities to be checked against the filter.
+    final FilterScan filterScan = FilterHandler.getFilterScan(plan, entitySetInitial.getEntities(),
+        edmEntitySet == null ? null : dataProvider.getIndexes(edmEntitySet));
+    final EntityCollection entitySet = new EntityCollection();
+    components.getEntityMatcher().collect(filterScan.getEntities(), entitySet.getEntities(),
+        countAll || plan.getOrderByCount() > 0 ? null : limit,
+        SearchHandler.getSearchCondition(uriInfo.getSearchOption(),
+            uriInfo.getSearchOption() == null || edmEntitySet == null ? null :
+                dataProvider.getSearchIndex(edmEntitySet)),
+        filterScan.getCondition());
     CountHandler.applyCountSystemQueryOption(uriInfo.getCountOption(), entitySet);
-    OrderByHandler.applyOrderByOption(uriInfo.getOrderByOption(), entitySet, uriInfo, serviceMetadata.getEdm());
-    SkipHandler.applySkipSystemQueryHandler(uriInfo.getSkipOption(), entitySet);
-    TopHandler.applyTopSystemQueryOption(uriInfo.getTopOption(), entitySet);
+    // Only the entities left after $skip, $top, and server-side paging have to be ordered.
+    OrderByHandler.applyOrderByOption(plan, entitySet, limit);
+    // $skip, $top, and server-side paging narrow the range of entities to be serialized.
+    final EntityRange range = new EntityRange(entitySet);
+    SkipHandler.applySkipSystemQueryHandler(uriInfo.getSkipOption(), range);
+    TopHandler.applyTopSystemQueryOption(uriInfo.getTopOption(), range);
 
-    final Integer pageSize = odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).getMaxPageSize();
     final Integer serverPageSize = ServerSidePagingHandler.applyServerSidePaging(uriInfo.getSkipTokenOption(),
-        entitySet,
+        range,
         edmEntitySet,
         request.getRawRequestUri(),
         pageSize);
 
     // Apply expand system query option
-    final ExpandOption expand = uriInfo.getExpandOption();
+    // ($levels is resolved into nested expand items, for the tree as well as for the serializer)
+    final ExpandOption expand = ExpandSystemQueryOptionHandler.resolveLevels(uriInfo.getExpandOption());
     final SelectOption select = uriInfo.getSelectOption();
 
-    // Transform the entity graph to a tree. The construction is controlled by the expand tree.
+    // Transform the entity graph to a tree of entity views. The construction is controlled by the expand tree.
     // Apply all expand system query options to the tree.
     // So the expanded navigation properties can be modified for serialization,
-    // without affecting the data stored in the database.
-    final ExpandSystemQueryOptionHandler expandHandler = new ExpandSystemQueryOptionHandler();
-    final EntityCollection entitySetSerialization = expandHandler.transformEntitySetGraphToTree(entitySet,
-        edmEntitySet,
-        expand);
-    expandHandler.applyExpandQueryOptions(entitySetSerialization, edmEntitySet, expand, uriInfo,
-        serviceMetadata.getEdm());
+    // without affecting (or copying) the data stored in the database.
+    final EntityCollection entitySetSerialization;
+    if (isTreeRequired(expand, requestedContentType, isReference)) {
+      final ExpandSystemQueryOptionHandler expandHandler = components.createExpandHandler();
+      entitySetSerialization = expandHandler.transformEntitySetGraphToTree(entitySet,
+          range.getEntities(),
+          edmEntitySet,
+          expand);
+      expandHandler.applyExpandQueryOptions(entitySetSerialization, edmEntitySet, expand, uriInfo,
+          serviceMetadata.getEdm());
+    } else {
+      range.retain();
+      entitySetSerialization = entitySet;
+    }
     final CountOption countOption = uriInfo.getCountOption();
 
     String id;
@@ -553,6 +615,18 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
     }
   }
 
+  /**
+   * Without <code>$expand</code> the JSON serializer reads the navigation links of the entities
+   * only for full metadata, so otherwise the entities can be serialized as they are.
+   * The Atom serializer writes each navigation link an entity has, hence it still gets entity views
+   * (without navigation links).
+   */
+  private boolean isTreeRequired(final ExpandOption expand, final ContentType format, final boolean isReference) {
+    return !isReference && (expand != null
+        || !format.isCompatible(ContentType.APPLICATION_JSON)
+        || ContentType.VALUE_ODATA_METADATA_FULL.equals(format.getParameter(ContentType.PARAMETER_ODATA_METADATA)));
+  }
+
   // just for demonstration
   private SerializerStreamResult serializeEntityStreamCollectionFixed(final ODataRequest request,
       final EntityCollection entityCollection, final EdmEntitySet edmEntitySet,
@@ -560,8 +634,10 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
       final ContentType requestedFormat, final ExpandOption expand, final SelectOption select,
       final CountOption countOption, final String id) throws ODataLibraryException {
 
+    // The content is written after the lock of the data has been released, so it writes a snapshot of the entities.
+    final List<Entity> entities = EntityView.snapshot(entityCollection.getEntities());
     EntityIterator streamCollection = new EntityIterator() {
-      Iterator<Entity> entityIterator = entityCollection.iterator();
+      Iterator<Entity> entityIterator = entities.iterator();
 
       @Override
       public boolean hasNext() {
@@ -571,24 +647,17 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
 
       @Override
       public Entity next() {
-        Entity next = nextInternal();
-        replacePrimitiveProperty(next, "PropertyString", generateData(request, 193));
+        final Entity next = replacePrimitiveProperty(nextInternal(), "PropertyString", generateData(request, 193));
         sleep(request, 2500);
         return next;
       }
 
 
-      private void replacePrimitiveProperty(Entity entity, String name, Object data) {
-        List<Property> properties = entity.getProperties();
-        int pos = 0;
-        for (Property property : properties) {
-          if(name.equals(property.getName())) {
-            properties.remove(pos);
-            entity.addProperty(new Property(null, name, ValueType.PRIMITIVE, data));
-            break;
-          }
-          pos++;
-        }
+      // The entities are not copied for serialization, so the property is replaced in a view of the entity.
+      private Entity replacePrimitiveProperty(Entity entity, String name, Object data) {
+        final EntityView view = entity instanceof EntityView ? (EntityView) entity : new EntityView(entity);
+        view.replaceProperty(new Property(null, name, ValueType.PRIMITIVE, data));
+        return view;
       }
 
       private void sleep(ODataRequest request, int defaultTimeMs) {
@@ -639,7 +708,7 @@ public class TechnicalEntityProcessor extends TechnicalProcessor
         if(streamHeader == null || !streamHeader.contains("StreamInfinite")) {
           return entityIterator.next();
         } else {
-          return entityCollection.getEntities().get(0);
+          return entities.get(0);
         }
       }
 
@@ -30,6 +30,8 @@ import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.Property;
 import org.apache.olingo.commons.api.edm.EdmComplexType;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.EdmKeyPropertyRef;
 import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.apache.olingo.commons.api.edm.EdmProperty;
@@ -88,6 +90,11 @@ public class TechnicalPrimitiveComplexProcessor extends TechnicalProcessor
     super(dataProvider, serviceMetadata);
   }
 
+  public TechnicalPrimitiveComplexProcessor(final DataProvider dataProvider, final ServiceMetadata serviceMetadata,
+      final ServiceComponents components) {
+    super(dataProvider, serviceMetadata, components);
+  }
+
   @Override
   public void readPrimitive(final ODataRequest request, ODataResponse response, final UriInfo uriInfo,
       final ContentType contentType) throws ODataApplicationException, ODataLibraryException {
@@ -288,6 +295,7 @@ public class TechnicalPrimitiveComplexProcessor extends TechnicalProcessor
     final EdmProperty edmProperty = ((UriResourceProperty) resourceParts.get(resourceParts.size() - trailing - 1))
         .getProperty();
 
+    entity = dataProvider.recordChange(entity);
     Property property = getPropertyData(entity, path);
 
     if (representationType == RepresentationType.VALUE) {
@@ -305,6 +313,9 @@ public class TechnicalPrimitiveComplexProcessor extends TechnicalProcessor
       dataProvider.updateProperty(edmProperty, property, changedProperty, request.getMethod() == HttpMethod.PATCH);
     }
 
+    if (isKeyPropertyPath(edmEntitySet.getEntityType(), buildPropertyPath(path))) {
+      dataProvider.updateKey(edmEntitySet, entity);
+    }
     dataProvider.updateETag(entity);
 
     final Return returnPreference = odata.createPreferences(request.getHeaders(HttpHeader.PREFER)).getReturn();
@@ -352,6 +363,8 @@ public class TechnicalPrimitiveComplexProcessor extends TechnicalProcessor
         .getProperty();
 
     if (edmProperty.isNullable()) {
+      entity = dataProvider.recordChange(entity);
+      property = getPropertyData(entity, path);
       property.setValue(property.getValueType(), edmProperty.isCollection() ? Collections.emptyList() : null);
       dataProvider.updateETag(entity);
       response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
@@ -394,6 +407,16 @@ public class TechnicalPrimitiveComplexProcessor extends TechnicalProcessor
     return result;
   }
 
+  /** Checks whether the property path denotes a key property or a complex property containing one. */
+  private boolean isKeyPropertyPath(final EdmEntityType entityType, final String propertyPath) {
+    for (final EdmKeyPropertyRef keyRef : entityType.getKeyPropertyRefs()) {
+      if (keyRef.getName().equals(propertyPath) || keyRef.getName().startsWith(propertyPath + '/')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private String buildPropertyPath(final List<String> path) {
     StringBuilder result = new StringBuilder();
     for (final String segment : path) {
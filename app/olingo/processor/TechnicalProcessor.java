@@ -51,6 +51,7 @@ import olingo.data.DataProvider;
 public abstract class TechnicalProcessor implements Processor {
 
   protected final DataProvider dataProvider;
+  protected final ServiceComponents components;
   protected OData odata;
   protected ServiceMetadata serviceMetadata;
 
@@ -59,8 +60,14 @@ public abstract class TechnicalProcessor implements Processor {
   }
 
   protected TechnicalProcessor(final DataProvider dataProvider, final ServiceMetadata serviceMetadata) {
+    this(dataProvider, serviceMetadata, new ServiceComponents());
+  }
+
+  protected TechnicalProcessor(final DataProvider dataProvider, final ServiceMetadata serviceMetadata,
+      final ServiceComponents components) {
     this.dataProvider = dataProvider;
     this.serviceMetadata = serviceMetadata;
+    this.components = components;
   }
 
   @Override
@@ -69,6 +76,10 @@ public abstract class TechnicalProcessor implements Processor {
     this.serviceMetadata = serviceMetadata;
   }
 
+  public DataProvider getDataProvider() {
+    return dataProvider;
+  }
+
   protected EdmEntitySet getEdmEntitySet(final UriInfoResource uriInfo) throws ODataApplicationException {
     EdmEntitySet entitySet = null;
     final List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
@@ -127,12 +138,16 @@ public abstract class TechnicalProcessor implements Processor {
     final List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
 
     Entity entity = null;
+    EdmBindingTarget bindingTarget = null;
     if (resourcePaths.get(0) instanceof UriResourceEntitySet) {
       final UriResourceEntitySet uriResource = (UriResourceEntitySet) resourcePaths.get(0);
+      bindingTarget = uriResource.getEntitySet();
       entity = dataProvider.read(uriResource.getEntitySet(), uriResource.getKeyPredicates());
     } else if (resourcePaths.get(0) instanceof UriResourceFunction) {
       final UriResourceFunction uriResource = (UriResourceFunction) resourcePaths.get(0);
       final EdmFunction function = uriResource.getFunction();
+      bindingTarget = uriResource.getFunctionImport() == null ? null :
+          uriResource.getFunctionImport().getReturnedEntitySet();
       if (function.getReturnType().getType() instanceof EdmEntityType) {
         final List<UriParameter> key = uriResource.getKeyPredicates();
         if (key.isEmpty()) {
@@ -176,10 +191,14 @@ public abstract class TechnicalProcessor implements Processor {
         return entity;
       }
       final Link link = entity.getNavigationLink(navigationProperty.getName());
+      bindingTarget = bindingTarget == null ? null :
+          bindingTarget.getRelatedBindingTarget(navigationProperty.getName());
       entity = link == null ? null :
           key.isEmpty() ?
-              link.getInlineEntity() :
-              dataProvider.read(navigationProperty.getType(), link.getInlineEntitySet(), key);
+              dataProvider.getCurrent(link.getInlineEntity()) :
+              bindingTarget instanceof EdmEntitySet ?
+                  dataProvider.read((EdmEntitySet) bindingTarget, link.getInlineEntitySet(), key) :
+                  dataProvider.read(navigationProperty.getType(), link.getInlineEntitySet(), key);
       if (entity == null) {
         throw new ODataApplicationException("Nothing found.", HttpStatusCode.NOT_FOUND.getStatusCode(), Locale.ROOT);
       }
@@ -193,7 +212,7 @@ public abstract class TechnicalProcessor implements Processor {
     if (resourcePaths.size() > 1 && resourcePaths.get(1) instanceof UriResourceNavigation) {
       final Entity entity = readEntity(uriInfo);
       final Link link = entity.getNavigationLink(getLastNavigation(uriInfo).getProperty().getName());
-      return link == null ? null : link.getInlineEntitySet();
+      return link == null ? null : dataProvider.getCurrent(link.getInlineEntitySet());
     } else {
       if (resourcePaths.get(0) instanceof UriResourceFunction) {
         final UriResourceFunction uriResource = (UriResourceFunction) resourcePaths.get(0);
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.olingo.commons.api.data.Annotation;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+import org.apache.olingo.commons.api.data.Operation;
+import org.apache.olingo.commons.api.data.Property;
+import olingo.data.PropertyCopier;
+
+/**
+ * <p>Read-only view of an entity, as used for serialization.</p>
+ * <p>Properties, annotations, and all other data are read from the underlying entity without copying them;
+ * only the navigation links are the view's own, so the expanded navigation properties can be filtered,
+ * ordered, and paged for serialization without affecting the stored data.
+ * The properties are copied on the first write ({@link #addProperty(Property)},
+ * {@link #replaceProperty(Property)}).</p>
+ * <p>Views are compared by identity (<code>Entity.equals()</code> compares the complete content).</p>
+ */
+public class EntityView extends Entity {
+
+  private final Entity entity;
+  private List<Property> properties;
+
+  public EntityView(final Entity entity) {
+    this.entity = entity;
+  }
+
+  /**
+   * Returns views of the entities with copies of their properties and, for entity views, of their expanded
+   * entities, so they can be serialized after the lock of the data has been released.
+   * Expanded entities shared within the trees are copied once. Only the property lists and complex values
+   * are copied (see {@link PropertyCopier}), for the entities left after <code>$skip</code>, <code>$top</code>,
+   * and server-side paging, so the copy costs about as much as iterating the entities to be serialized.
+   */
+  public static List<Entity> snapshot(final List<Entity> entities) {
+    final Map<Entity, EntityView> snapshots = new IdentityHashMap<Entity, EntityView>();
+    final List<Entity> result = new ArrayList<Entity>(entities.size());
+    for (final Entity entity : entities) {
+      result.add(snapshot(entity, snapshots));
+    }
+    return result;
+  }
+
+  private static EntityView snapshot(final Entity entity, final Map<Entity, EntityView> snapshots) {
+    EntityView snapshot = snapshots.get(entity);
+    if (snapshot == null) {
+      snapshot = new EntityView(entity instanceof EntityView ? ((EntityView) entity).entity : entity);
+      snapshots.put(entity, snapshot);
+      snapshot.properties = PropertyCopier.copyProperties(entity.getProperties());
+      // Only the links of views are serialized; those of stored entities are not read without $expand.
+      if (entity instanceof EntityView) {
+        for (final Link link : entity.getNavigationLinks()) {
+          snapshot.getNavigationLinks().add(snapshot(link, snapshots));
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private static Link snapshot(final Link link, final Map<Entity, EntityView> snapshots) {
+    final Link snapshot = new Link();
+    snapshot.setMediaETag(link.getMediaETag());
+    snapshot.setTitle(link.getTitle());
+    snapshot.setType(link.getType());
+    snapshot.setRel(link.getRel());
+    snapshot.setHref(link.getHref());
+    if (link.getInlineEntity() != null) {
+      snapshot.setInlineEntity(snapshot(link.getInlineEntity(), snapshots));
+    }
+    if (link.getInlineEntitySet() != null) {
+      final EntityCollection entitySet = link.getInlineEntitySet();
+      final EntityCollection snapshotSet = new EntityCollection();
+      snapshotSet.setCount(entitySet.getCount());
+      snapshotSet.setDeltaLink(entitySet.getDeltaLink());
+      snapshotSet.setNext(entitySet.getNext());
+      snapshotSet.setId(entitySet.getId());
+      snapshotSet.setBaseURI(entitySet.getBaseURI());
+      for (final Entity target : entitySet.getEntities()) {
+        snapshotSet.getEntities().add(snapshot(target, snapshots));
+      }
+      snapshot.setInlineEntitySet(snapshotSet);
+    }
+    return snapshot;
+  }
+
+  /** Returns the underlying entity. */
+  public Entity getEntity() {
+    return entity;
+  }
+
+  @Override
+  public List<Property> getProperties() {
+    return properties == null ? Collections.unmodifiableList(entity.getProperties()) : properties;
+  }
+
+  @Override
+  public Property getProperty(final String name) {
+    for (final Property property : properties == null ? entity.getProperties() : properties) {
+      if (name.equals(property.getName())) {
+        return property;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Entity addProperty(final Property property) {
+    copyProperties().add(property);
+    return this;
+  }
+
+  /**
+   * Replaces the property with the same name (the underlying entity is not changed).
+   * @return <code>true</code> if the view had such a property
+   */
+  public boolean replaceProperty(final Property property) {
+    if (getProperty(property.getName()) == null) {
+      return false;
+    }
+    final List<Property> copy = copyProperties();
+    for (int i = 0; i < copy.size(); i++) {
+      if (property.getName().equals(copy.get(i).getName())) {
+        copy.set(i, property);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<Property> copyProperties() {
+    if (properties == null) {
+      properties = new ArrayList<Property>(entity.getProperties());
+    }
+    return properties;
+  }
+
+  @Override
+  public String getETag() {
+    return entity.getETag();
+  }
+
+  @Override
+  public String getType() {
+    return entity.getType();
+  }
+
+  @Override
+  public Link getSelfLink() {
+    return entity.getSelfLink();
+  }
+
+  @Override
+  public Link getEditLink() {
+    return entity.getEditLink();
+  }
+
+  @Override
+  public List<Link> getMediaEditLinks() {
+    return Collections.unmodifiableList(entity.getMediaEditLinks());
+  }
+
+  @Override
+  public List<Operation> getOperations() {
+    return Collections.unmodifiableList(entity.getOperations());
+  }
+
+  @Override
+  public String getMediaContentType() {
+    return entity.getMediaContentType();
+  }
+
+  @Override
+  public URI getMediaContentSource() {
+    return entity.getMediaContentSource();
+  }
+
+  @Override
+  public String getMediaETag() {
+    return entity.getMediaETag();
+  }
+
+  @Override
+  public boolean isMediaEntity() {
+    return entity.isMediaEntity();
+  }
+
+  @Override
+  public Link getAssociationLink(final String name) {
+    return entity.getAssociationLink(name);
+  }
+
+  @Override
+  public List<Link> getAssociationLinks() {
+    return Collections.unmodifiableList(entity.getAssociationLinks());
+  }
+
+  @Override
+  public Link getNavigationBinding(final String name) {
+    return entity.getNavigationBinding(name);
+  }
+
+  @Override
+  public List<Link> getNavigationBindings() {
+    return Collections.unmodifiableList(entity.getNavigationBindings());
+  }
+
+  @Override
+  public List<Annotation> getAnnotations() {
+    return Collections.unmodifiableList(entity.getAnnotations());
+  }
+
+  @Override
+  public URI getBaseURI() {
+    return entity.getBaseURI();
+  }
+
+  @Override
+  public URI getId() {
+    return entity.getId();
+  }
+
+  @Override
+  public String getTitle() {
+    return entity.getTitle();
+  }
+
+  @Override
+  public void setETag(final String eTag) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setType(final String type) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setSelfLink(final Link selfLink) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setEditLink(final Link editLink) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setMediaContentType(final String mediaContentType) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setMediaContentSource(final URI mediaContentSource) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setMediaETag(final String eTag) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setBaseURI(final URI baseURI) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setId(final URI id) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setCommonProperty(final String key, final String value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return this == obj;
+  }
+
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(this);
+  }
+
+  @Override
+  public String toString() {
+    return entity.toString();
+  }
+}
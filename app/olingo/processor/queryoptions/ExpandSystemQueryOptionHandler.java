@@ -19,9 +19,15 @@
 package olingo.processor.queryoptions;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.olingo.commons.api.data.Entity;
@@ -42,8 +48,7 @@ import org.apache.olingo.server.api.uri.UriResourceNavigation;
 import org.apache.olingo.server.api.uri.queryoption.CountOption;
 import org.apache.olingo.server.api.uri.queryoption.ExpandItem;
 import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
-import org.apache.olingo.server.api.uri.queryoption.FilterOption;
-import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.LevelsExpandOption;
 import org.apache.olingo.server.api.uri.queryoption.SkipOption;
 import org.apache.olingo.server.api.uri.queryoption.TopOption;
 import olingo.processor.queryoptions.options.CountHandler;
@@ -52,17 +57,83 @@ import olingo.processor.queryoptions.options.OrderByHandler;
 import olingo.processor.queryoptions.options.SkipHandler;
 import olingo.processor.queryoptions.options.TopHandler;
 
+/**
+ * <p>Builds the tree of entity views to be serialized for <code>$expand</code> and applies the options
+ * of the expand items to it.</p>
+ * <p>An expand item of a navigation property with <code>$levels</code> is resolved into nested expand items
+ * of the same navigation property (see {@link #resolveLevels(ExpandOption)}), one per level, so the options
+ * of the item apply on each level; for <code>$levels=max</code> an entity repeated on the path is not expanded
+ * further. For <code>*($levels=n)</code> the serializer writes, below the first level, all navigation properties
+ * of each entity again, until the depth is reached or an entity repeats on the path (written as reference).
+ * The tree is built the same way; subtrees not depending on the entities above them are built
+ * only once per expand item and depth and are shared. The number of entities expanded below the first level
+ * of <code>$levels</code> is limited per request
+ * (see {@link #ExpandSystemQueryOptionHandler(QueryPlanCache, int)}).</p>
+ */
 public class ExpandSystemQueryOptionHandler {
 
+  /** Default maximum number of entities expanded for <code>$levels</code> within one request. */
+  public static final int DEFAULT_MAX_LEVELS_ENTITIES = 10000;
+
+  private final QueryPlanCache queryPlanCache;
+  private final int maxLevelsEntities;
+
+  private final Map<ExpandItem, QueryPlan> plans = new IdentityHashMap<ExpandItem, QueryPlan>();
+  private final Map<ExpandItem, Levels> levelsByItem = new IdentityHashMap<ExpandItem, Levels>();
+  /** Parent views of the views expanded for <code>$levels=max</code>, to find entities repeated on the path. */
+  private final Map<EntityView, EntityView> parents = new IdentityHashMap<EntityView, EntityView>();
+  private int levelsEntities;
+
+  /**
+   * @param queryPlanCache the cache for the plans of the options of the expand items
+   * @param maxLevelsEntities the maximum number of entities expanded for <code>$levels</code> within one request
+   */
+  public ExpandSystemQueryOptionHandler(final QueryPlanCache queryPlanCache, final int maxLevelsEntities) {
+    this.queryPlanCache = queryPlanCache;
+    this.maxLevelsEntities = maxLevelsEntities;
+  }
+
+  /**
+   * Resolves <code>$levels</code> of the expand items of navigation properties, also of nested ones,
+   * into nested expand items (see {@link NestedExpandItem}); <code>*</code> keeps <code>$levels</code>.
+   * The result is used for building the tree, for applying the options, and for serialization.
+   * @return the given expand option if it has no such <code>$levels</code>
+   */
+  public static ExpandOption resolveLevels(final ExpandOption expand) {
+    if (expand == null || expand.getExpandItems() == null) {
+      return expand;
+    }
+    List<ExpandItem> items = new ArrayList<ExpandItem>(expand.getExpandItems().size());
+    boolean resolved = false;
+    for (final ExpandItem item : expand.getExpandItems()) {
+      final ExpandItem resolvedItem = resolveLevels(item);
+      items.add(resolvedItem);
+      resolved |= resolvedItem != item;
+    }
+    return resolved ? new NestedExpandItem.Option(expand, items) : expand;
+  }
+
+  private static ExpandItem resolveLevels(final ExpandItem item) {
+    if (item.isStar()) {
+      return item;
+    }
+    final ExpandOption nested = resolveLevels(item.getExpandOption());
+    final LevelsExpandOption levelsOption = item.getLevelsOption();
+    if (levelsOption == null && nested == item.getExpandOption()) {
+      return item;
+    }
+    return new NestedExpandItem(item,
+        nested == null ? Collections.<ExpandItem> emptyList() : nested.getExpandItems(), 1,
+        levelsOption == null ? 1 : levelsOption.isMax() ? Integer.MAX_VALUE : levelsOption.getValue());
+  }
+
   public void applyExpandQueryOptions(final EntityCollection entitySet, final EdmEntitySet edmEntitySet,
       final ExpandOption expandOption, final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
     if (expandOption == null) {
       return;
     }
 
-    for (final Entity entity : entitySet.getEntities()) {
-      applyExpandOptionToEntity(entity, edmEntitySet, expandOption, uriInfo, edm);
-    }
+    applyExpandOption(entitySet.getEntities(), edmEntitySet, expandOption, uriInfo, edm);
   }
 
   public void applyExpandQueryOptions(final Entity entity, final EdmEntitySet edmEntitySet,
@@ -71,20 +142,23 @@ public class ExpandSystemQueryOptionHandler {
       return;
     }
 
-    applyExpandOptionToEntity(entity, edmEntitySet, expandOption, uriInfo, edm);
+    applyExpandOption(Collections.singletonList(entity), edmEntitySet, expandOption, uriInfo, edm);
   }
 
-  private void applyExpandOptionToEntity(final Entity entity, final EdmBindingTarget edmBindingTarget,
+  /**
+   * Applies the expand option to all given entities (of the same binding target) at once:
+   * the navigation properties, their targets, and the plans of the expand items are resolved once,
+   * and the nested expand options are applied to the remaining entities of all links together.
+   */
+  private void applyExpandOption(final List<Entity> entities, final EdmBindingTarget edmBindingTarget,
       final ExpandOption expandOption, final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
+    if (entities.isEmpty()) {
+      return;
+    }
 
     final EdmEntityType entityType = edmBindingTarget.getEntityType();
 
     for (ExpandItem item : expandOption.getExpandItems()) {
-      if(item.getLevelsOption() != null) {
-        throw new ODataApplicationException("$levels is not implemented", 
-            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ROOT);
-      }
-      
       List<EdmNavigationProperty> navigationProperties = new ArrayList<EdmNavigationProperty>();
       if(item.isStar()) {
         List<EdmNavigationPropertyBinding> bindings = edmBindingTarget.getNavigationPropertyBindings();
@@ -104,91 +178,371 @@ public class ExpandSystemQueryOptionHandler {
         }
       }
 
+      // Only * keeps $levels (see resolveLevels); it is expanded further by applyLevels
+      // (the nested expand option is not used).
+      final ExpandOption nestedExpandOption = item.getLevelsOption() == null ? item.getExpandOption() : null;
       for (EdmNavigationProperty navigationProperty: navigationProperties) {
         final String navPropertyName = navigationProperty.getName();
         final EdmBindingTarget targetEdmEntitySet = edmBindingTarget.getRelatedBindingTarget(navPropertyName);
+        final boolean isCollection = entityType.getNavigationProperty(navPropertyName).isCollection();
+        final QueryPlan plan = isCollection ? getPlan(item, targetEdmEntitySet, uriInfo, edm) : null;
+        final List<Entity> linkedEntities = new ArrayList<Entity>();
+
+        for (final Entity entity : entities) {
+          final Link link = entity.getNavigationLink(navPropertyName);
+          if (link == null) {
+            continue;
+          }
+          if (isCollection) {
+            applyOptionsToEntityCollection(link.getInlineEntitySet(), plan,
+                item.getCountOption(), item.getSkipOption(), item.getTopOption());
+          }
+          if (item.getLevelsOption() != null) {
+            applyLevels(entity, link, navigationProperty.getType(), targetEdmEntitySet, getLevels(item));
+          } else if (nestedExpandOption != null) {
+            linkedEntities.addAll(getInlineEntities(link));
+          }
+        }
 
-        final Link link = entity.getNavigationLink(navPropertyName);
-        if (link != null && entityType.getNavigationProperty(navPropertyName).isCollection()) {
-          applyOptionsToEntityCollection(link.getInlineEntitySet(),
-              targetEdmEntitySet,
-              item.getFilterOption(),
-              item.getOrderByOption(),
-              item.getCountOption(),
-              item.getSkipOption(),
-              item.getTopOption(),
-              item.getExpandOption(),
-              uriInfo, edm);
+        // Apply nested expand system query options to the remaining entities of all links
+        if (nestedExpandOption != null) {
+          applyExpandOption(linkedEntities, targetEdmEntitySet, nestedExpandOption, uriInfo, edm);
         }
       }
     }
   }
 
-  private void applyOptionsToEntityCollection(final EntityCollection entitySet,
-      final EdmBindingTarget edmBindingTarget,
-      final FilterOption filterOption, final OrderByOption orderByOption, final CountOption countOption,
-      final SkipOption skipOption, final TopOption topOption, final ExpandOption expandOption,
-      final UriInfoResource uriInfo, final Edm edm)
+  private void applyOptionsToEntityCollection(final EntityCollection entitySet, final QueryPlan plan,
+      final CountOption countOption, final SkipOption skipOption, final TopOption topOption)
       throws ODataApplicationException {
 
-    FilterHandler.applyFilterSystemQuery(filterOption, entitySet, uriInfo, edm);
-    OrderByHandler.applyOrderByOption(orderByOption, entitySet, uriInfo, edm);
+    FilterHandler.applyFilterSystemQuery(plan, entitySet);
     CountHandler.applyCountSystemQueryOption(countOption, entitySet);
+    OrderByHandler.applyOrderByOption(plan, entitySet, OrderByHandler.getLimit(skipOption, topOption, null));
     SkipHandler.applySkipSystemQueryHandler(skipOption, entitySet);
     TopHandler.applyTopSystemQueryOption(topOption, entitySet);
+  }
+
+  /** State of the <code>$levels</code> expansion of one <code>*</code> expand item. */
+  private static final class Levels {
+    private final int depth;
+    /** Entities on the current path with their position (the serializer writes repeated entities as reference). */
+    private final Map<Entity, Integer> path = new IdentityHashMap<Entity, Integer>();
+    /** Shared subtrees by remaining depth. */
+    private final Map<Integer, Map<Entity, Subtree>> subtrees = new HashMap<Integer, Map<Entity, Subtree>>();
+
+    private Levels(final ExpandItem item) {
+      final LevelsExpandOption levelsOption = item.getLevelsOption();
+      // The depth is not counted down for $levels=max, so subtrees can be shared across all levels.
+      depth = levelsOption.isMax() ? Integer.MAX_VALUE : levelsOption.getValue();
+    }
 
-    // Apply nested expand system query options to remaining entities
-    if (expandOption != null) {
-      for (final Entity entity : entitySet.getEntities()) {
-        applyExpandOptionToEntity(entity, edmBindingTarget, expandOption, uriInfo, edm);
+    private int next(final int remaining) {
+      return remaining == Integer.MAX_VALUE ? remaining : remaining - 1;
+    }
+  }
+
+  /** Expanded entity view with the number of entities within it. */
+  private static final class Subtree {
+    private final EntityView view;
+    private final int size;
+    /** Lowest path position of the entities above the subtree that are repeated within it. */
+    private final int repeated;
+
+    private Subtree(final EntityView view, final int size, final int repeated) {
+      this.view = view;
+      this.size = size;
+      this.repeated = repeated;
+    }
+  }
+
+  /** Returns the state of the <code>$levels</code> expansion of the expand item, shared by all expanded entities. */
+  private Levels getLevels(final ExpandItem item) {
+    Levels levels = levelsByItem.get(item);
+    if (levels == null) {
+      levels = new Levels(item);
+      levelsByItem.put(item, levels);
+    }
+    return levels;
+  }
+
+  /**
+   * Expands the entities of the first level (the entity views of the link, the options already applied)
+   * down to the depth of <code>$levels</code>.
+   */
+  private void applyLevels(final Entity entity, final Link link, final EdmEntityType entityType,
+      final EdmBindingTarget edmBindingTarget, final Levels levels) throws ODataApplicationException {
+    // The expanding entity is the start of the path, as for the serializer.
+    final Entity start = entity instanceof EntityView ? ((EntityView) entity).getEntity() : entity;
+    levels.path.put(start, 0);
+    for (final Entity linked : getInlineEntities(link)) {
+      if (!levels.path.containsKey(((EntityView) linked).getEntity())) {
+        expandLevels((EntityView) linked, entityType, edmBindingTarget, levels.depth, levels);
+      }
+    }
+    levels.path.remove(start);
+  }
+
+  /**
+   * Adds the links of all navigation properties to the entity view, if the remaining depth allows,
+   * and expands the linked entities recursively.
+   * @return the lowest path position of the entities repeated within the subtree,
+   *         or <code>Integer.MAX_VALUE</code> if no entity is repeated
+   */
+  private int expandLevels(final EntityView view, final EdmEntityType entityType,
+      final EdmBindingTarget edmBindingTarget, final int remaining, final Levels levels)
+      throws ODataApplicationException {
+    if (remaining <= 1) {
+      return Integer.MAX_VALUE;
+    }
+    final Entity entity = view.getEntity();
+    levels.path.put(entity, levels.path.size());
+    int repeated = Integer.MAX_VALUE;
+    for (final String propertyName : entityType.getNavigationPropertyNames()) {
+      final Link link = entity.getNavigationLink(propertyName);
+      if (link == null) {
+        continue;
+      }
+      final EdmNavigationProperty navigationProperty = entityType.getNavigationProperty(propertyName);
+      final EdmBindingTarget target = edmBindingTarget == null ? null :
+          edmBindingTarget.getRelatedBindingTarget(propertyName);
+      final Link newLink = newLink(link);
+      view.getNavigationLinks().add(newLink);
+      if (navigationProperty.isCollection()) {
+        final EntityCollection newEntities = newEntitySet(link.getInlineEntitySet());
+        for (final Entity linked : link.getInlineEntitySet().getEntities()) {
+          final Subtree subtree = getSubtree(linked, navigationProperty.getType(), target,
+              levels.next(remaining), levels);
+          newEntities.getEntities().add(subtree.view);
+          repeated = Math.min(repeated, subtree.repeated);
+        }
+        newLink.setInlineEntitySet(newEntities);
+      } else if (link.getInlineEntity() != null) {
+        final Subtree subtree = getSubtree(link.getInlineEntity(), navigationProperty.getType(), target,
+            levels.next(remaining), levels);
+        newLink.setInlineEntity(subtree.view);
+        repeated = Math.min(repeated, subtree.repeated);
+      }
+    }
+    levels.path.remove(entity);
+    return repeated;
+  }
+
+  /**
+   * Returns the expanded view of the linked entity. Subtrees without entities repeated from above
+   * are the same wherever they occur, so they are shared.
+   */
+  private Subtree getSubtree(final Entity entity, final EdmEntityType entityType,
+      final EdmBindingTarget edmBindingTarget, final int remaining, final Levels levels)
+      throws ODataApplicationException {
+    final Integer position = levels.path.get(entity);
+    if (position != null) {
+      // The serializer writes an entity repeated on the path as reference, without navigation properties.
+      count(1);
+      return new Subtree(new EntityView(entity), 1, position);
+    }
+    Map<Entity, Subtree> shared = levels.subtrees.get(remaining);
+    if (shared == null) {
+      shared = new IdentityHashMap<Entity, Subtree>();
+      levels.subtrees.put(remaining, shared);
+    }
+    Subtree subtree = shared.get(entity);
+    if (subtree == null) {
+      final int before = levelsEntities;
+      count(1);
+      final EntityView view = new EntityView(entity);
+      final int repeated = expandLevels(view, entityType, edmBindingTarget, remaining, levels);
+      subtree = new Subtree(view, levelsEntities - before,
+          repeated >= levels.path.size() ? Integer.MAX_VALUE : repeated);
+      if (subtree.repeated == Integer.MAX_VALUE) {
+        shared.put(entity, subtree);
       }
+    } else {
+      count(subtree.size);
     }
+    return subtree;
+  }
+
+  private void count(final int entities) throws ODataApplicationException {
+    levelsEntities += entities;
+    if (levelsEntities > maxLevelsEntities) {
+      throw new ODataApplicationException("$levels expands more than " + maxLevelsEntities + " entities.",
+          HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ROOT);
+    }
+  }
+
+  private List<Entity> getInlineEntities(final Link link) {
+    return link.getInlineEntitySet() != null ? link.getInlineEntitySet().getEntities() :
+        link.getInlineEntity() != null ? Collections.singletonList(link.getInlineEntity()) :
+            Collections.<Entity> emptyList();
+  }
+
+  /**
+   * Returns the plan for the <code>$filter</code> and <code>$orderby</code> options of the expand item.
+   * The options are the same for all expanded entities, so the plan is looked up only once per request.
+   */
+  private QueryPlan getPlan(final ExpandItem item, final EdmBindingTarget edmBindingTarget,
+      final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
+    QueryPlan plan = plans.get(item);
+    if (plan == null) {
+      plan = queryPlanCache.getPlan(edmBindingTarget,
+          edmBindingTarget == null ? null : edmBindingTarget.getEntityType(),
+          item.getFilterOption(), item.getOrderByOption(), item.getSelectOption(), item.getExpandOption(),
+          uriInfo, edm);
+      plans.put(item, plan);
+    }
+    return plan;
   }
 
   public EntityCollection transformEntitySetGraphToTree(final EntityCollection entitySet,
       final EdmBindingTarget edmBindingTarget, final ExpandOption expand) throws ODataApplicationException {
+    return transformEntitySetGraphToTree(entitySet, entitySet.getEntities(), edmBindingTarget, expand);
+  }
 
-    final EntityCollection newEntitySet = newEntitySet(entitySet);
+  /**
+   * Transforms the given entities (e.g., the range of the entity set left after <code>$skip</code> and
+   * <code>$top</code>) into a new entity set, taking over count and links of the given entity set.
+   */
+  public EntityCollection transformEntitySetGraphToTree(final EntityCollection entitySet,
+      final List<Entity> entities, final EdmBindingTarget edmBindingTarget, final ExpandOption expand)
+      throws ODataApplicationException {
 
-    for (final Entity entity : entitySet.getEntities()) {
-      newEntitySet.getEntities().add(transformEntityGraphToTree(entity, edmBindingTarget, expand));
+    final EntityCollection newEntitySet = newEntitySet(entitySet);
+    final List<EntityView> views = new ArrayList<EntityView>(entities.size());
+    for (final Entity entity : entities) {
+      views.add(new EntityView(entity));
     }
+    newEntitySet.getEntities().addAll(views);
+    expandViews(views, edmBindingTarget, expand);
 
     return newEntitySet;
   }
 
+  /**
+   * Returns a view of the given entity (see {@link EntityView}) with new navigation links
+   * for the expanded navigation properties; neither the entity nor the linked entities are copied.
+   */
   public Entity transformEntityGraphToTree(final Entity entity, final EdmBindingTarget edmEntitySet,
       final ExpandOption expand) throws ODataApplicationException {
-    final Entity newEntity = newEntity(entity);
-    if (hasExpandItems(expand)) {
-      final boolean expandAll = expandAll(expand);
-      final Set<String> expanded = expandAll ? null : getExpandedPropertyNames(expand.getExpandItems());
-      final EdmEntityType edmType = edmEntitySet.getEntityType();
+    final EntityView newEntity = new EntityView(entity);
+    expandViews(Collections.singletonList(newEntity), edmEntitySet, expand);
+    return newEntity;
+  }
+
+  /** Expanded navigation property of the entity views of one level. */
+  private static final class Expansion {
+    private final EdmNavigationProperty edmNavigationProperty;
+    private final EdmBindingTarget edmBindingTarget;
+    private final ExpandItem item;
+    /** Views of the linked entities of all entity views of the level. */
+    private final List<EntityView> views = new ArrayList<EntityView>();
+
+    private Expansion(final EdmNavigationProperty edmNavigationProperty, final EdmBindingTarget edmBindingTarget,
+        final ExpandItem item) {
+      this.edmNavigationProperty = edmNavigationProperty;
+      this.edmBindingTarget = edmBindingTarget;
+      this.item = item;
+    }
+  }
+
+  /**
+   * Adds new navigation links with views of the linked entities to the given entity views, level by level:
+   * each navigation property is resolved once per level, and the next level is expanded for the linked
+   * entities of all entity views together.
+   */
+  private void expandViews(final List<EntityView> views, final EdmBindingTarget edmEntitySet,
+      final ExpandOption expand) throws ODataApplicationException {
+    if (views.isEmpty() || !hasExpandItems(expand)) {
+      return;
+    }
+    final boolean expandAll = expandAll(expand);
+    final Set<String> expanded = expandAll ? null : getExpandedPropertyNames(expand.getExpandItems());
+    final EdmEntityType edmType = edmEntitySet.getEntityType();
+    final Map<String, Expansion> expansions = new LinkedHashMap<String, Expansion>();
 
-      for (final Link link : entity.getNavigationLinks()) {
+    for (final EntityView view : views) {
+      for (final Link link : view.getEntity().getNavigationLinks()) {
         final String propertyName = link.getTitle();
 
         if (expandAll || expanded.contains(propertyName)) {
-          final EdmNavigationProperty edmNavigationProperty = edmType.getNavigationProperty(propertyName);
-          final EdmBindingTarget edmBindingTarget = edmEntitySet.getRelatedBindingTarget(propertyName);
+          Expansion expansion = expansions.get(propertyName);
+          if (expansion == null) {
+            expansion = new Expansion(edmType.getNavigationProperty(propertyName),
+                edmEntitySet.getRelatedBindingTarget(propertyName),
+                getExpandItem(expand, propertyName));
+            expansions.put(propertyName, expansion);
+          }
           final Link newLink = newLink(link);
-          newEntity.getNavigationLinks().add(newLink);
-          final ExpandOption innerExpandOption = getInnerExpandOption(expand, propertyName);
-
-          if (edmNavigationProperty.isCollection()) {
-            newLink.setInlineEntitySet(transformEntitySetGraphToTree(link.getInlineEntitySet(),
-                edmBindingTarget,
-                innerExpandOption));
-          } else {
-            newLink.setInlineEntity(transformEntityGraphToTree(link.getInlineEntity(),
-                edmBindingTarget,
-                innerExpandOption));
+          view.getNavigationLinks().add(newLink);
+
+          if (expansion.edmNavigationProperty.isCollection()) {
+            final EntityCollection newEntitySet = newEntitySet(link.getInlineEntitySet());
+            for (final Entity entity : link.getInlineEntitySet().getEntities()) {
+              final EntityView linkedView = new EntityView(entity);
+              newEntitySet.getEntities().add(linkedView);
+              addView(expansion, linkedView, view);
+            }
+            newLink.setInlineEntitySet(newEntitySet);
+          } else if (link.getInlineEntity() != null) {
+            final EntityView linkedView = new EntityView(link.getInlineEntity());
+            newLink.setInlineEntity(linkedView);
+            addView(expansion, linkedView, view);
           }
         }
       }
+    }
 
+    for (final Expansion expansion : expansions.values()) {
+      expandViews(expansion.views, expansion.edmBindingTarget, getInnerExpandOption(expansion));
+    }
+  }
+
+  private void addView(final Expansion expansion, final EntityView linkedView, final EntityView view) {
+    expansion.views.add(linkedView);
+    if (expansion.item instanceof NestedExpandItem && ((NestedExpandItem) expansion.item).isMaxLevels()) {
+      parents.put(linkedView, view);
     }
-    return newEntity;
+  }
+
+  /**
+   * Returns the expand option for the next level of the expansion.
+   * Levels below the first one of <code>$levels</code> count against the limit of the request;
+   * for <code>$levels=max</code> the views of entities repeated on the path are not expanded further,
+   * and the next level is added only if there are other views.
+   * The <code>*</code> expand item with <code>$levels</code> is expanded further by
+   * {@link #applyExpandQueryOptions} (its nested expand option is not used by the serializer).
+   */
+  private ExpandOption getInnerExpandOption(final Expansion expansion) throws ODataApplicationException {
+    final ExpandItem item = expansion.item;
+    if (item == null || item.getLevelsOption() != null) {
+      return null;
+    }
+    if (item instanceof NestedExpandItem) {
+      final NestedExpandItem nestedItem = (NestedExpandItem) item;
+      if (nestedItem.getLevel() > 1) {
+        count(expansion.views.size());
+      }
+      if (nestedItem.isMaxLevels()) {
+        for (final Iterator<EntityView> iterator = expansion.views.iterator(); iterator.hasNext();) {
+          if (isRepeated(iterator.next())) {
+            iterator.remove();
+          }
+        }
+        if (!expansion.views.isEmpty()) {
+          nestedItem.expandFurther();
+        }
+      }
+    }
+    return item.getExpandOption();
+  }
+
+  private boolean isRepeated(final EntityView view) {
+    for (EntityView parent = parents.get(view); parent != null; parent = parents.get(parent)) {
+      if (parent.getEntity() == view.getEntity()) {
+        return true;
+      }
+    }
+    return false;
   }
 
   public EntityCollection newEntitySet(final EntityCollection entitySet) {
@@ -202,27 +556,6 @@ public class ExpandSystemQueryOptionHandler {
     return newEntitySet;
   }
 
-  private Entity newEntity(final Entity entity) {
-    Entity newEntity = new Entity();
-
-    newEntity.getProperties().addAll(entity.getProperties());
-    newEntity.getAnnotations().addAll(entity.getAnnotations());
-    newEntity.setId(entity.getId());
-    newEntity.setBaseURI(entity.getBaseURI());
-    newEntity.setType(entity.getType());
-    newEntity.setETag(entity.getETag());
-    newEntity.setMediaContentSource(entity.getMediaContentSource());
-    newEntity.setMediaContentType(entity.getMediaContentType());
-    newEntity.setMediaETag(entity.getMediaETag());
-    newEntity.setSelfLink(entity.getSelfLink());
-    newEntity.setEditLink(entity.getEditLink());
-    newEntity.getAssociationLinks().addAll(entity.getAssociationLinks());
-    newEntity.getNavigationBindings().addAll(entity.getNavigationBindings());
-    newEntity.getOperations().addAll(entity.getOperations());
-
-    return newEntity;
-  }
-
   private Link newLink(final Link link) {
     final Link newLink = new Link();
     newLink.setMediaETag(link.getMediaETag());
@@ -263,16 +596,17 @@ public class ExpandSystemQueryOptionHandler {
     return expanded;
   }
 
-  private ExpandOption getInnerExpandOption(final ExpandOption expand, final String propertyName) {
+  /** Returns the expand item of the navigation property, or the <code>*</code> expand item. */
+  private ExpandItem getExpandItem(final ExpandOption expand, final String propertyName) {
     for (final ExpandItem item : expand.getExpandItems()) {
       if(item.isStar()) {
-        return item.getExpandOption();
+        return item;
       }
 
       final UriResource resource = item.getResourcePath().getUriResourceParts().get(0);
       if (resource instanceof UriResourceNavigation
           && propertyName.equals(((UriResourceNavigation) resource).getProperty().getName())) {
-        return item.getExpandOption();
+        return item;
       }
     }
 
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.queryoption.CountOption;
+import org.apache.olingo.server.api.uri.queryoption.ExpandItem;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.LevelsExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.SearchOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.SkipOption;
+import org.apache.olingo.server.api.uri.queryoption.SystemQueryOptionKind;
+import org.apache.olingo.server.api.uri.queryoption.TopOption;
+
+/**
+ * <p>One level of an expand item with <code>$levels</code>, as nested expand item of the level above:
+ * <code>Nav($levels=2;$select=A)</code> is the same as <code>Nav($select=A;$expand=Nav($select=A))</code>.
+ * All options of the original expand item apply on each level, including its nested expand items.</p>
+ * <p>For <code>$levels=max</code> the levels are added one by one ({@link #expandFurther()}) while expanding,
+ * so there are only as many levels as the expanded entities need.</p>
+ */
+class NestedExpandItem implements ExpandItem {
+
+  private final ExpandItem item;
+  private final List<ExpandItem> nestedItems;
+  private final int level;
+  /** Number of levels; <code>Integer.MAX_VALUE</code> for <code>$levels=max</code>. */
+  private final int levels;
+  private NestedExpandItem next;
+
+  /**
+   * Creates the given level and, unless for <code>$levels=max</code>, the levels below it.
+   * @param nestedItems the (resolved) nested expand items of the original expand item
+   */
+  NestedExpandItem(final ExpandItem item, final List<ExpandItem> nestedItems, final int level, final int levels) {
+    this.item = item;
+    this.nestedItems = nestedItems;
+    this.level = level;
+    this.levels = levels;
+    if (level < levels && levels != Integer.MAX_VALUE) {
+      next = new NestedExpandItem(item, nestedItems, level + 1, levels);
+    }
+  }
+
+  /** Returns the level (starting with 1). */
+  int getLevel() {
+    return level;
+  }
+
+  boolean isMaxLevels() {
+    return levels == Integer.MAX_VALUE;
+  }
+
+  /** Adds the next level for <code>$levels=max</code>, if not yet done. */
+  void expandFurther() {
+    if (next == null && isMaxLevels()) {
+      next = new NestedExpandItem(item, nestedItems, level + 1, levels);
+    }
+  }
+
+  /** The levels have been resolved into nested expand items. */
+  @Override
+  public LevelsExpandOption getLevelsOption() {
+    return null;
+  }
+
+  @Override
+  public ExpandOption getExpandOption() {
+    if (next == null) {
+      return nestedItems.isEmpty() ? null : new Option(item.getExpandOption(), nestedItems);
+    }
+    List<ExpandItem> items = new ArrayList<ExpandItem>(nestedItems.size() + 1);
+    items.add(next);
+    items.addAll(nestedItems);
+    return new Option(item.getExpandOption(), items);
+  }
+
+  @Override
+  public FilterOption getFilterOption() {
+    return item.getFilterOption();
+  }
+
+  @Override
+  public SearchOption getSearchOption() {
+    return item.getSearchOption();
+  }
+
+  @Override
+  public OrderByOption getOrderByOption() {
+    return item.getOrderByOption();
+  }
+
+  @Override
+  public SkipOption getSkipOption() {
+    return item.getSkipOption();
+  }
+
+  @Override
+  public TopOption getTopOption() {
+    return item.getTopOption();
+  }
+
+  @Override
+  public CountOption getCountOption() {
+    return item.getCountOption();
+  }
+
+  @Override
+  public SelectOption getSelectOption() {
+    return item.getSelectOption();
+  }
+
+  @Override
+  public UriInfoResource getResourcePath() {
+    return item.getResourcePath();
+  }
+
+  @Override
+  public boolean isStar() {
+    return false;
+  }
+
+  @Override
+  public boolean isRef() {
+    return item.isRef();
+  }
+
+  @Override
+  public boolean hasCountPath() {
+    return item.hasCountPath();
+  }
+
+  @Override
+  public EdmType getStartTypeFilter() {
+    return item.getStartTypeFilter();
+  }
+
+  /** Expand option with the given expand items; name and text are those of the original option. */
+  static final class Option implements ExpandOption {
+    private final ExpandOption original;
+    private final List<ExpandItem> items;
+
+    Option(final ExpandOption original, final List<ExpandItem> items) {
+      this.original = original;
+      this.items = Collections.unmodifiableList(items);
+    }
+
+    @Override
+    public List<ExpandItem> getExpandItems() {
+      return items;
+    }
+
+    @Override
+    public SystemQueryOptionKind getKind() {
+      return SystemQueryOptionKind.EXPAND;
+    }
+
+    @Override
+    public String getName() {
+      return original == null ? SystemQueryOptionKind.EXPAND.toString() : original.getName();
+    }
+
+    @Override
+    public String getText() {
+      return original == null ? null : original.getText();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.compiled.CompiledExpression;
+import olingo.processor.queryoptions.expression.compiled.ExpressionCompiler;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * <p>Evaluation plan of the <code>$filter</code> and <code>$orderby</code> system query options
+ * for one collection: the compiled filter expression and the compiled expressions of the order-by items.</p>
+ * <p>A plan which is not {@link #isRequestDependent() request dependent} can be reused
+ * for all requests with the same options on the same entity type, after {@link #bind(List) binding}
+ * the literals of the request (see {@link QueryPlanCache}).</p>
+ */
+public class QueryPlan {
+
+  /** Plan for a collection without <code>$filter</code> and <code>$orderby</code>. */
+  public static final QueryPlan EMPTY = new QueryPlan(null, new CompiledExpression[0], new boolean[0], false);
+
+  private final CompiledExpression filter;
+  private final CompiledExpression[] orderBy;
+  private final boolean[] descending;
+  private final boolean requestDependent;
+
+  private QueryPlan(final CompiledExpression filter, final CompiledExpression[] orderBy, final boolean[] descending,
+      final boolean requestDependent) {
+    this.filter = filter;
+    this.orderBy = orderBy;
+    this.descending = descending;
+    this.requestDependent = requestDependent;
+  }
+
+  /**
+   * Compiles the given options; both may be <code>null</code>.
+   */
+  public static QueryPlan compile(final FilterOption filterOption, final OrderByOption orderByOption,
+      final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
+    if (filterOption == null && orderByOption == null) {
+      return EMPTY;
+    }
+    final ExpressionCompiler compiler = new ExpressionCompiler(uriInfo, edm);
+
+    CompiledExpression filter = null;
+    if (filterOption != null) {
+      try {
+        filter = compiler.compile(filterOption.getExpression());
+      } catch (final ExpressionVisitException e) {
+        throw new ODataApplicationException("Exception in filter evaluation",
+            HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ROOT);
+      }
+    }
+
+    final List<OrderByItem> items = orderByOption == null ? null : orderByOption.getOrders();
+    final CompiledExpression[] orderBy = new CompiledExpression[items == null ? 0 : items.size()];
+    final boolean[] descending = new boolean[orderBy.length];
+    for (int i = 0; i < orderBy.length; i++) {
+      try {
+        orderBy[i] = compiler.compile(items.get(i).getExpression());
+      } catch (final ExpressionVisitException e) {
+        throw new ODataApplicationException("Exception in orderBy evaluation",
+            HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ROOT);
+      }
+      descending[i] = items.get(i).isDescending();
+    }
+
+    return new QueryPlan(filter, orderBy, descending, compiler.isRequestDependent());
+  }
+
+  /**
+   * Returns this plan with its literals replaced by the given ones; this plan is not changed.
+   * @param literals the literals of the <code>$filter</code> and <code>$orderby</code> expressions
+   *                 of a request, in the order in which they have been compiled
+   */
+  public QueryPlan bind(final List<VisitorOperand> literals) {
+    if (literals.isEmpty()) {
+      return this;
+    }
+    final CompiledExpression[] boundOrderBy = new CompiledExpression[orderBy.length];
+    for (int i = 0; i < orderBy.length; i++) {
+      boundOrderBy[i] = orderBy[i].bind(literals);
+    }
+    return new QueryPlan(filter == null ? null : filter.bind(literals), boundOrderBy, descending, requestDependent);
+  }
+
+  /**
+   * @return the compiled filter expression or <code>null</code> if there is no <code>$filter</code>
+   */
+  public CompiledExpression getFilter() {
+    return filter;
+  }
+
+  /** Number of order-by items (0 if there is no <code>$orderby</code>). */
+  public int getOrderByCount() {
+    return orderBy.length;
+  }
+
+  public CompiledExpression getOrderByExpression(final int index) {
+    return orderBy[index];
+  }
+
+  public boolean isDescending(final int index) {
+    return descending[index];
+  }
+
+  /** Whether the plan uses aliases or functions and therefore must not be used for other requests. */
+  public boolean isRequestDependent() {
+    return requestDependent;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmBindingTarget;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.compiled.LiteralExtractor;
+
+/**
+ * <p>Bounded LRU cache of {@link QueryPlan query plans}, shared by all requests.</p>
+ * <p>The key consists of the entity set and entity type of the collection and the normalized
+ * <code>$filter</code>, <code>$orderby</code>, <code>$select</code>, and <code>$expand</code> options;
+ * expressions are normalized by their parsed form, so e.g. whitespace and redundant parentheses
+ * do not matter, and each literal is replaced by a placeholder (see {@link LiteralExtractor}).
+ * A cached plan is bound to the literals of the request, so requests which differ only in their literals
+ * share one plan. Plans using aliases or functions are not cached.
+ * All plans are dropped as soon as a plan for another EDM is requested.</p>
+ */
+public class QueryPlanCache {
+
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  private volatile int maxSize = DEFAULT_MAX_SIZE;
+  private final Map<String, QueryPlan> plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, QueryPlan> eldest) {
+      return size() > maxSize;
+    }
+  };
+  private Edm edm;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong invalidationCount = new AtomicLong();
+
+  /**
+   * Returns the plan for the given options of a collection.
+   * @param bindingTarget the entity set of the collection; may be <code>null</code> (e.g., for function results)
+   * @param entityType the entity type of the collection; if <code>null</code> the plan is compiled without caching
+   */
+  public QueryPlan getPlan(final EdmBindingTarget bindingTarget, final EdmEntityType entityType,
+      final FilterOption filterOption, final OrderByOption orderByOption,
+      final SelectOption selectOption, final ExpandOption expandOption,
+      final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
+    if (filterOption == null && orderByOption == null) {
+      return QueryPlan.EMPTY;
+    }
+    if (entityType == null) {
+      return QueryPlan.compile(filterOption, orderByOption, uriInfo, edm);
+    }
+
+    final LiteralExtractor literals = new LiteralExtractor(edm);
+    final String key;
+    try {
+      key = createKey(bindingTarget, entityType, filterOption, orderByOption, selectOption, expandOption, literals);
+    } catch (final ExpressionVisitException e) {
+      return QueryPlan.compile(filterOption, orderByOption, uriInfo, edm);
+    }
+    QueryPlan plan;
+    synchronized (plans) {
+      if (edm != this.edm) {
+        if (this.edm != null) {
+          invalidationCount.incrementAndGet();
+        }
+        plans.clear();
+        this.edm = edm;
+      }
+      plan = plans.get(key);
+    }
+    if (plan != null) {
+      hitCount.incrementAndGet();
+      return plan.bind(literals.getLiterals());
+    }
+
+    missCount.incrementAndGet();
+    plan = QueryPlan.compile(filterOption, orderByOption, uriInfo, edm);
+    if (!plan.isRequestDependent()) {
+      synchronized (plans) {
+        if (edm == this.edm) {
+          plans.put(key, plan);
+        }
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Creates the key; the literals of the expressions are collected by the given extractor,
+   * in the order in which {@link QueryPlan#compile} compiles them.
+   */
+  private static String createKey(final EdmBindingTarget bindingTarget, final EdmEntityType entityType,
+      final FilterOption filterOption, final OrderByOption orderByOption,
+      final SelectOption selectOption, final ExpandOption expandOption, final LiteralExtractor literals)
+      throws ExpressionVisitException, ODataApplicationException {
+    StringBuilder key = new StringBuilder();
+    appendPart(key, bindingTarget == null ? null : bindingTarget.getName());
+    appendPart(key, entityType.getFullQualifiedName().getFullQualifiedNameAsString());
+    appendPart(key, filterOption == null ? null : literals.normalize(filterOption.getExpression()));
+    if (orderByOption == null) {
+      appendPart(key, null);
+    } else {
+      StringBuilder orderBy = new StringBuilder();
+      for (final OrderByItem item : orderByOption.getOrders()) {
+        orderBy.append(literals.normalize(item.getExpression())).append(item.isDescending() ? " desc," : " asc,");
+      }
+      appendPart(key, orderBy.toString());
+    }
+    appendPart(key, selectOption == null ? null : selectOption.getText());
+    appendPart(key, expandOption == null ? null : expandOption.getText());
+    return key.toString();
+  }
+
+  /** Appends the part with its length, so that the parts cannot be mixed up. */
+  private static void appendPart(final StringBuilder key, final String part) {
+    if (part == null) {
+      key.append("-;");
+    } else {
+      key.append(part.length()).append(':').append(part).append(';');
+    }
+  }
+
+  /**
+   * Sets the maximum number of cached plans; surplus plans are dropped with the next cached plan.
+   */
+  public void setMaxSize(final int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** Drops all cached plans. */
+  public void clear() {
+    synchronized (plans) {
+      plans.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (plans) {
+      return plans.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Number of times the cached plans have been dropped because of a changed EDM. */
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Binary operator applied to the operands as by the visitor.
+ */
+class BinaryExpression extends CompiledExpression {
+
+  private final ExpressionVisitorImpl operators;
+  private final BinaryOperatorKind operator;
+  private final CompiledExpression left;
+  private final CompiledExpression right;
+
+  BinaryExpression(final ExpressionVisitorImpl operators, final BinaryOperatorKind operator,
+      final CompiledExpression left, final CompiledExpression right) {
+    this.operators = operators;
+    this.operator = operator;
+    this.left = left;
+    this.right = right;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    return operators.visitBinaryOperator(operator, left.evaluate(entity), right.evaluate(entity));
+  }
+
+  @Override
+  public CompiledExpression bind(final List<VisitorOperand> literals) {
+    final CompiledExpression boundLeft = left.bind(literals);
+    final CompiledExpression boundRight = right.bind(literals);
+    return boundLeft == left && boundRight == right ? this :
+        new BinaryExpression(operators, operator, boundLeft, boundRight);
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * <p>Comparison of a property with a literal, evaluated directly on the property value.</p>
+ * <p>Supported are integer, string, boolean, and date properties. Property values of an unexpected Java type
+ * (and paths which cannot be followed) are handled by the generic expression, so the result is always
+ * the one of the visitor; this includes the null handling (<code>null eq null</code> is true,
+ * <code>null</code> compared to a value is false, except for <code>ne</code>).</p>
+ */
+public class ComparisonPredicate extends CompiledPredicate {
+
+  private enum ValueKind { INTEGER, STRING, BOOLEAN, DATE }
+
+  private static final EdmPrimitiveType primString;
+  private static final EdmPrimitiveType primSByte;
+  private static final EdmPrimitiveType primByte;
+  private static final EdmPrimitiveType primInt16;
+  private static final EdmPrimitiveType primInt32;
+  private static final EdmPrimitiveType primInt64;
+  private static final EdmPrimitiveType primDate;
+
+  static {
+    final OData oData = OData.newInstance();
+    primString = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.String);
+    primSByte = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.SByte);
+    primByte = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Byte);
+    primInt16 = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Int16);
+    primInt32 = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Int32);
+    primInt64 = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Int64);
+    primDate = oData.createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Date);
+  }
+
+  private final BinaryOperatorKind operator;
+  private final MemberExpression member;
+  private final boolean memberLeft;
+  private final ConstantExpression constant;
+  private final ValueKind kind;
+  private final Object literal;
+  private final long integerLiteral;
+  private final CompiledExpression generic;
+
+  private ComparisonPredicate(final BinaryOperatorKind operator, final MemberExpression member,
+      final boolean memberLeft, final ConstantExpression constant, final ValueKind kind, final Object literal,
+      final CompiledExpression generic) {
+    this.operator = operator;
+    this.member = member;
+    this.memberLeft = memberLeft;
+    this.constant = constant;
+    this.kind = kind;
+    this.literal = literal;
+    integerLiteral = literal instanceof BigInteger ? ((BigInteger) literal).longValue() : 0;
+    this.generic = generic;
+  }
+
+  /**
+   * Creates the comparison if the operands are a property path and a typed literal of a supported type.
+   * @param generic the expression to be used if the property value cannot be compared directly
+   * @return the comparison or <code>null</code> if the operands are not supported
+   */
+  static CompiledPredicate create(final BinaryOperatorKind operator, final CompiledExpression left,
+      final CompiledExpression right, final CompiledExpression generic) {
+    final boolean memberLeft = left instanceof MemberExpression;
+    final CompiledExpression member = memberLeft ? left : right;
+    final CompiledExpression constant = memberLeft ? right : left;
+    if (!(member instanceof MemberExpression) || !(constant instanceof ConstantExpression)) {
+      return null;
+    }
+    final TypedOperand literal = ((ConstantExpression) constant).getTypedOperand();
+    final EdmProperty edmProperty = ((MemberExpression) member).getEdmProperty();
+    if (literal == null || edmProperty.isCollection()) {
+      return null;
+    }
+    final EdmType type = edmProperty.getType();
+    final boolean literalNull = literal.isNull();
+    ValueKind kind = null;
+    if (isIntegerType(type) && (literalNull || isIntegerType(literal.getType()))) {
+      kind = ValueKind.INTEGER;
+    } else if (type == primString && (literalNull || literal.getType() == primString)) {
+      kind = ValueKind.STRING;
+    } else if (type == primBoolean && (literalNull || literal.getType() == primBoolean)) {
+      kind = ValueKind.BOOLEAN;
+    } else if (type == primDate
+        && (literalNull || literal.getType() == primDate && literal.getValue() instanceof Calendar)) {
+      kind = ValueKind.DATE;
+    }
+    return kind == null ? null :
+        new ComparisonPredicate(operator, (MemberExpression) member, memberLeft, (ConstantExpression) constant, kind,
+            literalNull ? null : literal.getValue(), generic);
+  }
+
+  /**
+   * Binds the literal and the generic expression; the kind of the comparison is determined again for the new
+   * literal, so a literal of an unsupported type gives the generic expression.
+   */
+  @Override
+  public CompiledPredicate bind(final List<VisitorOperand> literals) {
+    final CompiledExpression boundConstant = constant.bind(literals);
+    if (boundConstant == constant) {
+      return this;
+    }
+    final CompiledExpression boundGeneric = generic.bind(literals);
+    final CompiledPredicate comparison = memberLeft ?
+        create(operator, member, boundConstant, boundGeneric) :
+        create(operator, boundConstant, member, boundGeneric);
+    return comparison == null ? CompiledPredicate.of(boundGeneric) : comparison;
+  }
+
+  static boolean isIntegerType(final EdmType type) {
+    return primSByte.equals(type) || primByte.equals(type)
+        || primInt16.equals(type) || primInt32.equals(type) || primInt64.equals(type);
+  }
+
+  @Override
+  public Boolean test(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    final Property property = member.resolve(entity);
+    final Object value = property == null ? null : property.getValue();
+    if (property == null || value != null && !accepts(value)) {
+      return (Boolean) generic.evaluate(entity).getValue();
+    }
+    if (value == null || literal == null) {
+      return value == literal ? matches(0) : operator == BinaryOperatorKind.NE;
+    }
+    final int result;
+    switch (kind) {
+    case INTEGER:
+      final long longValue = ((Number) value).longValue();
+      result = memberLeft ? Long.compare(longValue, integerLiteral) : Long.compare(integerLiteral, longValue);
+      break;
+    case STRING:
+      result = memberLeft ? ((String) value).compareTo((String) literal) : ((String) literal).compareTo((String) value);
+      break;
+    case DATE:
+      result = memberLeft ? ((Calendar) value).compareTo((Calendar) literal) :
+          ((Calendar) literal).compareTo((Calendar) value);
+      break;
+    default:
+      result = memberLeft ? ((Boolean) value).compareTo((Boolean) literal) :
+          ((Boolean) literal).compareTo((Boolean) value);
+    }
+    return matches(result);
+  }
+
+  private boolean accepts(final Object value) {
+    switch (kind) {
+    case INTEGER:
+      return value instanceof Short || value instanceof Integer || value instanceof Long || value instanceof Byte;
+    case STRING:
+      return value instanceof String;
+    case DATE:
+      // The visitor compares calendars only if they are of the same class.
+      return value instanceof Calendar && (literal == null || value.getClass() == literal.getClass());
+    default:
+      return value instanceof Boolean;
+    }
+  }
+
+  /**
+   * @return the name of the compared property if it is a property of the entity itself (not within a complex
+   *         property), otherwise <code>null</code>
+   */
+  public String getPropertyName() {
+    return member.isTopLevel() ? member.getEdmProperty().getName() : null;
+  }
+
+  /**
+   * @return the comparison operator, with the property as left operand
+   */
+  public BinaryOperatorKind getOperator() {
+    if (memberLeft) {
+      return operator;
+    }
+    switch (operator) {
+    case GT:
+      return BinaryOperatorKind.LT;
+    case GE:
+      return BinaryOperatorKind.LE;
+    case LT:
+      return BinaryOperatorKind.GT;
+    case LE:
+      return BinaryOperatorKind.GE;
+    default:
+      return operator;
+    }
+  }
+
+  /**
+   * @return the literal as it is compared with the property values: a <code>Long</code> for integer literals,
+   *         a <code>String</code>, <code>Boolean</code>, or <code>Calendar</code> otherwise;
+   *         <code>null</code> for the literal <code>null</code>
+   */
+  public Object getLiteral() {
+    return kind == ValueKind.INTEGER && literal != null ? Long.valueOf(integerLiteral) : literal;
+  }
+
+  /**
+   * Whether <code>gt</code>, <code>ge</code>, <code>lt</code>, and <code>le</code> match exactly the values
+   * within the range given by the literal. This is not the case for strings: as by the visitor, only the
+   * comparison results -1, 0, and 1 are interpreted, so a string matches only if it is (by the natural order)
+   * within the range, but not every string within the range matches.
+   */
+  public boolean isRangeExact() {
+    return kind != ValueKind.STRING;
+  }
+
+  /** Interprets the comparison result exactly as the visitor does, i.e., only -1, 0, and 1 are expected. */
+  private Boolean matches(final int result) {
+    switch (operator) {
+    case EQ:
+      return result == 0;
+    case NE:
+      return result != 0;
+    case GT:
+      return result == 1;
+    case GE:
+      return result == 1 || result == 0;
+    case LT:
+      return result == -1;
+    default:
+      return result == -1 || result == 0;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * <p>Expression compiled by the {@link ExpressionCompiler} for the evaluation on many entities.</p>
+ * <p>Evaluating a compiled expression gives the same result as visiting the original expression
+ * with an <code>ExpressionVisitorImpl</code> for the entity.
+ * A compiled expression does not hold any per-entity state; it can be evaluated for any number of entities
+ * and, unless it depends on the request (see {@link ExpressionCompiler#isRequestDependent()}),
+ * concurrently by several requests.</p>
+ */
+public abstract class CompiledExpression {
+
+  public abstract VisitorOperand evaluate(Entity entity) throws ExpressionVisitException, ODataApplicationException;
+
+  /**
+   * Returns this expression with its literals replaced by the given ones; this expression is not changed.
+   * @param literals the literals of an expression of the same form, in the order in which the compiler
+   *                 has visited them (see {@link LiteralExtractor})
+   * @return the bound expression, or this expression if it does not contain literals
+   */
+  public CompiledExpression bind(final List<VisitorOperand> literals) {
+    return this;
+  }
+}
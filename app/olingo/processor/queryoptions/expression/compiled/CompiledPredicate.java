@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Compiled expression which always evaluates to a value of type Edm.Boolean.
+ */
+public abstract class CompiledPredicate extends CompiledExpression {
+
+  protected static final EdmPrimitiveType primBoolean =
+      OData.newInstance().createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Boolean);
+
+  /**
+   * Evaluates the predicate without creating operands.
+   * @return {@link Boolean#TRUE}, {@link Boolean#FALSE}, or <code>null</code> if the result is unknown
+   */
+  public abstract Boolean test(Entity entity) throws ExpressionVisitException, ODataApplicationException;
+
+  /**
+   * The operands of the <code>and</code> operations this predicate consists of (in the order of the expression),
+   * or the predicate itself if it is not an <code>and</code> operation.
+   * The predicate is false if one of these operands is false; it is true if all of them are true.
+   */
+  public List<CompiledPredicate> getConjuncts() {
+    return Collections.singletonList(this);
+  }
+
+  /**
+   * Combines the given predicates with <code>and</code> operations.
+   * @return the predicate or <code>null</code> if the list is empty
+   */
+  public static CompiledPredicate and(final List<CompiledPredicate> predicates) {
+    CompiledPredicate result = null;
+    for (final CompiledPredicate predicate : predicates) {
+      result = result == null ? predicate : new LogicalPredicate(LogicalPredicate.Kind.AND, result, predicate);
+    }
+    return result;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    return new TypedOperand(test(entity), primBoolean);
+  }
+
+  @Override
+  public CompiledPredicate bind(final List<VisitorOperand> literals) {
+    return this;
+  }
+
+  /**
+   * Wraps an expression whose result is always of type Edm.Boolean (or whose evaluation fails).
+   */
+  static CompiledPredicate of(final CompiledExpression expression) {
+    return new CompiledPredicate() {
+      @Override
+      public Boolean test(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+        return (Boolean) expression.evaluate(entity).getValue();
+      }
+
+      @Override
+      public CompiledPredicate bind(final List<VisitorOperand> literals) {
+        final CompiledExpression bound = expression.bind(literals);
+        return bound == expression ? this : of(bound);
+      }
+    };
+  }
+}
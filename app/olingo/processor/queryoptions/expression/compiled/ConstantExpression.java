@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.Calendar;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Literal, alias, or enumeration value; the type of a literal is determined once at compile time.
+ * A literal knows its position among the literals of the compiled expressions, so that it can be replaced
+ * by the literal of another request (see {@link #bind(List)}).
+ */
+class ConstantExpression extends CompiledExpression {
+
+  private final VisitorOperand operand;
+  private final ODataApplicationException exception;
+  /** The index of the literal, or -1 for other constants. */
+  private final int parameter;
+
+  private ConstantExpression(final VisitorOperand operand, final ODataApplicationException exception,
+      final int parameter) {
+    this.operand = operand;
+    this.exception = exception;
+    this.parameter = parameter;
+  }
+
+  static ConstantExpression of(final VisitorOperand operand) {
+    return of(operand, -1);
+  }
+
+  /** Literal with the given index among the literals of the compiled expressions. */
+  static ConstantExpression literal(final int parameter, final VisitorOperand operand) {
+    return of(operand, parameter);
+  }
+
+  private static ConstantExpression of(final VisitorOperand operand, final int parameter) {
+    try {
+      final TypedOperand typedOperand = operand.asTypedOperand();
+      if (typedOperand.getValue() instanceof Calendar) {
+        // Computes all calendar fields now, so that evaluations (even concurrent ones) only read the calendar.
+        ((Calendar) typedOperand.getValue()).get(Calendar.YEAR);
+      }
+      return new ConstantExpression(typedOperand, null, parameter);
+    } catch (final ODataApplicationException e) {
+      // The type cannot be determined; the operation using this operand will fail as before.
+      return new ConstantExpression(operand, null, parameter);
+    }
+  }
+
+  /** Constant whose evaluation fails with the given exception (e.g., an unsupported expression). */
+  static ConstantExpression failing(final ODataApplicationException exception) {
+    return new ConstantExpression(null, exception, -1);
+  }
+
+  /**
+   * @return the typed operand or <code>null</code> if the type could not be determined
+   */
+  TypedOperand getTypedOperand() {
+    return operand instanceof TypedOperand ? (TypedOperand) operand : null;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ODataApplicationException {
+    if (exception != null) {
+      throw exception;
+    }
+    return operand;
+  }
+
+  @Override
+  public CompiledExpression bind(final List<VisitorOperand> literals) {
+    return parameter < 0 ? this : of(literals.get(parameter), parameter);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceFunction;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitor;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.compiled.LogicalPredicate.Kind;
+
+/**
+ * <p>Compiles an expression (e.g., of a <code>$filter</code> system query option) once
+ * so that it can be evaluated for many entities without visiting the expression tree again.</p>
+ * <p>Literals are converted to typed operands at compile time, member paths are resolved to
+ * the EDM properties, and comparisons of a property with a literal are evaluated on the property value
+ * directly; all other operations are delegated to the operators of the {@link ExpressionVisitorImpl},
+ * hence the results are the same as when visiting the expression for each entity.</p>
+ * <p>The literals are numbered in the order in which they are visited, over all expressions compiled
+ * by one compiler, so that they can be replaced by the literals of another request
+ * (see {@link CompiledExpression#bind(List)}).</p>
+ */
+public class ExpressionCompiler implements ExpressionVisitor<CompiledExpression> {
+
+  private final UriInfoResource uriInfo;
+  private final Edm edm;
+  /** The operators of the visitor depend neither on the entity nor on the request. */
+  private final ExpressionVisitorImpl operators;
+  /** Visitor for aliases and functions, which depend on the request. */
+  private final ExpressionVisitorImpl requestVisitor;
+  private boolean requestDependent;
+  private int literalCount;
+
+  public ExpressionCompiler(final UriInfoResource uriInfo, final Edm edm) {
+    this.uriInfo = uriInfo;
+    this.edm = edm;
+    operators = new ExpressionVisitorImpl(null, null, edm);
+    requestVisitor = new ExpressionVisitorImpl(null, uriInfo, edm);
+  }
+
+  public static CompiledExpression compile(final Expression expression, final UriInfoResource uriInfo,
+      final Edm edm) throws ExpressionVisitException, ODataApplicationException {
+    return new ExpressionCompiler(uriInfo, edm).compile(expression);
+  }
+
+  public CompiledExpression compile(final Expression expression)
+      throws ExpressionVisitException, ODataApplicationException {
+    return expression.accept(this);
+  }
+
+  /**
+   * Whether an expression compiled so far uses aliases or functions; such an expression must be evaluated
+   * only for the request it has been compiled for.
+   */
+  public boolean isRequestDependent() {
+    return requestDependent;
+  }
+
+  @Override
+  public CompiledExpression visitBinaryOperator(final BinaryOperatorKind operator, final CompiledExpression left,
+      final CompiledExpression right) throws ExpressionVisitException, ODataApplicationException {
+    final CompiledExpression generic = new BinaryExpression(operators, operator, left, right);
+
+    switch (operator) {
+    case AND:
+    case OR:
+      return left instanceof CompiledPredicate && right instanceof CompiledPredicate ?
+          new LogicalPredicate(operator == BinaryOperatorKind.AND ? Kind.AND : Kind.OR,
+              (CompiledPredicate) left, (CompiledPredicate) right) :
+          CompiledPredicate.of(generic);
+    case EQ:
+    case NE:
+    case GE:
+    case GT:
+    case LE:
+    case LT:
+      final CompiledPredicate comparison = ComparisonPredicate.create(operator, left, right, generic);
+      return comparison == null ? CompiledPredicate.of(generic) : comparison;
+    case HAS:
+      return CompiledPredicate.of(generic);
+    default:
+      return generic;
+    }
+  }
+
+  @Override
+  public CompiledExpression visitUnaryOperator(final UnaryOperatorKind operator, final CompiledExpression operand)
+      throws ExpressionVisitException, ODataApplicationException {
+    return operator == UnaryOperatorKind.NOT && operand instanceof CompiledPredicate ?
+        new LogicalPredicate(Kind.NOT, (CompiledPredicate) operand, null) :
+        new UnaryExpression(operators, operator, operand);
+  }
+
+  @Override
+  public CompiledExpression visitMethodCall(final MethodKind methodCall, final List<CompiledExpression> parameters)
+      throws ExpressionVisitException, ODataApplicationException {
+    return new MethodCallExpression(operators, methodCall, new ArrayList<CompiledExpression>(parameters));
+  }
+
+  @Override
+  public CompiledExpression visitLambdaExpression(final String lambdaFunction, final String lambdaVariable,
+      final Expression expression) throws ExpressionVisitException, ODataApplicationException {
+    try {
+      return ConstantExpression.of(operators.visitLambdaExpression(lambdaFunction, lambdaVariable, expression));
+    } catch (final ODataApplicationException e) {
+      return ConstantExpression.failing(e);
+    }
+  }
+
+  @Override
+  public CompiledExpression visitLiteral(final Literal literal)
+      throws ExpressionVisitException, ODataApplicationException {
+    return ConstantExpression.literal(literalCount++, operators.visitLiteral(literal));
+  }
+
+  @Override
+  public CompiledExpression visitMember(final Member member)
+      throws ExpressionVisitException, ODataApplicationException {
+    final List<UriResource> uriResourceParts = member.getResourcePath().getUriResourceParts();
+    final UriResource initialPart = uriResourceParts.get(0);
+    if (initialPart instanceof UriResourceProperty) {
+      final List<EdmProperty> path = new ArrayList<EdmProperty>(uriResourceParts.size());
+      for (final UriResource part : uriResourceParts) {
+        if (part instanceof UriResourceProperty) {
+          path.add(((UriResourceProperty) part).getProperty());
+        } else {
+          requestDependent = true;
+          return new VisitorExpression(member, uriInfo, edm);
+        }
+      }
+      return new MemberExpression(path);
+    } else if (initialPart instanceof UriResourceFunction) {
+      requestDependent = true;
+      return new FunctionExpression(member, requestVisitor);
+    } else {
+      requestDependent = true;
+      return new VisitorExpression(member, uriInfo, edm);
+    }
+  }
+
+  @Override
+  public CompiledExpression visitAlias(final String aliasName)
+      throws ExpressionVisitException, ODataApplicationException {
+    requestDependent = true;
+    return ConstantExpression.of(requestVisitor.visitAlias(aliasName));
+  }
+
+  @Override
+  public CompiledExpression visitTypeLiteral(final EdmType type)
+      throws ExpressionVisitException, ODataApplicationException {
+    try {
+      return ConstantExpression.of(operators.visitTypeLiteral(type));
+    } catch (final ODataApplicationException e) {
+      return ConstantExpression.failing(e);
+    }
+  }
+
+  @Override
+  public CompiledExpression visitLambdaReference(final String variableName)
+      throws ExpressionVisitException, ODataApplicationException {
+    try {
+      return ConstantExpression.of(operators.visitLambdaReference(variableName));
+    } catch (final ODataApplicationException e) {
+      return ConstantExpression.failing(e);
+    }
+  }
+
+  @Override
+  public CompiledExpression visitEnum(final EdmEnumType type, final List<String> enumValues)
+      throws ExpressionVisitException, ODataApplicationException {
+    try {
+      return ConstantExpression.of(operators.visitEnum(type, enumValues));
+    } catch (final ODataApplicationException e) {
+      return ConstantExpression.failing(e);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Function call as member; its result does not depend on the entity, so the function is called only once.
+ */
+class FunctionExpression extends CompiledExpression {
+
+  private final Member member;
+  private final ExpressionVisitorImpl visitor;
+  private volatile VisitorOperand result;
+
+  FunctionExpression(final Member member, final ExpressionVisitorImpl visitor) {
+    this.member = member;
+    this.visitor = visitor;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    VisitorOperand operand = result;
+    if (operand == null) {
+      synchronized (this) {
+        operand = result;
+        if (operand == null) {
+          operand = visitor.visitMember(member);
+          result = operand;
+        }
+      }
+    }
+    return operand;
+  }
+}
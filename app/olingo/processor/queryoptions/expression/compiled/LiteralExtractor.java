@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEnumType;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitor;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
+import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * <p>Normalizes expressions for the cache of compiled expressions: the normalized text contains a placeholder
+ * for each literal, so expressions which differ only in their literals have the same text.</p>
+ * <p>The literals are collected in the order in which the {@link ExpressionCompiler} visits them, over all
+ * expressions normalized by one extractor; an expression compiled for one request can be bound to the
+ * literals of another request with {@link CompiledExpression#bind(List)}.
+ * The placeholder names the type of the literal (all integer types alike) and whether it is <code>null</code>,
+ * so the compiled comparisons stay the same for the bound literals.</p>
+ */
+public class LiteralExtractor implements ExpressionVisitor<String> {
+
+  private final ExpressionVisitorImpl operators;
+  private final List<VisitorOperand> literals = new ArrayList<VisitorOperand>();
+
+  public LiteralExtractor(final Edm edm) {
+    operators = new ExpressionVisitorImpl(null, null, edm);
+  }
+
+  /**
+   * Returns the normalized text of the expression and collects its literals.
+   */
+  public String normalize(final Expression expression) throws ExpressionVisitException, ODataApplicationException {
+    return expression.accept(this);
+  }
+
+  /** The literals of all expressions normalized so far. */
+  public List<VisitorOperand> getLiterals() {
+    return literals;
+  }
+
+  @Override
+  public String visitBinaryOperator(final BinaryOperatorKind operator, final String left, final String right)
+      throws ExpressionVisitException, ODataApplicationException {
+    return "{" + left + " " + operator.name() + " " + right + "}";
+  }
+
+  @Override
+  public String visitUnaryOperator(final UnaryOperatorKind operator, final String operand)
+      throws ExpressionVisitException, ODataApplicationException {
+    return "{" + operator.name() + " " + operand + "}";
+  }
+
+  @Override
+  public String visitMethodCall(final MethodKind methodCall, final List<String> parameters)
+      throws ExpressionVisitException, ODataApplicationException {
+    return "{" + methodCall.name() + " " + parameters + "}";
+  }
+
+  /** The compiler does not compile the expression of a lambda; its literals remain part of the text. */
+  @Override
+  public String visitLambdaExpression(final String lambdaFunction, final String lambdaVariable,
+      final Expression expression) throws ExpressionVisitException, ODataApplicationException {
+    return "{" + lambdaFunction + " " + lambdaVariable + ": " + expression + "}";
+  }
+
+  @Override
+  public String visitLiteral(final Literal literal) throws ExpressionVisitException, ODataApplicationException {
+    final VisitorOperand operand = operators.visitLiteral(literal);
+    TypedOperand typedOperand;
+    try {
+      typedOperand = operand.asTypedOperand();
+    } catch (final ODataApplicationException e) {
+      // The compiler keeps the untyped operand; the operation using it will fail.
+      literals.add(operand);
+      return "?";
+    }
+    literals.add(typedOperand);
+    return typedOperand.isNull() ? "?null" :
+        ComparisonPredicate.isIntegerType(typedOperand.getType()) ? "?integer" :
+            "?" + typedOperand.getType().getFullQualifiedName().getFullQualifiedNameAsString();
+  }
+
+  @Override
+  public String visitMember(final Member member) throws ExpressionVisitException, ODataApplicationException {
+    return String.valueOf(member);
+  }
+
+  @Override
+  public String visitAlias(final String aliasName) throws ExpressionVisitException, ODataApplicationException {
+    return aliasName;
+  }
+
+  @Override
+  public String visitTypeLiteral(final EdmType type) throws ExpressionVisitException, ODataApplicationException {
+    return type.getFullQualifiedName().getFullQualifiedNameAsString();
+  }
+
+  @Override
+  public String visitLambdaReference(final String variableName)
+      throws ExpressionVisitException, ODataApplicationException {
+    return variableName;
+  }
+
+  @Override
+  public String visitEnum(final EdmEnumType type, final List<String> enumValues)
+      throws ExpressionVisitException, ODataApplicationException {
+    return type.getFullQualifiedName().getFullQualifiedNameAsString() + enumValues;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Logical <code>and</code>, <code>or</code>, or <code>not</code> of predicates, with the three-valued logic
+ * of the visitor (<code>null</code> meaning unknown). Both operands are always evaluated, as by the visitor.
+ */
+class LogicalPredicate extends CompiledPredicate {
+
+  enum Kind { AND, OR, NOT }
+
+  private final Kind kind;
+  private final CompiledPredicate left;
+  private final CompiledPredicate right;
+
+  LogicalPredicate(final Kind kind, final CompiledPredicate left, final CompiledPredicate right) {
+    this.kind = kind;
+    this.left = left;
+    this.right = right;
+  }
+
+  @Override
+  public List<CompiledPredicate> getConjuncts() {
+    if (kind != Kind.AND) {
+      return super.getConjuncts();
+    }
+    List<CompiledPredicate> conjuncts = new ArrayList<CompiledPredicate>(left.getConjuncts());
+    conjuncts.addAll(right.getConjuncts());
+    return conjuncts;
+  }
+
+  @Override
+  public CompiledPredicate bind(final List<VisitorOperand> literals) {
+    final CompiledPredicate boundLeft = left.bind(literals);
+    final CompiledPredicate boundRight = right == null ? null : right.bind(literals);
+    return boundLeft == left && boundRight == right ? this : new LogicalPredicate(kind, boundLeft, boundRight);
+  }
+
+  @Override
+  public Boolean test(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    final Boolean leftResult = left.test(entity);
+    if (kind == Kind.NOT) {
+      return leftResult == null ? null : !leftResult;
+    }
+    final Boolean rightResult = right.test(entity);
+    if (kind == Kind.AND) {
+      return Boolean.TRUE.equals(leftResult) && Boolean.TRUE.equals(rightResult) ? Boolean.TRUE :
+          Boolean.FALSE.equals(leftResult) || Boolean.FALSE.equals(rightResult) ? Boolean.FALSE :
+              null;
+    } else {
+      return Boolean.TRUE.equals(leftResult) || Boolean.TRUE.equals(rightResult) ? Boolean.TRUE :
+          Boolean.FALSE.equals(leftResult) && Boolean.FALSE.equals(rightResult) ? Boolean.FALSE :
+              null;
+    }
+  }
+}
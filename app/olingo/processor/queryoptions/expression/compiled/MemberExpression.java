@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Path of (primitive or complex) properties, resolved to the EDM properties at compile time.
+ */
+class MemberExpression extends CompiledExpression {
+
+  private final EdmProperty[] path;
+
+  MemberExpression(final List<EdmProperty> path) {
+    this.path = path.toArray(new EdmProperty[path.size()]);
+  }
+
+  EdmProperty getEdmProperty() {
+    return path[path.length - 1];
+  }
+
+  /** Whether the path consists of a property of the entity itself only. */
+  boolean isTopLevel() {
+    return path.length == 1;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) {
+    EdmProperty currentEdmProperty = path[0];
+    Property currentProperty = entity.getProperty(currentEdmProperty.getName());
+    for (int i = 1; i < path.length; i++) {
+      if (currentProperty.isComplex()) {
+        currentEdmProperty = path[i];
+        for (final Property innerProperty : currentProperty.asComplex().getValue()) {
+          if (innerProperty.getName().equals(currentEdmProperty.getName())) {
+            currentProperty = innerProperty;
+            break;
+          }
+        }
+      }
+    }
+    return new TypedOperand(currentProperty.getValue(), currentEdmProperty.getType(), currentEdmProperty);
+  }
+
+  /**
+   * Finds the property of the last path segment without creating an operand.
+   * @return the property or <code>null</code> if the path cannot be followed completely
+   */
+  Property resolve(final Entity entity) {
+    Property property = entity.getProperty(path[0].getName());
+    for (int i = 1; i < path.length && property != null; i++) {
+      if (!property.isComplex() || property.asComplex() == null) {
+        return null;
+      }
+      Property found = null;
+      for (final Property innerProperty : property.asComplex().getValue()) {
+        if (innerProperty.getName().equals(path[i].getName())) {
+          found = innerProperty;
+          break;
+        }
+      }
+      property = found;
+    }
+    return property;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Built-in method applied to the parameters as by the visitor.
+ */
+class MethodCallExpression extends CompiledExpression {
+
+  private final ExpressionVisitorImpl operators;
+  private final MethodKind method;
+  private final List<CompiledExpression> parameters;
+
+  MethodCallExpression(final ExpressionVisitorImpl operators, final MethodKind method,
+      final List<CompiledExpression> parameters) {
+    this.operators = operators;
+    this.method = method;
+    this.parameters = parameters;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    List<VisitorOperand> operands = new ArrayList<VisitorOperand>(parameters.size());
+    for (final CompiledExpression parameter : parameters) {
+      operands.add(parameter.evaluate(entity));
+    }
+    return operators.visitMethodCall(method, operands);
+  }
+
+  @Override
+  public CompiledExpression bind(final List<VisitorOperand> literals) {
+    List<CompiledExpression> boundParameters = new ArrayList<CompiledExpression>(parameters.size());
+    boolean changed = false;
+    for (final CompiledExpression parameter : parameters) {
+      final CompiledExpression boundParameter = parameter.bind(literals);
+      boundParameters.add(boundParameter);
+      changed |= boundParameter != parameter;
+    }
+    return changed ? new MethodCallExpression(operators, method, boundParameters) : this;
+  }
+}
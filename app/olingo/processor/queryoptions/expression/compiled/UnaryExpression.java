@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.expression.compiled;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+
+/**
+ * Unary operator applied to the operand as by the visitor.
+ */
+class UnaryExpression extends CompiledExpression {
+
+  private final ExpressionVisitorImpl operators;
+  private final UnaryOperatorKind operator;
+  private final CompiledExpression operand;
+
+  UnaryExpression(final ExpressionVisitorImpl operators, final UnaryOperatorKind operator,
+      final CompiledExpression operand) {
+    this.operators = operators;
+    this.operator = operator;
+    this.operand = operand;
+  }
+
+  @Override
+  public VisitorOperand evaluate(final Entity entity) throws ExpressionVisitException, ODataApplicationException {
+    return operators.visitUnaryOperator(operator, operand.evaluate(entity));
+  }
+
+  @Override
+  public CompiledExpression bind(final List<VisitorOperand> literals) {
+    final CompiledExpression boundOperand = operand.bind(literals);
+    return boundOperand == operand ? this : new UnaryExpression(operators, operator, boundOperand);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.options;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+
+/**
+ * <p>Collects the entities that match all given conditions (e.g., search and filter), shared by all requests.</p>
+ * <p>Entity sets with at least {@link #getParallelThreshold()} entities are evaluated in parallel
+ * on the common fork/join pool if all matching entities are needed; otherwise the entities are evaluated
+ * sequentially through a pipeline of {@link MatchingIterator}s. Either way the matching entities keep their order,
+ * and an exception is thrown for the first entity (in order) for which a condition fails.</p>
+ */
+public class EntityMatcher {
+
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+  /** Minimum number of entities evaluated by one parallel task. */
+  private static final int MIN_CHUNK_SIZE = 512;
+
+  private volatile boolean parallelEnabled = true;
+  private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  private final AtomicLong parallelCount = new AtomicLong();
+
+  /**
+   * Adds the entities matching all conditions to the target list, in the order of the source list.
+   * @param limit the maximum number of entities in the target list or <code>null</code> to add all matching entities
+   * @param conditions the conditions; <code>null</code> conditions are ignored
+   */
+  public void collect(final List<Entity> source, final List<Entity> target, final Integer limit,
+      final EntityCondition... conditions) throws ODataApplicationException {
+    final List<EntityCondition> nonNullConditions = new ArrayList<EntityCondition>(conditions.length);
+    for (final EntityCondition condition : conditions) {
+      if (condition != null) {
+        nonNullConditions.add(condition);
+      }
+    }
+
+    if (limit == null && !nonNullConditions.isEmpty() && isParallel(source.size())) {
+      parallelCount.incrementAndGet();
+      collectParallel(source, target, nonNullConditions, ForkJoinPool.commonPool());
+    } else {
+      Iterator<Entity> entities = source.iterator();
+      for (final EntityCondition condition : nonNullConditions) {
+        entities = new MatchingIterator(entities, condition);
+      }
+      MatchingIterator.collect(entities, target, limit);
+    }
+  }
+
+  private boolean isParallel(final int size) {
+    return parallelEnabled && size >= parallelThreshold && ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+  /** Evaluates the conditions on the given pool; the source list is split into about four tasks per thread. */
+  static void collectParallel(final List<Entity> source, final List<Entity> target,
+      final List<EntityCondition> conditions, final ForkJoinPool pool) throws ODataApplicationException {
+    final boolean[] matches = new boolean[source.size()];
+    final FirstFailure failure = new FirstFailure();
+    final int chunkSize = Math.max(MIN_CHUNK_SIZE, source.size() / (pool.getParallelism() * 4));
+    pool.invoke(new MatchTask(source, conditions, matches, failure, 0, source.size(), chunkSize));
+
+    failure.rethrow();
+    for (int i = 0; i < matches.length; i++) {
+      if (matches[i]) {
+        target.add(source.get(i));
+      }
+    }
+  }
+
+  /** Evaluates the conditions for a range of the entities, splitting it into subtasks if it is large. */
+  private static final class MatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Entity> source;
+    private final List<EntityCondition> conditions;
+    private final boolean[] matches;
+    private final FirstFailure failure;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    private MatchTask(final List<Entity> source, final List<EntityCondition> conditions, final boolean[] matches,
+        final FirstFailure failure, final int from, final int to, final int chunkSize) {
+      this.source = source;
+      this.conditions = conditions;
+      this.matches = matches;
+      this.failure = failure;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > chunkSize) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new MatchTask(source, conditions, matches, failure, from, middle, chunkSize),
+            new MatchTask(source, conditions, matches, failure, middle, to, chunkSize));
+      } else {
+        // Entities behind an already failed entity need not be evaluated.
+        for (int i = from; i < to && i < failure.getIndex(); i++) {
+          try {
+            matches[i] = matches(source.get(i));
+          } catch (final ODataApplicationException e) {
+            failure.offer(i, e);
+          } catch (final RuntimeException e) {
+            failure.offer(i, e);
+          }
+        }
+      }
+    }
+
+    private boolean matches(final Entity entity) throws ODataApplicationException {
+      for (final EntityCondition condition : conditions) {
+        if (!condition.matches(entity)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** Failure of the entity with the lowest position, i.e., the one sequential evaluation would report. */
+  private static final class FirstFailure {
+    private volatile int index = Integer.MAX_VALUE;
+    private Exception exception;
+
+    private int getIndex() {
+      return index;
+    }
+
+    private synchronized void offer(final int index, final Exception exception) {
+      if (index < this.index) {
+        this.index = index;
+        this.exception = exception;
+      }
+    }
+
+    private synchronized void rethrow() throws ODataApplicationException {
+      if (exception instanceof ODataApplicationException) {
+        throw (ODataApplicationException) exception;
+      } else if (exception != null) {
+        throw (RuntimeException) exception;
+      }
+    }
+  }
+
+  /**
+   * Enables or disables parallel evaluation; if disabled, all entity sets are evaluated sequentially.
+   */
+  public void setParallelEnabled(final boolean parallelEnabled) {
+    this.parallelEnabled = parallelEnabled;
+  }
+
+  public boolean isParallelEnabled() {
+    return parallelEnabled;
+  }
+
+  /**
+   * Sets the minimum number of entities of an entity set to be evaluated in parallel.
+   */
+  public void setParallelThreshold(final int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /** Number of entity sets evaluated in parallel so far. */
+  public long getParallelCount() {
+    return parallelCount.get();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.options;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+
+/**
+ * <p>Range of the entities of an entity collection that is left after <code>$skip</code>, <code>$top</code>,
+ * and server-side paging.</p>
+ * <p>The handlers of these options narrow the range instead of removing entities one by one;
+ * the entity collection itself is neither copied nor modified.</p>
+ */
+public class EntityRange {
+
+  private final EntityCollection entityCollection;
+  private int from;
+  private int to;
+
+  public EntityRange(final EntityCollection entityCollection) {
+    this.entityCollection = entityCollection;
+    to = entityCollection.getEntities().size();
+  }
+
+  public EntityCollection getEntityCollection() {
+    return entityCollection;
+  }
+
+  /** Skips at most the given number of entities at the start of the range (nothing if it is negative). */
+  public void skip(final int n) {
+    from = (int) Math.min((long) from + Math.max(n, 0), to);
+  }
+
+  /** Reduces the range to at most the given number of entities (to none if it is negative). */
+  public void limit(final int n) {
+    to = (int) Math.min((long) from + Math.max(n, 0), to);
+  }
+
+  public int size() {
+    return to - from;
+  }
+
+  /** Returns the entities within the range, as view of the entities of the entity collection. */
+  public List<Entity> getEntities() {
+    return entityCollection.getEntities().subList(from, to);
+  }
+
+  /** Removes all entities outside the range from the entity collection. */
+  public void retain() {
+    final List<Entity> entities = entityCollection.getEntities();
+    entities.subList(to, entities.size()).clear();
+    entities.subList(0, from).clear();
+    to -= from;
+    from = 0;
+  }
+}
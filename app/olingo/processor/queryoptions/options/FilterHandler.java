@@ -18,7 +18,11 @@
  */
 package olingo.processor.queryoptions.options;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 
 import org.apache.olingo.commons.api.data.Entity;
@@ -31,13 +35,21 @@ import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriInfoResource;
 import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.BinaryOperatorKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
-import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import olingo.data.SecondaryIndex;
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.expression.compiled.ComparisonPredicate;
+import olingo.processor.queryoptions.expression.compiled.CompiledExpression;
+import olingo.processor.queryoptions.expression.compiled.CompiledPredicate;
 import olingo.processor.queryoptions.expression.operand.TypedOperand;
-import olingo.processor.queryoptions.expression.operand.VisitorOperand;
 
 public class FilterHandler {
 
+  private static final Logger LOG = LoggerFactory.getLogger(FilterHandler.class);
+
   protected static final EdmPrimitiveType primBoolean =
       OData.newInstance().createPrimitiveTypeInstance(EdmPrimitiveTypeKind.Boolean);
 
@@ -48,24 +60,136 @@ public class FilterHandler {
       return;
     }
 
-    try {
-      final Iterator<Entity> iter = entitySet.getEntities().iterator();
+    applyFilterSystemQuery(QueryPlan.compile(filterOption, null, uriInfo, edm), entitySet);
+  }
+
+  /**
+   * Applies the compiled filter expression of the plan (if any) to the entities.
+   */
+  public static void applyFilterSystemQuery(final QueryPlan plan, final EntityCollection entitySet)
+      throws ODataApplicationException {
+
+    if (plan.getFilter() == null) {
+      return;
+    }
+
+    final List<Entity> matches = new ArrayList<Entity>();
+    MatchingIterator.collect(applyFilterSystemQuery(plan, entitySet.getEntities().iterator()), matches, null);
+    entitySet.getEntities().clear();
+    entitySet.getEntities().addAll(matches);
+  }
+
+  /**
+   * Applies the compiled filter expression of the plan (if any) lazily to the entities of the iterator.
+   * @return an iterator over the entities that match the filter expression
+   */
+  public static Iterator<Entity> applyFilterSystemQuery(final QueryPlan plan, final Iterator<Entity> entities) {
+    final EntityCondition condition = getFilterCondition(plan);
+    return condition == null ? entities : new MatchingIterator(entities, condition);
+  }
+
+  /**
+   * Returns the compiled filter expression of the plan as condition,
+   * or <code>null</code> if the plan has no filter expression.
+   */
+  public static EntityCondition getFilterCondition(final QueryPlan plan) {
+    final CompiledExpression expression = plan.getFilter();
+    if (expression == null) {
+      return null;
+    }
+
+    return new EntityCondition() {
+      @Override
+      public boolean matches(final Entity entity) throws ODataApplicationException {
+        return FilterHandler.matches(expression, entity);
+      }
+    };
+  }
 
-      while (iter.hasNext()) {
-        final VisitorOperand operand = filterOption.getExpression()
-            .accept(new ExpressionVisitorImpl(iter.next(), uriInfo, edm));
-        final TypedOperand typedOperand = operand.asTypedOperand();
+  /**
+   * <p>Plans the evaluation of the compiled filter expression of the plan (if any) for the given entities.</p>
+   * <p>The filter expression is false if one of the operands of its <code>and</code> operations is false.
+   * If one of these operands compares an indexed property with a literal and the entities are the ones
+   * of the indexed entity set, only the entities found by the index have to be checked, against the other
+   * operands. Of all suitable indexes the one finding the fewest entities is used, unless it finds more than
+   * half of the entities. The plan is logged (at debug level).</p>
+   * @param indexes the secondary indexes of the entity set (may be <code>null</code>)
+   */
+  public static FilterScan getFilterScan(final QueryPlan plan, final List<Entity> entities,
+      final Collection<SecondaryIndex> indexes) {
+    final CompiledExpression filter = plan.getFilter();
+    if (filter == null) {
+      return new FilterScan(entities, null, "no filter");
+    }
 
-        if (typedOperand.is(primBoolean)) {
-          if (Boolean.FALSE.equals(typedOperand.getTypedValue(Boolean.class))) {
-            iter.remove();
+    final List<CompiledPredicate> conjuncts = filter instanceof CompiledPredicate && indexes != null ?
+        ((CompiledPredicate) filter).getConjuncts() : Collections.<CompiledPredicate> emptyList();
+    SecondaryIndex index = null;
+    int conjunct = -1;
+    int count = entities.size() / 2 + 1;
+    for (int i = 0; i < conjuncts.size(); i++) {
+      if (conjuncts.get(i) instanceof ComparisonPredicate) {
+        final ComparisonPredicate comparison = (ComparisonPredicate) conjuncts.get(i);
+        for (final SecondaryIndex candidate : indexes) {
+          if (candidate.getPropertyName().equals(comparison.getPropertyName()) && candidate.covers(entities)
+              && candidate.supports(comparison.getOperator(), comparison.getLiteral())) {
+            final int candidateCount = candidate.count(comparison.getOperator(), comparison.getLiteral());
+            if (candidateCount < count) {
+              index = candidate;
+              conjunct = i;
+              count = candidateCount;
+            }
           }
-        } else {
-          throw new ODataApplicationException(
-              "Invalid filter expression. Filter expressions must return a value of type Edm.Boolean",
-              HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ROOT);
         }
       }
+    }
+    if (index == null) {
+      final FilterScan scan = new FilterScan(entities, getFilterCondition(plan), "full scan of " + entities.size()
+          + " entities" + (indexes == null || indexes.isEmpty() ? "" : " (no suitable index)"));
+      LOG.debug("$filter: {}", scan);
+      return scan;
+    }
+
+    final ComparisonPredicate comparison = (ComparisonPredicate) conjuncts.get(conjunct);
+    final BinaryOperatorKind operator = comparison.getOperator();
+    final List<CompiledPredicate> residual = new ArrayList<CompiledPredicate>(conjuncts);
+    if (operator == BinaryOperatorKind.EQ || comparison.isRangeExact()) {
+      residual.remove(conjunct);
+    }
+    final CompiledPredicate residualPredicate = CompiledPredicate.and(residual);
+    final SecondaryIndex usedIndex = index;
+    final FilterScan scan = new FilterScan(index.find(operator, comparison.getLiteral()),
+        new EntityCondition() {
+          @Override
+          public boolean matches(final Entity entity) throws ODataApplicationException {
+            // Entities whose value is not indexed have not been checked by the index.
+            return usedIndex.contains(entity) ?
+                residualPredicate == null || FilterHandler.matches(residualPredicate, entity) :
+                FilterHandler.matches(filter, entity);
+          }
+        },
+        "index " + index + " for '" + index.getPropertyName() + " " + operator.toString().toLowerCase(Locale.ROOT)
+            + "': " + count + " of " + entities.size() + " entities, residual predicate of " + residual.size()
+            + " of " + conjuncts.size() + " operands");
+    LOG.debug("$filter: {}", scan);
+    return scan;
+  }
+
+  private static boolean matches(final CompiledExpression expression, final Entity entity)
+      throws ODataApplicationException {
+    try {
+      if (expression instanceof CompiledPredicate) {
+        return !Boolean.FALSE.equals(((CompiledPredicate) expression).test(entity));
+      }
+      final TypedOperand typedOperand = expression.evaluate(entity).asTypedOperand();
+
+      if (typedOperand.is(primBoolean)) {
+        return !Boolean.FALSE.equals(typedOperand.getTypedValue(Boolean.class));
+      } else {
+        throw new ODataApplicationException(
+            "Invalid filter expression. Filter expressions must return a value of type Edm.Boolean",
+            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ROOT);
+      }
 
     } catch (ExpressionVisitException e) {
       throw new ODataApplicationException("Exception in filter evaluation",
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.options;
+
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+
+/**
+ * <p>Evaluation of <code>$filter</code> for the entities of a collection, as planned by the {@link FilterHandler}:
+ * the entities to be checked and the condition they have to match.</p>
+ * <p>Without a suitable secondary index all entities are checked against the complete filter expression
+ * (full scan); with an index only the entities found by the index are checked, against the remaining parts
+ * of the filter expression (residual predicate).</p>
+ */
+public class FilterScan {
+
+  private final List<Entity> entities;
+  private final EntityCondition condition;
+  private final String description;
+
+  FilterScan(final List<Entity> entities, final EntityCondition condition, final String description) {
+    this.entities = entities;
+    this.condition = condition;
+    this.description = description;
+  }
+
+  /** The entities to be checked, in the order of the collection. */
+  public List<Entity> getEntities() {
+    return entities;
+  }
+
+  /** The condition the entities have to match, or <code>null</code> if there is no filter expression. */
+  public EntityCondition getCondition() {
+    return condition;
+  }
+
+  /** Describes the evaluation, e.g., the index used. */
+  @Override
+  public String toString() {
+    return description;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.options;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+
+/**
+ * <p>Iterator over the entities of another iterator that match a condition, e.g., the filter expression.</p>
+ * <p>The condition is evaluated lazily, when the next entity is requested; so the remaining entities are not
+ * evaluated if the consumer stops early. Iterators can be chained to a pipeline (e.g., search and filter).
+ * Exceptions of the condition are thrown as {@link SystemQueryOptionsRuntimeException};
+ * {@link #collect(Iterator, List, Integer)} throws them as they were thrown by the condition.</p>
+ */
+public class MatchingIterator implements Iterator<Entity> {
+
+  private final Iterator<Entity> source;
+  private final EntityCondition condition;
+  private Entity next;
+
+  public MatchingIterator(final Iterator<Entity> source, final EntityCondition condition) {
+    this.source = source;
+    this.condition = condition;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && source.hasNext()) {
+      final Entity entity = source.next();
+      try {
+        if (condition.matches(entity)) {
+          next = entity;
+        }
+      } catch (final ODataApplicationException e) {
+        throw new SystemQueryOptionsRuntimeException(e);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public Entity next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final Entity entity = next;
+    next = null;
+    return entity;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Adds the entities of the iterator to the given list, up to the given limit.
+   * @param limit the maximum number of entities in the list or <code>null</code> to add all entities
+   */
+  public static void collect(final Iterator<Entity> entities, final List<Entity> target, final Integer limit)
+      throws ODataApplicationException {
+    try {
+      while ((limit == null || target.size() < limit) && entities.hasNext()) {
+        target.add(entities.next());
+      }
+    } catch (final SystemQueryOptionsRuntimeException e) {
+      if (e.getCause() instanceof ODataApplicationException) {
+        throw (ODataApplicationException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -18,9 +18,12 @@
  */
 package olingo.processor.queryoptions.options;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Locale;
+import java.util.PriorityQueue;
 
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
@@ -28,11 +31,11 @@ import org.apache.olingo.commons.api.edm.Edm;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriInfoResource;
-import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
 import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.SkipOption;
+import org.apache.olingo.server.api.uri.queryoption.TopOption;
 import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
-import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
-import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.QueryPlan;
 
 public class OrderByHandler {
   public static void applyOrderByOption(final OrderByOption orderByOption, final EntityCollection entitySet,
@@ -42,8 +45,36 @@ public class OrderByHandler {
       return;
     }
 
+    applyOrderByOption(QueryPlan.compile(null, orderByOption, uriInfo, edm), entitySet);
+  }
+
+  /**
+   * Sorts the entities by the compiled order-by expressions of the plan (if any).
+   */
+  public static void applyOrderByOption(final QueryPlan plan, final EntityCollection entitySet)
+      throws ODataApplicationException {
+    applyOrderByOption(plan, entitySet, null);
+  }
+
+  /**
+   * Sorts the entities by the compiled order-by expressions of the plan (if any)
+   * and keeps only the first entities, up to the given limit.
+   * @param limit the number of entities to keep (see {@link #getLimit(SkipOption, TopOption, Integer)})
+   *              or <code>null</code> to keep all entities
+   */
+  public static void applyOrderByOption(final QueryPlan plan, final EntityCollection entitySet, final Integer limit)
+      throws ODataApplicationException {
+
+    if (plan.getOrderByCount() == 0) {
+      return;
+    }
+
     try {
-      applyOrderByOptionInternal(orderByOption, entitySet, uriInfo, edm);
+      if (limit == null || limit >= entitySet.getEntities().size()) {
+        applyOrderByOptionInternal(plan, entitySet);
+      } else {
+        applyOrderByOptionInternal(plan, entitySet, limit);
+      }
     } catch (SystemQueryOptionsRuntimeException e) {
       if (e.getCause() instanceof ODataApplicationException) {
         // Throw the nested exception, to send the correct HTTP status code in the HTTP response
@@ -55,51 +86,103 @@ public class OrderByHandler {
     }
   }
 
-  private static void applyOrderByOptionInternal(final OrderByOption orderByOption, final EntityCollection entitySet,
-      final UriInfoResource uriInfo, final Edm edm) throws ODataApplicationException {
-    Collections.sort(entitySet.getEntities(), new Comparator<Entity>() {
+  /**
+   * Returns the number of ordered entities needed to apply <code>$skip</code>, <code>$top</code>,
+   * and server-side paging afterwards.
+   * @param pagingLimit the number of entities needed for server-side paging (after <code>$skip</code>
+   *                    and <code>$top</code>) or <code>null</code> if server-side paging is not done
+   * @return the limit or <code>null</code> if all entities are needed
+   */
+  public static Integer getLimit(final SkipOption skipOption, final TopOption topOption, final Integer pagingLimit) {
+    final int skip = skipOption == null ? 0 : skipOption.getValue();
+    final Integer top = topOption == null ? pagingLimit :
+        pagingLimit == null ? Integer.valueOf(topOption.getValue()) :
+            Integer.valueOf(Math.min(topOption.getValue(), pagingLimit));
+    if (top == null || skip < 0 || top < 0) {
+      // Invalid values are reported by the handlers of the options.
+      return null;
+    }
+    final long limit = (long) skip + top;
+    return limit > Integer.MAX_VALUE ? null : Integer.valueOf((int) limit);
+  }
+
+  private static void applyOrderByOptionInternal(final QueryPlan plan, final EntityCollection entitySet)
+      throws ODataApplicationException {
+    final List<Entity> entities = entitySet.getEntities();
+    if (entities.size() < 2) {
+      return;
+    }
+
+    // Decorate-sort-undecorate: the positions of the entities are sorted by their sort keys,
+    // which are evaluated at most once per entity and order-by item.
+    // The sort is stable; the entities are compared as before, so the resulting order is the same.
+    final SortKeys keys = new SortKeys(plan, entities.size());
+    final Integer[] positions = new Integer[entities.size()];
+    for (int i = 0; i < positions.length; i++) {
+      keys.set(i, entities.get(i));
+      positions[i] = i;
+    }
+    Arrays.sort(positions, new Comparator<Integer>() {
       @Override
-      @SuppressWarnings("unchecked")
-      public int compare(final Entity e1, final Entity e2) {
-        // Evaluate the first order option for both entities.
-        // If and only if the result of the previous order option is equal to 0
-        // evaluate the next order option until all options are evaluated or they are not equal.
-        int result = 0;
-
-        for (int i = 0; i < orderByOption.getOrders().size() && result == 0; i++) {
-          try {
-            final OrderByItem item = orderByOption.getOrders().get(i);
-            final TypedOperand op1 =
-                item.getExpression().accept(new ExpressionVisitorImpl(e1, uriInfo, edm)).asTypedOperand();
-            final TypedOperand op2 =
-                item.getExpression().accept(new ExpressionVisitorImpl(e2, uriInfo, edm)).asTypedOperand();
-
-            if (op1.isNull() || op2.isNull()) {
-              if (op1.isNull() && op2.isNull()) {
-                result = 0; // null is equals to null
-              } else {
-                result = op1.isNull() ? -1 : 1;
-              }
-            } else {
-              Object o1 = op1.getValue();
-              Object o2 = op2.getValue();
-
-              if (o1.getClass() == o2.getClass() && o1 instanceof Comparable) {
-                result = ((Comparable<Object>) o1).compareTo(o2);
-              } else {
-                result = 0;
-              }
-            }
-
-            result = item.isDescending() ? result * -1 : result;
-          } catch (ODataApplicationException e) {
-            throw new SystemQueryOptionsRuntimeException(e);
-          } catch (ExpressionVisitException e) {
-            throw new SystemQueryOptionsRuntimeException(e);
-          }
-        }
-        return result;
+      public int compare(final Integer position1, final Integer position2) {
+        return compareSlots(keys, position1, position2);
       }
     });
+
+    for (int i = 0; i < positions.length; i++) {
+      entities.set(i, keys.get(positions[i]));
+    }
+  }
+
+  /**
+   * Selects the first entities in order with a bounded heap instead of sorting all entities.
+   * The heap holds the best candidates found so far, the worst one on top; so only <code>limit + 1</code>
+   * sort keys are held at any time. Equal entities are ordered by their position, as in the stable sort.
+   */
+  private static void applyOrderByOptionInternal(final QueryPlan plan, final EntityCollection entitySet,
+      final int limit) throws ODataApplicationException {
+    final List<Entity> entities = entitySet.getEntities();
+    // At least one entity is selected so that each entity is evaluated as in the sort.
+    final int size = Math.max(limit, 1);
+    final SortKeys keys = new SortKeys(plan, size + 1);
+    final int[] positions = new int[size + 1];
+    final Comparator<Integer> order = new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer slot1, final Integer slot2) {
+        final int result = compareSlots(keys, slot1, slot2);
+        return result == 0 ? Integer.compare(positions[slot1], positions[slot2]) : result;
+      }
+    };
+    final PriorityQueue<Integer> heap = new PriorityQueue<Integer>(size, Collections.reverseOrder(order));
+
+    int free = size;
+    for (int i = 0; i < entities.size(); i++) {
+      final int slot = heap.size() < size ? heap.size() : free;
+      keys.set(slot, entities.get(i));
+      positions[slot] = i;
+      if (heap.size() < size) {
+        heap.add(slot);
+      } else if (order.compare(slot, heap.peek()) < 0) {
+        free = heap.poll();
+        heap.add(slot);
+      }
+    }
+
+    final Entity[] selected = new Entity[heap.size()];
+    for (int i = selected.length - 1; i >= 0; i--) {
+      selected[i] = keys.get(heap.poll());
+    }
+    entities.clear();
+    entities.addAll(Arrays.asList(selected).subList(0, limit));
+  }
+
+  private static int compareSlots(final SortKeys keys, final int slot1, final int slot2) {
+    try {
+      return keys.compare(slot1, slot2);
+    } catch (ODataApplicationException e) {
+      throw new SystemQueryOptionsRuntimeException(e);
+    } catch (ExpressionVisitException e) {
+      throw new SystemQueryOptionsRuntimeException(e);
+    }
   }
 }
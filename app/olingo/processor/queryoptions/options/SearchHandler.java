@@ -18,13 +18,18 @@
  */
 package olingo.processor.queryoptions.options;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
+import java.util.Set;
 
 import javax.xml.bind.DatatypeConverter;
 
+import olingo.data.SearchIndex;
+import org.apache.olingo.commons.api.data.ComplexValue;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.data.Property;
@@ -41,20 +46,64 @@ public class SearchHandler {
   public static void applySearchSystemQueryOption(final SearchOption searchOption, EntityCollection entitySet)
       throws ODataApplicationException {
     if (searchOption != null) {
-      SearchExpression se = searchOption.getSearchExpression();
-      Iterator<Entity> it = entitySet.getEntities().iterator();
-      while (it.hasNext()) {
+      final List<Entity> matches = new ArrayList<Entity>();
+      MatchingIterator.collect(applySearchSystemQueryOption(searchOption, entitySet.getEntities().iterator()),
+          matches, null);
+      entitySet.getEntities().clear();
+      entitySet.getEntities().addAll(matches);
+    }
+  }
+
+  /**
+   * Applies the search option (if any) lazily to the entities of the iterator.
+   * @return an iterator over the entities that match the search expression
+   */
+  public static Iterator<Entity> applySearchSystemQueryOption(final SearchOption searchOption,
+      final Iterator<Entity> entities) {
+    final EntityCondition condition = getSearchCondition(searchOption);
+    return condition == null ? entities : new MatchingIterator(entities, condition);
+  }
+
+  /**
+   * Returns the search expression as condition, evaluated via the given search index for the entities it contains.
+   * @param index the search index of the entity set or <code>null</code>
+   * @return the condition or <code>null</code> if there is no search option
+   */
+  public static EntityCondition getSearchCondition(final SearchOption searchOption, final SearchIndex index)
+      throws ODataApplicationException {
+    final EntityCondition condition = getSearchCondition(searchOption);
+    if (condition == null || index == null) {
+      return condition;
+    }
+    final Set<Entity> matches = index.search(searchOption.getSearchExpression());
+    return new EntityCondition() {
+      @Override
+      public boolean matches(final Entity entity) throws ODataApplicationException {
+        // Entities not in the entity set (e.g., function results) are searched directly.
+        return index.contains(entity) ? matches.contains(entity) : condition.matches(entity);
+      }
+    };
+  }
+
+  /**
+   * Returns the search expression as condition, or <code>null</code> if there is no search option.
+   */
+  public static EntityCondition getSearchCondition(final SearchOption searchOption) {
+    if (searchOption == null) {
+      return null;
+    }
+    final SearchExpression se = searchOption.getSearchExpression();
+    return new EntityCondition() {
+      @Override
+      public boolean matches(final Entity entity) throws ODataApplicationException {
         boolean keep = false;
-        Entity entity = it.next();
         ListIterator<Property> properties = entity.getProperties().listIterator();
         while (properties.hasNext() && !keep) {
           keep = isTrue(se, properties.next());
         }
-        if (!keep) {
-          it.remove();
-        }
+        return keep;
       }
-    }
+    };
   }
 
   private static boolean isTrue(final SearchTerm term, final Property property) {
@@ -63,7 +112,7 @@ public class SearchHandler {
     } else if (property.isPrimitive()) {
       if (property.isCollection()) {
         for (final Object primitive : property.asCollection()) {
-          final String propertyString = asString(primitive);
+          final String propertyString = primitive == null ? null : asString(primitive);
           if (propertyString != null && propertyString.contains(term.getSearchTerm())) {
             return true;
           }
@@ -76,8 +125,10 @@ public class SearchHandler {
     } else if (property.isComplex()) {
       if (property.isCollection()) {
         for (final Object member : property.asCollection()) {
-          if (isTrue(term, (Property) member)) {
-            return true;
+          for (final Property innerProperty : ((ComplexValue) member).getValue()) {
+            if (isTrue(term, innerProperty)) {
+              return true;
+            }
           }
         }
         return false;
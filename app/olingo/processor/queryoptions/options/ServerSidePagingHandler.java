@@ -22,7 +22,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Locale;
 
-import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
@@ -39,7 +38,7 @@ public class ServerSidePagingHandler {
    * page sizes. Therefore, the format <code>page*pageSize</code> (with a literal asterisk)
    * has been chosen for the skiptoken.</p> 
    * @param skipTokenOption   the current skiptoken option (from a previous response's next link)
-   * @param entityCollection  the data
+   * @param range             the range of the data left so far; the next link is set at its entity collection
    * @param edmEntitySet      the EDM entity set to decide whether paging must be done
    * @param rawRequestUri     the request URI (used to construct the next link)
    * @param preferredPageSize the client's preference for page size
@@ -47,7 +46,7 @@ public class ServerSidePagingHandler {
    *         could be used in the Preference-Applied HTTP header
    * @throws ODataApplicationException
    */
-  public static Integer applyServerSidePaging(final SkipTokenOption skipTokenOption, EntityCollection entityCollection,
+  public static Integer applyServerSidePaging(final SkipTokenOption skipTokenOption, final EntityRange range,
       final EdmEntitySet edmEntitySet, final String rawRequestUri, final Integer preferredPageSize)
       throws ODataApplicationException {
 
@@ -56,14 +55,14 @@ public class ServerSidePagingHandler {
       final int page = getPage(skipTokenOption);
       final int itemsToSkip = pageSize * page;
 
-      if (itemsToSkip <= entityCollection.getEntities().size()) {
-        SkipHandler.popAtMost(entityCollection, itemsToSkip);
-        final int remainingItems = entityCollection.getEntities().size();
-        TopHandler.reduceToSize(entityCollection, pageSize);
+      if (itemsToSkip <= range.size()) {
+        range.skip(itemsToSkip);
+        final int remainingItems = range.size();
+        range.limit(pageSize);
 
         // Determine if a new next Link has to be provided.
         if (remainingItems > pageSize) {
-          entityCollection.setNext(createNextLink(rawRequestUri, page + 1, pageSize));
+          range.getEntityCollection().setNext(createNextLink(rawRequestUri, page + 1, pageSize));
         }
       } else {
         throw new ODataApplicationException("Nothing found.", HttpStatusCode.NOT_FOUND.getStatusCode(), Locale.ROOT);
@@ -73,6 +72,22 @@ public class ServerSidePagingHandler {
     return null;
   }
 
+  /**
+   * Returns the number of entities server-side paging needs to create the current page and to decide
+   * whether there is a next page, i.e., the skipped entities, the page, and one more entity.
+   * @return the number of entities or <code>null</code> if no paging is done (or all entities are needed)
+   * @throws ODataApplicationException if the skiptoken is invalid
+   */
+  public static Integer getRequiredSize(final SkipTokenOption skipTokenOption, final EdmEntitySet edmEntitySet,
+      final Integer preferredPageSize) throws ODataApplicationException {
+    if (edmEntitySet != null && shouldApplyServerSidePaging(edmEntitySet)) {
+      final int pageSize = getPageSize(getPageSize(skipTokenOption), preferredPageSize);
+      final long requiredSize = (long) pageSize * (getPage(skipTokenOption) + 1) + 1;
+      return requiredSize > Integer.MAX_VALUE || pageSize <= 0 ? null : Integer.valueOf((int) requiredSize);
+    }
+    return null;
+  }
+
   private static URI createNextLink(final String rawRequestUri, final int page, final int pageSize)
       throws ODataApplicationException {
     // Remove a maybe existing skiptoken, making sure that the query part is not empty.
@@ -18,10 +18,8 @@
  */
 package olingo.processor.queryoptions.options;
 
-import java.util.Iterator;
 import java.util.Locale;
 
-import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.ODataApplicationException;
@@ -30,25 +28,21 @@ import org.apache.olingo.server.api.uri.queryoption.SkipOption;
 public class SkipHandler {
   public static void applySkipSystemQueryHandler(final SkipOption skipOption, final EntityCollection entitySet)
       throws ODataApplicationException {
+    final EntityRange range = new EntityRange(entitySet);
+    applySkipSystemQueryHandler(skipOption, range);
+    range.retain();
+  }
+
+  public static void applySkipSystemQueryHandler(final SkipOption skipOption, final EntityRange range)
+      throws ODataApplicationException {
 
     if (skipOption != null) {
       if (skipOption.getValue() >= 0) {
-        popAtMost(entitySet, skipOption.getValue());
+        range.skip(skipOption.getValue());
       } else {
         throw new ODataApplicationException("Skip value must be positive", HttpStatusCode.BAD_REQUEST.getStatusCode(),
             Locale.ROOT);
       }
     }
   }
-
-  static void popAtMost(final EntityCollection entitySet, final int n) {
-    final Iterator<Entity> iter = entitySet.getEntities().iterator();
-    int i = 0;
-
-    while (iter.hasNext() && i < n) {
-      iter.next();
-      iter.remove();
-      i++;
-    }
-  }
 }
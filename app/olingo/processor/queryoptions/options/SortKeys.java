@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package olingo.processor.queryoptions.options;
+
+import java.math.BigInteger;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+
+/**
+ * <p>Sort keys of the entities to be ordered, i.e., the values of the order-by expressions of each entity.</p>
+ * <p>The keys are held in a fixed number of slots; each slot holds one entity at a time.
+ * Each value is computed at most once, when it is needed for the first time; so values of further order-by
+ * items are computed only for entities whose values of the preceding items are equal to the ones of another entity.
+ * Integer values are held in primitive arrays and compared without creating objects.</p>
+ */
+class SortKeys {
+
+  private static final byte UNKNOWN = 0;
+  private static final byte NULL = 1;
+  private static final byte LONG = 2;
+  private static final byte OBJECT = 3;
+
+  private final QueryPlan plan;
+  private final Entity[] entities;
+  /** Kind of each value, per order-by item and entity. */
+  private final byte[][] kinds;
+  private final long[][] longValues;
+  private final Object[][] objectValues;
+
+  SortKeys(final QueryPlan plan, final int slots) {
+    this.plan = plan;
+    entities = new Entity[slots];
+    kinds = new byte[plan.getOrderByCount()][slots];
+    longValues = new long[kinds.length][];
+    objectValues = new Object[kinds.length][];
+  }
+
+  /** Puts the entity into the slot, replacing the entity and the keys held so far. */
+  void set(final int slot, final Entity entity) {
+    entities[slot] = entity;
+    for (int item = 0; item < kinds.length; item++) {
+      kinds[item][slot] = UNKNOWN;
+      if (objectValues[item] != null) {
+        objectValues[item][slot] = null;
+      }
+    }
+  }
+
+  Entity get(final int slot) {
+    return entities[slot];
+  }
+
+  /**
+   * Compares the entities in the given slots as the visitor-based comparison did:
+   * <code>null</code> values come first, values of different types are equal,
+   * and the result of a descending item is inverted.
+   */
+  int compare(final int slot1, final int slot2) throws ODataApplicationException, ExpressionVisitException {
+    int result = 0;
+    for (int item = 0; item < kinds.length && result == 0; item++) {
+      result = compare(item, slot1, slot2);
+      result = plan.isDescending(item) ? result * -1 : result;
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(final int item, final int slot1, final int slot2)
+      throws ODataApplicationException, ExpressionVisitException {
+    final byte kind1 = getKind(item, slot1);
+    final byte kind2 = getKind(item, slot2);
+    if (kind1 == NULL || kind2 == NULL) {
+      return kind1 == kind2 ? 0 : kind1 == NULL ? -1 : 1;
+    } else if (kind1 == LONG && kind2 == LONG) {
+      return Long.compare(longValues[item][slot1], longValues[item][slot2]);
+    } else {
+      final Object o1 = getValue(item, slot1, kind1);
+      final Object o2 = getValue(item, slot2, kind2);
+      return o1.getClass() == o2.getClass() && o1 instanceof Comparable ?
+          ((Comparable<Object>) o1).compareTo(o2) :
+          0;
+    }
+  }
+
+  private byte getKind(final int item, final int slot) throws ODataApplicationException, ExpressionVisitException {
+    if (kinds[item][slot] == UNKNOWN) {
+      final TypedOperand operand = plan.getOrderByExpression(item).evaluate(entities[slot]).asTypedOperand();
+      final Object value = operand.getValue();
+      if (operand.isNull()) {
+        kinds[item][slot] = NULL;
+      } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+        // Integer types are represented as BigInteger by the operands.
+        if (longValues[item] == null) {
+          longValues[item] = new long[entities.length];
+        }
+        longValues[item][slot] = ((BigInteger) value).longValue();
+        kinds[item][slot] = LONG;
+      } else {
+        if (objectValues[item] == null) {
+          objectValues[item] = new Object[entities.length];
+        }
+        objectValues[item][slot] = value;
+        kinds[item][slot] = OBJECT;
+      }
+    }
+    return kinds[item][slot];
+  }
+
+  private Object getValue(final int item, final int slot, final byte kind) {
+    return kind == LONG ? BigInteger.valueOf(longValues[item][slot]) : objectValues[item][slot];
+  }
+}
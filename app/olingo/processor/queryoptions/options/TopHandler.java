@@ -28,20 +28,21 @@ import org.apache.olingo.server.api.uri.queryoption.TopOption;
 public class TopHandler {
   public static void applyTopSystemQueryOption(final TopOption topOption, final EntityCollection entitySet)
       throws ODataApplicationException {
+    final EntityRange range = new EntityRange(entitySet);
+    applyTopSystemQueryOption(topOption, range);
+    range.retain();
+  }
+
+  public static void applyTopSystemQueryOption(final TopOption topOption, final EntityRange range)
+      throws ODataApplicationException {
 
     if (topOption != null) {
       if (topOption.getValue() >= 0) {
-        reduceToSize(entitySet, topOption.getValue());
+        range.limit(topOption.getValue());
       } else {
         throw new ODataApplicationException("Top value must be positive", HttpStatusCode.BAD_REQUEST.getStatusCode(),
             Locale.ROOT);
       }
     }
   }
-
-  static void reduceToSize(final EntityCollection entitySet, final int n) {
-    while (entitySet.getEntities().size() > n) {
-      entitySet.getEntities().remove(entitySet.getEntities().size() - 1);
-    }
-  }
 }
@@ -164,7 +164,7 @@ public class ContainerProvider {
   }
 
   public CsdlEntitySet getEntitySet(final FullQualifiedName entityContainer, final String name) throws ODataException {
-    if (entityContainer == nameContainer) {
+    if (entityContainer.equals(nameContainer)) {
       if (name.equals("ESAllPrim")) {
         return new CsdlEntitySet()
             .setName("ESAllPrim")
@@ -0,0 +1,135 @@
+package olingo.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataLibraryException;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.processor.EntityProcessor;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares preparing and dispatching an asynchronous request via the reflective proxy against a typed task.
+ * The requests are processed synchronously, so only the dispatch is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AsyncDispatchBenchmark {
+
+  @Param({ "0", "65536" })
+  public int bodySize;
+
+  private byte[] body;
+  private TechnicalAsyncService service;
+  private final BodyReadingProcessor processor = new BodyReadingProcessor();
+
+  /** Processor which only reads the request body. */
+  static class BodyReadingProcessor implements EntityProcessor {
+    @Override
+    public void init(final OData odata, final ServiceMetadata serviceMetadata) {
+    }
+
+    @Override
+    public void readEntity(final ODataRequest request, final ODataResponse response, final UriInfo uriInfo,
+        final ContentType responseFormat) {
+    }
+
+    @Override
+    public void createEntity(final ODataRequest request, final ODataResponse response, final UriInfo uriInfo,
+        final ContentType requestFormat, final ContentType responseFormat) throws ODataApplicationException {
+      final InputStream input = request.getBody();
+      try {
+        final byte[] buffer = new byte[8192];
+        while (input.read(buffer) > 0) {
+          // Just consume the body.
+        }
+      } catch (final IOException e) {
+        throw new ODataApplicationException("Error on reading body", 500, null, e);
+      }
+      response.setStatusCode(201);
+    }
+
+    @Override
+    public void updateEntity(final ODataRequest request, final ODataResponse response, final UriInfo uriInfo,
+        final ContentType requestFormat, final ContentType responseFormat) {
+    }
+
+    @Override
+    public void deleteEntity(final ODataRequest request, final ODataResponse response, final UriInfo uriInfo) {
+    }
+  }
+
+  @Setup
+  public void setup() {
+    body = new byte[bodySize];
+    service = new TechnicalAsyncService() {
+      @Override
+      String processAsynchronous(final AsyncProcessor<?> dispatchedProcessor) {
+        try {
+          dispatchedProcessor.process();
+        } catch (final Exception e) {
+          throw new IllegalStateException(e);
+        }
+        return null;
+      }
+    };
+  }
+
+  private ODataRequest createRequest() {
+    final ODataRequest request = new ODataRequest();
+    request.setMethod(HttpMethod.POST);
+    request.setRawBaseUri("http://localhost/odata.svc");
+    request.setRawODataPath("/ESAllPrim");
+    request.setRawRequestUri("http://localhost/odata.svc/ESAllPrim");
+    request.addHeader(HttpHeader.CONTENT_TYPE, Collections.singletonList("application/json"));
+    request.addHeader(HttpHeader.PREFER, Collections.singletonList("respond-async"));
+    request.setBody(new ByteArrayInputStream(body));
+    return request;
+  }
+
+  @Benchmark
+  public ODataResponse proxy() throws Exception {
+    final ODataRequest request = createRequest();
+    final ODataResponse response = new ODataResponse();
+    final AsyncProcessor<EntityProcessor> asyncProcessor = service.register(processor, EntityProcessor.class);
+    asyncProcessor.prepareFor().createEntity(request, response, null,
+        ContentType.APPLICATION_JSON, ContentType.APPLICATION_JSON);
+    asyncProcessor.processAsync();
+    return asyncProcessor.getProcessResponse();
+  }
+
+  @Benchmark
+  public ODataResponse task() throws Exception {
+    final ODataRequest request = createRequest();
+    final ODataResponse response = new ODataResponse();
+    final AsyncProcessor<EntityProcessor> asyncProcessor = service.register(processor, request, response,
+        new AsyncProcessor.Task<EntityProcessor>() {
+          @Override
+          public void process(final EntityProcessor processor, final ODataRequest request,
+              final ODataResponse response) throws ODataApplicationException, ODataLibraryException {
+            processor.createEntity(request, response, null, ContentType.APPLICATION_JSON, ContentType.APPLICATION_JSON);
+          }
+        });
+    asyncProcessor.processAsync();
+    return asyncProcessor.getProcessResponse();
+  }
+}
@@ -0,0 +1,68 @@
+package olingo.data;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a change set changing one entity depending on the number of entities in the data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChangeSetBenchmark {
+
+  @Param({ "100", "1000", "10000" })
+  public int size;
+
+  private DataProvider dataProvider;
+  private Entity entity;
+  private int count;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final EdmEntitySet entitySet = edm.getEntityContainer().getEntitySet("ESAllPrim");
+    dataProvider = new DataProvider(odata, edm);
+    for (int i = 0; i < size; i++) {
+      dataProvider.create(entitySet);
+    }
+    entity = dataProvider.readAll(entitySet).getEntities().get(0);
+  }
+
+  @Benchmark
+  public void commit() {
+    dataProvider.beginChangeSet();
+    change();
+    dataProvider.commitChangeSet();
+  }
+
+  @Benchmark
+  public void rollback() {
+    dataProvider.beginChangeSet();
+    change();
+    dataProvider.rollbackChangeSet();
+  }
+
+  private void change() {
+    final Entity changed = dataProvider.recordChange(entity);
+    dataProvider.updatePropertyValue(changed.getProperty("PropertyInt32"), count++);
+    dataProvider.updateETag(changed);
+  }
+}
@@ -0,0 +1,273 @@
+package olingo.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Link;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that a rolled-back change set leaves the published data and its indexes untouched,
+ * that a committed change set publishes its changes, and that readers are not blocked by a running change set.
+ */
+public class ChangeSetTest {
+
+  private static OData odata;
+  private static Edm edm;
+
+  private DataProvider dataProvider;
+  private ExecutorService executor;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+  }
+
+  @Before
+  public void createDataProvider() throws Exception {
+    dataProvider = new DataProvider(odata, edm);
+    dataProvider.createIndex(getEntitySet("ESAllPrim"), "PropertyInt16", SecondaryIndex.Kind.SORTED);
+    dataProvider.getSearchIndex(getEntitySet("ESAllPrim"));
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void rollback() throws Exception {
+    final String before = describeData();
+    final Entity first = read("ESAllPrim(32767)");
+    final Entity deleted = read("ESAllPrim(-32768)");
+    final Entity source = read("ESKeyNav(1)");
+    final Entity untouched = read("ESAllPrim(0)");
+
+    dataProvider.beginChangeSet();
+    change();
+    assertEquals("Changed", read("ESAllPrim(32767)").getProperty("PropertyString").getValue());
+    assertNull(read("ESAllPrim(-32768)"));
+    // Only the changed entities are copied; all others are read through to the published data.
+    assertSame(untouched, read("ESAllPrim(0)"));
+    assertSame(read("ESKeyNav(3)"), dataProvider.getCurrent(
+        read("ESKeyNav(1)").getNavigationLink("NavPropertyETKeyNavOne").getInlineEntity()));
+    dataProvider.rollbackChangeSet();
+
+    assertEquals(before, describeData());
+    assertSame(first, read("ESAllPrim(32767)"));
+    assertSame(deleted, read("ESAllPrim(-32768)"));
+    assertSame(source, read("ESKeyNav(1)"));
+    assertEquals(3, dataProvider.readAll(getEntitySet("ESAllPrim")).getEntities().size());
+    assertEquals(Collections.<Integer> emptyList(), search("\"Changed\""));
+    for (final SecondaryIndex index : dataProvider.getIndexes(getEntitySet("ESAllPrim"))) {
+      assertEquals(3, index.size());
+    }
+
+    // Other writers are not blocked after the rollback.
+    final Lock writeLock = dataProvider.writeLock();
+    assertTrue(executor.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        final boolean locked = writeLock.tryLock();
+        if (locked) {
+          writeLock.unlock();
+        }
+        return locked;
+      }
+    }).get());
+  }
+
+  @Test
+  public void commit() throws Exception {
+    final Entity first = read("ESAllPrim(32767)");
+    final Entity source = read("ESKeyNav(1)");
+    final Entity target = read("ESKeyNav(3)");
+
+    dataProvider.beginChangeSet();
+    final Entity created = change();
+    dataProvider.commitChangeSet();
+
+    assertSame(first, read("ESAllPrim(32767)"));
+    assertEquals("Changed", first.getProperty("PropertyString").getValue());
+    assertNull(read("ESAllPrim(-32768)"));
+    assertSame(created, read("ESAllPrim(" + created.getProperty("PropertyInt16").getValue() + ")"));
+    final List<Entity> entities = dataProvider.readAll(getEntitySet("ESAllPrim")).getEntities();
+    assertEquals(3, entities.size());
+    assertSame(first, entities.get(0));
+    assertSame(created, entities.get(2));
+    assertSame(source, read("ESKeyNav(1)"));
+    assertSame(target, source.getNavigationLink("NavPropertyETKeyNavOne").getInlineEntity());
+    assertEquals(Arrays.asList(32767), search("\"Changed\""));
+    for (final SecondaryIndex index : dataProvider.getIndexes(getEntitySet("ESAllPrim"))) {
+      assertEquals(3, index.size());
+    }
+
+    // The link index knows the new link: deleting its target removes it.
+    dataProvider.delete(getEntitySet("ESKeyNav"), target);
+    assertNull(source.getNavigationLink("NavPropertyETKeyNavOne"));
+  }
+
+  @Test
+  public void readerDuringChangeSet() throws Exception {
+    final Callable<Object> reader = new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        final Lock readLock = dataProvider.readLock();
+        if (!readLock.tryLock(10, TimeUnit.SECONDS)) {
+          return "blocked";
+        }
+        try {
+          return read("ESAllPrim(32767)").getProperty("PropertyString").getValue();
+        } finally {
+          readLock.unlock();
+        }
+      }
+    };
+    final Object before = executor.submit(reader).get();
+
+    dataProvider.beginChangeSet();
+    try {
+      change();
+      assertEquals(before, executor.submit(reader).get());
+      assertEquals("Changed", read("ESAllPrim(32767)").getProperty("PropertyString").getValue());
+
+      // Writers have to wait for the change set.
+      final Lock writeLock = dataProvider.writeLock();
+      assertFalse(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return writeLock.tryLock();
+        }
+      }).get());
+    } finally {
+      dataProvider.commitChangeSet();
+    }
+    assertEquals("Changed", executor.submit(reader).get());
+  }
+
+  /** Creates, changes, and deletes entities and links; returns the created entity. */
+  private Entity change() throws Exception {
+    final EdmEntitySet esAllPrim = getEntitySet("ESAllPrim");
+    final Entity created = dataProvider.create(esAllPrim);
+    dataProvider.updatePropertyValue(created.getProperty("PropertyString"), "Created");
+    dataProvider.updateETag(created);
+
+    final Entity entity = dataProvider.recordChange(read("ESAllPrim(32767)"));
+    dataProvider.updatePropertyValue(entity.getProperty("PropertyString"), "Changed");
+    dataProvider.updateETag(entity);
+
+    dataProvider.delete(esAllPrim, read("ESAllPrim(-32768)"));
+
+    dataProvider.setLink(getEntitySet("ESKeyNav").getEntityType().getNavigationProperty("NavPropertyETKeyNavOne"),
+        read("ESKeyNav(1)"), read("ESKeyNav(3)"));
+    return created;
+  }
+
+  private EdmEntitySet getEntitySet(final String name) {
+    return edm.getEntityContainer().getEntitySet(name);
+  }
+
+  private Entity read(final String path) throws Exception {
+    final UriResourceEntitySet resource = (UriResourceEntitySet) new Parser(edm, odata).parseUri(path, null, null)
+        .getUriResourceParts().get(0);
+    return dataProvider.read(resource.getEntitySet(), resource.getKeyPredicates());
+  }
+
+  private List<Integer> search(final String search) throws Exception {
+    final List<Integer> keys = new ArrayList<Integer>();
+    for (final Entity entity : dataProvider.getSearchIndex(getEntitySet("ESAllPrim")).search(
+        new Parser(edm, odata).parseUri("ESAllPrim", "$search=" + search, null).getSearchOption()
+            .getSearchExpression())) {
+      keys.add(((Number) entity.getProperty("PropertyInt16").getValue()).intValue());
+    }
+    return keys;
+  }
+
+  /** Describes all entities with their properties and the IDs of their link targets. */
+  private String describeData() throws Exception {
+    final StringBuilder description = new StringBuilder();
+    for (final EdmEntitySet edmEntitySet : edm.getEntityContainer().getEntitySets()) {
+      description.append(edmEntitySet.getName()).append('\n');
+      for (final Entity entity : dataProvider.readAll(edmEntitySet).getEntities()) {
+        description.append(entity.getId()).append(' ').append(entity.getETag()).append(' ')
+            .append(entity.getMediaETag());
+        describeProperties(entity.getProperties(), description);
+        describeLinks(entity.getNavigationLinks(), description);
+        description.append('\n');
+      }
+    }
+    return description.toString();
+  }
+
+  private static void describeProperties(final List<Property> properties, final StringBuilder description) {
+    for (final Property property : properties) {
+      description.append(' ').append(property.getName()).append('=');
+      describeValue(property.getValue(), description);
+    }
+  }
+
+  private static void describeValue(final Object value, final StringBuilder description) {
+    if (value instanceof ComplexValue) {
+      description.append('{');
+      describeProperties(((ComplexValue) value).getValue(), description);
+      describeLinks(((ComplexValue) value).getNavigationLinks(), description);
+      description.append('}');
+    } else if (value instanceof List) {
+      description.append('[');
+      for (final Object item : (List<?>) value) {
+        describeValue(item, description);
+        description.append(',');
+      }
+      description.append(']');
+    } else if (value instanceof byte[]) {
+      description.append(Arrays.toString((byte[]) value));
+    } else if (value instanceof Calendar) {
+      description.append(((Calendar) value).getTimeInMillis());
+    } else {
+      description.append(value);
+    }
+  }
+
+  private static void describeLinks(final List<Link> links, final StringBuilder description) {
+    for (final Link link : links) {
+      description.append(' ').append(link.getTitle()).append("->");
+      if (link.getInlineEntity() != null) {
+        description.append(link.getInlineEntity().getId());
+      }
+      if (link.getInlineEntitySet() != null) {
+        for (final Entity target : link.getInlineEntitySet().getEntities()) {
+          description.append(target.getId()).append(',');
+        }
+      }
+    }
+  }
+}
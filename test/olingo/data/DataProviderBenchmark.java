@@ -0,0 +1,63 @@
+package olingo.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reading an entity with a data provider created (and seeded) per request
+ * against reading it from the shared data provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataProviderBenchmark {
+
+  private OData odata;
+  private Edm edm;
+  private EdmEntitySet entitySet;
+  private List<UriParameter> keys;
+  private DataProvider shared;
+
+  @Setup
+  public void setup() throws Exception {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    entitySet = edm.getEntityContainer().getEntitySet("ESAllPrim");
+    keys = odata.createUriHelper().parseEntityId(edm, "ESAllPrim(32767)", null).getKeyPredicates();
+    shared = new DataProvider(odata, edm);
+  }
+
+  @Benchmark
+  public Entity readPerRequestProvider() throws DataProvider.DataProviderException {
+    return new DataProvider(odata, edm).read(entitySet, keys);
+  }
+
+  @Benchmark
+  public Entity readSharedProvider() throws DataProvider.DataProviderException {
+    final Lock lock = shared.readLock();
+    lock.lock();
+    try {
+      return shared.read(entitySet, keys);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package olingo.data;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the removal of all links to an entity depending on the number of (linked) entities in the data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeleteLinksBenchmark {
+
+  @Param({ "100", "1000", "10000" })
+  public int size;
+
+  private DataProvider dataProvider;
+  private EdmNavigationProperty navigationOne;
+  private EdmNavigationProperty navigationMany;
+  private Entity first;
+  private Entity target;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final EdmEntitySet entitySet = edm.getEntityContainer().getEntitySet("ESKeyNav");
+    navigationOne = entitySet.getEntityType().getNavigationProperty("NavPropertyETKeyNavOne");
+    navigationMany = entitySet.getEntityType().getNavigationProperty("NavPropertyETKeyNavMany");
+    dataProvider = new DataProvider(odata, edm);
+    first = dataProvider.readAll(entitySet).getEntities().get(0);
+    // Each new entity links to its predecessor.
+    Entity previous = first;
+    for (int i = 0; i < size; i++) {
+      final Entity entity = dataProvider.create(entitySet);
+      dataProvider.setLink(navigationOne, entity, previous);
+      previous = entity;
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void link() {
+    target = new Entity();
+    dataProvider.setLink(navigationOne, target, first);
+    dataProvider.setLink(navigationMany, first, target);
+  }
+
+  @Benchmark
+  public void deleteLinksTo() throws DataProvider.DataProviderException {
+    dataProvider.deleteLinksTo(target);
+  }
+}
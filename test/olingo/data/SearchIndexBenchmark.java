@@ -0,0 +1,82 @@
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import olingo.processor.queryoptions.options.EntityCondition;
+import olingo.processor.queryoptions.options.SearchHandler;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.SearchOption;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares evaluating <code>$search</code> entity by entity against looking it up in the search index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchIndexBenchmark {
+
+  private static final int SIZE = 1000000;
+
+  // Search words must not contain digits, so the terms are given as phrases.
+  @Param({ "\"Test42\"", "\"Test42\" AND NOT \"Test421\"", "\"Test12345\" OR \"Test54321\"" })
+  public String search;
+
+  private List<Entity> entities;
+  private SearchOption searchOption;
+  private SearchIndex index;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri("ESAllPrim", "$search=" + search, null);
+    searchOption = uriInfo.getSearchOption();
+    final EntityCollection entityCollection = new EntityCollection();
+    for (int i = 0; i < SIZE; i++) {
+      entityCollection.getEntities().add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (i % 1000)))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test" + i)));
+    }
+    entities = entityCollection.getEntities();
+    index = SearchIndex.of(entityCollection);
+  }
+
+  @Benchmark
+  public List<Entity> sequential() throws Exception {
+    final EntityCondition condition = SearchHandler.getSearchCondition(searchOption);
+    final List<Entity> result = new ArrayList<Entity>();
+    for (final Entity entity : entities) {
+      if (condition.matches(entity)) {
+        result.add(entity);
+      }
+    }
+    return result;
+  }
+
+  @Benchmark
+  public Set<Entity> index() throws Exception {
+    return index.search(searchOption.getSearchExpression());
+  }
+}
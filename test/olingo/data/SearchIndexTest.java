@@ -0,0 +1,135 @@
+package olingo.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import olingo.processor.queryoptions.options.EntityCondition;
+import olingo.processor.queryoptions.options.SearchHandler;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.queryoption.SearchOption;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that looking up <code>$search</code> in the search index gives the same entities as searching
+ * entity by entity, also after entities have been added, changed, and removed.
+ */
+public class SearchIndexTest {
+
+  // Search words must not contain digits, so such terms are given as phrases.
+  private static final List<String> SEARCHES = Arrays.asList(
+      "First", "Resource", "Test", "\"a\"", "\"st\"", "\"-\"", "\"1\"", "\"10\"", "\"327\"", "\"32767\"",
+      "\"2012-12-03\"", "\"String\"", "Missing", "\"Test42\"", "\"Test420\"",
+      "First OR Second", "First AND \"values\"", "NOT First", "Resource AND NOT positive",
+      "NOT \"A\" AND NOT \"B\"", "\"Test1\" AND NOT \"Test12\"", "\"Test12\" OR \"Test77\" OR Missing");
+
+  private static OData odata;
+  private static Edm edm;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+  }
+
+  @Test
+  public void initialData() throws Exception {
+    final DataProvider dataProvider = new DataProvider(odata, edm);
+    for (final EdmEntitySet edmEntitySet : edm.getEntityContainer().getEntitySets()) {
+      final EntityCollection entities = dataProvider.readAll(edmEntitySet);
+      final SearchIndex index = SearchIndex.of(entities);
+      assertEquals(edmEntitySet.getName(), entities.getEntities().size(), index.size());
+      for (final String search : SEARCHES) {
+        assertSameEntities(edmEntitySet.getName() + " " + search, entities.getEntities(), index, search);
+      }
+    }
+  }
+
+  @Test
+  public void changes() throws Exception {
+    final EntityCollection entities = new EntityCollection();
+    for (int i = 0; i < 1000; i++) {
+      entities.getEntities().add(createEntity(i));
+    }
+    final SearchIndex index = SearchIndex.of(entities);
+    assertSameEntities(entities.getEntities(), index);
+
+    for (int i = 1000; i < 1100; i++) {
+      final Entity entity = createEntity(i);
+      entities.getEntities().add(entity);
+      index.add(entity);
+    }
+    for (int i = 0; i < 1100; i += 7) {
+      final Entity entity = entities.getEntities().get(i);
+      entity.getProperty("PropertyString").setValue(ValueType.PRIMITIVE, i % 2 == 0 ? null : "Changed Test" + i);
+      index.update(entity);
+    }
+    assertSameEntities(entities.getEntities(), index);
+
+    // Removing more than half of the entities compacts the index.
+    for (int i = entities.getEntities().size() - 1; i >= 0; i -= 2) {
+      index.remove(entities.getEntities().remove(i));
+    }
+    for (int i = 0; i < 300; i++) {
+      index.remove(entities.getEntities().remove(0));
+    }
+    assertEquals(entities.getEntities().size(), index.size());
+    assertSameEntities(entities.getEntities(), index);
+  }
+
+  private static Entity createEntity(final int i) {
+    return new Entity()
+        .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (i % 1000)))
+        .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE,
+            i % 13 == 0 ? null : (i % 3 == 0 ? "First Test" : "Second Test") + i))
+        .addProperty(new Property(null, "CollPropertyString", ValueType.COLLECTION_PRIMITIVE,
+            Arrays.asList("A" + i % 5, i % 2 == 0 ? null : "B")));
+  }
+
+  private static void assertSameEntities(final List<Entity> entities, final SearchIndex index) throws Exception {
+    for (final String search : SEARCHES) {
+      assertSameEntities(search, entities, index, search);
+    }
+  }
+
+  private static void assertSameEntities(final String message, final List<Entity> entities,
+      final SearchIndex index, final String search) throws Exception {
+    final SearchOption searchOption = new Parser(edm, odata).parseUri("ESAllPrim", "$search=" + search, null)
+        .getSearchOption();
+    final EntityCondition sequential = SearchHandler.getSearchCondition(searchOption);
+    final EntityCondition indexed = SearchHandler.getSearchCondition(searchOption, index);
+    final Set<Entity> found = index.search(searchOption.getSearchExpression());
+
+    final List<Entity> expected = new ArrayList<Entity>();
+    final List<Entity> actual = new ArrayList<Entity>();
+    final List<Entity> actualCondition = new ArrayList<Entity>();
+    for (final Entity entity : entities) {
+      if (sequential.matches(entity)) {
+        expected.add(entity);
+      }
+      if (found.contains(entity)) {
+        actual.add(entity);
+      }
+      if (indexed.matches(entity)) {
+        actualCondition.add(entity);
+      }
+    }
+    assertEquals(message, expected, actual);
+    assertEquals(message, expected.size(), found.size());
+    assertEquals(message, expected, actualCondition);
+  }
+}
@@ -0,0 +1,89 @@
+package olingo.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.options.EntityMatcher;
+import olingo.processor.queryoptions.options.FilterHandler;
+import olingo.processor.queryoptions.options.FilterScan;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares evaluating <code>$filter</code> for all entities against evaluating it
+ * for the entities found by a secondary index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecondaryIndexBenchmark {
+
+  private static final int SIZE = 200000;
+
+  @Param({ "PropertyInt16 eq 42", "PropertyInt16 ge 990 and PropertyString ne 'x'",
+      "PropertyString eq 'Test 4711'" })
+  public String filter;
+
+  private final EntityMatcher matcher = new EntityMatcher();
+  private List<Entity> entities;
+  private QueryPlan plan;
+  private List<SecondaryIndex> indexes;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri("ESAllPrim", "$filter=" + filter, null);
+    plan = QueryPlan.compile(uriInfo.getFilterOption(), null, uriInfo, edm);
+    final EntityCollection entityCollection = new EntityCollection();
+    for (int i = 0; i < SIZE; i++) {
+      entityCollection.getEntities().add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (i % 1000)))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test " + i)));
+    }
+    entities = entityCollection.getEntities();
+    final EdmEntitySet entitySet = edm.getEntityContainer().getEntitySet("ESAllPrim");
+    indexes = new ArrayList<SecondaryIndex>();
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entitySet.getEntityType().getStructuralProperty("PropertyInt16"), SecondaryIndex.Kind.SORTED));
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entitySet.getEntityType().getStructuralProperty("PropertyString"), SecondaryIndex.Kind.HASH));
+  }
+
+  @Benchmark
+  public List<Entity> fullScan() throws Exception {
+    return collect(FilterHandler.getFilterScan(plan, entities, null));
+  }
+
+  @Benchmark
+  public List<Entity> index() throws Exception {
+    return collect(FilterHandler.getFilterScan(plan, entities, indexes));
+  }
+
+  private List<Entity> collect(final FilterScan scan) throws Exception {
+    final List<Entity> target = new ArrayList<Entity>();
+    matcher.collect(scan.getEntities(), target, null, scan.getCondition());
+    return target;
+  }
+}
@@ -0,0 +1,159 @@
+package olingo.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.options.EntityMatcher;
+import olingo.processor.queryoptions.options.FilterHandler;
+import olingo.processor.queryoptions.options.FilterScan;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that evaluating <code>$filter</code> for the entities found by secondary indexes gives the same
+ * entities, in the same order, as a full scan, also for the first entities only (as needed for paging)
+ * and after entities have been added, changed, and removed.
+ */
+public class SecondaryIndexTest {
+
+  private static final List<String> FILTERS = Arrays.asList(
+      "PropertyInt16 eq 42", "PropertyInt16 eq null", "PropertyInt16 ne 42", "PropertyInt16 gt 490",
+      "PropertyInt16 ge 490", "PropertyInt16 lt 5", "PropertyInt16 le 5", "5 ge PropertyInt16",
+      "PropertyInt16 eq 70000", "PropertyInt16 ge 490 and PropertyString ne 'Test 499'",
+      "PropertyString eq 'Test 4711'", "PropertyString eq null", "PropertyString gt 'Test 9'",
+      "PropertyBoolean eq true and PropertyInt16 lt 10", "PropertyDate ge 2016-12-20",
+      "PropertyDate lt 2016-01-05 and PropertyInt16 gt 100", "PropertyInt16 lt 3 or PropertyInt16 gt 497",
+      "PropertyString eq 'Test 42' and PropertyInt16 eq 42");
+
+  private static OData odata;
+  private static Edm edm;
+  private static EdmEntityType entityType;
+
+  private EntityCollection entityCollection;
+  private List<SecondaryIndex> indexes;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+    entityType = edm.getEntityContainer().getEntitySet("ESAllPrim").getEntityType();
+  }
+
+  @Before
+  public void createIndexes() throws Exception {
+    entityCollection = new EntityCollection();
+    for (int i = 0; i < 5000; i++) {
+      entityCollection.getEntities().add(createEntity(i));
+    }
+    indexes = new ArrayList<SecondaryIndex>();
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entityType.getStructuralProperty("PropertyInt16"), SecondaryIndex.Kind.SORTED));
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entityType.getStructuralProperty("PropertyString"), SecondaryIndex.Kind.HASH));
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entityType.getStructuralProperty("PropertyBoolean"), SecondaryIndex.Kind.HASH));
+    indexes.add(SecondaryIndex.of(entityCollection,
+        entityType.getStructuralProperty("PropertyDate"), SecondaryIndex.Kind.SORTED));
+  }
+
+  @Test
+  public void indexScanGivesFullScanResult() throws Exception {
+    for (final String filter : FILTERS) {
+      assertSameEntities(filter);
+    }
+    assertTrue(getScan("PropertyInt16 eq 42", indexes).toString().startsWith("index"));
+    assertTrue(getScan("PropertyInt16 ge 490 and PropertyString ne 'Test 499'", indexes).toString()
+        .startsWith("index"));
+    assertTrue(getScan("PropertyDate ge 2016-12-20", indexes).toString().startsWith("index"));
+    assertTrue(getScan("PropertyInt16 ne 42", indexes).toString().startsWith("full scan"));
+  }
+
+  @Test
+  public void changes() throws Exception {
+    final List<Entity> entities = entityCollection.getEntities();
+    for (int i = 5000; i < 5500; i++) {
+      final Entity entity = createEntity(i);
+      entities.add(entity);
+      for (final SecondaryIndex index : indexes) {
+        index.add(entity);
+      }
+    }
+    for (int i = 0; i < entities.size(); i += 3) {
+      final Entity entity = entities.get(i);
+      entity.getProperty("PropertyInt16").setValue(ValueType.PRIMITIVE, i % 2 == 0 ? null : (short) (i % 17));
+      entity.getProperty("PropertyString").setValue(ValueType.PRIMITIVE, "Test " + i % 100);
+      for (final SecondaryIndex index : indexes) {
+        index.update(entity);
+      }
+    }
+    for (int i = entities.size() - 1; i >= 0; i -= 4) {
+      final Entity entity = entities.remove(i);
+      for (final SecondaryIndex index : indexes) {
+        index.remove(entity);
+      }
+    }
+    for (final SecondaryIndex index : indexes) {
+      assertEquals(entities.size(), index.size());
+    }
+    for (final String filter : FILTERS) {
+      assertSameEntities(filter);
+    }
+  }
+
+  private static Entity createEntity(final int i) {
+    Calendar date = new GregorianCalendar(TimeZone.getTimeZone("GMT"));
+    date.clear();
+    date.set(2016, Calendar.JANUARY, 1);
+    date.add(Calendar.DAY_OF_YEAR, i % 366);
+    return new Entity()
+        .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE,
+            i % 97 == 0 ? null : i % 89 == 0 ? Integer.valueOf(i % 500) : (Object) Short.valueOf((short) (i % 500))))
+        .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, i % 101 == 0 ? null : "Test " + i))
+        .addProperty(new Property(null, "PropertyBoolean", ValueType.PRIMITIVE, i % 3 == 0))
+        .addProperty(new Property(null, "PropertyDate", ValueType.PRIMITIVE, i % 83 == 0 ? null : date));
+  }
+
+  /** Compares the index scan with a full scan, for all entities and for the first entities of each page. */
+  private void assertSameEntities(final String filter) throws Exception {
+    final List<Entity> expected = collect(getScan(filter, null), null);
+    final FilterScan scan = getScan(filter, indexes);
+    assertEquals(filter + ": " + scan, expected, collect(scan, null));
+    for (final int limit : new int[] { 1, 10, 25, 100, expected.size() + 1 }) {
+      assertEquals(filter + " first " + limit + ": " + scan,
+          expected.subList(0, Math.min(limit, expected.size())), collect(getScan(filter, indexes), limit));
+    }
+  }
+
+  private FilterScan getScan(final String filter, final List<SecondaryIndex> indexes) throws Exception {
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri("ESAllPrim", "$filter=" + filter, null);
+    final QueryPlan plan = QueryPlan.compile(uriInfo.getFilterOption(), null, uriInfo, edm);
+    return FilterHandler.getFilterScan(plan, entityCollection.getEntities(), indexes);
+  }
+
+  private static List<Entity> collect(final FilterScan scan, final Integer limit) throws Exception {
+    final List<Entity> target = new ArrayList<Entity>();
+    new EntityMatcher().collect(scan.getEntities(), target, limit, scan.getCondition());
+    return target;
+  }
+}
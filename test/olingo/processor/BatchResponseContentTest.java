@@ -0,0 +1,123 @@
+package olingo.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import olingo.data.DataProvider;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataHandler;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the sections of read-only parts handled concurrently keep the order of the parts
+ * and that no parts are written after a failed part unless the client prefers to continue on error.
+ */
+public class BatchResponseContentTest {
+
+  private static final String[] PARTS = {
+      "ESAllPrim(32767)?$select=PropertyInt16",
+      "ESAllPrim(4242)?$select=PropertyInt16",
+      "ESAllPrim(0)?$select=PropertyInt16",
+      "ESAllPrim(-32768)?$select=PropertyInt16" };
+
+  private static OData odata;
+  private static ServiceMetadata serviceMetadata;
+  private static DataProvider dataProvider;
+  private static ServiceComponents components;
+  private static final ThreadLocal<ODataHandler> handlers = new ThreadLocal<ODataHandler>() {
+    @Override
+    protected ODataHandler initialValue() {
+      final ODataHandler handler = odata.createRawHandler(serviceMetadata);
+      handler.register(new TechnicalEntityProcessor(dataProvider, serviceMetadata, components));
+      handler.register(new TechnicalBatchProcessor(dataProvider, components));
+      return handler;
+    }
+  };
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    serviceMetadata = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList());
+    dataProvider = new DataProvider(odata, serviceMetadata.getEdm());
+    components = new ServiceComponents();
+    components.getBatchPartExecutor().setHandlerProvider(new BatchPartExecutor.HandlerProvider() {
+      @Override
+      public ODataHandler getHandler() {
+        return handlers.get();
+      }
+    });
+  }
+
+  @Test
+  public void stopOnError() throws Exception {
+    final long parallelCount = components.getBatchPartExecutor().getParallelCount();
+    final String content = processBatch(false);
+    assertEquals(content, 2, count(content, "HTTP/1.1 "));
+    assertTrue(content, content.indexOf("\"PropertyInt16\":32767") < content.indexOf("HTTP/1.1 404"));
+    assertFalse(content, content.contains("\"PropertyInt16\":0"));
+    assertFalse(content, content.contains("\"PropertyInt16\":-32768"));
+    assertTrue(content.endsWith("--\r\n"));
+    assertTrue(components.getBatchPartExecutor().getParallelCount() > parallelCount);
+  }
+
+  @Test
+  public void continueOnError() throws Exception {
+    final String content = processBatch(true);
+    assertEquals(content, 4, count(content, "HTTP/1.1 "));
+    final int first = content.indexOf("\"PropertyInt16\":32767");
+    final int failed = content.indexOf("HTTP/1.1 404");
+    final int third = content.indexOf("\"PropertyInt16\":0");
+    final int fourth = content.indexOf("\"PropertyInt16\":-32768");
+    assertTrue(content, first >= 0 && first < failed && failed < third && third < fourth);
+    assertTrue(content.endsWith("--\r\n"));
+  }
+
+  private static String processBatch(final boolean continueOnError) throws Exception {
+    final StringBuilder body = new StringBuilder();
+    for (final String part : PARTS) {
+      body.append("--b\r\nContent-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n\r\n")
+          .append("GET ").append(part).append(" HTTP/1.1\r\n\r\n\r\n");
+    }
+    body.append("--b--\r\n");
+    final ODataRequest request = new ODataRequest();
+    request.setMethod(HttpMethod.POST);
+    request.setRawBaseUri("http://localhost/odata.svc");
+    request.setRawODataPath("/$batch");
+    request.setRawQueryPath("");
+    request.setRawRequestUri("http://localhost/odata.svc/$batch");
+    request.setProtocol("HTTP/1.1");
+    request.addHeader(HttpHeader.CONTENT_TYPE, Collections.singletonList("multipart/mixed;boundary=b"));
+    if (continueOnError) {
+      request.addHeader(HttpHeader.PREFER, Collections.singletonList("odata.continue-on-error"));
+    }
+    request.setBody(new ByteArrayInputStream(body.toString().getBytes("UTF-8")));
+
+    final ODataResponse response = handlers.get().process(request);
+    assertEquals(HttpStatusCode.ACCEPTED.getStatusCode(), response.getStatusCode());
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    response.getODataContent().write(content);
+    return content.toString("UTF-8");
+  }
+
+  private static int count(final String content, final String text) {
+    int count = 0;
+    for (int index = content.indexOf(text); index >= 0; index = content.indexOf(text, index + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
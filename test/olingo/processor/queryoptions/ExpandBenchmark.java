@@ -0,0 +1,129 @@
+package olingo.processor.queryoptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Link;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.ExpandOption;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares expanding a large collection of parents at once against expanding it parent by parent.
+ * Each parent links to a few entities of a shared pool of <code>ESTwoKeyNav</code> entities,
+ * which in turn link to other entities by all their navigation properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExpandBenchmark {
+
+  private static final int PARENTS = 2000;
+  private static final int POOL = 1000;
+  private static final int LINKS = 5;
+
+  @Param({ "NavPropertyETTwoKeyNavMany($expand=*)",
+      "NavPropertyETTwoKeyNavMany($filter=PropertyInt16 lt 500;$orderby=PropertyString desc;$expand=*)" })
+  public String expand;
+
+  private final QueryPlanCache queryPlanCache = new QueryPlanCache();
+  private Edm edm;
+  private UriInfo uriInfo;
+  private ExpandOption expandOption;
+  private EdmEntitySet edmEntitySet;
+  private EntityCollection parents;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+    uriInfo = new Parser(edm, odata).parseUri("ESKeyNav", "$expand=" + expand, null);
+    expandOption = uriInfo.getExpandOption();
+    edmEntitySet = edm.getEntityContainer().getEntitySet("ESKeyNav");
+
+    final List<Entity> keyNav = new ArrayList<Entity>(POOL);
+    final List<Entity> twoKeyNav = new ArrayList<Entity>(POOL);
+    for (int i = 0; i < POOL; i++) {
+      keyNav.add(newEntity(i));
+      twoKeyNav.add(newEntity(i));
+    }
+    for (int i = 0; i < POOL; i++) {
+      final Entity entity = twoKeyNav.get(i);
+      entity.getNavigationLinks().add(newLink("NavPropertyETKeyNavOne", keyNav.get(i)));
+      entity.getNavigationLinks().add(newLink("NavPropertyETKeyNavMany", keyNav, i));
+      entity.getNavigationLinks().add(newLink("NavPropertyETTwoKeyNavOne", twoKeyNav.get((i + 1) % POOL)));
+      entity.getNavigationLinks().add(newLink("NavPropertyETTwoKeyNavMany", twoKeyNav, i));
+    }
+    parents = new EntityCollection();
+    for (int i = 0; i < PARENTS; i++) {
+      final Entity parent = newEntity(i);
+      parent.getNavigationLinks().add(newLink("NavPropertyETTwoKeyNavMany", twoKeyNav, i));
+      parents.getEntities().add(parent);
+    }
+  }
+
+  private static Entity newEntity(final int i) {
+    return new Entity()
+        .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) i))
+        .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test " + i));
+  }
+
+  private static Link newLink(final String name, final Entity entity) {
+    final Link link = new Link();
+    link.setTitle(name);
+    link.setInlineEntity(entity);
+    return link;
+  }
+
+  private static Link newLink(final String name, final List<Entity> pool, final int start) {
+    final EntityCollection entitySet = new EntityCollection();
+    for (int i = 0; i < LINKS; i++) {
+      entitySet.getEntities().add(pool.get((start * 7 + i * 131) % pool.size()));
+    }
+    final Link link = new Link();
+    link.setTitle(name);
+    link.setInlineEntitySet(entitySet);
+    return link;
+  }
+
+  @Benchmark
+  public EntityCollection batched() throws Exception {
+    final ExpandSystemQueryOptionHandler handler =
+        new ExpandSystemQueryOptionHandler(queryPlanCache, ExpandSystemQueryOptionHandler.DEFAULT_MAX_LEVELS_ENTITIES);
+    final EntityCollection result = handler.transformEntitySetGraphToTree(parents, edmEntitySet, expandOption);
+    handler.applyExpandQueryOptions(result, edmEntitySet, expandOption, uriInfo, edm);
+    return result;
+  }
+
+  @Benchmark
+  public List<Entity> perEntity() throws Exception {
+    final ExpandSystemQueryOptionHandler handler =
+        new ExpandSystemQueryOptionHandler(queryPlanCache, ExpandSystemQueryOptionHandler.DEFAULT_MAX_LEVELS_ENTITIES);
+    final List<Entity> result = new ArrayList<Entity>(PARENTS);
+    for (final Entity parent : parents.getEntities()) {
+      final Entity entity = handler.transformEntityGraphToTree(parent, edmEntitySet, expandOption);
+      handler.applyExpandQueryOptions(entity, edmEntitySet, expandOption, uriInfo, edm);
+      result.add(entity);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,124 @@
+package olingo.processor.queryoptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+
+import olingo.data.DataProvider;
+import olingo.processor.ServiceComponents;
+import olingo.processor.TechnicalEntityProcessor;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpMethod;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataHandler;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that an expand item with <code>$levels</code> gives the same response as the explicitly nested
+ * expand items of the same navigation property, with the options of the item on each level.
+ */
+public class ExpandSystemQueryOptionHandlerTest {
+
+  private static ServiceComponents components;
+  private static ODataHandler handler;
+
+  @BeforeClass
+  public static void setup() {
+    final OData odata = OData.newInstance();
+    final ServiceMetadata serviceMetadata =
+        odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList());
+    components = new ServiceComponents();
+    handler = odata.createRawHandler(serviceMetadata);
+    handler.register(new TechnicalEntityProcessor(new DataProvider(odata, serviceMetadata.getEdm()),
+        serviceMetadata, components));
+  }
+
+  @After
+  public void resetMaxLevelsEntities() {
+    components.setMaxLevelsEntities(ExpandSystemQueryOptionHandler.DEFAULT_MAX_LEVELS_ENTITIES);
+  }
+
+  @Test
+  public void levelsOfOneNavigationProperty() throws Exception {
+    final String levels = read("ESKeyNav(1)",
+        "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne($levels=2;$select=PropertyInt16)");
+    assertEquals(read("ESKeyNav(1)", "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne($select=PropertyInt16;"
+        + "$expand=NavPropertyETKeyNavOne($select=PropertyInt16))"), levels);
+    assertTrue(levels, levels.endsWith(
+        "\"PropertyInt16\":1,\"NavPropertyETKeyNavOne\":{\"PropertyInt16\":2,"
+        + "\"NavPropertyETKeyNavOne\":{\"PropertyInt16\":3}}}"));
+  }
+
+  @Test
+  public void levelsWithOptions() throws Exception {
+    assertEquals(
+        read("ESKeyNav", "$select=PropertyInt16&$expand=NavPropertyETKeyNavMany("
+            + "$levels=3;$select=PropertyInt16;$filter=PropertyInt16 ne 2;$orderby=PropertyInt16 desc;$top=2)"),
+        read("ESKeyNav", "$select=PropertyInt16&$expand=NavPropertyETKeyNavMany("
+            + "$select=PropertyInt16;$filter=PropertyInt16 ne 2;$orderby=PropertyInt16 desc;$top=2;"
+            + "$expand=NavPropertyETKeyNavMany("
+            + "$select=PropertyInt16;$filter=PropertyInt16 ne 2;$orderby=PropertyInt16 desc;$top=2;"
+            + "$expand=NavPropertyETKeyNavMany("
+            + "$select=PropertyInt16;$filter=PropertyInt16 ne 2;$orderby=PropertyInt16 desc;$top=2)))"));
+    assertEquals(
+        read("ESKeyNav(1)", "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne("
+            + "$levels=2;$select=PropertyInt16;$expand=NavPropertyETTwoKeyNavOne($select=PropertyString))"),
+        read("ESKeyNav(1)", "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne("
+            + "$select=PropertyInt16;$expand=NavPropertyETKeyNavOne("
+            + "$select=PropertyInt16;$expand=NavPropertyETTwoKeyNavOne($select=PropertyString)),"
+            + "NavPropertyETTwoKeyNavOne($select=PropertyString))"));
+  }
+
+  @Test
+  public void maxLevels() throws Exception {
+    final String max = read("ESKeyNav",
+        "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne($levels=max;$select=PropertyInt16)");
+    assertTrue(max, max.contains("\"NavPropertyETKeyNavOne\":{\"PropertyInt16\":"));
+  }
+
+  @Test
+  public void levelsEntitiesBelowFirstLevelAreLimited() throws Exception {
+    components.setMaxLevelsEntities(1);
+    read("ESKeyNav(1)", "$select=PropertyInt16&$expand=NavPropertyETKeyNavOne($levels=2;$select=PropertyInt16)");
+    assertEquals(HttpStatusCode.BAD_REQUEST.getStatusCode(),
+        process("ESKeyNav", "$expand=NavPropertyETKeyNavMany($levels=max)").getStatusCode());
+  }
+
+  private static String read(final String path, final String query) throws Exception {
+    final ODataResponse response = process(path, query);
+    assertEquals(path + "?" + query, HttpStatusCode.OK.getStatusCode(), response.getStatusCode());
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    if (response.getODataContent() == null) {
+      final InputStream stream = response.getContent();
+      final byte[] buffer = new byte[8192];
+      for (int count = stream.read(buffer); count >= 0; count = stream.read(buffer)) {
+        content.write(buffer, 0, count);
+      }
+    } else {
+      response.getODataContent().write(content);
+    }
+    return content.toString("UTF-8");
+  }
+
+  private static ODataResponse process(final String path, final String query) {
+    final ODataRequest request = new ODataRequest();
+    request.setMethod(HttpMethod.GET);
+    request.setRawBaseUri("http://localhost/odata.svc");
+    request.setRawODataPath("/" + path);
+    request.setRawQueryPath(query);
+    request.setRawRequestUri(request.getRawBaseUri() + request.getRawODataPath() + "?" + query);
+    request.addHeader(HttpHeader.ACCEPT, "application/json;odata.metadata=minimal");
+    return handler.process(request);
+  }
+}
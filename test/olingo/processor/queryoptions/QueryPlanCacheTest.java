@@ -0,0 +1,151 @@
+package olingo.processor.queryoptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import olingo.data.DataProvider;
+import olingo.processor.queryoptions.expression.compiled.ComparisonPredicate;
+import olingo.processor.queryoptions.options.FilterHandler;
+import olingo.processor.queryoptions.options.OrderByHandler;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that requests which differ only in their literals share one cached plan,
+ * and that the cached plan gives the results of a plan compiled for the request.
+ */
+public class QueryPlanCacheTest {
+
+  private static OData odata;
+  private static Edm edm;
+  private static DataProvider dataProvider;
+
+  private QueryPlanCache cache;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+    dataProvider = new DataProvider(odata, edm);
+  }
+
+  @Before
+  public void createCache() {
+    cache = new QueryPlanCache();
+  }
+
+  @Test
+  public void literalsOnlyDiffer() throws Exception {
+    final QueryPlan first = getPlan("ESAllPrim", "$filter=PropertyInt16 eq 32767");
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    final QueryPlan second = getPlan("ESAllPrim", "$filter=PropertyInt16 eq -32768");
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.size());
+
+    assertNotSame(first, second);
+    assertEquals(Long.valueOf(32767), ((ComparisonPredicate) first.getFilter()).getLiteral());
+    assertEquals(Long.valueOf(-32768), ((ComparisonPredicate) second.getFilter()).getLiteral());
+    assertFalse(filter("ESAllPrim", first).equals(filter("ESAllPrim", second)));
+
+    // Integer literals of different types share the plan, too.
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq 0");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq 40000");
+    assertEquals(3, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void differentFormsMiss() throws Exception {
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq 1");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq null");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq 1.5");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 ne 1");
+    getPlan("ESAllPrim", "$filter=PropertyInt32 eq 1");
+    getPlan("ESAllNullable", "$filter=PropertyInt16 eq 1");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq 1&$orderby=PropertyString");
+    assertEquals(0, cache.getHitCount());
+    assertEquals(7, cache.getMissCount());
+  }
+
+  @Test
+  public void requestDependentPlansAreNotCached() throws Exception {
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq @p&@p=1");
+    getPlan("ESAllPrim", "$filter=PropertyInt16 eq @p&@p=1");
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void boundPlansGiveResultsOfCompiledPlans() throws Exception {
+    assertSameResults("ESAllPrim", "$filter=PropertyInt16 gt 0", "$filter=PropertyInt16 gt -1");
+    assertSameResults("ESAllPrim", "$filter=0 le PropertyInt16", "$filter=32767 le PropertyInt16");
+    assertSameResults("ESAllPrim", "$filter=PropertyString eq 'x'",
+        "$filter=PropertyString eq 'First Resource - positive values'");
+    assertSameResults("ESAllPrim", "$filter=PropertyBoolean eq false", "$filter=PropertyBoolean eq true");
+    assertSameResults("ESAllPrim", "$filter=PropertyDate ge 2000-01-01", "$filter=PropertyDate ge 2012-12-03");
+    assertSameResults("ESAllPrim", "$filter=PropertyInt16 gt 0 and not (PropertyString eq 'x')",
+        "$filter=PropertyInt16 gt -1 and not (PropertyString eq 'Second Resource - negative values')");
+    assertSameResults("ESAllPrim", "$filter=startswith(PropertyString,'x') or PropertyInt16 add 1 eq 2",
+        "$filter=startswith(PropertyString,'First') or PropertyInt16 add 1 eq 1");
+    assertSameResults("ESAllPrim", "$filter=PropertyDecimal mul 2 gt 1.5", "$filter=PropertyDecimal mul 2 gt 30.5");
+    assertSameResults("ESAllNullable", "$filter=PropertyString ne 'x'", "$filter=PropertyString ne 'First'");
+    assertSameResults("ESCompAllPrim", "$filter=PropertyComp/PropertyInt16 eq 1",
+        "$filter=PropertyComp/PropertyInt16 eq 32767");
+    assertSameResults("ESAllPrim", "$filter=PropertyInt16 ne 0&$orderby=PropertyInt16 mod 2 desc",
+        "$filter=PropertyInt16 ne 1&$orderby=PropertyInt16 mod 3 desc");
+    assertSameResults("ESAllPrim", "$orderby=PropertyString eq 'x',PropertyInt16",
+        "$orderby=PropertyString eq 'Second Resource - negative values',PropertyInt16");
+  }
+
+  /** Caches the plan for the first query and compares it, bound to the second query, with a compiled plan. */
+  private void assertSameResults(final String entitySetName, final String cachedQuery, final String query)
+      throws Exception {
+    getPlan(entitySetName, cachedQuery);
+    final long hitCount = cache.getHitCount();
+    final QueryPlan bound = getPlan(entitySetName, query);
+    assertEquals(query, hitCount + 1, cache.getHitCount());
+
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri(entitySetName, query, null);
+    final QueryPlan compiled = QueryPlan.compile(uriInfo.getFilterOption(), uriInfo.getOrderByOption(), uriInfo, edm);
+    final List<Entity> expected = filter(entitySetName, compiled);
+    assertEquals(query, expected, filter(entitySetName, bound));
+  }
+
+  private QueryPlan getPlan(final String entitySetName, final String query) throws Exception {
+    final EdmEntitySet edmEntitySet = edm.getEntityContainer().getEntitySet(entitySetName);
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri(entitySetName, query, null);
+    return cache.getPlan(edmEntitySet, edmEntitySet.getEntityType(), uriInfo.getFilterOption(),
+        uriInfo.getOrderByOption(), null, null, uriInfo, edm);
+  }
+
+  private List<Entity> filter(final String entitySetName, final QueryPlan plan) throws Exception {
+    final EntityCollection entities = new EntityCollection();
+    entities.getEntities().addAll(
+        dataProvider.readAll(edm.getEntityContainer().getEntitySet(entitySetName)).getEntities());
+    if (plan.getFilter() != null) {
+      FilterHandler.applyFilterSystemQuery(plan, entities);
+    }
+    if (plan.getOrderByCount() > 0) {
+      OrderByHandler.applyOrderByOption(plan, entities);
+    }
+    return entities.getEntities();
+  }
+}
@@ -0,0 +1,192 @@
+package olingo.processor.queryoptions.expression.compiled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import olingo.data.DataProvider;
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.processor.queryoptions.expression.operand.VisitorOperand;
+import olingo.processor.queryoptions.options.FilterHandler;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that compiled <code>$filter</code> expressions give the same results as visiting the expression
+ * for each entity of the initial data, including <code>null</code> values and errors.
+ */
+public class ExpressionCompilerTest {
+
+  private static OData odata;
+  private static Edm edm;
+  private static DataProvider dataProvider;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+    dataProvider = new DataProvider(odata, edm);
+  }
+
+  @Test
+  public void comparisons() throws Exception {
+    for (final String entitySet : Arrays.asList("ESAllPrim", "ESAllNullable")) {
+      assertSameResults(entitySet, "PropertyInt16 eq 32767");
+      assertSameResults(entitySet, "PropertyInt16 ne 0");
+      assertSameResults(entitySet, "PropertyInt16 gt 0");
+      assertSameResults(entitySet, "PropertyInt16 le -1");
+      assertSameResults(entitySet, "32767 eq PropertyInt16");
+      assertSameResults(entitySet, "PropertyInt16 eq 1.5");
+      assertSameResults(entitySet, "PropertyInt16 lt 70000");
+      assertSameResults(entitySet, "PropertyInt16 eq null");
+      assertSameResults(entitySet, "null ne PropertyString");
+      assertSameResults(entitySet, "PropertyString eq 'First Resource - positive values'");
+      assertSameResults(entitySet, "PropertyString lt 'Second'");
+      assertSameResults(entitySet, "PropertyString ge ''");
+      assertSameResults(entitySet, "PropertyBoolean eq true");
+      assertSameResults(entitySet, "PropertyBoolean ne false");
+      assertSameResults(entitySet, "PropertyByte eq 255");
+      assertSameResults(entitySet, "PropertySByte gt 0");
+      assertSameResults(entitySet, "PropertyInt32 le 0");
+      assertSameResults(entitySet, "PropertyInt64 ge 0");
+      assertSameResults(entitySet, "PropertySingle gt 0");
+      assertSameResults(entitySet, "PropertyDouble lt 0");
+      assertSameResults(entitySet, "PropertyDecimal eq 34");
+      assertSameResults(entitySet, "PropertyDate ge 2012-12-03");
+      assertSameResults(entitySet, "PropertyDateTimeOffset lt 2013-01-01T00:00:00Z");
+      assertSameResults(entitySet, "PropertyTimeOfDay gt 12:00:00");
+      assertSameResults(entitySet, "PropertyDuration eq duration'PT6S'");
+      assertSameResults(entitySet, "PropertyGuid eq 01234567-89ab-cdef-0123-456789abcdef");
+    }
+  }
+
+  @Test
+  public void logicalOperators() throws Exception {
+    for (final String entitySet : Arrays.asList("ESAllPrim", "ESAllNullable")) {
+      assertSameResults(entitySet, "PropertyInt16 gt 0 and PropertyBoolean eq true");
+      assertSameResults(entitySet, "PropertyInt16 lt 0 or PropertyString eq ''");
+      assertSameResults(entitySet, "not (PropertyInt16 eq 0)");
+      assertSameResults(entitySet, "not (PropertyString eq null) and PropertyInt32 ne 0");
+      assertSameResults(entitySet, "PropertyInt16 eq null or PropertyBoolean eq true");
+      assertSameResults(entitySet, "PropertyBoolean and PropertyInt16 gt 0");
+      assertSameResults(entitySet, "not PropertyBoolean");
+    }
+  }
+
+  @Test
+  public void arithmeticAndMethods() throws Exception {
+    for (final String entitySet : Arrays.asList("ESAllPrim", "ESAllNullable")) {
+      assertSameResults(entitySet, "PropertyInt16 add 1 gt 100");
+      assertSameResults(entitySet, "PropertyInt32 mod 2 eq 0");
+      assertSameResults(entitySet, "-PropertyInt16 lt 0");
+      assertSameResults(entitySet, "PropertyDecimal mul 2 sub 1 ge 0");
+      assertSameResults(entitySet, "PropertyInt64 div 0 eq 1");
+      assertSameResults(entitySet, "startswith(PropertyString,'First')");
+      assertSameResults(entitySet, "contains(PropertyString,'values')");
+      assertSameResults(entitySet, "length(PropertyString) gt 10");
+      assertSameResults(entitySet, "tolower(PropertyString) eq 'first resource - positive values'");
+      assertSameResults(entitySet, "year(PropertyDate) eq 2012");
+      assertSameResults(entitySet, "hour(PropertyTimeOfDay) lt 12");
+      assertSameResults(entitySet, "round(PropertyDouble) gt 0");
+    }
+  }
+
+  @Test
+  public void paths() throws Exception {
+    assertSameResults("ESCompAllPrim", "PropertyComp/PropertyInt16 eq 32767");
+    assertSameResults("ESCompAllPrim", "PropertyComp/PropertyString ne null");
+    assertSameResults("ESMixPrimCollComp", "PropertyComp/PropertyString eq 'TEST A'");
+    assertSameResults("ESKeyNav", "NavPropertyETTwoKeyNavOne/PropertyString eq 'test'");
+    assertSameResults("ESKeyNav", "NavPropertyETKeyNavMany/$count gt 1");
+    assertSameResults("ESMixEnumDefCollComp", "PropertyEnumString eq olingo.odata.test1.ENString'String1'");
+    assertSameResults("ESMixEnumDefCollComp", "PropertyEnumString has olingo.odata.test1.ENString'String2'");
+  }
+
+  private void assertSameResults(final String entitySetName, final String filter) throws Exception {
+    final EdmEntitySet edmEntitySet = edm.getEntityContainer().getEntitySet(entitySetName);
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri(entitySetName, "$filter=" + filter, null);
+    final Expression expression = uriInfo.getFilterOption().getExpression();
+    final QueryPlan plan = QueryPlan.compile(uriInfo.getFilterOption(), null, uriInfo, edm);
+    final List<Entity> entities = dataProvider.readAll(edmEntitySet).getEntities();
+
+    final List<Entity> visitorMatches = new ArrayList<Entity>();
+    for (final Entity entity : entities) {
+      final String visited = visit(expression, entity, uriInfo);
+      assertEquals(filter + " on " + entity.getId(), visited, evaluate(plan.getFilter(), entity));
+      if (!visited.startsWith("Boolean false") && !visited.startsWith("error")) {
+        visitorMatches.add(entity);
+      }
+    }
+
+    final EntityCollection filtered = new EntityCollection();
+    filtered.getEntities().addAll(entities);
+    String result;
+    try {
+      FilterHandler.applyFilterSystemQuery(plan, filtered);
+      result = ids(filtered.getEntities());
+    } catch (final ODataApplicationException e) {
+      result = "error " + e.getStatusCode();
+    } catch (final RuntimeException e) {
+      // Some operators of the visitor fail, too (e.g., an integer division by zero).
+      result = "error " + e.getClass().getSimpleName();
+    }
+    // Errors of single entities have been compared above.
+    if (!result.startsWith("error")) {
+      assertEquals(filter, ids(visitorMatches), result);
+    }
+  }
+
+  private String visit(final Expression expression, final Entity entity, final UriInfo uriInfo) {
+    try {
+      return describe(expression.accept(new ExpressionVisitorImpl(entity, uriInfo, edm)));
+    } catch (final ODataApplicationException e) {
+      return "error " + e.getStatusCode();
+    } catch (final Exception e) {
+      return "error " + e.getClass().getSimpleName();
+    }
+  }
+
+  private String evaluate(final CompiledExpression expression, final Entity entity) {
+    try {
+      return describe(expression.evaluate(entity));
+    } catch (final ODataApplicationException e) {
+      return "error " + e.getStatusCode();
+    } catch (final Exception e) {
+      return "error " + e.getClass().getSimpleName();
+    }
+  }
+
+  private static String describe(final VisitorOperand operand) throws ODataApplicationException {
+    final TypedOperand typed = operand.asTypedOperand();
+    final Object value = typed.getValue();
+    return (value == null ? "null" : value.getClass().getSimpleName() + " "
+        + (value instanceof byte[] ? Arrays.toString((byte[]) value) :
+            value instanceof Calendar ? ((Calendar) value).getTimeInMillis() : value))
+        + " " + (typed.getType() == null ? null : typed.getType().getName());
+  }
+
+  private static String ids(final List<Entity> entities) {
+    final StringBuilder ids = new StringBuilder();
+    for (final Entity entity : entities) {
+      ids.append(entity.getId()).append(' ');
+    }
+    return ids.toString();
+  }
+}
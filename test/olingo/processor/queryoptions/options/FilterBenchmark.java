@@ -0,0 +1,89 @@
+package olingo.processor.queryoptions.options;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.compiled.CompiledPredicate;
+import olingo.processor.queryoptions.expression.compiled.ExpressionCompiler;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares visiting the <code>$filter</code> expression for each entity against evaluating the compiled expression
+ * (including its compilation), for a comparison-only filter and for one using arithmetic and methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+  private static final int SIZE = 10000;
+
+  @Param({ "PropertyInt16 gt 100 and PropertyString ne 'Test' and PropertyBoolean eq true",
+      "PropertyInt16 add 1 gt 100 and startswith(PropertyString,'Test')" })
+  public String filter;
+
+  private Edm edm;
+  private UriInfo uriInfo;
+  private List<Entity> entities;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    uriInfo = new Parser(edm, odata).parseUri("ESAllPrim", "$filter=" + filter, null);
+    entities = new ArrayList<Entity>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      entities.add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (i % 1000)))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test " + i))
+          .addProperty(new Property(null, "PropertyBoolean", ValueType.PRIMITIVE, i % 2 == 0)));
+    }
+  }
+
+  @Benchmark
+  public int visitor() throws Exception {
+    final Expression expression = uriInfo.getFilterOption().getExpression();
+    int count = 0;
+    for (final Entity entity : entities) {
+      if (Boolean.TRUE.equals(expression.accept(new ExpressionVisitorImpl(entity, uriInfo, edm)).getValue())) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int compiled() throws Exception {
+    // Both filters are combined with 'and', hence they are compiled to predicates.
+    final CompiledPredicate predicate = (CompiledPredicate)
+        ExpressionCompiler.compile(uriInfo.getFilterOption().getExpression(), uriInfo, edm);
+    int count = 0;
+    for (final Entity entity : entities) {
+      if (Boolean.TRUE.equals(predicate.test(entity))) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,112 @@
+package olingo.processor.queryoptions.options;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares evaluating the <code>$orderby</code> expressions within each comparison
+ * against sorting by the precomputed sort keys, for a single integer key and for two keys.
+ * The sort is compared with the bounded-heap selection of the first entities (as for <code>$top</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderByBenchmark {
+
+  private static final int SIZE = 10000;
+  private static final int TOP = 10;
+
+  @Param({ "PropertyInt32 desc", "PropertyInt16,PropertyString desc" })
+  public String orderBy;
+
+  private QueryPlan plan;
+  private List<Entity> entities;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri("ESAllPrim", "$orderby=" + orderBy, null);
+    plan = QueryPlan.compile(null, uriInfo.getOrderByOption(), uriInfo, edm);
+    entities = new ArrayList<Entity>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      final int value = (i * 7919) % SIZE;
+      entities.add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (value % 100)))
+          .addProperty(new Property(null, "PropertyInt32", ValueType.PRIMITIVE, value))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test " + value)));
+    }
+  }
+
+  @Benchmark
+  public List<Entity> comparator() {
+    final List<Entity> sorted = new ArrayList<Entity>(entities);
+    Collections.sort(sorted, new Comparator<Entity>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public int compare(final Entity e1, final Entity e2) {
+        int result = 0;
+        for (int i = 0; i < plan.getOrderByCount() && result == 0; i++) {
+          try {
+            final Object o1 = plan.getOrderByExpression(i).evaluate(e1).asTypedOperand().getValue();
+            final Object o2 = plan.getOrderByExpression(i).evaluate(e2).asTypedOperand().getValue();
+            result = ((Comparable<Object>) o1).compareTo(o2);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          result = plan.isDescending(i) ? result * -1 : result;
+        }
+        return result;
+      }
+    });
+    return sorted;
+  }
+
+  @Benchmark
+  public List<Entity> sortKeys() throws Exception {
+    final EntityCollection collection = new EntityCollection();
+    collection.getEntities().addAll(entities);
+    OrderByHandler.applyOrderByOption(plan, collection);
+    return collection.getEntities();
+  }
+
+  @Benchmark
+  public List<Entity> topSortKeys() throws Exception {
+    final EntityCollection collection = new EntityCollection();
+    collection.getEntities().addAll(entities);
+    OrderByHandler.applyOrderByOption(plan, collection);
+    return collection.getEntities().subList(0, TOP);
+  }
+
+  @Benchmark
+  public List<Entity> topHeap() throws Exception {
+    final EntityCollection collection = new EntityCollection();
+    collection.getEntities().addAll(entities);
+    OrderByHandler.applyOrderByOption(plan, collection, TOP);
+    return collection.getEntities();
+  }
+}
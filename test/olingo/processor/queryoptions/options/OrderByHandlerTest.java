@@ -0,0 +1,132 @@
+package olingo.processor.queryoptions.options;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import olingo.data.DataProvider;
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.processor.queryoptions.expression.ExpressionVisitorImpl;
+import olingo.processor.queryoptions.expression.operand.TypedOperand;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that sorting by the compiled <code>$orderby</code> expressions (with sort keys, and with the bounded heap
+ * for the first entities) gives the same order as comparing the visited expressions, as the handler did before.
+ */
+public class OrderByHandlerTest {
+
+  private static OData odata;
+  private static Edm edm;
+  private static DataProvider dataProvider;
+
+  @BeforeClass
+  public static void setup() {
+    odata = OData.newInstance();
+    edm = odata.createServiceMetadata(new EdmTechProvider(), Collections.<EdmxReference> emptyList()).getEdm();
+    dataProvider = new DataProvider(odata, edm);
+  }
+
+  @Test
+  public void initialData() throws Exception {
+    for (final String entitySet : Arrays.asList("ESAllPrim", "ESAllNullable")) {
+      final List<Entity> entities = dataProvider.readAll(edm.getEntityContainer().getEntitySet(entitySet))
+          .getEntities();
+      assertSameOrder(entitySet, entities, "PropertyInt16");
+      assertSameOrder(entitySet, entities, "PropertyInt16 desc");
+      assertSameOrder(entitySet, entities, "PropertyString");
+      assertSameOrder(entitySet, entities, "PropertyBoolean,PropertyInt32 desc");
+      assertSameOrder(entitySet, entities, "PropertyDecimal,PropertyDouble");
+      assertSameOrder(entitySet, entities, "PropertyDate desc,PropertyTimeOfDay");
+      assertSameOrder(entitySet, entities, "PropertyInt16 add 1");
+      assertSameOrder(entitySet, entities, "length(PropertyString) desc");
+    }
+  }
+
+  @Test
+  public void duplicatesAndNulls() throws Exception {
+    final List<Entity> entities = new ArrayList<Entity>();
+    for (int i = 0; i < 500; i++) {
+      final int value = (i * 7919) % 500;
+      entities.add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (value % 7)))
+          .addProperty(new Property(null, "PropertyInt32", ValueType.PRIMITIVE, value % 3 == 0 ? null : value))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE,
+              value % 11 == 0 ? null : "Test " + value % 13)));
+    }
+    assertSameOrder("ESAllPrim", entities, "PropertyInt16");
+    assertSameOrder("ESAllPrim", entities, "PropertyInt32 desc");
+    assertSameOrder("ESAllPrim", entities, "PropertyString,PropertyInt16 desc");
+    assertSameOrder("ESAllPrim", entities, "PropertyInt16 desc,PropertyString desc,PropertyInt32");
+  }
+
+  private void assertSameOrder(final String entitySetName, final List<Entity> entities, final String orderBy)
+      throws Exception {
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri(entitySetName, "$orderby=" + orderBy, null);
+    final List<Entity> expected = visitorSort(entities, uriInfo);
+
+    final QueryPlan plan = QueryPlan.compile(null, uriInfo.getOrderByOption(), uriInfo, edm);
+    final EntityCollection sorted = new EntityCollection();
+    sorted.getEntities().addAll(entities);
+    OrderByHandler.applyOrderByOption(plan, sorted);
+    assertEquals(orderBy, expected, sorted.getEntities());
+
+    for (final int limit : new int[] { 1, 3, entities.size() - 1 }) {
+      final EntityCollection first = new EntityCollection();
+      first.getEntities().addAll(entities);
+      OrderByHandler.applyOrderByOption(plan, first, limit);
+      assertEquals(orderBy + " first " + limit,
+          expected.subList(0, Math.min(limit, expected.size())), first.getEntities());
+    }
+  }
+
+  /** Sorts as the handler did before the expressions were compiled. */
+  private List<Entity> visitorSort(final List<Entity> entities, final UriInfo uriInfo) {
+    final List<OrderByItem> items = uriInfo.getOrderByOption().getOrders();
+    final List<Entity> sorted = new ArrayList<Entity>(entities);
+    Collections.sort(sorted, new Comparator<Entity>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public int compare(final Entity e1, final Entity e2) {
+        int result = 0;
+        for (int i = 0; i < items.size() && result == 0; i++) {
+          try {
+            final TypedOperand op1 = items.get(i).getExpression()
+                .accept(new ExpressionVisitorImpl(e1, uriInfo, edm)).asTypedOperand();
+            final TypedOperand op2 = items.get(i).getExpression()
+                .accept(new ExpressionVisitorImpl(e2, uriInfo, edm)).asTypedOperand();
+            if (op1.isNull() || op2.isNull()) {
+              result = op1.isNull() && op2.isNull() ? 0 : op1.isNull() ? -1 : 1;
+            } else {
+              final Object o1 = op1.getValue();
+              final Object o2 = op2.getValue();
+              result = o1.getClass() == o2.getClass() && o1 instanceof Comparable ?
+                  ((Comparable<Object>) o1).compareTo(o2) : 0;
+            }
+            result = items.get(i).isDescending() ? result * -1 : result;
+          } catch (final Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        return result;
+      }
+    });
+    return sorted;
+  }
+}
@@ -0,0 +1,87 @@
+package olingo.processor.queryoptions.options;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import olingo.processor.queryoptions.QueryPlan;
+import olingo.provider.EdmTechProvider;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.Edm;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the sequential evaluation of <code>$search</code> and <code>$filter</code> against the parallel
+ * evaluation with the given number of threads (the throughput can only scale up to the number of cores).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParallelFilterBenchmark {
+
+  private static final int SIZE = 200000;
+
+  @Param({ "1", "2", "4", "8" })
+  public int parallelism;
+
+  private final EntityMatcher matcher = new EntityMatcher();
+  private ForkJoinPool pool;
+  private List<Entity> entities;
+  private List<EntityCondition> conditions;
+
+  @Setup
+  public void setup() throws Exception {
+    final OData odata = OData.newInstance();
+    final Edm edm = odata.createServiceMetadata(new EdmTechProvider(),
+        Collections.<EdmxReference> emptyList()).getEdm();
+    final UriInfo uriInfo = new Parser(edm, odata).parseUri("ESAllPrim",
+        "$search=Test&$filter=PropertyInt16 add 1 gt 100 and endswith(PropertyString,'7')", null);
+    conditions = new ArrayList<EntityCondition>();
+    conditions.add(SearchHandler.getSearchCondition(uriInfo.getSearchOption()));
+    conditions.add(FilterHandler.getFilterCondition(QueryPlan.compile(uriInfo.getFilterOption(), null, uriInfo, edm)));
+    entities = new ArrayList<Entity>(SIZE);
+    for (int i = 0; i < SIZE; i++) {
+      entities.add(new Entity()
+          .addProperty(new Property(null, "PropertyInt16", ValueType.PRIMITIVE, (short) (i % 1000)))
+          .addProperty(new Property(null, "PropertyString", ValueType.PRIMITIVE, "Test " + i)));
+    }
+    pool = new ForkJoinPool(parallelism);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public List<Entity> sequential() throws Exception {
+    final List<Entity> target = new ArrayList<Entity>();
+    // With a limit the entities are always evaluated sequentially.
+    matcher.collect(entities, target, SIZE,
+        conditions.toArray(new EntityCondition[conditions.size()]));
+    return target;
+  }
+
+  @Benchmark
+  public List<Entity> parallel() throws Exception {
+    final List<Entity> target = new ArrayList<Entity>();
+    EntityMatcher.collectParallel(entities, target, conditions, pool);
+    return target;
+  }
+}
@@ -0,0 +1,65 @@
+package olingo.processor.queryoptions.options;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares removing the skipped entities one by one (and then the ones beyond <code>$top</code>)
+ * against narrowing an {@link EntityRange}, for 100000 entities and large skip values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SkipTopBenchmark {
+
+  private static final int SIZE = 100000;
+  private static final int TOP = 10;
+
+  @Param({ "1000", "50000", "99000" })
+  public int skip;
+
+  private EntityCollection entitySet;
+
+  @Setup
+  public void setup() {
+    entitySet = new EntityCollection();
+    for (int i = 0; i < SIZE; i++) {
+      entitySet.getEntities().add(new Entity());
+    }
+  }
+
+  @Benchmark
+  public List<Entity> removal() {
+    final List<Entity> entities = new ArrayList<Entity>(entitySet.getEntities());
+    final Iterator<Entity> iterator = entities.iterator();
+    for (int i = 0; iterator.hasNext() && i < skip; i++) {
+      iterator.next();
+      iterator.remove();
+    }
+    while (entities.size() > TOP) {
+      entities.remove(entities.size() - 1);
+    }
+    return entities;
+  }
+
+  @Benchmark
+  public List<Entity> range() {
+    final EntityRange range = new EntityRange(entitySet);
+    range.skip(skip);
+    range.limit(TOP);
+    return range.getEntities();
+  }
+}